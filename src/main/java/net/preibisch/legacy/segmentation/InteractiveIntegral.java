@@ -53,6 +53,8 @@ import net.preibisch.legacy.registration.detection.DetectionSegmentation;
 import net.preibisch.mvrecon.process.deconvolution.DeconViews;
 import net.preibisch.mvrecon.process.fusion.FusionTools;
 import net.preibisch.mvrecon.process.fusion.ImagePortion;
+import net.preibisch.mvrecon.process.interestpointdetection.PeakBuffer;
+import net.preibisch.mvrecon.process.interestpointdetection.SlicePeakFinder;
 
 import fiji.tool.SliceListener;
 import fiji.tool.SliceObserver;
@@ -387,6 +389,20 @@ public class InteractiveIntegral implements PlugIn
 	
 	public static ArrayList<SimplePeak> findPeaks( final Image<FloatType> laPlace, final float minValue )
 	{
+		// 3d images are processed plane by plane from float[] buffers
+		if ( laPlace.getNumDimensions() == 3 && laPlace.getDimension( 0 ) * 3 <= SlicePeakFinder.maxBandSize )
+		{
+			final ExecutorService taskExecutor = DeconViews.createExecutorService();
+
+			final PeakBuffer peaks = SlicePeakFinder.findPeaks(
+					laPlace.getDimension( 0 ), laPlace.getDimension( 1 ), laPlace.getDimension( 2 ),
+					reader( laPlace ), null, new long[ 3 ], minValue, null, true, true, -1, taskExecutor );
+
+			taskExecutor.shutdown();
+
+			return peaks.toSimplePeaks();
+		}
+
 		long numPixels = 1;
 
 		for ( int d = 0; d < laPlace.getNumDimensions(); ++d )
@@ -476,6 +492,35 @@ MainLoop:           for ( int l = 0; l < portion.getLoopSize(); ++l )
 		return dogPeaks;
 	}
 
+	protected static SlicePeakFinder.PlaneReader reader( final Image<FloatType> img )
+	{
+		final int width = img.getDimension( 0 );
+
+		return ( z, y, numRows, target ) ->
+		{
+			final LocalizableByDimCursor<FloatType> cursor = img.createLocalizableByDimCursor();
+			final int[] position = new int[ 3 ];
+
+			position[ 2 ] = z;
+
+			for ( int r = 0, i = 0; r < numRows; ++r )
+			{
+				position[ 1 ] = y + r;
+				cursor.setPosition( position );
+
+				for ( int x = 0; x < width; ++x )
+				{
+					target[ i++ ] = cursor.getType().get();
+
+					if ( x < width - 1 )
+						cursor.fwd( 0 );
+				}
+			}
+
+			cursor.close();
+		};
+	}
+
 	final protected static SpecialPoint isSpecialPoint( final LocalNeighborhoodCursor<FloatType> neighborhoodCursor, final float centerValue )
 	{
 		boolean isMin = true;
@@ -44,7 +44,9 @@ import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
 import net.preibisch.mvrecon.fiji.spimdata.explorer.ExplorerWindow;
 import net.preibisch.mvrecon.fiji.spimdata.imgloaders.AbstractImgLoader;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList.StorageFormat;
 import net.preibisch.mvrecon.process.interestpointdetection.InterestPointTools;
+import net.preibisch.mvrecon.process.interestpointdetection.OverlapRegions;
 
 import mpicbg.spim.data.sequence.TimePoint;
 import mpicbg.spim.data.sequence.ViewId;
@@ -65,7 +67,10 @@ public class Interest_Point_Detection implements PlugIn
 	public static boolean defaultDefineAnisotropy = false;
 	public static boolean defaultSetMinMax = false;
 	public static boolean defaultLimitDetections = false;
+	public static boolean defaultOnlyOverlappingRegions = false;
 	public static String defaultLabel = "beads";
+	public static int defaultStorageFormat = 0;
+	public static String[] storageFormatChoice = new String[] { "Text (.ip.txt)", "Binary (.ip.bin, faster to load and save)" };
 
 	public static boolean defaultGroupTiles = true;
 	public static boolean defaultGroupIllums = true;
@@ -145,10 +150,12 @@ public class Interest_Point_Detection implements PlugIn
 		
 		gd.addChoice( "Type_of_interest_point_detection", descriptions, descriptions[ defaultAlgorithm ] );
 		gd.addStringField( "Label_interest_points", defaultLabel );
+		gd.addChoice( "Interest_point_file_format", storageFormatChoice, storageFormatChoice[ defaultStorageFormat ] );
 
 		gd.addCheckbox( "Define_anisotropy for segmentation", defaultDefineAnisotropy );
 		gd.addCheckbox( "Set_minimal_and_maximal_intensity", defaultSetMinMax );
 		gd.addCheckbox( "Limit_amount_of_detections" , defaultLimitDetections );
+		gd.addCheckbox( "Detect_only_in_overlapping_regions", defaultOnlyOverlappingRegions );
 
 		gd.addMessage( "" );
 
@@ -186,9 +193,11 @@ public class Interest_Point_Detection implements PlugIn
 
 		// how are the detections called (e.g. beads, nuclei, ...)
 		final String label = defaultLabel = gd.getNextString();
+		final StorageFormat storageFormat = StorageFormat.values()[ defaultStorageFormat = gd.getNextChoiceIndex() ];
 		final boolean defineAnisotropy = defaultDefineAnisotropy = gd.getNextBoolean();
 		final boolean setMinMax = defaultSetMinMax = gd.getNextBoolean();
 		final boolean limitDetections = defaultLimitDetections = gd.getNextBoolean();
+		final boolean onlyOverlappingRegions = defaultOnlyOverlappingRegions = gd.getNextBoolean();
 
 		boolean groupTiles = false;
 		if ( tiles.size() > 1 )
@@ -206,6 +215,19 @@ public class Interest_Point_Detection implements PlugIn
 		if ( !ipd.queryParameters( defineAnisotropy, setMinMax, limitDetections, groupTiles, groupIllums ) )
 			return false;
 
+		if ( onlyOverlappingRegions )
+		{
+			if ( groupTiles || groupIllums )
+			{
+				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Detecting only in overlapping regions is not supported for grouped views, detecting in the entire images." );
+			}
+			else
+			{
+				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Computing overlapping regions using the current registrations ... " );
+				ipd.setOverlapRegions( OverlapRegions.computeOverlapRegions( data, viewIds ) );
+			}
+		}
+
 		// if grouped, we need to get the min/max intensity for all groups
 		ipd.preprocess();
 
@@ -214,7 +236,7 @@ public class Interest_Point_Detection implements PlugIn
 		{
 			final HashMap< ViewId, List< InterestPoint > > points = ipd.findInterestPoints( tp );
 
-			InterestPointTools.addInterestPoints( data, label, points, ipd.getParameters() );
+			InterestPointTools.addInterestPoints( data, label, points, ipd.getParameters(), storageFormat );
 
 			// update metadata if necessary
 			if ( data.getSequenceDescription().getImgLoader() instanceof AbstractImgLoader )
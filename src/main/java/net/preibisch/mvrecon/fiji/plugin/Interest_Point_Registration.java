@@ -42,6 +42,7 @@ import mpicbg.models.RigidModel3D;
 import mpicbg.models.Tile;
 import mpicbg.models.TranslationModel3D;
 import mpicbg.spim.data.registration.ViewRegistration;
+import mpicbg.spim.data.registration.ViewTransform;
 import mpicbg.spim.data.sequence.SequenceDescription;
 import mpicbg.spim.data.sequence.TimePoint;
 import mpicbg.spim.data.sequence.TimePoints;
@@ -69,7 +70,6 @@ import net.preibisch.mvrecon.fiji.plugin.interestpointregistration.statistics.Ti
 import net.preibisch.mvrecon.fiji.plugin.queryXML.LoadParseQueryXML;
 import net.preibisch.mvrecon.fiji.plugin.util.GUIHelper;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
-import net.preibisch.mvrecon.fiji.spimdata.interestpoints.CorrespondingInterestPoints;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPointLists;
@@ -79,6 +79,8 @@ import net.preibisch.mvrecon.process.interestpointregistration.global.GlobalOpt;
 import net.preibisch.mvrecon.process.interestpointregistration.global.convergence.ConvergenceStrategy;
 import net.preibisch.mvrecon.process.interestpointregistration.global.pointmatchcreating.PointMatchCreator;
 import net.preibisch.mvrecon.process.interestpointregistration.global.pointmatchcreating.strong.InterestPointMatchCreator;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.CorrespondenceBuffer;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.DescriptorStore;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.MatcherPairwiseTools;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.PairwiseResult;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.PairwiseSetup;
@@ -123,6 +125,10 @@ public class Interest_Point_Registration implements PlugIn
 	public static int defaultFixViews = 0;
 	public static int defaultMapBack = 0;
 	public static boolean defaultShowStatistics = true;
+	public static boolean defaultIncremental = false;
+	public static int defaultIncrementalNeighborhood = 1;
+	public static int defaultSolver = ConvergenceStrategy.defaultSolver.ordinal();
+	public static boolean defaultStoreDescriptors = false;
 
 	// fix and map back dialog
 	public static boolean defaultSameFixedViews = true;
@@ -243,7 +249,11 @@ public class Interest_Point_Registration implements PlugIn
 				data.getViewRegistrations().getViewRegistrations(),
 				data.getViewInterestPoints().getViewInterestPoints(),
 				brp.labelMap,
-				arp.showStatistics ) )
+				arp.showStatistics,
+				arp.incremental,
+				arp.incrementalNeighborhood,
+				arp.solver,
+				arp.storeDescriptors ) )
 			return false;
 
 		// save the XML including transforms and correspondences
@@ -273,6 +283,32 @@ public class Interest_Point_Registration implements PlugIn
 			final Map< ViewId, ViewInterestPointLists > interestpointLists,
 			final Map< ViewId, String > labelMap,
 			final boolean collectStatistics )
+	{
+		return processRegistration( setup, pairwiseMatching, groupingType, interestPointMergeDistance, viewsToFix, mapBackModel, mapBackViews, registrations, interestpointLists, labelMap, collectStatistics, false, 0, ConvergenceStrategy.defaultSolver, false );
+	}
+
+	/*
+	 * incremental: only optimize the views (and their neighborhood) that were not registered with the same transformation model before,
+	 * see GlobalOpt.computeIncremental(); incrementalNeighborhood: how many links away from new views views are still optimized;
+	 * solver: which solver the global optimization uses; storeDescriptors: store the descriptor neighborhoods next to the
+	 * interest points and reuse them in later runs, see DescriptorStore
+	 */
+	public boolean processRegistration(
+			final PairwiseSetup< ViewId > setup,
+			final PairwiseGUI pairwiseMatching,
+			final InterestpointGroupingType groupingType,
+			final double interestPointMergeDistance,
+			final Set< ViewId > viewsToFix,
+			final Model< ? > mapBackModel,
+			final Map< Subset< ViewId >, Pair< ViewId, Dimensions > > mapBackViews,
+			final Map< ViewId, ViewRegistration > registrations,
+			final Map< ViewId, ViewInterestPointLists > interestpointLists,
+			final Map< ViewId, String > labelMap,
+			final boolean collectStatistics,
+			final boolean incremental,
+			final int incrementalNeighborhood,
+			final ConvergenceStrategy.Solver solver,
+			final boolean storeDescriptors )
 	{
 		final List< ViewId > viewIds = setup.getViews();
 		final ArrayList< Subset< ViewId > > subsets = setup.getSubsets();
@@ -285,10 +321,17 @@ public class Interest_Point_Registration implements PlugIn
 					interestpointLists,
 					labelMap );
 
+		// the descriptor neighborhoods of these points are stored next to the interest points and reused by the next run
+		if ( storeDescriptors )
+			DescriptorStore.register( interestpoints, interestpointLists, labelMap, registrations );
+
 		// statistics?
 		if ( collectStatistics )
 			this.statistics = new ArrayList<>();
 
+		// correspondences of all subsets are collected and set once per view at the end
+		final CorrespondenceBuffer< ViewId > correspondences = new CorrespondenceBuffer<>();
+
 		for ( final Subset< ViewId > subset : subsets )
 		{
 			// fix view(s)
@@ -299,6 +342,10 @@ public class Interest_Point_Registration implements PlugIn
 
 			HashMap< ViewId, Tile< ? extends AbstractModel< ? > > > models;
 
+			// views whose registration already contains a solution of this model (from a previous run), only used for incremental optimization
+			final List< ViewId > registeredViews = incremental ? registeredViews( subset.getViews(), registrations, pairwiseMatching.getMatchingModel().getDescription() ) : null;
+			final HashSet< ViewId > optimizedViews = new HashSet<>();
+
 			if ( groupingType == InterestpointGroupingType.DO_NOT_GROUP )
 			{
 				// get all pairs to be compared (either that XOR grouped pairs)
@@ -312,7 +359,7 @@ public class Interest_Point_Registration implements PlugIn
 						MatcherPairwiseTools.computePairs( pairs, interestpoints, pairwiseMatching.pairwiseMatchingInstance() );
 
 				// clear correspondences
-				MatcherPairwiseTools.clearCorrespondences( subset.getViews(), interestpointLists, labelMap );
+				correspondences.clear( subset.getViews() );
 
 				// add the corresponding detections and output result
 				for ( final Pair< Pair< ViewId, ViewId >, PairwiseResult< InterestPoint > > p : result )
@@ -320,10 +367,7 @@ public class Interest_Point_Registration implements PlugIn
 					final ViewId vA = p.getA().getA();
 					final ViewId vB = p.getA().getB();
 
-					final InterestPointList listA = interestpointLists.get( vA ).getInterestPointList( labelMap.get( vA ) );
-					final InterestPointList listB = interestpointLists.get( vB ).getInterestPointList( labelMap.get( vB ) );
-
-					MatcherPairwiseTools.addCorrespondences( p.getB().getInliers(), vA, vB, labelMap.get( vA ), labelMap.get( vB ), listA, listB );
+					correspondences.add( p.getB().getInliers(), vA, vB, labelMap.get( vA ), labelMap.get( vB ) );
 
 					if ( collectStatistics )
 						statistics.add( p );
@@ -331,9 +375,13 @@ public class Interest_Point_Registration implements PlugIn
 
 				// run global optimization
 				final ConvergenceStrategy cs = new ConvergenceStrategy( pairwiseMatching.globalOptError() );
+				cs.setSolver( solver );
 				final PointMatchCreator pmc = new InterestPointMatchCreator( result );
 
-				models = (HashMap< ViewId, Tile< ? extends AbstractModel< ? > > >)(Object)GlobalOpt.compute( pairwiseMatching.getMatchingModel().getModel(), pmc, cs, fixedViews, subset.getGroups() );
+				if ( incremental )
+					models = (HashMap< ViewId, Tile< ? extends AbstractModel< ? > > >)(Object)GlobalOpt.computeIncremental( pairwiseMatching.getMatchingModel().getModel(), pmc, cs, fixedViews, subset.getGroups(), registeredViews, incrementalNeighborhood, optimizedViews );
+				else
+					models = (HashMap< ViewId, Tile< ? extends AbstractModel< ? > > >)(Object)GlobalOpt.compute( pairwiseMatching.getMatchingModel().getModel(), pmc, cs, fixedViews, subset.getGroups() );
 			}
 			else
 			{
@@ -375,12 +423,12 @@ public class Interest_Point_Registration implements PlugIn
 				final List< Pair< Pair< Group< ViewId >, Group< ViewId > >, PairwiseResult< GroupedInterestPoint< ViewId > > > > resultGroup =
 						MatcherPairwiseTools.computePairs( groupedPairs, groupedInterestpoints, pairwiseMatching.pairwiseGroupedMatchingInstance() );
 
-				// clear correspondences and get a map linking ViewIds to the correspondence lists
-				final Map< ViewId, List< CorrespondingInterestPoints > > cMap = MatcherPairwiseTools.clearCorrespondences( subset.getViews(), interestpointLists, labelMap );
+				// clear correspondences
+				correspondences.clear( subset.getViews() );
 
 				// add the corresponding detections and transform HashMap< Pair< Group < V >, Group< V > >, PairwiseResult > to HashMap< Pair< V, V >, PairwiseResult >
 				final List< Pair< Pair< ViewId, ViewId >, PairwiseResult< GroupedInterestPoint< ViewId > > > > resultTransformed =
-						MatcherPairwiseTools.addCorrespondencesFromGroups( resultGroup, interestpointLists, labelMap, cMap );
+						MatcherPairwiseTools.addCorrespondencesFromGroups( resultGroup, labelMap, correspondences );
 
 				if ( collectStatistics )
 					for ( final Pair< Pair< ViewId, ViewId >, PairwiseResult< GroupedInterestPoint< ViewId > > > p : resultTransformed )
@@ -391,9 +439,13 @@ public class Interest_Point_Registration implements PlugIn
 
 				// run global optimization
 				final ConvergenceStrategy cs = new ConvergenceStrategy( pairwiseMatching.globalOptError() );
+				cs.setSolver( solver );
 				final PointMatchCreator pmc = new InterestPointMatchCreator( resultTransformed );
 
-				models = (HashMap< ViewId, Tile< ? extends AbstractModel< ? > > >)(Object)GlobalOpt.compute( pairwiseMatching.getMatchingModel().getModel(), pmc, cs, fixedViews, groups );
+				if ( incremental )
+					models = (HashMap< ViewId, Tile< ? extends AbstractModel< ? > > >)(Object)GlobalOpt.computeIncremental( pairwiseMatching.getMatchingModel().getModel(), pmc, cs, fixedViews, groups, registeredViews, incrementalNeighborhood, optimizedViews );
+				else
+					models = (HashMap< ViewId, Tile< ? extends AbstractModel< ? > > >)(Object)GlobalOpt.compute( pairwiseMatching.getMatchingModel().getModel(), pmc, cs, fixedViews, groups );
 			}
 
 			AffineTransform3D mapBack = null;
@@ -426,6 +478,10 @@ public class Interest_Point_Registration implements PlugIn
 			// pre-concatenate models to spimdata2 viewregistrations (from SpimData(2))
 			for ( final ViewId viewId : subset.getViews() )
 			{
+				// views that kept their previous solution in an incremental run do not get another (identity) transformation
+				if ( incremental && !optimizedViews.contains( viewId ) )
+					continue;
+
 				final Tile< ? extends AbstractModel< ? > > tile = models.get( viewId );
 				final ViewRegistration vr = registrations.get( viewId );
 
@@ -433,11 +489,50 @@ public class Interest_Point_Registration implements PlugIn
 			}
 		}
 
+		final Map< ViewId, InterestPointList > lists = new HashMap<>();
+
+		for ( final ViewId viewId : viewIds )
+			lists.put( viewId, interestpointLists.get( viewId ).getInterestPointList( labelMap.get( viewId ) ) );
+
+		final long buffered = correspondences.size();
+		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Stored " + correspondences.flush( lists ) + " correspondences (" + buffered + " before removing duplicates)." );
+
+		if ( storeDescriptors )
+			DescriptorStore.unregister( interestpoints );
+
 		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): DONE." );
 
 		return true;
 	}
 
+	/**
+	 * @param views - the views
+	 * @param registrations - the current registrations
+	 * @param modelDescription - the name of the transformation a registration with this model stores (see TransformationTools.storeTransformation)
+	 * @return all views whose registration contains a transformation with this name
+	 */
+	public static List< ViewId > registeredViews( final Collection< ? extends ViewId > views, final Map< ViewId, ViewRegistration > registrations, final String modelDescription )
+	{
+		final ArrayList< ViewId > registered = new ArrayList<>();
+
+		for ( final ViewId viewId : views )
+		{
+			final ViewRegistration vr = registrations.get( viewId );
+
+			if ( vr == null )
+				continue;
+
+			for ( final ViewTransform vt : vr.getTransformList() )
+				if ( modelDescription.equals( vt.getName() ) )
+				{
+					registered.add( viewId );
+					break;
+				}
+		}
+
+		return registered;
+	}
+
 	public ArrayList< ViewId > filterRemainingViewIds( final List< ViewId > viewIds, final Map< ViewId, String > labelMap, final Map< ViewId, ViewInterestPointLists > interestpointLists )
 	{
 		final ArrayList< ViewId > keep = new ArrayList<>();
@@ -497,6 +592,13 @@ public class Interest_Point_Registration implements PlugIn
 			gd.addSlider( "Range for all-to-all timepoint matching", 2, 10, defaultRange );
 		}
 
+		// growing time series: only optimize the views that were not registered before
+		if ( brp.registrationType == RegistrationType.TO_REFERENCE_TIMEPOINT || brp.registrationType == RegistrationType.ALL_TO_ALL_WITH_RANGE )
+		{
+			gd.addCheckbox( "Incremental_global_optimization (only views not registered with this model before)", defaultIncremental );
+			gd.addSlider( "Incremental_neighborhood (links from new views that are optimized as well)", 0, 5, defaultIncrementalNeighborhood );
+		}
+
 		// for all registrations that include multiple timepointss
 		if ( brp.registrationType != RegistrationType.TIMEPOINTS_INDIVIDUALLY )
 		{
@@ -514,6 +616,9 @@ public class Interest_Point_Registration implements PlugIn
 			gd.addChoice( "Map_back_views", FixMapBackParameters.mapBackChoice, FixMapBackParameters.mapBackChoice[ defaultMapBack ] );
 		}
 
+		gd.addChoice( "Global_optimization", ConvergenceStrategy.solverChoice, ConvergenceStrategy.solverChoice[ defaultSolver ] );
+		gd.addCheckbox( "Store_descriptor_neighborhoods (reused by later registrations of the same interest points)", defaultStoreDescriptors );
+
 		gd.addMessage( "" );
 		gd.addMessage( "Algorithm parameters [" + brp.pwr.getDescription() + "]", new Font( Font.SANS_SERIF, Font.BOLD, 12 ) );
 		gd.addMessage( "" );
@@ -558,6 +663,16 @@ public class Interest_Point_Registration implements PlugIn
 		if ( brp.registrationType == RegistrationType.ALL_TO_ALL_WITH_RANGE )
 			arp.range = defaultRange = (int)Math.round( gd.getNextNumber() );
 
+		if ( brp.registrationType == RegistrationType.TO_REFERENCE_TIMEPOINT || brp.registrationType == RegistrationType.ALL_TO_ALL_WITH_RANGE )
+		{
+			arp.incremental = defaultIncremental = gd.getNextBoolean();
+			arp.incrementalNeighborhood = defaultIncrementalNeighborhood = Math.max( 0, (int)Math.round( gd.getNextNumber() ) );
+		}
+		else
+		{
+			arp.incremental = false;
+		}
+
 		if ( brp.registrationType != RegistrationType.TIMEPOINTS_INDIVIDUALLY )
 			arp.groupTimePoints = defaultGroupTimePoints = gd.getNextBoolean();
 		else
@@ -573,6 +688,9 @@ public class Interest_Point_Registration implements PlugIn
 			arp.fixViewsIndex = arp.mapBackIndex = -1;
 		}
 
+		arp.solver = ConvergenceStrategy.Solver.values()[ defaultSolver = gd.getNextChoiceIndex() ];
+		arp.storeDescriptors = defaultStoreDescriptors = gd.getNextBoolean();
+
 		if ( !brp.pwr.parseDialog( gd ) )
 			return null;
 
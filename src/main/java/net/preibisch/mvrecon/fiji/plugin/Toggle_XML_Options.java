@@ -0,0 +1,50 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.plugin;
+
+import ij.gui.GenericDialog;
+import ij.plugin.PlugIn;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.fiji.spimdata.XmlIoPartitionedViewRegistrations;
+import net.preibisch.mvrecon.fiji.spimdata.XmlIoSpimData2;
+
+public class Toggle_XML_Options implements PlugIn
+{
+	@Override
+	public void run( String arg0 )
+	{
+		final GenericDialog gd = new GenericDialog( "Toggle XML Options" );
+		gd.addCheckbox( "Save_registrations_per_timepoint (only changed timepoints are rewritten, not readable by older versions)", XmlIoPartitionedViewRegistrations.partitionByDefault );
+		gd.addCheckbox( "Use_streaming_XML_parser (faster loading of large XMLs)", XmlIoSpimData2.useStreamingParser );
+		gd.showDialog();
+
+		if ( gd.wasCanceled() )
+			return;
+
+		XmlIoPartitionedViewRegistrations.partitionByDefault = gd.getNextBoolean();
+		XmlIoSpimData2.useStreamingParser = gd.getNextBoolean();
+
+		IOFunctions.println( "Save registrations per timepoint: " + ( XmlIoPartitionedViewRegistrations.partitionByDefault ? "ON" : "OFF" ) );
+		IOFunctions.println( "Streaming XML parser: " + ( XmlIoSpimData2.useStreamingParser ? "ON" : "OFF" ) );
+	}
+}
@@ -22,7 +22,6 @@
  */
 package net.preibisch.mvrecon.fiji.plugin;
 
-import java.util.HashMap;
 import java.util.List;
 
 import ij.ImageJ;
@@ -44,8 +43,8 @@ import net.preibisch.mvrecon.fiji.plugin.queryXML.LoadParseQueryXML;
 import net.preibisch.mvrecon.fiji.plugin.util.GUIHelper;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.CorrespondingInterestPoints;
-import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointsView;
 import net.preibisch.mvrecon.process.export.DisplayImage;
 import net.preibisch.mvrecon.process.interestpointdetection.InterestPointTools;
 
@@ -200,27 +199,27 @@ public class Visualize_Detections implements PlugIn
 			final double downsample )
 	{
 		final InterestPointList ipl = data.getViewInterestPoints().getViewInterestPointLists( viewId ).getInterestPointList( label );
-		final List< InterestPoint > list = ipl.getInterestPointsCopy();
+		final InterestPointsView list = ipl.getInterestPointsView();
 
 		if ( interval == null )
 		{
-			final int n = list.get( 0 ).getL().length;
+			final int n = list.numDimensions();
 
 			final long[] min = new long[ n ];
 			final long[] max = new long[ n ];
 
 			for ( int d = 0; d < n; ++d )
 			{
-				min[ d ] = Math.round( list.get( 0 ).getL()[ d ] ) - 1;
-				max[ d ] = Math.round( list.get( 0 ).getL()[ d ] ) + 1;
+				min[ d ] = Math.round( list.getDoublePosition( 0, d ) ) - 1;
+				max[ d ] = Math.round( list.getDoublePosition( 0, d ) ) + 1;
 			}
 
-			for ( final InterestPoint ip : list )
+			for ( int i = 0; i < list.size(); ++i )
 			{
 				for ( int d = 0; d < n; ++d )
 				{
-					min[ d ] = Math.min( min[ d ], Math.round( ip.getL()[ d ] ) - 1 );
-					max[ d ] = Math.max( max[ d ], Math.round( ip.getL()[ d ] ) + 1 );
+					min[ d ] = Math.min( min[ d ], Math.round( list.getDoublePosition( i, d ) ) - 1 );
+					max[ d ] = Math.max( max[ d ], Math.round( list.getDoublePosition( i, d ) ) + 1 );
 				}
 			}
 			
@@ -249,10 +248,10 @@ public class Visualize_Detections implements PlugIn
 		{
 			IOFunctions.println( "Visualizing " + list.size() + " detections." );
 			
-			for ( final InterestPoint ip : list )
+			for ( int i = 0; i < list.size(); ++i )
 			{
 				for ( int d = 0; d < n; ++d )
-					tmp[ d ] = Math.round( ip.getL()[ d ] / downsample );
+					tmp[ d ] = Math.round( list.getDoublePosition( i, d ) / downsample );
 	
 				r.setPosition( tmp );
 				r.get().set( 65535 );
@@ -260,11 +259,6 @@ public class Visualize_Detections implements PlugIn
 		}
 		else
 		{
-			final HashMap< Integer, InterestPoint > map = new HashMap< Integer, InterestPoint >();
-
-			for ( final InterestPoint ip : list )
-				map.put( ip.getId(), ip );
-
 			final List< CorrespondingInterestPoints > cList = ipl.getCorrespondingInterestPointsCopy();
 
 			if ( cList.size() == 0 )
@@ -277,8 +271,10 @@ public class Visualize_Detections implements PlugIn
 
 			for ( final CorrespondingInterestPoints ip : cList )
 			{
+				final int index = list.indexOf( ip.getDetectionId() );
+
 				for ( int d = 0; d < n; ++d )
-					tmp[ d ] = Math.round( map.get( ip.getDetectionId() ).getL()[ d ] / downsample );
+					tmp[ d ] = Math.round( list.getDoublePosition( index, d ) / downsample );
 	
 				r.setPosition( tmp );
 				r.get().set( 65535 );
@@ -98,7 +98,10 @@ public abstract class DifferenceOfGUI extends InterestPointDetectionGUI
 	public static int defaultMaxDetections = 3000;
 	public static int defaultMaxDetectionsTypeIndex = 0;
 
+	public static boolean defaultAdaptiveThreshold = false;
+
 	protected boolean limitDetections = false;
+	protected boolean adaptiveThreshold = false;
 	protected double imageSigmaX, imageSigmaY, imageSigmaZ;
 	protected double minIntensity, maxIntensity;
 	protected int maxDetections, maxDetectionsTypeIndex;
@@ -219,6 +222,8 @@ public abstract class DifferenceOfGUI extends InterestPointDetectionGUI
 			gd.addChoice( "Type_of_detections_to_use", InterestPointTools.limitDetectionChoice, InterestPointTools.limitDetectionChoice[ defaultMaxDetectionsTypeIndex ] );
 		}
 
+		gd.addCheckbox( "Adaptive_local_threshold (for uneven illumination)", defaultAdaptiveThreshold );
+
 		addAddtionalParameters( gd );
 
 		gd.showDialog();
@@ -300,6 +305,8 @@ public abstract class DifferenceOfGUI extends InterestPointDetectionGUI
 			maxDetectionsTypeIndex = defaultMaxDetectionsTypeIndex = gd.getNextChoiceIndex();
 		}
 
+		adaptiveThreshold = defaultAdaptiveThreshold = gd.getNextBoolean();
+
 		if ( !queryAdditionalParameters( gd ) )
 			return false;
 		else
@@ -119,6 +119,8 @@ public class DifferenceOfGaussianGUI extends DifferenceOfGUI implements GenericD
 		dog.limitDetections = this.limitDetections;
 		dog.maxDetections = this.maxDetections;
 		dog.maxDetectionsTypeIndex = this.maxDetectionsTypeIndex;
+		dog.adaptiveThreshold = this.adaptiveThreshold;
+		dog.overlapRegions = this.overlapRegions;
 
 		final HashMap< ViewId, List< InterestPoint > > interestPoints = new HashMap< ViewId, List< InterestPoint > >();
 
@@ -254,7 +256,7 @@ public class DifferenceOfGaussianGUI extends DifferenceOfGUI implements GenericD
 	{
 		return "DOG s=" + sigma + " t=" + threshold + " min=" + findMin + " max=" + findMax +
 				" imageSigmaX=" + imageSigmaX + " imageSigmaY=" + imageSigmaY + " imageSigmaZ=" + imageSigmaZ + " downsampleXYIndex=" + downsampleXYIndex +
-				" downsampleZ=" + downsampleZ + " minIntensity=" + minIntensity + " maxIntensity=" + maxIntensity;
+				" downsampleZ=" + downsampleZ + " minIntensity=" + minIntensity + " maxIntensity=" + maxIntensity + " adaptiveThreshold=" + adaptiveThreshold + " onlyOverlappingRegions=" + ( overlapRegions != null );
 	}
 
 	@Override
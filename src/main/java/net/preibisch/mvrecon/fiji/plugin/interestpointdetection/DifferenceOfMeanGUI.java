@@ -94,6 +94,8 @@ public class DifferenceOfMeanGUI extends DifferenceOfGUI
 		dom.limitDetections = this.limitDetections;
 		dom.maxDetections = this.maxDetections;
 		dom.maxDetectionsTypeIndex = this.maxDetectionsTypeIndex;
+		dom.adaptiveThreshold = this.adaptiveThreshold;
+		dom.overlapRegions = this.overlapRegions;
 
 		final HashMap< ViewId, List< InterestPoint > > interestPoints = new HashMap< ViewId, List< InterestPoint > >();
 
@@ -234,7 +236,7 @@ public class DifferenceOfMeanGUI extends DifferenceOfGUI
 	{
 		return "DOM r1=" + radius1 + " t=" + threshold + " min=" + findMin + " max=" + findMax + 
 				" imageSigmaX=" + imageSigmaX + " imageSigmaY=" + imageSigmaY + " imageSigmaZ=" + imageSigmaZ + " downsampleXYIndex=" + downsampleXYIndex +
-				" downsampleZ=" + downsampleZ + " minIntensity=" + minIntensity + " maxIntensity=" + maxIntensity;
+				" downsampleZ=" + downsampleZ + " minIntensity=" + minIntensity + " maxIntensity=" + maxIntensity + " adaptiveThreshold=" + adaptiveThreshold + " onlyOverlappingRegions=" + ( overlapRegions != null );
 	}
 
 	@Override
@@ -24,12 +24,14 @@ package net.preibisch.mvrecon.fiji.plugin.interestpointdetection;
 
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 
 import mpicbg.spim.data.sequence.TimePoint;
 import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.RealInterval;
 
 public abstract class InterestPointDetectionGUI
 {
@@ -40,6 +42,11 @@ public abstract class InterestPointDetectionGUI
 
 	final SpimData2 spimData;
 
+	/*
+	 * if not null, detect only inside these regions (see OverlapRegions)
+	 */
+	protected Map< ViewId, List< RealInterval > > overlapRegions = null;
+
 	/**
 	 * @param spimData - the SpimData
 	 * @param viewIdsToProcess - which view id's to segment
@@ -54,6 +61,11 @@ public abstract class InterestPointDetectionGUI
 
 	public List< ViewId > getViewIdsToProcess() { return viewIdsToProcess; }
 
+	/**
+	 * @param overlapRegions - restrict the detection to these regions (full-resolution pixel coordinates of each view), null means everywhere
+	 */
+	public void setOverlapRegions( final Map< ViewId, List< RealInterval > > overlapRegions ) { this.overlapRegions = overlapRegions; }
+
 	/**
 	 * if any preprocessing is necessary
 	 */
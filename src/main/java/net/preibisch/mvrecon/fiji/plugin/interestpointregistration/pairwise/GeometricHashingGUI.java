@@ -82,6 +82,7 @@ public class GeometricHashingGUI extends PairwiseGUI
 
 		gd.addSlider( "Allowed_error_for_RANSAC (px)", 0.5, 100.0, RANSACParameters.max_epsilon );
 		gd.addChoice( "Number_of_RANSAC_iterations", RANSACParameters.ransacChoices, RANSACParameters.ransacChoices[ defaultRANSACIterationChoice ] );
+		gd.addCheckbox( "Multi-threaded_RANSAC (few pairs with many candidates)", RANSACParameters.multi_threaded );
 	}
 
 	@Override
@@ -106,6 +107,7 @@ public class GeometricHashingGUI extends PairwiseGUI
 		final float ratioOfDistance = GeometricHashingParameters.ratioOfDistance = (float)gd.getNextNumber();
 		final float maxEpsilon = RANSACParameters.max_epsilon = (float)gd.getNextNumber();
 		final int ransacIterations = RANSACParameters.ransacChoicesIterations[ defaultRANSACIterationChoice = gd.getNextChoiceIndex() ];
+		final boolean multiThreaded = RANSACParameters.multi_threaded = gd.getNextBoolean();
 
 		final float minInlierRatio;
 		if ( ratioOfDistance >= 2 )
@@ -116,7 +118,7 @@ public class GeometricHashingGUI extends PairwiseGUI
 			minInlierRatio = RANSACParameters.min_inlier_ratio / 100;
 
 		this.ghParams = new GeometricHashingParameters( model.getModel(), GeometricHashingParameters.differenceThreshold, ratioOfDistance, redundancy );
-		this.ransacParams = new RANSACParameters( maxEpsilon, minInlierRatio, RANSACParameters.min_inlier_factor, ransacIterations );
+		this.ransacParams = new RANSACParameters( maxEpsilon, minInlierRatio, RANSACParameters.min_inlier_factor, ransacIterations ).setMultiThreaded( multiThreaded );
 
 		IOFunctions.println( "Selected Paramters:" );
 		IOFunctions.println( "model: " + defaultModel );
@@ -124,6 +126,7 @@ public class GeometricHashingGUI extends PairwiseGUI
 		IOFunctions.println( "ratioOfDistance: " + ratioOfDistance );
 		IOFunctions.println( "maxEpsilon: " + maxEpsilon );
 		IOFunctions.println( "ransacIterations: " + ransacIterations );
+		IOFunctions.println( "multiThreadedRANSAC: " + multiThreaded );
 		IOFunctions.println( "minInlierRatio: " + minInlierRatio );
 
 		return true;
@@ -89,6 +89,7 @@ public class RGLDMGUI extends PairwiseGUI
 
 		gd.addSlider( "Allowed_error_for_RANSAC (px)", 0.5, 100.0, RANSACParameters.max_epsilon );
 		gd.addChoice( "RANSAC_iterations", RANSACParameters.ransacChoices, RANSACParameters.ransacChoices[ defaultRANSACIterationChoice ] );
+		gd.addCheckbox( "Multi-threaded_RANSAC (few pairs with many candidates)", RANSACParameters.multi_threaded );
 	}
 
 	@Override
@@ -114,6 +115,7 @@ public class RGLDMGUI extends PairwiseGUI
 		final float ratioOfDistance = RGLDMParameters.ratioOfDistance = (float)gd.getNextNumber();
 		final float maxEpsilon = RANSACParameters.max_epsilon = (float)gd.getNextNumber();
 		final int ransacIterations = RANSACParameters.ransacChoicesIterations[ defaultRANSACIterationChoice = gd.getNextChoiceIndex() ];
+		final boolean multiThreaded = RANSACParameters.multi_threaded = gd.getNextBoolean();
 
 		final float minInlierRatio;
 		if ( ratioOfDistance >= 2 )
@@ -124,7 +126,7 @@ public class RGLDMGUI extends PairwiseGUI
 			minInlierRatio = RANSACParameters.min_inlier_ratio / 100;
 
 		this.parameters = new RGLDMParameters( model.getModel(), RGLDMParameters.differenceThreshold, ratioOfDistance, numNeighbors, redundancy );
-		this.ransacParams = new RANSACParameters( maxEpsilon, minInlierRatio, RANSACParameters.min_inlier_factor, ransacIterations );
+		this.ransacParams = new RANSACParameters( maxEpsilon, minInlierRatio, RANSACParameters.min_inlier_factor, ransacIterations ).setMultiThreaded( multiThreaded );
 
 		IOFunctions.println( "Selected Paramters:" );
 		IOFunctions.println( "model: " + defaultModel );
@@ -133,6 +135,7 @@ public class RGLDMGUI extends PairwiseGUI
 		IOFunctions.println( "ratioOfDistance: " + ratioOfDistance );
 		IOFunctions.println( "maxEpsilon: " + maxEpsilon );
 		IOFunctions.println( "ransacIterations: " + ransacIterations );
+		IOFunctions.println( "multiThreadedRANSAC: " + multiThreaded );
 		IOFunctions.println( "minInlierRatio: " + minInlierRatio );
 
 		return true;
@@ -30,6 +30,8 @@ import java.util.Set;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.fiji.plugin.interestpointregistration.parameters.BasicRegistrationParameters.RegistrationType;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.process.interestpointregistration.global.convergence.ConvergenceStrategy;
+import net.preibisch.mvrecon.process.interestpointregistration.global.convergence.ConvergenceStrategy.Solver;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.AllToAll;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.AllToAllRange;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.IndividualTimepoints;
@@ -48,7 +50,10 @@ import mpicbg.spim.data.sequence.ViewId;
 public class AdvancedRegistrationParameters
 {
 	public int range, referenceTimePoint, fixViewsIndex, mapBackIndex;
-	public boolean groupTimePoints, showStatistics;
+	public boolean groupTimePoints, showStatistics, incremental;
+	public int incrementalNeighborhood = 1;
+	public Solver solver = ConvergenceStrategy.defaultSolver;
+	public boolean storeDescriptors = false;
 
 	public PairwiseSetup< ViewId > pairwiseSetupInstance(
 			final RegistrationType registrationType,
@@ -28,6 +28,7 @@ import net.preibisch.mvrecon.fiji.plugin.interestpointregistration.pairwise.Pair
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.AllAgainstAllOverlap;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.OverlapDetection;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.SimpleBoundingBoxOverlap;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.SweepAndPruneOverlap;
 
 import mpicbg.spim.data.SpimData;
 import mpicbg.spim.data.sequence.ViewId;
@@ -53,10 +54,15 @@ public class BasicRegistrationParameters
 	public HashMap< ViewId, String > labelMap;
 	public boolean groupTiles, groupIllums, groupChannels;
 
+	// above this number of views, the overlapping pairs are found with a sweep-and-prune instead of testing all pairs
+	public static int minViewsSweepAndPrune = 100;
+
 	public OverlapDetection< ViewId > getOverlapDetection( final SpimData spimData )
 	{
 		if ( overlapType == OverlapType.ALL_AGAINST_ALL )
 			return new AllAgainstAllOverlap<>( 3 );
+		else if ( ( labelMap != null ? labelMap.size() : spimData.getSequenceDescription().getViewDescriptions().size() ) > minViewsSweepAndPrune )
+			return new SweepAndPruneOverlap<>( spimData );
 		else
 			return new SimpleBoundingBoxOverlap<>( spimData );
 	}
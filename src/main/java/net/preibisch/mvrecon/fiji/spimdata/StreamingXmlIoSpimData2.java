@@ -0,0 +1,397 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata;
+
+import static mpicbg.spim.data.XmlKeys.BASEPATH_TAG;
+import static mpicbg.spim.data.XmlKeys.SEQUENCEDESCRIPTION_TAG;
+import static mpicbg.spim.data.XmlKeys.VIEWREGISTRATIONS_TAG;
+import static mpicbg.spim.data.XmlKeys.VIEWREGISTRATION_SETUP_ATTRIBUTE_NAME;
+import static mpicbg.spim.data.XmlKeys.VIEWREGISTRATION_TAG;
+import static mpicbg.spim.data.XmlKeys.VIEWREGISTRATION_TIMEPOINT_ATTRIBUTE_NAME;
+import static mpicbg.spim.data.XmlKeys.VIEWTRANSFORM_AFFINE_TAG;
+import static mpicbg.spim.data.XmlKeys.VIEWTRANSFORM_NAME_TAG;
+import static mpicbg.spim.data.XmlKeys.VIEWTRANSFORM_TAG;
+import static mpicbg.spim.data.XmlKeys.VIEWTRANSFORM_TYPE_ATTRIBUTE_NAME;
+import static mpicbg.spim.data.XmlKeys.VIEWTRANSFORM_TYPE_VALUE_AFFINE;
+import static net.preibisch.mvrecon.fiji.spimdata.XmlIoPartitionedViewRegistrations.VIEWREGISTRATIONSFILE_TAG;
+import static net.preibisch.mvrecon.fiji.spimdata.interestpoints.XmlKeysInterestPoints.VIEWINTERESTPOINTSFILE_TAG;
+import static net.preibisch.mvrecon.fiji.spimdata.interestpoints.XmlKeysInterestPoints.VIEWINTERESTPOINTS_FORMAT_ATTRIBUTE_NAME;
+import static net.preibisch.mvrecon.fiji.spimdata.interestpoints.XmlKeysInterestPoints.VIEWINTERESTPOINTS_LABEL_ATTRIBUTE_NAME;
+import static net.preibisch.mvrecon.fiji.spimdata.interestpoints.XmlKeysInterestPoints.VIEWINTERESTPOINTS_PARAMETERS_ATTRIBUTE_NAME;
+import static net.preibisch.mvrecon.fiji.spimdata.interestpoints.XmlKeysInterestPoints.VIEWINTERESTPOINTS_SETUP_ATTRIBUTE_NAME;
+import static net.preibisch.mvrecon.fiji.spimdata.interestpoints.XmlKeysInterestPoints.VIEWINTERESTPOINTS_TIMEPOINT_ATTRIBUTE_NAME;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jdom2.Element;
+
+import mpicbg.spim.data.SpimDataException;
+import mpicbg.spim.data.registration.ViewRegistration;
+import mpicbg.spim.data.registration.ViewRegistrations;
+import mpicbg.spim.data.registration.ViewTransform;
+import mpicbg.spim.data.registration.ViewTransformAffine;
+import mpicbg.spim.data.registration.XmlIoViewRegistrations;
+import mpicbg.spim.data.sequence.SequenceDescription;
+import mpicbg.spim.data.sequence.ViewId;
+import mpicbg.spim.data.sequence.XmlIoSequenceDescription;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.preibisch.mvrecon.fiji.spimdata.boundingbox.BoundingBoxes;
+import net.preibisch.mvrecon.fiji.spimdata.boundingbox.XmlIoBoundingBoxes;
+import net.preibisch.mvrecon.fiji.spimdata.intensityadjust.IntensityAdjustments;
+import net.preibisch.mvrecon.fiji.spimdata.intensityadjust.XmlIoIntensityAdjustments;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPoints;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.XmlIoViewInterestPoints;
+import net.preibisch.mvrecon.fiji.spimdata.pointspreadfunctions.PointSpreadFunctions;
+import net.preibisch.mvrecon.fiji.spimdata.pointspreadfunctions.XmlIoPointSpreadFunctions;
+import net.preibisch.mvrecon.fiji.spimdata.stitchingresults.StitchingResults;
+import net.preibisch.mvrecon.fiji.spimdata.stitchingresults.XmlIoStitchingResults;
+
+/**
+ * Loads a {@link SpimData2} XML with a StAX stream reader instead of building the JDOM document of the whole file.
+ * The sections that grow with the number of views, the view registrations and the interest point references, are
+ * constructed directly from the stream. All other sections (sequence description, bounding boxes, PSFs, stitching
+ * results, intensity adjustments) are small compared to those, their elements are built one at a time and passed
+ * to the same {@link mpicbg.spim.data.generic.base.XmlIoSingleton}s {@link XmlIoSpimData2} uses.
+ *
+ * @author Stephan Preibisch (stephan.preibisch@gmx.de)
+ */
+public class StreamingXmlIoSpimData2
+{
+	final XmlIoSequenceDescription xmlSequenceDescription = new XmlIoSequenceDescription();
+	final XmlIoPartitionedViewRegistrations xmlViewRegistrations = new XmlIoPartitionedViewRegistrations();
+	final XmlIoViewInterestPoints xmlViewsInterestPoints = new XmlIoViewInterestPoints();
+	final XmlIoBoundingBoxes xmlBoundingBoxes = new XmlIoBoundingBoxes();
+	final XmlIoPointSpreadFunctions xmlPointSpreadFunctions = new XmlIoPointSpreadFunctions();
+	final XmlIoStitchingResults xmlStitchingResults = new XmlIoStitchingResults();
+	final XmlIoIntensityAdjustments xmlIntensityAdjustments = new XmlIoIntensityAdjustments();
+
+	public SpimData2 load( final String xmlFilename ) throws SpimDataException
+	{
+		final File xmlFile = new File( xmlFilename );
+
+		try ( final InputStream in = new BufferedInputStream( new FileInputStream( xmlFile ), 1024 * 1024 ) )
+		{
+			final XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty( XMLInputFactory.IS_COALESCING, true );
+			factory.setProperty( XMLInputFactory.SUPPORT_DTD, false );
+
+			final XMLStreamReader reader = factory.createXMLStreamReader( in );
+
+			try
+			{
+				return fromXml( reader, xmlFile );
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+		catch ( final IOException | XMLStreamException e )
+		{
+			throw new SpimDataException( "Failed to parse '" + xmlFilename + "': " + e );
+		}
+	}
+
+	protected SpimData2 fromXml( final XMLStreamReader reader, final File xmlFile ) throws XMLStreamException, SpimDataException
+	{
+		// the root element
+		reader.nextTag();
+
+		File basePath = new File( xmlFile.getAbsoluteFile().getParentFile() + "/." );
+		SequenceDescription seq = null;
+		ViewRegistrations registrations = null;
+		Element viewRegistrationFiles = null;
+		final ArrayList< String[] > interestPointLists = new ArrayList<>();
+		BoundingBoxes boundingBoxes = new BoundingBoxes();
+		PointSpreadFunctions psfs = null;
+		Element psfElement = null;
+		StitchingResults stitchingResults = new StitchingResults();
+		IntensityAdjustments intensityAdjustments = new IntensityAdjustments();
+
+		while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT )
+		{
+			final String tag = reader.getLocalName();
+
+			if ( tag.equals( BASEPATH_TAG ) )
+			{
+				final boolean relative = !"absolute".equals( reader.getAttributeValue( null, "type" ) );
+				final String path = reader.getElementText();
+
+				basePath = relative ? new File( xmlFile.getAbsoluteFile().getParentFile() + "/" + path ) : new File( path );
+			}
+			else if ( tag.equals( SEQUENCEDESCRIPTION_TAG ) )
+			{
+				seq = xmlSequenceDescription.fromXml( readElement( reader ), basePath );
+			}
+			else if ( tag.equals( VIEWREGISTRATIONS_TAG ) )
+			{
+				viewRegistrationFiles = new Element( VIEWREGISTRATIONS_TAG );
+				registrations = readViewRegistrations( reader, viewRegistrationFiles );
+			}
+			else if ( tag.equals( xmlViewsInterestPoints.getTag() ) )
+			{
+				readInterestPointLists( reader, interestPointLists );
+			}
+			else if ( tag.equals( xmlBoundingBoxes.getTag() ) )
+			{
+				boundingBoxes = xmlBoundingBoxes.fromXml( readElement( reader ) );
+			}
+			else if ( tag.equals( xmlPointSpreadFunctions.getTag() ) )
+			{
+				// needs the base path, which is known for sure after the root
+				psfElement = readElement( reader );
+			}
+			else if ( tag.equals( xmlStitchingResults.getTag() ) )
+			{
+				stitchingResults = xmlStitchingResults.fromXml( readElement( reader ) );
+			}
+			else if ( tag.equals( xmlIntensityAdjustments.getTag() ) )
+			{
+				intensityAdjustments = xmlIntensityAdjustments.fromXml( readElement( reader ) );
+			}
+			else
+			{
+				skipElement( reader );
+			}
+		}
+
+		if ( seq == null )
+			throw new SpimDataException( "No " + SEQUENCEDESCRIPTION_TAG + " in '" + xmlFile + "'." );
+
+		// same as XmlIoAbstractSpimData
+		if ( registrations == null )
+			throw new SpimDataException( "no <" + VIEWREGISTRATIONS_TAG + "> element found." );
+
+		// registrations that are stored in separate files (see XmlIoPartitionedViewRegistrations)
+		if ( viewRegistrationFiles.getChildren().size() > 0 )
+		{
+			xmlViewRegistrations.setXmlFile( xmlFile );
+			registrations.getViewRegistrations().putAll( xmlViewRegistrations.fromXml( viewRegistrationFiles ).getViewRegistrations() );
+		}
+
+		final ViewInterestPoints viewsInterestPoints = new ViewInterestPoints();
+		viewsInterestPoints.createViewInterestPoints( seq.getViewDescriptions() );
+
+		for ( final String[] l : interestPointLists )
+			XmlIoViewInterestPoints.addInterestPointList( viewsInterestPoints, basePath, Integer.parseInt( l[ 0 ] ), Integer.parseInt( l[ 1 ] ), l[ 2 ], l[ 3 ], l[ 4 ], l[ 5 ] );
+
+		if ( psfElement != null )
+			psfs = xmlPointSpreadFunctions.fromXml( psfElement, basePath );
+		else
+			psfs = new PointSpreadFunctions();
+
+		return new SpimData2( basePath, seq, registrations, viewsInterestPoints, boundingBoxes, psfs, stitchingResults, intensityAdjustments );
+	}
+
+	/*
+	 * reads all ViewRegistration elements, references to separate files are added to fileReferences
+	 */
+	protected static ViewRegistrations readViewRegistrations( final XMLStreamReader reader, final Element fileReferences ) throws XMLStreamException, SpimDataException
+	{
+		final HashMap< ViewId, ViewRegistration > map = new HashMap<>();
+
+		while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT )
+		{
+			if ( reader.getLocalName().equals( VIEWREGISTRATION_TAG ) )
+			{
+				final int tp = Integer.parseInt( reader.getAttributeValue( null, VIEWREGISTRATION_TIMEPOINT_ATTRIBUTE_NAME ) );
+				final int setup = Integer.parseInt( reader.getAttributeValue( null, VIEWREGISTRATION_SETUP_ATTRIBUTE_NAME ) );
+				final ArrayList< ViewTransform > transforms = new ArrayList<>();
+
+				while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT )
+				{
+					if ( reader.getLocalName().equals( VIEWTRANSFORM_TAG ) )
+						transforms.add( readViewTransform( reader ) );
+					else
+						skipElement( reader );
+				}
+
+				map.put( new ViewId( tp, setup ), new ViewRegistration( tp, setup, transforms ) );
+			}
+			else if ( reader.getLocalName().equals( VIEWREGISTRATIONSFILE_TAG ) )
+			{
+				fileReferences.addContent( readElement( reader ) );
+			}
+			else
+			{
+				skipElement( reader );
+			}
+		}
+
+		return new ViewRegistrations( map );
+	}
+
+	protected static ViewTransform readViewTransform( final XMLStreamReader reader ) throws XMLStreamException, SpimDataException
+	{
+		final String type = reader.getAttributeValue( null, VIEWTRANSFORM_TYPE_ATTRIBUTE_NAME );
+
+		if ( !VIEWTRANSFORM_TYPE_VALUE_AFFINE.equals( type ) )
+			return readViewTransform( readElement( reader ) );
+
+		String name = null;
+		double[] affine = null;
+
+		while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT )
+		{
+			if ( reader.getLocalName().equals( VIEWTRANSFORM_NAME_TAG ) )
+				name = reader.getElementText();
+			else if ( reader.getLocalName().equals( VIEWTRANSFORM_AFFINE_TAG ) )
+				affine = parseDoubles( reader.getElementText(), 12 );
+			else
+				skipElement( reader );
+		}
+
+		if ( affine == null )
+			throw new SpimDataException( VIEWTRANSFORM_TAG + " without " + VIEWTRANSFORM_AFFINE_TAG );
+
+		final AffineTransform3D t = new AffineTransform3D();
+		t.set( affine );
+
+		return new ViewTransformAffine( name, t );
+	}
+
+	/*
+	 * any other type of transformation is parsed by spim_data, wrapped into a (dummy) ViewRegistration
+	 */
+	protected static ViewTransform readViewTransform( final Element transform ) throws SpimDataException
+	{
+		final Element registration = new Element( VIEWREGISTRATION_TAG );
+		registration.setAttribute( VIEWREGISTRATION_TIMEPOINT_ATTRIBUTE_NAME, "0" );
+		registration.setAttribute( VIEWREGISTRATION_SETUP_ATTRIBUTE_NAME, "0" );
+		registration.addContent( transform );
+
+		final Element registrations = new Element( VIEWREGISTRATIONS_TAG );
+		registrations.addContent( registration );
+
+		return new XmlIoViewRegistrations().fromXml( registrations ).getViewRegistration( new ViewId( 0, 0 ) ).getTransformList().get( 0 );
+	}
+
+	/*
+	 * collects timepoint, setup, label, parameters, format and file name of each interest point list
+	 */
+	protected static void readInterestPointLists( final XMLStreamReader reader, final ArrayList< String[] > lists ) throws XMLStreamException
+	{
+		while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT )
+		{
+			if ( reader.getLocalName().equals( VIEWINTERESTPOINTSFILE_TAG ) )
+			{
+				lists.add( new String[] {
+						reader.getAttributeValue( null, VIEWINTERESTPOINTS_TIMEPOINT_ATTRIBUTE_NAME ),
+						reader.getAttributeValue( null, VIEWINTERESTPOINTS_SETUP_ATTRIBUTE_NAME ),
+						reader.getAttributeValue( null, VIEWINTERESTPOINTS_LABEL_ATTRIBUTE_NAME ),
+						reader.getAttributeValue( null, VIEWINTERESTPOINTS_PARAMETERS_ATTRIBUTE_NAME ),
+						reader.getAttributeValue( null, VIEWINTERESTPOINTS_FORMAT_ATTRIBUTE_NAME ),
+						reader.getElementText().trim() } );
+			}
+			else
+			{
+				skipElement( reader );
+			}
+		}
+	}
+
+	/*
+	 * parses whitespace-separated doubles without regular expressions
+	 */
+	protected static double[] parseDoubles( final String text, final int n ) throws SpimDataException
+	{
+		final double[] values = new double[ n ];
+		int count = 0, i = 0;
+
+		while ( i < text.length() )
+		{
+			while ( i < text.length() && Character.isWhitespace( text.charAt( i ) ) )
+				++i;
+
+			final int start = i;
+
+			while ( i < text.length() && !Character.isWhitespace( text.charAt( i ) ) )
+				++i;
+
+			if ( i > start )
+			{
+				if ( count == n )
+					throw new SpimDataException( "More than " + n + " values in '" + text + "'" );
+
+				values[ count++ ] = Double.parseDouble( text.substring( start, i ) );
+			}
+		}
+
+		if ( count != n )
+			throw new SpimDataException( "Expected " + n + " values in '" + text + "'" );
+
+		return values;
+	}
+
+	/*
+	 * builds the JDOM element the reader is positioned at (START_ELEMENT), afterwards the reader is at its END_ELEMENT
+	 */
+	protected static Element readElement( final XMLStreamReader reader ) throws XMLStreamException
+	{
+		final Element elem = new Element( reader.getLocalName() );
+
+		for ( int i = 0; i < reader.getAttributeCount(); ++i )
+			elem.setAttribute( reader.getAttributeLocalName( i ), reader.getAttributeValue( i ) );
+
+		while ( true )
+		{
+			final int event = reader.next();
+
+			if ( event == XMLStreamConstants.START_ELEMENT )
+				elem.addContent( readElement( reader ) );
+			else if ( event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE )
+				elem.addContent( reader.getText() );
+			else if ( event == XMLStreamConstants.END_ELEMENT )
+				return elem;
+		}
+	}
+
+	/*
+	 * skips the element the reader is positioned at (START_ELEMENT), afterwards the reader is at its END_ELEMENT
+	 */
+	protected static void skipElement( final XMLStreamReader reader ) throws XMLStreamException
+	{
+		int depth = 1;
+
+		while ( depth > 0 )
+		{
+			final int event = reader.next();
+
+			if ( event == XMLStreamConstants.START_ELEMENT )
+				++depth;
+			else if ( event == XMLStreamConstants.END_ELEMENT )
+				--depth;
+		}
+	}
+}
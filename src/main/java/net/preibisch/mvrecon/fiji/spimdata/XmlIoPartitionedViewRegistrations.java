@@ -0,0 +1,367 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+
+import mpicbg.spim.data.SpimDataException;
+import mpicbg.spim.data.registration.ViewRegistration;
+import mpicbg.spim.data.registration.ViewRegistrations;
+import mpicbg.spim.data.registration.ViewTransform;
+import mpicbg.spim.data.registration.XmlIoViewRegistrations;
+import mpicbg.spim.data.sequence.ViewId;
+import net.preibisch.legacy.io.IOFunctions;
+
+/**
+ * Optionally stores the {@link ViewRegistrations} of each timepoint in a separate XML file next to the dataset XML
+ * (e.g. dataset.registrations/tp_0_3f2a9c01d5e4b677.xml) that is referenced from the main XML:
+ *
+ * &lt;ViewRegistrations&gt;
+ *   &lt;ViewRegistrationsFile timepoint="0"&gt;dataset.registrations/tp_0_3f2a9c01d5e4b677.xml&lt;/ViewRegistrationsFile&gt;
+ * &lt;/ViewRegistrations&gt;
+ *
+ * The name of a side file contains a fingerprint of its registrations and existing side files are never
+ * overwritten (an existing file is only reused if its content is identical, otherwise a numbered name is used), so registering a single timepoint of a long time series only writes that timepoint and the
+ * backups of the main XML (dataset.xml~1, ...) still reference the registrations they were saved with.
+ * Side files that are neither referenced by the XML nor by one of its backups are deleted after saving
+ * (see {@link #deleteUnreferencedFiles(int)}). Datasets saved this way
+ * cannot be opened by older versions, so it is disabled by default (see Toggle_XML_Options); datasets that
+ * already have the directory of side files next to them are saved partitioned again.
+ *
+ * @author Stephan Preibisch (stephan.preibisch@gmx.de)
+ */
+public class XmlIoPartitionedViewRegistrations extends XmlIoViewRegistrations
+{
+	public static final String VIEWREGISTRATIONSFILE_TAG = "ViewRegistrationsFile";
+	public static final String VIEWREGISTRATIONSFILE_TIMEPOINT_ATTRIBUTE_NAME = "timepoint";
+
+	// save new datasets partitioned
+	public static boolean partitionByDefault = false;
+
+	// null means partitioned if partitionByDefault is set or the side files exist already
+	protected Boolean partitioned = null;
+	protected File xmlFile = null;
+
+	public boolean isPartitioned()
+	{
+		if ( partitioned != null )
+			return partitioned;
+		else
+			return partitionByDefault || ( xmlFile != null && new File( xmlFile.getAbsoluteFile().getParentFile(), sideFileDirectory() ).isDirectory() );
+	}
+
+	public void setPartitioned( final boolean partitioned ) { this.partitioned = partitioned; }
+
+	/**
+	 * @param xmlFile - the dataset XML the side files are located next to, needs to be set before saving/loading
+	 */
+	public void setXmlFile( final File xmlFile ) { this.xmlFile = xmlFile; }
+
+	@Override
+	public Element toXml( final ViewRegistrations viewRegistrations )
+	{
+		if ( xmlFile == null || !isPartitioned() )
+			return super.toXml( viewRegistrations );
+
+		// sort all registrations by timepoint
+		final TreeMap< Integer, TreeMap< ViewId, ViewRegistration > > perTimepoint = new TreeMap<>();
+
+		for ( final Map.Entry< ViewId, ViewRegistration > entry : viewRegistrations.getViewRegistrations().entrySet() )
+			perTimepoint.computeIfAbsent( entry.getKey().getTimePointId(), tp -> new TreeMap<>() ).put( entry.getKey(), entry.getValue() );
+
+		final Element elem = new Element( getTag() );
+		int written = 0;
+
+		for ( final int tp : perTimepoint.keySet() )
+		{
+			final TreeMap< ViewId, ViewRegistration > registrations = perTimepoint.get( tp );
+			final long fingerprint = fingerprint( registrations );
+
+			String relative = null;
+
+			try
+			{
+				final byte[] content = toBytes( super.toXml( new ViewRegistrations( registrations ) ) );
+
+				// a side file with the same fingerprint is only reused if it contains the same registrations, otherwise the next free number is used
+				for ( int i = 0; relative == null; ++i )
+				{
+					final String name = sideFileName( tp, fingerprint, i );
+					final File file = new File( xmlFile.getAbsoluteFile().getParentFile(), name );
+
+					if ( !file.exists() )
+					{
+						write( content, file );
+						relative = name;
+						++written;
+					}
+					else if ( Arrays.equals( content, Files.readAllBytes( file.toPath() ) ) )
+					{
+						relative = name;
+					}
+				}
+			}
+			catch ( final IOException e )
+			{
+				// keep the registrations of this timepoint in the main XML instead of losing them
+				IOFunctions.println( "Could not save the registrations of timepoint " + tp + ", storing them in the XML: " + e );
+
+				for ( final Element child : super.toXml( new ViewRegistrations( registrations ) ).getChildren() )
+					elem.addContent( child.clone() );
+
+				continue;
+			}
+
+			final Element fileElement = new Element( VIEWREGISTRATIONSFILE_TAG );
+			fileElement.setAttribute( VIEWREGISTRATIONSFILE_TIMEPOINT_ATTRIBUTE_NAME, Integer.toString( tp ) );
+			fileElement.setText( relative );
+			elem.addContent( fileElement );
+		}
+
+		IOFunctions.println( "Saved registrations of " + written + " of " + perTimepoint.size() + " timepoints (unchanged ones are not rewritten)." );
+
+		return elem;
+	}
+
+	@Override
+	public ViewRegistrations fromXml( final Element allRegistrations ) throws SpimDataException
+	{
+		// registrations stored directly in the XML
+		final ViewRegistrations viewRegistrations = super.fromXml( allRegistrations );
+
+		final ArrayList< Element > files = new ArrayList<>( allRegistrations.getChildren( VIEWREGISTRATIONSFILE_TAG ) );
+
+		if ( files.size() == 0 )
+			return viewRegistrations;
+
+		if ( xmlFile == null )
+			throw new SpimDataException( "Registrations are stored in separate files, but the location of the XML is unknown." );
+
+		final Map< ViewId, ViewRegistration > map = viewRegistrations.getViewRegistrations();
+
+		for ( final Element fileElement : files )
+		{
+			final File file = new File( xmlFile.getAbsoluteFile().getParentFile(), fileElement.getTextTrim() );
+
+			try
+			{
+				final ViewRegistrations fromFile = super.fromXml( new SAXBuilder().build( file ).getRootElement() );
+				map.putAll( fromFile.getViewRegistrations() );
+			}
+			catch ( final JDOMException | IOException e )
+			{
+				throw new SpimDataException( "Could not load registrations from '" + file + "': " + e );
+			}
+		}
+
+		return viewRegistrations;
+	}
+
+	/*
+	 * e.g. dataset.registrations for dataset.xml
+	 */
+	protected String sideFileDirectory()
+	{
+		String name = xmlFile.getName();
+
+		if ( name.toLowerCase().endsWith( ".xml" ) )
+			name = name.substring( 0, name.length() - 4 );
+
+		return name + ".registrations";
+	}
+
+	/*
+	 * e.g. dataset.registrations/tp_0_3f2a9c01d5e4b677.xml for dataset.xml, if index &gt; 0 (different registrations
+	 * with the same fingerprint) dataset.registrations/tp_0_3f2a9c01d5e4b677_1.xml
+	 */
+	protected String sideFileName( final int timepointId, final long fingerprint, final int index )
+	{
+		return sideFileDirectory() + "/tp_" + timepointId + "_" + String.format( "%016x", fingerprint ) + ( index == 0 ? "" : "_" + index ) + ".xml";
+	}
+
+	/**
+	 * Deletes all side files that are neither referenced by the XML nor by one of its backups
+	 * (dataset.xml~1 ... dataset.xml~numBackups), call after the XML was saved.
+	 *
+	 * @param numBackups - the number of backups of the XML that are kept
+	 */
+	public void deleteUnreferencedFiles( final int numBackups )
+	{
+		if ( xmlFile == null )
+			return;
+
+		final File parent = xmlFile.getAbsoluteFile().getParentFile();
+		final File dir = new File( parent, sideFileDirectory() );
+		final File[] sideFiles = dir.listFiles( ( d, name ) -> name.startsWith( "tp_" ) && name.endsWith( ".xml" ) );
+
+		if ( sideFiles == null || sideFiles.length == 0 )
+			return;
+
+		final HashSet< File > referenced = new HashSet<>();
+
+		for ( int i = 0; i <= numBackups; ++i )
+		{
+			final File xml = new File( xmlFile.getAbsolutePath() + ( i == 0 ? "" : "~" + i ) );
+
+			if ( !xml.exists() )
+				continue;
+
+			try
+			{
+				for ( final String relative : referencedFiles( xml ) )
+					referenced.add( new File( parent, relative ).getAbsoluteFile() );
+			}
+			catch ( final IOException | XMLStreamException e )
+			{
+				// do not delete anything that might still be needed
+				IOFunctions.println( "Could not read '" + xml + "', keeping all registration files: " + e );
+				return;
+			}
+		}
+
+		int deleted = 0;
+
+		for ( final File file : sideFiles )
+			if ( !referenced.contains( file.getAbsoluteFile() ) && file.delete() )
+				++deleted;
+
+		if ( deleted > 0 )
+			IOFunctions.println( "Deleted " + deleted + " registration files that are not referenced anymore." );
+	}
+
+	/*
+	 * the side files referenced by an XML, read with StAX so large XMLs are not held in memory
+	 */
+	protected static ArrayList< String > referencedFiles( final File xml ) throws IOException, XMLStreamException
+	{
+		final ArrayList< String > files = new ArrayList<>();
+		final XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty( XMLInputFactory.SUPPORT_DTD, false );
+
+		try ( final InputStream in = new FileInputStream( xml ) )
+		{
+			final XMLStreamReader reader = factory.createXMLStreamReader( in );
+
+			try
+			{
+				while ( reader.hasNext() )
+					if ( reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals( VIEWREGISTRATIONSFILE_TAG ) )
+						files.add( reader.getElementText().trim() );
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+
+		return files;
+	}
+
+	protected static byte[] toBytes( final Element elem ) throws IOException
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new XMLOutputter( Format.getPrettyFormat() ).output( new Document( elem ), out );
+
+		return out.toByteArray();
+	}
+
+	protected static void write( final byte[] content, final File file ) throws IOException
+	{
+		final File dir = file.getParentFile();
+
+		if ( !dir.exists() && !dir.mkdirs() )
+			throw new IOException( "Cannot create directory " + dir );
+
+		// write to a temporary file first so a failed save does not destroy the previous version, the file is replaced in one step
+		final Path tmp = new File( file.getAbsolutePath() + ".tmp" ).toPath();
+
+		try ( final OutputStream out = new FileOutputStream( tmp.toFile() ) )
+		{
+			out.write( content );
+		}
+
+		try
+		{
+			Files.move( tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		}
+		catch ( final AtomicMoveNotSupportedException e )
+		{
+			Files.move( tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+		}
+	}
+
+	/*
+	 * fingerprint of the names and transformations of all registrations
+	 */
+	protected static long fingerprint( final Map< ViewId, ViewRegistration > registrations )
+	{
+		final ArrayList< ViewId > viewIds = new ArrayList<>( registrations.keySet() );
+		Collections.sort( viewIds );
+
+		long hash = 1125899906842597L;
+
+		for ( final ViewId viewId : viewIds )
+		{
+			hash = 31 * hash + viewId.getTimePointId();
+			hash = 31 * hash + viewId.getViewSetupId();
+
+			for ( final ViewTransform vt : registrations.get( viewId ).getTransformList() )
+			{
+				hash = 31 * hash + ( vt.getName() == null ? 0 : vt.getName().hashCode() );
+
+				for ( final double v : vt.asAffine3D().getRowPackedCopy() )
+					hash = 31 * hash + Double.doubleToLongBits( v );
+			}
+		}
+
+		return hash;
+	}
+}
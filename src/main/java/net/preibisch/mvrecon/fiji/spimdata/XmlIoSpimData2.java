@@ -43,7 +43,6 @@ import net.preibisch.mvrecon.fiji.spimdata.stitchingresults.XmlIoStitchingResult
 
 import mpicbg.spim.data.SpimDataException;
 import mpicbg.spim.data.generic.XmlIoAbstractSpimData;
-import mpicbg.spim.data.registration.XmlIoViewRegistrations;
 import mpicbg.spim.data.sequence.SequenceDescription;
 import mpicbg.spim.data.sequence.XmlIoSequenceDescription;
 
@@ -51,6 +50,7 @@ import org.jdom2.Element;
 
 public class XmlIoSpimData2 extends XmlIoAbstractSpimData< SequenceDescription, SpimData2 >
 {
+	final XmlIoPartitionedViewRegistrations xmlPartitionedViewRegistrations;
 	final XmlIoViewInterestPoints xmlViewsInterestPoints;
 	final XmlIoBoundingBoxes xmlBoundingBoxes;
 	final XmlIoPointSpreadFunctions xmlPointSpreadFunctions;
@@ -59,10 +59,20 @@ public class XmlIoSpimData2 extends XmlIoAbstractSpimData< SequenceDescription,
 
 	String clusterExt, lastFileName;
 	public static int numBackups = 5;
+
+	// parse XMLs with a StAX stream reader instead of building the JDOM document of the whole file (see StreamingXmlIoSpimData2)
+	public static boolean useStreamingParser = false;
 	
 	public XmlIoSpimData2( final String clusterExt )
 	{
-		super( SpimData2.class, new XmlIoSequenceDescription(), new XmlIoViewRegistrations() );
+		this( clusterExt, new XmlIoPartitionedViewRegistrations() );
+	}
+
+	protected XmlIoSpimData2( final String clusterExt, final XmlIoPartitionedViewRegistrations xmlViewRegistrations )
+	{
+		super( SpimData2.class, new XmlIoSequenceDescription(), xmlViewRegistrations );
+
+		this.xmlPartitionedViewRegistrations = xmlViewRegistrations;
 
 		this.xmlViewsInterestPoints = new XmlIoViewInterestPoints();
 		this.handledTags.add( xmlViewsInterestPoints.getTag() );
@@ -84,6 +94,12 @@ public class XmlIoSpimData2 extends XmlIoAbstractSpimData< SequenceDescription,
 
 	public void setClusterExt( final String clusterExt ) { this.clusterExt = clusterExt; }
 
+	/**
+	 * @param partitioned - store the registrations of each timepoint in a separate file that is only rewritten if it changed
+	 */
+	public void setPartitionedRegistrations( final boolean partitioned ) { xmlPartitionedViewRegistrations.setPartitioned( partitioned ); }
+	public boolean isPartitionedRegistrations() { return xmlPartitionedViewRegistrations.isPartitioned(); }
+
 	@Override
 	public void save( final SpimData2 spimData, String xmlFilename ) throws SpimDataException
 	{
@@ -102,6 +118,7 @@ public class XmlIoSpimData2 extends XmlIoAbstractSpimData< SequenceDescription,
 		}
 
 		this.lastFileName = xmlFilename;
+		this.xmlPartitionedViewRegistrations.setXmlFile( new File( xmlFilename ) );
 
 		// fist make a copy of the XML and save it to not loose it
 		if ( new File( xmlFilename ).exists() )
@@ -129,10 +146,23 @@ public class XmlIoSpimData2 extends XmlIoAbstractSpimData< SequenceDescription,
 		}
 
 		super.save( spimData, xmlFilename );
+
+		// registrations of older versions are only kept as long as a backup references them
+		if ( xmlPartitionedViewRegistrations.isPartitioned() )
+			xmlPartitionedViewRegistrations.deleteUnreferencedFiles( numBackups );
 	}
 
 	public String lastFileName() { return lastFileName; }
 
+	@Override
+	public SpimData2 load( final String xmlFilename ) throws SpimDataException
+	{
+		if ( useStreamingParser )
+			return new StreamingXmlIoSpimData2().load( xmlFilename );
+		else
+			return super.load( xmlFilename );
+	}
+
 	protected static void copyFile( final File inputFile, final File outputFile ) throws IOException
 	{
 		InputStream input = null;
@@ -161,6 +191,9 @@ public class XmlIoSpimData2 extends XmlIoAbstractSpimData< SequenceDescription,
 	@Override
 	public SpimData2 fromXml( final Element root, final File xmlFile ) throws SpimDataException
 	{
+		// the registrations might be stored in files next to the XML
+		xmlPartitionedViewRegistrations.setXmlFile( xmlFile );
+
 		final SpimData2 spimData = super.fromXml( root, xmlFile );
 		final SequenceDescription seq = spimData.getSequenceDescription();
 
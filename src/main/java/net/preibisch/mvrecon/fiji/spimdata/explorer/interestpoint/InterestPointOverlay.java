@@ -34,6 +34,8 @@ import bdv.viewer.OverlayRenderer;
 import bdv.viewer.TransformListener;
 import bdv.viewer.ViewerPanel;
 import mpicbg.spim.data.sequence.ViewId;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointIndex;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointPyramid;
 
 public class InterestPointOverlay implements OverlayRenderer, TransformListener< AffineTransform3D >
 {
@@ -41,8 +43,24 @@ public class InterestPointOverlay implements OverlayRenderer, TransformListener<
 	{
 		public HashMap< ? extends ViewId, ? extends Collection< ? extends RealLocalizable > > getLocalCoordinates( final int timepointIndex );
 		public void getLocalToGlobalTransform( final ViewId viewId, final int timepointIndex, final AffineTransform3D transform );
+
+		/**
+		 * @param timepointIndex - the current timepoint
+		 * @return point pyramids of the views that are drawn multiresolution (only close to the current slab), these views are not part of {@link #getLocalCoordinates(int)}
+		 */
+		public default HashMap< ? extends ViewId, InterestPointPyramid > getPointPyramids( final int timepointIndex ) { return new HashMap<>(); }
 	}
 
+	/**
+	 * points of views with a point pyramid that are further away from the current plane (in screen pixels) are not drawn
+	 */
+	public static double slabDepth = 256;
+
+	/**
+	 * pyramid cells that are smaller on screen (in pixels) are drawn as a single density summary instead of their points
+	 */
+	public static double summaryCellSize = 16;
+
 	private final Collection< ? extends InterestPointSource > interestPointSources;
 
 	private final AffineTransform3D viewerTransform;
@@ -107,17 +125,108 @@ public class InterestPointOverlay implements OverlayRenderer, TransformListener<
 				{
 					p.localize( lPos );
 					transform.apply( lPos, gPos );
-					final double size = getPointSize( gPos );
-					final int x = ( int ) ( gPos[ 0 ] - 0.5 * size );
-					final int y = ( int ) ( gPos[ 1 ] - 0.5 * size );
-					final int w = ( int ) size;
-					graphics.setColor( getColor( gPos ) );
-					graphics.fillOval( x, y, w, w );
+					draw( graphics, gPos );
 				}
 			}
+
+			final HashMap< ? extends ViewId, InterestPointPyramid > pyramids = pointSource.getPointPyramids( t );
+
+			for ( final ViewId viewId : pyramids.keySet() )
+			{
+				final InterestPointPyramid pyramid = pyramids.get( viewId );
+
+				pointSource.getLocalToGlobalTransform( viewId, t, transform );
+				transform.preConcatenate( viewerTransform );
+
+				if ( pyramid.count( pyramid.root() ) > 0 )
+					drawNode( graphics, pyramid, pyramid.root(), transform, viewer.getDisplay().getWidth(), viewer.getDisplay().getHeight(), lPos, gPos );
+			}
 		}
 	}
 
+	/*
+	 * skips nodes outside of the screen or the slab, draws nodes that are small on screen as density summary and the points of visible leaves
+	 */
+	protected void drawNode(
+			final Graphics2D graphics,
+			final InterestPointPyramid pyramid,
+			final int node,
+			final AffineTransform3D transform,
+			final int width,
+			final int height,
+			final double[] lPos,
+			final double[] gPos )
+	{
+		// bounding box of the node on screen
+		final double[] sMin = new double[] { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+		final double[] sMax = new double[] { -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+
+		for ( int c = 0; c < 8; ++c )
+		{
+			for ( int d = 0; d < 3; ++d )
+				lPos[ d ] = ( c & ( 1 << d ) ) == 0 ? pyramid.min( node, d ) : pyramid.max( node, d );
+
+			transform.apply( lPos, gPos );
+
+			for ( int d = 0; d < 3; ++d )
+			{
+				sMin[ d ] = Math.min( sMin[ d ], gPos[ d ] );
+				sMax[ d ] = Math.max( sMax[ d ], gPos[ d ] );
+			}
+		}
+
+		final double border = 10;
+
+		if ( sMax[ 0 ] < -border || sMin[ 0 ] > width + border || sMax[ 1 ] < -border || sMin[ 1 ] > height + border || sMax[ 2 ] < -slabDepth || sMin[ 2 ] > slabDepth )
+			return;
+
+		final double extent = Math.max( sMax[ 0 ] - sMin[ 0 ], sMax[ 1 ] - sMin[ 1 ] );
+
+		if ( pyramid.count( node ) > 1 && extent < summaryCellSize )
+		{
+			for ( int d = 0; d < 3; ++d )
+				lPos[ d ] = pyramid.centroid( node, d );
+
+			transform.apply( lPos, gPos );
+
+			// the size grows with the number of points, but not beyond the cell
+			final double size = Math.min( Math.max( getPointSize( gPos ), extent ), getPointSize( gPos ) + Math.log( pyramid.count( node ) ) / Math.log( 2 ) );
+			final int x = ( int ) ( gPos[ 0 ] - 0.5 * size );
+			final int y = ( int ) ( gPos[ 1 ] - 0.5 * size );
+			final int w = ( int ) Math.round( size );
+			graphics.setColor( getColor( gPos ) );
+			graphics.fillOval( x, y, w, w );
+		}
+		else if ( pyramid.isLeaf( node ) )
+		{
+			final InterestPointIndex index = pyramid.getIndex();
+
+			pyramid.forEachPoint( node, i ->
+			{
+				index.localize( i, lPos );
+				transform.apply( lPos, gPos );
+
+				if ( Math.abs( gPos[ 2 ] ) <= slabDepth )
+					draw( graphics, gPos );
+			} );
+		}
+		else
+		{
+			for ( int i = 0; i < pyramid.numChildren( node ); ++i )
+				drawNode( graphics, pyramid, pyramid.child( node, i ), transform, width, height, lPos, gPos );
+		}
+	}
+
+	protected void draw( final Graphics2D graphics, final double[] gPos )
+	{
+		final double size = getPointSize( gPos );
+		final int x = ( int ) ( gPos[ 0 ] - 0.5 * size );
+		final int y = ( int ) ( gPos[ 1 ] - 0.5 * size );
+		final int w = ( int ) size;
+		graphics.setColor( getColor( gPos ) );
+		graphics.fillOval( x, y, w, w );
+	}
+
 	@Override
 	public void setCanvasSize( final int width, final int height )
 	{}
@@ -28,7 +28,9 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.swing.SwingUtilities;
 import javax.swing.table.AbstractTableModel;
 
 import bdv.BigDataViewer;
@@ -44,6 +46,7 @@ import net.preibisch.mvrecon.fiji.spimdata.explorer.popup.BasicBDVPopup;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.CorrespondingInterestPoints;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointPyramid;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPoints;
 import net.preibisch.mvrecon.process.interestpointdetection.InterestPointTools;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
@@ -65,6 +68,10 @@ public class InterestPointTableModel extends AbstractTableModel implements Inter
 	volatile InterestPointOverlay interestPointOverlay = null;
 
 	HashMap< ViewId, Collection< ? extends RealLocalizable > > points = new HashMap<>();
+	volatile HashMap< ViewId, InterestPointPyramid > pyramids = new HashMap<>();
+
+	// incremented for every selection, pyramids built for an outdated selection are discarded
+	final AtomicInteger pyramidRequest = new AtomicInteger();
 
 	public InterestPointTableModel( final ViewInterestPoints viewInterestPoints, final InterestPointExplorerPanel panel )
 	{
@@ -269,16 +276,50 @@ public class InterestPointTableModel extends AbstractTableModel implements Inter
 			{
 				this.selectedRow = this.selectedCol = -1;
 				this.points = new HashMap<>();
+				resetPyramids();
 			}
 			else if ( col == 1 )
 			{
+				// all points are drawn from the cached point pyramid of each list, only visible cells are visited
 				this.points = new HashMap<>();
 
-				for ( final ViewId v : currentVDs )
-					this.points.put( v, viewInterestPoints.getViewInterestPointLists( v ).getInterestPointList( label ).getInterestPointsCopy() );
+				// loading the points and building the pyramids can take a while, do not block the UI
+				final int request = resetPyramids();
+				final List< BasicViewDescription< ? > > vds = currentVDs;
+				final ViewInterestPoints vip = viewInterestPoints;
+
+				new Thread( new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						final HashMap< ViewId, InterestPointPyramid > newPyramids = new HashMap<>();
+
+						for ( final ViewId v : vds )
+						{
+							if ( pyramidRequest.get() != request )
+								return;
+
+							newPyramids.put( v, vip.getViewInterestPointLists( v ).getInterestPointList( label ).getPointPyramid() );
+						}
+
+						synchronized ( InterestPointTableModel.this )
+						{
+							if ( pyramidRequest.get() != request )
+								return;
+
+							pyramids = newPyramids;
+						}
+
+						// repaint on the event dispatch thread like any other selection
+						SwingUtilities.invokeLater( () -> { if ( bdvPopup.bdvRunning() ) bdvPopup.updateBDV(); } );
+					}
+				}).start();
 			}
 			else //if ( col == 2 )
 			{
+				resetPyramids();
+
 				for ( final ViewId v : currentVDs )
 				{
 					System.out.println( Group.pvid( v ) );
@@ -321,12 +362,22 @@ public class InterestPointTableModel extends AbstractTableModel implements Inter
 		{
 			this.selectedRow = this.selectedCol = -1;
 			this.points = new HashMap<>();
+			resetPyramids();
 		}
 
 		if ( bdvPopup.bdvRunning() )
 			bdvPopup.updateBDV();
 	}
 
+	/*
+	 * removes the pyramids and discards the ones that are still being built
+	 */
+	protected synchronized int resetPyramids()
+	{
+		this.pyramids = new HashMap<>();
+		return pyramidRequest.incrementAndGet();
+	}
+
 	public int getSelectedRow() { return selectedRow; }
 	public int getSelectedCol() { return selectedCol; }
 
@@ -357,6 +408,22 @@ public class InterestPointTableModel extends AbstractTableModel implements Inter
 		return coords;
 	}
 
+	@Override
+	public HashMap< ? extends ViewId, InterestPointPyramid > getPointPyramids( final int timepointIndex )
+	{
+		final HashMap< ViewId, InterestPointPyramid > visiblePyramids = new HashMap<>();
+		final List< BasicViewDescription< ? > > currentlyVisible = filteredViewIdsCurrentTimepoint( timepointIndex );
+
+		if ( currentlyVisible == null || currentlyVisible.size() == 0 )
+			return visiblePyramids;
+
+		for ( final ViewId viewId : currentlyVisible )
+			if ( pyramids.containsKey( viewId ) )
+				visiblePyramids.put( viewId, pyramids.get( viewId ) );
+
+		return visiblePyramids;
+	}
+
 	@Override
 	public void getLocalToGlobalTransform( final ViewId viewId, final int timepointIndex, final AffineTransform3D transform )
 	{
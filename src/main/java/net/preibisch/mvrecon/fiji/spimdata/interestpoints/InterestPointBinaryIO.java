@@ -0,0 +1,366 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata.interestpoints;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import mpicbg.spim.data.sequence.ViewId;
+
+/**
+ * Compact little-endian columnar files for interest points (.ip.bin) and correspondences (.corr.bin).
+ *
+ * Interest points: magic, version, n, numDimensions, followed by the ids (int[n]) and one column of
+ * coordinates (double[n]) per dimension.
+ *
+ * Correspondences: magic, version, n, the table of corresponding labels (count, then length and UTF-8 bytes
+ * of each label), followed by the columns detection id, corresponding timepoint id, corresponding setup id,
+ * index of the corresponding label and corresponding detection id (each int[n]).
+ *
+ * Files are written to a temporary file that replaces the existing one when complete, so readers that
+ * memory-mapped the previous version (see {@link InterestPointsView}) keep seeing it unchanged.
+ *
+ * @author Stephan Preibisch (stephan.preibisch@gmx.de)
+ */
+public class InterestPointBinaryIO
+{
+	public static final int MAGIC_INTERESTPOINTS = 0x4d564950; // MVIP
+	public static final int MAGIC_CORRESPONDENCES = 0x4d564352; // MVCR
+	public static final int VERSION = 1;
+
+	// size of the buffer used to stream the columns from/to disc
+	public static int bufferSize = 1024 * 1024;
+
+	public static void saveInterestPoints( final File file, final List< InterestPoint > list ) throws IOException
+	{
+		final int n = list.size();
+		final int numDimensions = n == 0 ? 3 : list.get( 0 ).getL().length;
+
+		try ( final Writer out = new Writer( file ) )
+		{
+			out.putInt( MAGIC_INTERESTPOINTS );
+			out.putInt( VERSION );
+			out.putInt( n );
+			out.putInt( numDimensions );
+
+			for ( final InterestPoint p : list )
+				out.putInt( p.getId() );
+
+			for ( int d = 0; d < numDimensions; ++d )
+				for ( final InterestPoint p : list )
+					out.putDouble( p.getL()[ d ] );
+
+			out.commit();
+		}
+	}
+
+	public static ArrayList< InterestPoint > loadInterestPoints( final File file ) throws IOException
+	{
+		try ( final Reader in = new Reader( file ) )
+		{
+			if ( in.getInt() != MAGIC_INTERESTPOINTS )
+				throw new IOException( file + " is not a binary interest point file." );
+
+			if ( in.getInt() > VERSION )
+				throw new IOException( file + " was written by a newer version." );
+
+			final int n = in.getInt();
+			final int numDimensions = in.getInt();
+
+			final int[] ids = new int[ n ];
+			final double[][] l = new double[ n ][ numDimensions ];
+
+			for ( int i = 0; i < n; ++i )
+				ids[ i ] = in.getInt();
+
+			for ( int d = 0; d < numDimensions; ++d )
+				for ( int i = 0; i < n; ++i )
+					l[ i ][ d ] = in.getDouble();
+
+			final ArrayList< InterestPoint > list = new ArrayList<>( n );
+
+			for ( int i = 0; i < n; ++i )
+				list.add( new InterestPoint( ids[ i ], l[ i ] ) );
+
+			return list;
+		}
+	}
+
+	public static void saveCorrespondences( final File file, final List< CorrespondingInterestPoints > list ) throws IOException
+	{
+		final int n = list.size();
+
+		// labels are mostly identical, store each only once
+		final HashMap< String, Integer > labelIndex = new HashMap<>();
+		final ArrayList< String > labels = new ArrayList<>();
+
+		for ( final CorrespondingInterestPoints p : list )
+			if ( !labelIndex.containsKey( p.getCorrespodingLabel() ) )
+			{
+				labelIndex.put( p.getCorrespodingLabel(), labels.size() );
+				labels.add( p.getCorrespodingLabel() );
+			}
+
+		try ( final Writer out = new Writer( file ) )
+		{
+			out.putInt( MAGIC_CORRESPONDENCES );
+			out.putInt( VERSION );
+			out.putInt( n );
+			out.putInt( labels.size() );
+
+			for ( final String label : labels )
+			{
+				final byte[] bytes = label.getBytes( StandardCharsets.UTF_8 );
+
+				out.putInt( bytes.length );
+
+				for ( final byte b : bytes )
+					out.put( b );
+			}
+
+			for ( final CorrespondingInterestPoints p : list )
+				out.putInt( p.getDetectionId() );
+
+			for ( final CorrespondingInterestPoints p : list )
+				out.putInt( p.getCorrespondingViewId().getTimePointId() );
+
+			for ( final CorrespondingInterestPoints p : list )
+				out.putInt( p.getCorrespondingViewId().getViewSetupId() );
+
+			for ( final CorrespondingInterestPoints p : list )
+				out.putInt( labelIndex.get( p.getCorrespodingLabel() ) );
+
+			for ( final CorrespondingInterestPoints p : list )
+				out.putInt( p.getCorrespondingDetectionId() );
+
+			out.commit();
+		}
+	}
+
+	public static ArrayList< CorrespondingInterestPoints > loadCorrespondences( final File file ) throws IOException
+	{
+		try ( final Reader in = new Reader( file ) )
+		{
+			if ( in.getInt() != MAGIC_CORRESPONDENCES )
+				throw new IOException( file + " is not a binary correspondence file." );
+
+			if ( in.getInt() > VERSION )
+				throw new IOException( file + " was written by a newer version." );
+
+			final int n = in.getInt();
+			final String[] labels = new String[ in.getInt() ];
+
+			for ( int i = 0; i < labels.length; ++i )
+			{
+				final byte[] bytes = new byte[ in.getInt() ];
+
+				for ( int j = 0; j < bytes.length; ++j )
+					bytes[ j ] = in.get();
+
+				labels[ i ] = new String( bytes, StandardCharsets.UTF_8 );
+			}
+
+			final int[][] columns = new int[ 5 ][ n ];
+
+			for ( final int[] column : columns )
+				for ( int i = 0; i < n; ++i )
+					column[ i ] = in.getInt();
+
+			final ArrayList< CorrespondingInterestPoints > list = new ArrayList<>( n );
+
+			// most correspondences point to few views, share the ViewId instances
+			final HashMap< ViewId, ViewId > viewIds = new HashMap<>();
+
+			for ( int i = 0; i < n; ++i )
+			{
+				final ViewId tmp = new ViewId( columns[ 1 ][ i ], columns[ 2 ][ i ] );
+				ViewId viewId = viewIds.get( tmp );
+
+				if ( viewId == null )
+				{
+					viewIds.put( tmp, tmp );
+					viewId = tmp;
+				}
+
+				list.add( new CorrespondingInterestPoints( columns[ 0 ][ i ], viewId, labels[ columns[ 3 ][ i ] ], columns[ 4 ][ i ] ) );
+			}
+
+			return list;
+		}
+	}
+
+	/*
+	 * streams little-endian values into a temporary file through a fixed-size buffer, commit() moves it
+	 * to its final location, otherwise close() deletes it
+	 */
+	protected static class Writer implements AutoCloseable
+	{
+		final Path file, tmp;
+		final FileChannel channel;
+		final ByteBuffer buffer;
+		boolean committed = false;
+
+		public Writer( final File file ) throws IOException
+		{
+			this.file = file.toPath();
+			final Path parent = file.getAbsoluteFile().getParentFile().toPath();
+
+			// not Files.createTempFile(), which creates it with owner-only permissions that the move would keep
+			FileChannel channel = null;
+			Path tmp = null;
+
+			while ( channel == null )
+			{
+				tmp = parent.resolve( file.getName() + "." + Long.toHexString( ThreadLocalRandom.current().nextLong() ) + ".tmp" );
+
+				try
+				{
+					channel = FileChannel.open( tmp, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW );
+				}
+				catch ( final FileAlreadyExistsException e ) {}
+			}
+
+			this.tmp = tmp;
+			this.channel = channel;
+			this.buffer = ByteBuffer.allocateDirect( bufferSize ).order( ByteOrder.LITTLE_ENDIAN );
+		}
+
+		protected void ensure( final int bytes ) throws IOException
+		{
+			if ( buffer.remaining() < bytes )
+				flush();
+		}
+
+		public void put( final byte b ) throws IOException { ensure( 1 ); buffer.put( b ); }
+		public void putInt( final int i ) throws IOException { ensure( 4 ); buffer.putInt( i ); }
+		public void putDouble( final double d ) throws IOException { ensure( 8 ); buffer.putDouble( d ); }
+
+		protected void flush() throws IOException
+		{
+			buffer.flip();
+
+			while ( buffer.hasRemaining() )
+				channel.write( buffer );
+
+			buffer.clear();
+		}
+
+		/*
+		 * replaces the file with the temporary file, the previous version is never modified in place
+		 */
+		public void commit() throws IOException
+		{
+			try
+			{
+				flush();
+				channel.force( false );
+			}
+			finally
+			{
+				channel.close();
+			}
+
+			try
+			{
+				Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+			}
+			catch ( final AtomicMoveNotSupportedException e )
+			{
+				Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING );
+			}
+
+			committed = true;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			if ( committed )
+				return;
+
+			try
+			{
+				channel.close();
+			}
+			finally
+			{
+				Files.deleteIfExists( tmp );
+			}
+		}
+	}
+
+	/*
+	 * streams little-endian values from a file through a fixed-size buffer
+	 */
+	protected static class Reader implements AutoCloseable
+	{
+		final FileChannel channel;
+		final ByteBuffer buffer;
+
+		public Reader( final File file ) throws IOException
+		{
+			this.channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+			this.buffer = ByteBuffer.allocateDirect( bufferSize ).order( ByteOrder.LITTLE_ENDIAN );
+			this.buffer.limit( 0 );
+		}
+
+		protected void ensure( final int bytes ) throws IOException
+		{
+			if ( buffer.remaining() >= bytes )
+				return;
+
+			buffer.compact();
+
+			while ( buffer.position() < bytes )
+				if ( channel.read( buffer ) < 0 )
+					throw new EOFException( "Unexpected end of file." );
+
+			buffer.flip();
+		}
+
+		public byte get() throws IOException { ensure( 1 ); return buffer.get(); }
+		public int getInt() throws IOException { ensure( 4 ); return buffer.getInt(); }
+		public double getDouble() throws IOException { ensure( 8 ); return buffer.getDouble(); }
+
+		@Override
+		public void close() throws IOException
+		{
+			channel.close();
+		}
+	}
+}
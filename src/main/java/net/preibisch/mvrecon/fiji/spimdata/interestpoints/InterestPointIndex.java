@@ -0,0 +1,306 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata.interestpoints;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Immutable spatial index (an implicit, balanced KD-tree) over the local coordinates of an interest point list,
+ * built once and cached by {@link InterestPointList#getSpatialIndex()} until the interest points are modified.
+ *
+ * The coordinates are stored as one column per dimension in the order of the list, the tree itself is only a
+ * permutation of the indices, so every query reports indices into the interest point list. Distances of the
+ * k-nearest-neighbor queries can be computed with a scaling factor per dimension (e.g. the voxel size), so one
+ * index serves calibrated and uncalibrated queries. All queries are thread-safe.
+ *
+ * @author Stephan Preibisch (stephan.preibisch@gmx.de)
+ */
+public class InterestPointIndex
+{
+	final int numDimensions, size;
+	final int[] ids;
+	final double[][] l;
+
+	// the tree: the node of range [lo,hi) is tree[ (lo+hi)/2 ], split dimension is depth % numDimensions
+	final int[] tree;
+
+	protected InterestPointIndex( final int[] ids, final double[][] l )
+	{
+		this.numDimensions = l.length;
+		this.size = ids.length;
+		this.ids = ids;
+		this.l = l;
+		this.tree = new int[ size ];
+
+		for ( int i = 0; i < size; ++i )
+			tree[ i ] = i;
+
+		build( 0, size, 0 );
+	}
+
+	public int size() { return size; }
+	public int numDimensions() { return numDimensions; }
+
+	public int getId( final int index ) { return ids[ index ]; }
+	public double getDoublePosition( final int index, final int d ) { return l[ d ][ index ]; }
+
+	public void localize( final int index, final double[] position )
+	{
+		for ( int d = 0; d < numDimensions; ++d )
+			position[ d ] = l[ d ][ index ];
+	}
+
+	/**
+	 * Finds the k nearest neighbors of a location (if the location is a point of this index, it is its own first neighbor).
+	 *
+	 * @param position - the query location (local coordinates)
+	 * @param k - the number of neighbors
+	 * @param scale - scaling factor per dimension applied to the distances (e.g. the voxel size), or null
+	 * @param indices - filled with the indices of the neighbors sorted by distance, at least of length k
+	 * @param distances - filled with the (scaled) distances of the neighbors, at least of length k
+	 * @return the number of neighbors found (less than k if the index contains less points)
+	 */
+	public int kNearestNeighbors( final double[] position, final int k, final double[] scale, final int[] indices, final double[] distances )
+	{
+		final KNearest search = new KNearest( position, k, scale, indices, distances );
+
+		if ( k > 0 )
+			search.search( 0, size, 0 );
+
+		for ( int i = 0; i < search.count; ++i )
+			distances[ i ] = Math.sqrt( distances[ i ] );
+
+		return search.count;
+	}
+
+	/**
+	 * @param position - the query location (local coordinates)
+	 * @param scale - scaling factor per dimension applied to the distance (e.g. the voxel size), or null
+	 * @return the (scaled) distance to the nearest point, or NaN if the index is empty
+	 */
+	public double nearestNeighborDistance( final double[] position, final double[] scale )
+	{
+		final int[] index = new int[ 1 ];
+		final double[] distance = new double[ 1 ];
+
+		return kNearestNeighbors( position, 1, scale, index, distance ) == 0 ? Double.NaN : distance[ 0 ];
+	}
+
+	/**
+	 * Reports the indices of all points inside an axis-aligned box (inclusive), in no particular order.
+	 *
+	 * @param min - the minimum of the box (local coordinates)
+	 * @param max - the maximum of the box (local coordinates)
+	 * @param consumer - receives the index of every point inside the box
+	 */
+	public void forEachInBox( final double[] min, final double[] max, final IntConsumer consumer )
+	{
+		forEachInBox( 0, size, 0, min, max, consumer );
+	}
+
+	protected void forEachInBox( final int lo, final int hi, final int depth, final double[] min, final double[] max, final IntConsumer consumer )
+	{
+		if ( lo >= hi )
+			return;
+
+		final int m = ( lo + hi ) >>> 1;
+		final int index = tree[ m ];
+		final int dim = depth % numDimensions;
+		final double v = l[ dim ][ index ];
+
+		boolean inside = true;
+
+		for ( int d = 0; d < numDimensions && inside; ++d )
+			inside = l[ d ][ index ] >= min[ d ] && l[ d ][ index ] <= max[ d ];
+
+		if ( inside )
+			consumer.accept( index );
+
+		if ( min[ dim ] <= v )
+			forEachInBox( lo, m, depth + 1, min, max, consumer );
+
+		if ( max[ dim ] >= v )
+			forEachInBox( m + 1, hi, depth + 1, min, max, consumer );
+	}
+
+	/*
+	 * sorts tree[lo,hi) so that the median along the split dimension is in the middle, smaller ones left, larger ones right
+	 */
+	protected void build( final int lo, final int hi, final int depth )
+	{
+		if ( hi - lo < 2 )
+			return;
+
+		final int m = ( lo + hi ) >>> 1;
+
+		select( l[ depth % numDimensions ], lo, hi - 1, m );
+
+		build( lo, m, depth + 1 );
+		build( m + 1, hi, depth + 1 );
+	}
+
+	/*
+	 * quickselect on tree[left,right] (inclusive) by the given coordinate
+	 */
+	protected void select( final double[] coord, int left, int right, final int k )
+	{
+		while ( right > left )
+		{
+			// median of three as pivot
+			final int mid = ( left + right ) >>> 1;
+
+			if ( coord[ tree[ mid ] ] < coord[ tree[ left ] ] )
+				swap( mid, left );
+			if ( coord[ tree[ right ] ] < coord[ tree[ left ] ] )
+				swap( right, left );
+			if ( coord[ tree[ right ] ] < coord[ tree[ mid ] ] )
+				swap( right, mid );
+
+			final double pivot = coord[ tree[ mid ] ];
+
+			int i = left, j = right;
+
+			while ( i <= j )
+			{
+				while ( coord[ tree[ i ] ] < pivot )
+					++i;
+				while ( coord[ tree[ j ] ] > pivot )
+					--j;
+
+				if ( i <= j )
+					swap( i++, j-- );
+			}
+
+			if ( k <= j )
+				right = j;
+			else if ( k >= i )
+				left = i;
+			else
+				return;
+		}
+	}
+
+	private void swap( final int i, final int j )
+	{
+		final int tmp = tree[ i ];
+		tree[ i ] = tree[ j ];
+		tree[ j ] = tmp;
+	}
+
+	/*
+	 * state of one k-nearest-neighbor query, keeps the k best squared distances sorted
+	 */
+	protected class KNearest
+	{
+		final double[] position, scale, distances;
+		final int[] indices;
+		final int k;
+		int count = 0;
+
+		KNearest( final double[] position, final int k, final double[] scale, final int[] indices, final double[] distances )
+		{
+			this.position = position;
+			this.k = k;
+			this.scale = scale;
+			this.indices = indices;
+			this.distances = distances;
+		}
+
+		void search( final int lo, final int hi, final int depth )
+		{
+			if ( lo >= hi )
+				return;
+
+			final int m = ( lo + hi ) >>> 1;
+			final int index = tree[ m ];
+			final int dim = depth % numDimensions;
+
+			double dist = 0;
+
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				final double diff = ( position[ d ] - l[ d ][ index ] ) * ( scale == null ? 1.0 : scale[ d ] );
+				dist += diff * diff;
+			}
+
+			offer( index, dist );
+
+			final double diff = ( position[ dim ] - l[ dim ][ index ] ) * ( scale == null ? 1.0 : scale[ dim ] );
+
+			// first the side of the split plane the query is on, the other side only if it can contain closer points
+			if ( diff < 0 )
+			{
+				search( lo, m, depth + 1 );
+
+				if ( count < k || diff * diff < distances[ count - 1 ] )
+					search( m + 1, hi, depth + 1 );
+			}
+			else
+			{
+				search( m + 1, hi, depth + 1 );
+
+				if ( count < k || diff * diff < distances[ count - 1 ] )
+					search( lo, m, depth + 1 );
+			}
+		}
+
+		void offer( final int index, final double dist )
+		{
+			if ( count == k && dist >= distances[ k - 1 ] )
+				return;
+
+			int i = count < k ? count++ : k - 1;
+
+			while ( i > 0 && distances[ i - 1 ] > dist )
+			{
+				distances[ i ] = distances[ i - 1 ];
+				indices[ i ] = indices[ i - 1 ];
+				--i;
+			}
+
+			distances[ i ] = dist;
+			indices[ i ] = index;
+		}
+	}
+
+	/**
+	 * @param view - read-only view of interest points
+	 * @return a new index over the local coordinates of the points
+	 */
+	public static InterestPointIndex build( final InterestPointsView view )
+	{
+		final int n = view.size();
+		final int[] ids = new int[ n ];
+		final double[][] l = new double[ view.numDimensions() ][ n ];
+
+		for ( int i = 0; i < n; ++i )
+		{
+			ids[ i ] = view.getId( i );
+
+			for ( int d = 0; d < l.length; ++d )
+				l[ d ][ i ] = view.getDoublePosition( i, d );
+		}
+
+		return new InterestPointIndex( ids, l );
+	}
+}
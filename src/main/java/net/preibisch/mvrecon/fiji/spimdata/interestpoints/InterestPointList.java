@@ -27,6 +27,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import mpicbg.spim.data.sequence.ViewId;
@@ -34,26 +35,48 @@ import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.legacy.io.TextFileAccess;
 
 /**
- * A list of interest points for a certain label, can save and load from textfile as specified in the XML
+ * A list of interest points for a certain label, can save and load from textfile (or a binary file, see
+ * {@link InterestPointBinaryIO}) as specified in the XML
+ *
+ * The lists of interest points and correspondences are published as snapshots through volatile references, so
+ * concurrent readers never block each other; loading from disc and adding correspondences (copy-on-write) lock
+ * only this list, so e.g. pairwise matching of many pairs that share a view does not serialize on other views.
+ * Lists passed to the setters must not be modified afterwards by other threads.
  * 
  * @author Stephan Preibisch (stephan.preibisch@gmx.de)
  *
  */
 public class InterestPointList
 {
-	File baseDir, file;
-	List< InterestPoint > interestPoints;
-	List< CorrespondingInterestPoints > correspondingInterestPoints;
-	String parameters;
+	public enum StorageFormat { TEXT, BINARY };
+
+	/**
+	 * the format new lists are saved in, lists loaded from the XML keep the format specified there
+	 */
+	public static StorageFormat defaultStorageFormat = StorageFormat.TEXT;
+
+	volatile File baseDir, file;
+	volatile StorageFormat storageFormat;
+	volatile List< InterestPoint > interestPoints;
+	volatile List< CorrespondingInterestPoints > correspondingInterestPoints;
+	volatile String parameters;
 
-	boolean modifiedInterestPoints, modifiedCorrespondingInterestPoints;
+	volatile boolean modifiedInterestPoints, modifiedCorrespondingInterestPoints;
+
+	// built on demand, dropped whenever the interest points are replaced
+	volatile InterestPointIndex spatialIndex;
+	volatile InterestPointPyramid pointPyramid;
+
+	// guard loading and replacing the respective lists, readers do not lock
+	final Object interestPointsLock = new Object();
+	final Object correspondencesLock = new Object();
 
 	/**
 	 * Instantiates a new {@link InterestPointList}
 	 * 
 	 * @param baseDir - the path where the xml is
-	 * @param file - relative path to the file to load/save the list from, an extension is added automatically (.ip.txt &amp;&amp; .corr.txt)
-	 * for interestpoints and correspondences
+	 * @param file - relative path to the file to load/save the list from, an extension is added automatically (.ip.txt &amp;&amp; .corr.txt,
+	 * or .ip.bin &amp;&amp; .corr.bin) for interestpoints and correspondences
 	 */
 	public InterestPointList( final File baseDir, final File file )
 	{
@@ -62,6 +85,7 @@ public class InterestPointList
 		this.interestPoints = null;
 		this.correspondingInterestPoints = null;
 		this.parameters = "";
+		this.storageFormat = defaultStorageFormat;
 		this.modifiedInterestPoints = false;
 		this.modifiedCorrespondingInterestPoints = false;
 	}
@@ -72,48 +96,207 @@ public class InterestPointList
 	/**
 	 * @return - a list of interest points (copied), tries to load from disc if null
 	 */
-	public synchronized List< InterestPoint > getInterestPointsCopy()
+	public List< InterestPoint > getInterestPointsCopy()
 	{
-		if ( this.interestPoints == null )
-			loadInterestPoints();
+		final List< InterestPoint > interestPoints = interestPoints();
+		final ArrayList< InterestPoint > list = new ArrayList< InterestPoint >( interestPoints.size() );
 
-		final ArrayList< InterestPoint > list = new ArrayList< InterestPoint >();
-
-		for ( final InterestPoint p : this.interestPoints )
+		for ( final InterestPoint p : interestPoints )
 			list.add( new InterestPoint( p.id, p.getL().clone() ) );
 
 		return list;
 	}
 
+	/*
+	 * the current interest points, loads them if necessary (only once if called concurrently)
+	 */
+	protected List< InterestPoint > interestPoints()
+	{
+		List< InterestPoint > list = this.interestPoints;
+
+		if ( list == null )
+		{
+			synchronized ( interestPointsLock )
+			{
+				if ( this.interestPoints == null )
+					loadInterestPoints();
+
+				list = this.interestPoints;
+			}
+		}
+
+		return list;
+	}
+
+	/*
+	 * the current corresponding interest points, loads them if necessary (only once if called concurrently)
+	 */
+	protected List< CorrespondingInterestPoints > correspondingInterestPoints()
+	{
+		List< CorrespondingInterestPoints > list = this.correspondingInterestPoints;
+
+		if ( list == null )
+		{
+			synchronized ( correspondencesLock )
+			{
+				if ( this.correspondingInterestPoints == null )
+					loadCorrespondences();
+
+				list = this.correspondingInterestPoints;
+			}
+		}
+
+		return list;
+	}
+
 	/**
-	 * @return - the list of corresponding interest points (copied), tries to load from disc if null
+	 * @return - a read-only view of the interest points that does not create an object per point; binary files are memory-mapped
+	 * if the points were not loaded yet, otherwise the points are loaded from disc if necessary and wrapped
 	 */
-	public synchronized List< CorrespondingInterestPoints > getCorrespondingInterestPointsCopy()
+	public InterestPointsView getInterestPointsView()
 	{
-		if ( this.correspondingInterestPoints == null )
-			loadCorrespondences();
+		if ( this.interestPoints == null && existingFormat( true ) == StorageFormat.BINARY )
+		{
+			final File f = new File( getBaseDir(), getFile().toString() + getInterestPointsExt( StorageFormat.BINARY ) );
+
+			try
+			{
+				return InterestPointsView.map( f );
+			}
+			catch ( final IOException e )
+			{
+				IOFunctions.println( "InterestPointList.getInterestPointsView(): Could not map " + f + ", loading it: " + e );
+			}
+		}
+
+		return InterestPointsView.wrap( interestPoints() );
+	}
+
+	/**
+	 * @return - a spatial index over the local coordinates of the interest points, built once and cached until the interest points are modified
+	 */
+	public InterestPointIndex getSpatialIndex()
+	{
+		InterestPointIndex index = this.spatialIndex;
+
+		if ( index == null )
+		{
+			synchronized ( interestPointsLock )
+			{
+				index = this.spatialIndex;
+
+				if ( index == null )
+					this.spatialIndex = index = InterestPointIndex.build( getInterestPointsView() );
+			}
+		}
 
-		final ArrayList< CorrespondingInterestPoints > list = new ArrayList< CorrespondingInterestPoints >();
+		return index;
+	}
+
+	/**
+	 * @return - a multiresolution octree of the interest points for rendering, built once (from the spatial index) and cached until the interest points are modified
+	 */
+	public InterestPointPyramid getPointPyramid()
+	{
+		InterestPointPyramid pyramid = this.pointPyramid;
+
+		if ( pyramid == null )
+		{
+			synchronized ( interestPointsLock )
+			{
+				pyramid = this.pointPyramid;
+
+				if ( pyramid == null )
+					this.pointPyramid = pyramid = InterestPointPyramid.build( getSpatialIndex() );
+			}
+		}
+
+		return pyramid;
+	}
+
+	/**
+	 * @return - the list of corresponding interest points (copied), tries to load from disc if null
+	 */
+	public List< CorrespondingInterestPoints > getCorrespondingInterestPointsCopy()
+	{
+		final List< CorrespondingInterestPoints > correspondingInterestPoints = correspondingInterestPoints();
+		final ArrayList< CorrespondingInterestPoints > list = new ArrayList< CorrespondingInterestPoints >( correspondingInterestPoints.size() );
 
-		for ( final CorrespondingInterestPoints p : this.correspondingInterestPoints )
+		for ( final CorrespondingInterestPoints p : correspondingInterestPoints )
 			list.add( new CorrespondingInterestPoints( p ) );
 
 		return list;
 	}
 
+	/**
+	 * Adds corresponding interest points (copy-on-write, so concurrent readers keep their snapshot
+	 * and concurrent calls for the same list do not lose correspondences), loads the existing ones from disc if necessary.
+	 *
+	 * @param list - the correspondences to add
+	 */
+	public void addCorrespondingInterestPoints( final Collection< ? extends CorrespondingInterestPoints > list )
+	{
+		synchronized ( correspondencesLock )
+		{
+			final List< CorrespondingInterestPoints > current = correspondingInterestPoints();
+			final ArrayList< CorrespondingInterestPoints > newList = new ArrayList<>( current.size() + list.size() );
+
+			newList.addAll( current );
+			newList.addAll( list );
+
+			this.correspondingInterestPoints = newList;
+			this.modifiedCorrespondingInterestPoints = true;
+		}
+	}
+
+	/**
+	 * Loads the interest points (and correspondences) from disc if they are not in memory yet, used to load many lists in parallel.
+	 *
+	 * @param correspondences - also load the corresponding interest points
+	 * @return true if anything was loaded
+	 */
+	public boolean preload( final boolean correspondences )
+	{
+		final boolean loaded = !isLoaded( correspondences );
+
+		interestPoints();
+
+		if ( correspondences )
+			correspondingInterestPoints();
+
+		return loaded;
+	}
+
+	/**
+	 * @param correspondences - also check the corresponding interest points
+	 * @return true if the interest points (and correspondences) are in memory
+	 */
+	public boolean isLoaded( final boolean correspondences )
+	{
+		return this.interestPoints != null && ( !correspondences || this.correspondingInterestPoints != null );
+	}
+
 	public File getBaseDir() { return baseDir; }
 	public File getFile() { return file; }
 	public String getParameters() { return parameters; }
 	public void setParameters( final String parameters ) { this.parameters = parameters; }
 	public void setInterestPoints( final List< InterestPoint > list )
 	{
-		this.interestPoints = list;
-		this.modifiedInterestPoints = true;
+		synchronized ( interestPointsLock )
+		{
+			this.interestPoints = list;
+			this.modifiedInterestPoints = true;
+			this.spatialIndex = null;
+			this.pointPyramid = null;
+		}
 	}
 	public void setCorrespondingInterestPoints( final List< CorrespondingInterestPoints > list )
 	{
-		this.correspondingInterestPoints = list;
-		this.modifiedCorrespondingInterestPoints = true;
+		synchronized ( correspondencesLock )
+		{
+			this.correspondingInterestPoints = list;
+			this.modifiedCorrespondingInterestPoints = true;
+		}
 	}
 	public void setFile( final File file )
 	{
@@ -128,8 +311,38 @@ public class InterestPointList
 		this.modifiedInterestPoints = true;
 	}
 
-	public String getInterestPointsExt() { return ".ip.txt"; }
-	public String getCorrespondencesExt() { return ".corr.txt"; }
+	public StorageFormat getStorageFormat() { return storageFormat; }
+
+	/**
+	 * @param storageFormat - the format the list is saved in from now on, existing files in the other format are still read
+	 */
+	public void setStorageFormat( final StorageFormat storageFormat )
+	{
+		if ( this.storageFormat == storageFormat )
+			return;
+
+		this.storageFormat = storageFormat;
+		this.modifiedCorrespondingInterestPoints = true;
+		this.modifiedInterestPoints = true;
+	}
+
+	public String getInterestPointsExt() { return getInterestPointsExt( storageFormat ); }
+	public String getCorrespondencesExt() { return getCorrespondencesExt( storageFormat ); }
+
+	public static String getInterestPointsExt( final StorageFormat storageFormat ) { return storageFormat == StorageFormat.BINARY ? ".ip.bin" : ".ip.txt"; }
+	public static String getCorrespondencesExt( final StorageFormat storageFormat ) { return storageFormat == StorageFormat.BINARY ? ".corr.bin" : ".corr.txt"; }
+
+	/*
+	 * the format the existing files are stored in, the current format if they exist in it (or do not exist at all)
+	 */
+	protected StorageFormat existingFormat( final boolean interestPoints )
+	{
+		for ( final StorageFormat format : new StorageFormat[] { storageFormat, storageFormat == StorageFormat.TEXT ? StorageFormat.BINARY : StorageFormat.TEXT } )
+			if ( new File( getBaseDir(), getFile().toString() + ( interestPoints ? getInterestPointsExt( format ) : getCorrespondencesExt( format ) ) ).exists() )
+				return format;
+
+		return storageFormat;
+	}
 
 	public boolean saveInterestPoints( final boolean forceWrite )
 	{
@@ -152,16 +365,24 @@ public class InterestPointList
 			}
 
 			final File f = new File( getBaseDir(), getFile().toString() + getInterestPointsExt() );
-			final PrintWriter out = TextFileAccess.openFileWriteEx( f );
 
-			// header
-			out.println( "id" + "\t" + "x" + "\t" + "y" + "\t" + "z" );
+			if ( storageFormat == StorageFormat.BINARY )
+			{
+				InterestPointBinaryIO.saveInterestPoints( f, list );
+			}
+			else
+			{
+				final PrintWriter out = TextFileAccess.openFileWriteEx( f );
+
+				// header
+				out.println( "id" + "\t" + "x" + "\t" + "y" + "\t" + "z" );
 
-			// id && coordinates in the local image stack for each interestpoint
-			for ( final InterestPoint p : list )
-				out.println( Integer.toString( p.getId() ).concat( "\t" ).concat( Double.toString( p.getL()[0] ) ).concat( "\t" ).concat( Double.toString( p.getL()[1] ) ).concat( "\t" ).concat( Double.toString( p.getL()[2] ) ) );
+				// id && coordinates in the local image stack for each interestpoint
+				for ( final InterestPoint p : list )
+					out.println( Integer.toString( p.getId() ).concat( "\t" ).concat( Double.toString( p.getL()[0] ) ).concat( "\t" ).concat( Double.toString( p.getL()[1] ) ).concat( "\t" ).concat( Double.toString( p.getL()[2] ) ) );
 
-			out.close();
+				out.close();
+			}
 
 			modifiedInterestPoints = false;
 
@@ -199,21 +420,28 @@ public class InterestPointList
 
 			final File f = new File( getBaseDir(), getFile().toString() + getCorrespondencesExt() );
 
-			final PrintWriter out = TextFileAccess.openFileWriteEx( f );
+			if ( storageFormat == StorageFormat.BINARY )
+			{
+				InterestPointBinaryIO.saveCorrespondences( f, list );
+			}
+			else
+			{
+				final PrintWriter out = TextFileAccess.openFileWriteEx( f );
 
-			// header
-			out.println( "id" + "\t" + "corresponding_timepoint_id" + "\t" + "corresponding_viewsetup_id" + "\t" + "corresponding_label" + "\t" + "corresponding_id" );
+				// header
+				out.println( "id" + "\t" + "corresponding_timepoint_id" + "\t" + "corresponding_viewsetup_id" + "\t" + "corresponding_label" + "\t" + "corresponding_id" );
 
-			// id of the interestpoint from this List && for the corresponding interestpoint viewid(timepointId, viewsetupId), label, and id
-			for ( final CorrespondingInterestPoints p : list )
-				out.println(
-						Integer.toString( p.getDetectionId() ).concat( "\t" ).concat(
-						Integer.toString( p.getCorrespondingViewId().getTimePointId() ) ).concat( "\t" ).concat(
-						Integer.toString( p.getCorrespondingViewId().getViewSetupId() ) ).concat( "\t" ).concat(
-						p.getCorrespodingLabel() ).concat( "\t" ).concat(
-						Integer.toString( p.getCorrespondingDetectionId() ) ) );
+				// id of the interestpoint from this List && for the corresponding interestpoint viewid(timepointId, viewsetupId), label, and id
+				for ( final CorrespondingInterestPoints p : list )
+					out.println(
+							Integer.toString( p.getDetectionId() ).concat( "\t" ).concat(
+							Integer.toString( p.getCorrespondingViewId().getTimePointId() ) ).concat( "\t" ).concat(
+							Integer.toString( p.getCorrespondingViewId().getViewSetupId() ) ).concat( "\t" ).concat(
+							p.getCorrespodingLabel() ).concat( "\t" ).concat(
+							Integer.toString( p.getCorrespondingDetectionId() ) ) );
 
-			out.close();
+				out.close();
+			}
 
 			modifiedCorrespondingInterestPoints = false;
 
@@ -233,9 +461,21 @@ public class InterestPointList
 	{
 		try
 		{
+			final StorageFormat format = existingFormat( false );
+
+			if ( format == StorageFormat.BINARY )
+			{
+				this.correspondingInterestPoints = InterestPointBinaryIO.loadCorrespondences( new File( getBaseDir(), getFile().toString() + getCorrespondencesExt( format ) ) );
+
+				// written in the other format on the next save
+				modifiedCorrespondingInterestPoints = format != storageFormat;
+
+				return true;
+			}
+
 			final ArrayList< CorrespondingInterestPoints > correspondingInterestPoints = new ArrayList<>();
 
-			final BufferedReader in = TextFileAccess.openFileReadEx( new File( getBaseDir(), getFile().toString() + getCorrespondencesExt() ) );
+			final BufferedReader in = TextFileAccess.openFileReadEx( new File( getBaseDir(), getFile().toString() + getCorrespondencesExt( format ) ) );
 
 			// the header
 			do {} while ( !in.readLine().startsWith( "id" ) );
@@ -258,7 +498,7 @@ public class InterestPointList
 			in.close();
 
 			this.correspondingInterestPoints = correspondingInterestPoints;
-			modifiedCorrespondingInterestPoints = false;
+			modifiedCorrespondingInterestPoints = format != storageFormat;
 
 			return true;
 		}
@@ -276,9 +516,21 @@ public class InterestPointList
 	{
 		try
 		{
+			final StorageFormat format = existingFormat( true );
+
+			if ( format == StorageFormat.BINARY )
+			{
+				this.interestPoints = InterestPointBinaryIO.loadInterestPoints( new File( getBaseDir(), getFile().toString() + getInterestPointsExt( format ) ) );
+
+				// written in the other format on the next save
+				modifiedInterestPoints = format != storageFormat;
+
+				return true;
+			}
+
 			final ArrayList< InterestPoint > interestPoints = new ArrayList<>();
 
-			final BufferedReader in = TextFileAccess.openFileReadEx( new File( getBaseDir(), getFile().toString() + getInterestPointsExt() ) );
+			final BufferedReader in = TextFileAccess.openFileReadEx( new File( getBaseDir(), getFile().toString() + getInterestPointsExt( format ) ) );
 
 			// the header
 			do {} while ( !in.readLine().startsWith( "id" ) );
@@ -300,7 +552,7 @@ public class InterestPointList
 			in.close();
 
 			this.interestPoints = interestPoints;
-			modifiedInterestPoints = false;
+			modifiedInterestPoints = format != storageFormat;
 
 			return true;
 		} 
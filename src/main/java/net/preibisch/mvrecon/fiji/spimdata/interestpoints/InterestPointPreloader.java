@@ -0,0 +1,168 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata.interestpoints;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mpicbg.spim.data.sequence.ViewId;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
+
+/**
+ * Loads the interest point lists a plugin is going to use concurrently instead of one after the other once
+ * they are requested. Only the requested labels of the requested views are loaded, all others stay lazy.
+ * Loading is I/O bound (and parsing for text files), so it runs on its own bounded pool.
+ *
+ * @author Stephan Preibisch (stephan.preibisch@gmx.de)
+ */
+public class InterestPointPreloader
+{
+	// number of lists loaded at the same time
+	public static int numIOThreads = 8;
+
+	// below this number of lists that need loading, they are loaded lazily as before
+	public static int minLists = 2;
+
+	/**
+	 * @param interestPoints - all interest points
+	 * @param views - the views that will be used
+	 * @param labels - the labels that will be used (for all views)
+	 * @param correspondences - also load the corresponding interest points
+	 */
+	public static void preload(
+			final ViewInterestPoints interestPoints,
+			final Collection< ? extends ViewId > views,
+			final Collection< String > labels,
+			final boolean correspondences )
+	{
+		final ArrayList< InterestPointList > lists = new ArrayList<>();
+
+		for ( final ViewId viewId : views )
+		{
+			final ViewInterestPointLists vipl = interestPoints.getViewInterestPointLists( viewId );
+
+			if ( vipl != null )
+				for ( final String label : labels )
+					lists.add( vipl.getInterestPointList( label ) );
+		}
+
+		preload( lists, correspondences );
+	}
+
+	/**
+	 * @param interestPoints - the interest point lists of each view
+	 * @param views - the views that will be used
+	 * @param labelMap - which label is used for which view
+	 * @param correspondences - also load the corresponding interest points
+	 * @param <V> - view id type
+	 */
+	public static < V > void preload(
+			final Map< V, ViewInterestPointLists > interestPoints,
+			final Collection< ? extends V > views,
+			final Map< V, String > labelMap,
+			final boolean correspondences )
+	{
+		final ArrayList< InterestPointList > lists = new ArrayList<>();
+
+		for ( final V viewId : views )
+		{
+			final ViewInterestPointLists vipl = interestPoints.get( viewId );
+
+			if ( vipl != null && labelMap.get( viewId ) != null )
+				lists.add( vipl.getInterestPointList( labelMap.get( viewId ) ) );
+		}
+
+		preload( lists, correspondences );
+	}
+
+	/**
+	 * @param lists - the lists to load (null entries and lists that are in memory already are skipped)
+	 * @param correspondences - also load the corresponding interest points
+	 */
+	public static void preload( final Collection< InterestPointList > lists, final boolean correspondences )
+	{
+		// every list only once
+		final IdentityHashMap< InterestPointList, Boolean > unique = new IdentityHashMap<>();
+
+		for ( final InterestPointList list : lists )
+			if ( list != null && !list.isLoaded( correspondences ) )
+				unique.put( list, true );
+
+		final int n = unique.size();
+
+		if ( n < minLists )
+			return;
+
+		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Loading " + n + " interest point lists using " + Math.min( n, numIOThreads ) + " threads ..." );
+
+		final ExecutorService service = Threads.createFixedExecutorService( Math.min( n, numIOThreads ) );
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+		final AtomicInteger done = new AtomicInteger();
+		final int reportEvery = Math.max( 1, n / 10 );
+
+		for ( final InterestPointList list : unique.keySet() )
+		{
+			tasks.add( () ->
+			{
+				list.preload( correspondences );
+
+				final int d = done.incrementAndGet();
+
+				if ( d % reportEvery == 0 && d < n )
+					IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Loaded " + d + "/" + n + " interest point lists." );
+
+				return null;
+			});
+		}
+
+		try
+		{
+			final List< Future< Void > > futures = service.invokeAll( tasks );
+
+			for ( final Future< Void > future : futures )
+				future.get();
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			// lists that were not loaded are loaded lazily once they are requested
+			IOFunctions.println( "Failed to preload interest points: " + e );
+			e.printStackTrace();
+		}
+		finally
+		{
+			service.shutdown();
+		}
+
+		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Loaded " + n + " interest point lists." );
+	}
+}
@@ -0,0 +1,228 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata.interestpoints;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Multiresolution representation of an interest point list for rendering: an octree (2^n children per node)
+ * over the local coordinates where every node knows the number of points below it, their centroid and their
+ * bounding box, and the leaves are chunks of at most {@link #leafSize} points. A renderer descends only into
+ * visible nodes, draws coarse nodes that are small on screen as a density summary and the exact points only
+ * for visible leaves, so the cost depends on what is visible rather than on the size of the list.
+ *
+ * Built once from the {@link InterestPointIndex} of a list (sharing its coordinates) and cached by
+ * {@link InterestPointList#getPointPyramid()} until the interest points are modified. Immutable and thread-safe.
+ *
+ * @author Stephan Preibisch (stephan.preibisch@gmx.de)
+ */
+public class InterestPointPyramid
+{
+	public static int leafSize = 64;
+	public static int maxDepth = 20;
+
+	final InterestPointIndex index;
+	final int numDimensions;
+
+	// point indices, every node covers a contiguous range
+	final int[] points;
+
+	// per node
+	int numNodes;
+	int[] first, count, childStart, numChildren;
+	double[][] centroid, min, max;
+
+	protected InterestPointPyramid( final InterestPointIndex index )
+	{
+		this.index = index;
+		this.numDimensions = index.numDimensions();
+		this.points = new int[ index.size() ];
+
+		for ( int i = 0; i < points.length; ++i )
+			points[ i ] = i;
+
+		final int capacity = Math.max( 1, 2 * points.length / Math.max( 1, leafSize ) );
+
+		this.first = new int[ capacity ];
+		this.count = new int[ capacity ];
+		this.childStart = new int[ capacity ];
+		this.numChildren = new int[ capacity ];
+		this.centroid = new double[ numDimensions ][ capacity ];
+		this.min = new double[ numDimensions ][ capacity ];
+		this.max = new double[ numDimensions ][ capacity ];
+
+		final int root = newNodes( 1 );
+		build( root, 0, points.length, 0, new int[ points.length ], new int[ points.length ] );
+	}
+
+	public InterestPointIndex getIndex() { return index; }
+	public int numDimensions() { return numDimensions; }
+	public int numNodes() { return numNodes; }
+
+	/**
+	 * @return the node covering all points
+	 */
+	public int root() { return 0; }
+
+	public boolean isLeaf( final int node ) { return numChildren[ node ] == 0; }
+	public int numChildren( final int node ) { return numChildren[ node ]; }
+	public int child( final int node, final int i ) { return childStart[ node ] + i; }
+
+	/**
+	 * @param node - the node
+	 * @return the number of points of this node and all its children
+	 */
+	public int count( final int node ) { return count[ node ]; }
+
+	public double centroid( final int node, final int d ) { return centroid[ d ][ node ]; }
+	public double min( final int node, final int d ) { return min[ d ][ node ]; }
+	public double max( final int node, final int d ) { return max[ d ][ node ]; }
+
+	/**
+	 * @param node - the node
+	 * @param consumer - receives the index (in the interest point list, see {@link #getIndex()}) of every point of this node
+	 */
+	public void forEachPoint( final int node, final IntConsumer consumer )
+	{
+		for ( int i = first[ node ], e = first[ node ] + count[ node ]; i < e; ++i )
+			consumer.accept( points[ i ] );
+	}
+
+	/*
+	 * computes count, centroid and bounding box of points[lo,hi), then splits it into up to 2^n children at the center of the box
+	 */
+	protected void build( final int node, final int lo, final int hi, final int depth, final int[] codes, final int[] tmp )
+	{
+		final double[][] l = index.l;
+
+		first[ node ] = lo;
+		count[ node ] = hi - lo;
+		childStart[ node ] = numChildren[ node ] = 0;
+
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			double sum = 0, mn = Double.MAX_VALUE, mx = -Double.MAX_VALUE;
+
+			for ( int i = lo; i < hi; ++i )
+			{
+				final double v = l[ d ][ points[ i ] ];
+				sum += v;
+				mn = Math.min( mn, v );
+				mx = Math.max( mx, v );
+			}
+
+			centroid[ d ][ node ] = hi > lo ? sum / ( hi - lo ) : 0;
+			min[ d ][ node ] = mn;
+			max[ d ][ node ] = mx;
+		}
+
+		if ( hi - lo <= leafSize || depth >= maxDepth )
+			return;
+
+		// all points at the same location cannot be split
+		boolean extent = false;
+
+		for ( int d = 0; d < numDimensions && !extent; ++d )
+			extent = max[ d ][ node ] > min[ d ][ node ];
+
+		if ( !extent )
+			return;
+
+		// counting sort of the points by octant
+		final int numOctants = 1 << numDimensions;
+		final int[] octantCount = new int[ numOctants + 1 ];
+
+		for ( int i = lo; i < hi; ++i )
+		{
+			int code = 0;
+
+			for ( int d = 0; d < numDimensions; ++d )
+				if ( l[ d ][ points[ i ] ] > 0.5 * ( min[ d ][ node ] + max[ d ][ node ] ) )
+					code |= 1 << d;
+
+			codes[ i ] = code;
+			++octantCount[ code + 1 ];
+		}
+
+		for ( int o = 0; o < numOctants; ++o )
+			octantCount[ o + 1 ] += octantCount[ o ];
+
+		final int[] offset = Arrays.copyOf( octantCount, numOctants );
+
+		for ( int i = lo; i < hi; ++i )
+			tmp[ lo + offset[ codes[ i ] ]++ ] = points[ i ];
+
+		System.arraycopy( tmp, lo, points, lo, hi - lo );
+
+		// only non-empty octants become children, siblings are stored next to each other
+		int children = 0;
+
+		for ( int o = 0; o < numOctants; ++o )
+			if ( octantCount[ o + 1 ] > octantCount[ o ] )
+				++children;
+
+		final int start = newNodes( children );
+
+		childStart[ node ] = start;
+		numChildren[ node ] = children;
+
+		for ( int o = 0, c = start; o < numOctants; ++o )
+			if ( octantCount[ o + 1 ] > octantCount[ o ] )
+				build( c++, lo + octantCount[ o ], lo + octantCount[ o + 1 ], depth + 1, codes, tmp );
+	}
+
+	protected int newNodes( final int n )
+	{
+		if ( numNodes + n > first.length )
+		{
+			final int capacity = Math.max( numNodes + n, first.length * 2 );
+
+			first = Arrays.copyOf( first, capacity );
+			count = Arrays.copyOf( count, capacity );
+			childStart = Arrays.copyOf( childStart, capacity );
+			numChildren = Arrays.copyOf( numChildren, capacity );
+
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				centroid[ d ] = Arrays.copyOf( centroid[ d ], capacity );
+				min[ d ] = Arrays.copyOf( min[ d ], capacity );
+				max[ d ] = Arrays.copyOf( max[ d ], capacity );
+			}
+		}
+
+		final int start = numNodes;
+		numNodes += n;
+
+		return start;
+	}
+
+	/**
+	 * @param index - the spatial index of an interest point list
+	 * @return a new pyramid over the points of the index (sharing its coordinates)
+	 */
+	public static InterestPointPyramid build( final InterestPointIndex index )
+	{
+		return new InterestPointPyramid( index );
+	}
+}
@@ -0,0 +1,216 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata.interestpoints;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+
+import net.imglib2.RealLocalizable;
+
+/**
+ * Read-only, columnar view of the interest points of an {@link InterestPointList} that does not create
+ * an object per point. Binary files ({@link InterestPointBinaryIO}) are memory-mapped, so the coordinates
+ * are only read from disc when accessed; lists that are in memory are wrapped into one primitive array
+ * per dimension.
+ *
+ * Use {@link #accessor()} to iterate the points as {@link RealLocalizable} (a flyweight), or
+ * {@link #getInterestPoint(int)} to instantiate single points that need to be kept.
+ *
+ * @author Stephan Preibisch (stephan.preibisch@gmx.de)
+ */
+public class InterestPointsView
+{
+	final int size, numDimensions;
+	final IntBuffer ids;
+	final DoubleBuffer[] coordinates;
+
+	// id >> index, only built if ids are not equal to their index
+	HashMap< Integer, Integer > idToIndex = null;
+
+	protected InterestPointsView( final IntBuffer ids, final DoubleBuffer[] coordinates )
+	{
+		this.size = ids.limit();
+		this.numDimensions = coordinates.length;
+		this.ids = ids;
+		this.coordinates = coordinates;
+	}
+
+	public int size() { return size; }
+	public int numDimensions() { return numDimensions; }
+
+	public int getId( final int index ) { return ids.get( index ); }
+	public double getDoublePosition( final int index, final int d ) { return coordinates[ d ].get( index ); }
+
+	public void localize( final int index, final double[] position )
+	{
+		for ( int d = 0; d < numDimensions; ++d )
+			position[ d ] = coordinates[ d ].get( index );
+	}
+
+	/**
+	 * @param index - index of the point in this view
+	 * @return a new {@link InterestPoint} instance (local coordinates) for this point
+	 */
+	public InterestPoint getInterestPoint( final int index )
+	{
+		final double[] l = new double[ numDimensions ];
+		localize( index, l );
+
+		return new InterestPoint( getId( index ), l );
+	}
+
+	/**
+	 * @param id - the id of an interest point
+	 * @return its index in this view or -1 if it does not exist
+	 */
+	public synchronized int indexOf( final int id )
+	{
+		// ids are usually the index of the point
+		if ( idToIndex == null && id >= 0 && id < size && ids.get( id ) == id )
+			return id;
+
+		if ( idToIndex == null )
+		{
+			idToIndex = new HashMap<>( size * 2 );
+
+			for ( int i = 0; i < size; ++i )
+				idToIndex.put( ids.get( i ), i );
+		}
+
+		final Integer index = idToIndex.get( id );
+
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * @return a new flyweight that points to the first interest point, move it with {@link Accessor#setIndex(int)}
+	 */
+	public Accessor accessor() { return new Accessor(); }
+
+	public class Accessor implements RealLocalizable
+	{
+		int index = 0;
+
+		public void setIndex( final int index ) { this.index = index; }
+		public int getIndex() { return index; }
+		public int getId() { return ids.get( index ); }
+
+		@Override
+		public int numDimensions() { return numDimensions; }
+
+		@Override
+		public void localize( final float[] position )
+		{
+			for ( int d = 0; d < numDimensions; ++d )
+				position[ d ] = (float)coordinates[ d ].get( index );
+		}
+
+		@Override
+		public void localize( final double[] position )
+		{
+			for ( int d = 0; d < numDimensions; ++d )
+				position[ d ] = coordinates[ d ].get( index );
+		}
+
+		@Override
+		public float getFloatPosition( final int d ) { return (float)coordinates[ d ].get( index ); }
+
+		@Override
+		public double getDoublePosition( final int d ) { return coordinates[ d ].get( index ); }
+	}
+
+	/**
+	 * @param list - interest points in memory
+	 * @return a view on the local coordinates of the points
+	 */
+	public static InterestPointsView wrap( final List< ? extends InterestPoint > list )
+	{
+		final int n = list.size();
+		final int numDimensions = n == 0 ? 3 : list.get( 0 ).getL().length;
+
+		final int[] ids = new int[ n ];
+		final double[][] coordinates = new double[ numDimensions ][ n ];
+
+		for ( int i = 0; i < n; ++i )
+		{
+			final InterestPoint p = list.get( i );
+
+			ids[ i ] = p.getId();
+
+			for ( int d = 0; d < numDimensions; ++d )
+				coordinates[ d ][ i ] = p.getL()[ d ];
+		}
+
+		final DoubleBuffer[] buffers = new DoubleBuffer[ numDimensions ];
+
+		for ( int d = 0; d < numDimensions; ++d )
+			buffers[ d ] = DoubleBuffer.wrap( coordinates[ d ] ).asReadOnlyBuffer();
+
+		return new InterestPointsView( IntBuffer.wrap( ids ).asReadOnlyBuffer(), buffers );
+	}
+
+	/**
+	 * @param file - a binary interest point file as written by {@link InterestPointBinaryIO#saveInterestPoints(File, List)}
+	 * @return a view on the memory-mapped columns of the file, it is not affected if the file is saved again
+	 * (a new file replaces it)
+	 * @throws IOException - if the file cannot be read or is not a binary interest point file
+	 */
+	public static InterestPointsView map( final File file ) throws IOException
+	{
+		try ( final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) )
+		{
+			final ByteBuffer header = channel.map( MapMode.READ_ONLY, 0, 16 ).order( ByteOrder.LITTLE_ENDIAN );
+
+			if ( header.getInt() != InterestPointBinaryIO.MAGIC_INTERESTPOINTS )
+				throw new IOException( file + " is not a binary interest point file." );
+
+			if ( header.getInt() > InterestPointBinaryIO.VERSION )
+				throw new IOException( file + " was written by a newer version." );
+
+			final int n = header.getInt();
+			final int numDimensions = header.getInt();
+
+			if ( channel.size() < 16 + ( 4L + 8L * numDimensions ) * n )
+				throw new IOException( file + " is truncated." );
+
+			// every column is mapped separately, a single mapping is limited to 2GB
+			final IntBuffer ids = channel.map( MapMode.READ_ONLY, 16, 4L * n ).order( ByteOrder.LITTLE_ENDIAN ).asIntBuffer();
+			final DoubleBuffer[] coordinates = new DoubleBuffer[ numDimensions ];
+
+			for ( int d = 0; d < numDimensions; ++d )
+				coordinates[ d ] = channel.map( MapMode.READ_ONLY, 16 + 4L * n + 8L * n * d, 8L * n ).order( ByteOrder.LITTLE_ENDIAN ).asDoubleBuffer();
+
+			// mappings stay valid after the channel is closed
+			return new InterestPointsView( ids, coordinates );
+		}
+	}
+}
@@ -27,7 +27,9 @@ import java.util.HashMap;
 import mpicbg.spim.data.sequence.ViewId;
 
 /**
- * Maps from a String label to a list of interest points for a specific viewid
+ * Maps from a String label to a list of interest points for a specific viewid. contains(), get and add
+ * can be called concurrently, code that iterates the map returned by getHashMap() while other threads
+ * add lists needs to synchronize on it.
  * 
  * @author Stephan Preibisch (stephan.preibisch@gmx.de)
  *
@@ -43,8 +45,8 @@ public class ViewInterestPointLists extends ViewId
 		this.lookup = new HashMap< String, InterestPointList >();
 	}
 	
-	public boolean contains( final String label ) { return lookup.containsKey( label ); }
+	public boolean contains( final String label ) { synchronized ( lookup ) { return lookup.containsKey( label ); } }
 	public HashMap< String, InterestPointList > getHashMap() { return lookup; }
-	public InterestPointList getInterestPointList( final String label ) { return lookup.get( label ); }
-	public void addInterestPointList( final String label, final InterestPointList pointList ) { lookup.put( label, pointList ); }
+	public InterestPointList getInterestPointList( final String label ) { synchronized ( lookup ) { return lookup.get( label ); } }
+	public void addInterestPointList( final String label, final InterestPointList pointList ) { synchronized ( lookup ) { lookup.put( label, pointList ); } }
 }
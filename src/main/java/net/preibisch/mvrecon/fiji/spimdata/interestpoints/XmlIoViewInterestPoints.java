@@ -23,6 +23,7 @@
 package net.preibisch.mvrecon.fiji.spimdata.interestpoints;
 
 import static net.preibisch.mvrecon.fiji.spimdata.interestpoints.XmlKeysInterestPoints.VIEWINTERESTPOINTSFILE_TAG;
+import static net.preibisch.mvrecon.fiji.spimdata.interestpoints.XmlKeysInterestPoints.VIEWINTERESTPOINTS_FORMAT_ATTRIBUTE_NAME;
 import static net.preibisch.mvrecon.fiji.spimdata.interestpoints.XmlKeysInterestPoints.VIEWINTERESTPOINTS_LABEL_ATTRIBUTE_NAME;
 import static net.preibisch.mvrecon.fiji.spimdata.interestpoints.XmlKeysInterestPoints.VIEWINTERESTPOINTS_PARAMETERS_ATTRIBUTE_NAME;
 import static net.preibisch.mvrecon.fiji.spimdata.interestpoints.XmlKeysInterestPoints.VIEWINTERESTPOINTS_SETUP_ATTRIBUTE_NAME;
@@ -39,6 +40,7 @@ import mpicbg.spim.data.generic.base.XmlIoSingleton;
 import mpicbg.spim.data.sequence.ViewDescription;
 import mpicbg.spim.data.sequence.ViewId;
 import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList.StorageFormat;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
 
 import org.jdom2.Element;
@@ -87,25 +89,58 @@ public class XmlIoViewInterestPoints extends XmlIoSingleton< ViewInterestPoints
 			final int setupId = Integer.parseInt( viewInterestPointsElement.getAttributeValue( VIEWINTERESTPOINTS_SETUP_ATTRIBUTE_NAME ) );
 			final String label = viewInterestPointsElement.getAttributeValue( VIEWINTERESTPOINTS_LABEL_ATTRIBUTE_NAME );
 			final String parameters = viewInterestPointsElement.getAttributeValue( VIEWINTERESTPOINTS_PARAMETERS_ATTRIBUTE_NAME );
+			final String format = viewInterestPointsElement.getAttributeValue( VIEWINTERESTPOINTS_FORMAT_ATTRIBUTE_NAME );
 
 			final String interestPointFileName = viewInterestPointsElement.getTextTrim();
 
-			final ViewId viewId = new ViewId( timepointId, setupId );
-			final ViewInterestPointLists collection = viewsInterestPoints.getViewInterestPointLists( viewId );
+			addInterestPointList( viewsInterestPoints, basePath, timepointId, setupId, label, parameters, format, interestPointFileName );
+		}
 
-			if ( collection == null )
-			{
-				IOFunctions.println( "WARNING: Interestpoints are defined for a non-existing view: " + Group.pvid( viewId ) + " ... ignoring it.");
-				continue;
-			}
+		return viewsInterestPoints;
+	}
+
+	/**
+	 * Adds the reference to one interest point list (the points are not loaded until they are requested).
+	 *
+	 * @param viewsInterestPoints - the interest points of all views
+	 * @param basePath - the path where the xml is
+	 * @param timepointId - timepoint of the view
+	 * @param setupId - setup of the view
+	 * @param label - label of the list
+	 * @param parameters - parameters the points were detected with
+	 * @param format - storage format ("text", "binary"), null for text
+	 * @param interestPointFileName - relative path of the list without extension
+	 * @return false if the view does not exist
+	 */
+	public static boolean addInterestPointList(
+			final ViewInterestPoints viewsInterestPoints,
+			final File basePath,
+			final int timepointId,
+			final int setupId,
+			final String label,
+			final String parameters,
+			final String format,
+			final String interestPointFileName )
+	{
+		final ViewId viewId = new ViewId( timepointId, setupId );
+		final ViewInterestPointLists collection = viewsInterestPoints.getViewInterestPointLists( viewId );
 
-			// we do not load the interestpoints nor the correspondinginterestpoints, we just do that once it is requested
-			final InterestPointList list = new InterestPointList( basePath, new File( interestPointFileName ) );
-			list.setParameters( parameters );
-			collection.addInterestPointList( label, list );
+		if ( collection == null )
+		{
+			IOFunctions.println( "WARNING: Interestpoints are defined for a non-existing view: " + Group.pvid( viewId ) + " ... ignoring it.");
+			return false;
 		}
 
-		return viewsInterestPoints;
+		// we do not load the interestpoints nor the correspondinginterestpoints, we just do that once it is requested
+		final InterestPointList list = new InterestPointList( basePath, new File( interestPointFileName ) );
+		list.setParameters( parameters );
+
+		// XMLs without a format attribute always refer to text files
+		list.storageFormat = format == null ? StorageFormat.TEXT : StorageFormat.valueOf( format.toUpperCase() );
+
+		collection.addInterestPointList( label, list );
+
+		return true;
 	}
 
 	protected Element viewInterestPointsToXml( final InterestPointList interestPointList, final int tpId, final int viewId, final String label )
@@ -115,6 +150,11 @@ public class XmlIoViewInterestPoints extends XmlIoSingleton< ViewInterestPoints
 		elem.setAttribute( VIEWINTERESTPOINTS_SETUP_ATTRIBUTE_NAME, Integer.toString( viewId ) );
 		elem.setAttribute( VIEWINTERESTPOINTS_LABEL_ATTRIBUTE_NAME, label );
 		elem.setAttribute( VIEWINTERESTPOINTS_PARAMETERS_ATTRIBUTE_NAME, interestPointList.getParameters() );
+
+		// only written for binary lists, so XMLs using text files remain readable by older versions
+		if ( interestPointList.getStorageFormat() != StorageFormat.TEXT )
+			elem.setAttribute( VIEWINTERESTPOINTS_FORMAT_ATTRIBUTE_NAME, interestPointList.getStorageFormat().name().toLowerCase() );
+
 		// a hack so that windows does not put its backslashes in
 		elem.setText( interestPointList.getFile().toString().replace( "\\", "/" ) );
 
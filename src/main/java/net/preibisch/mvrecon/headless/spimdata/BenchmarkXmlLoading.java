@@ -0,0 +1,100 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.headless.spimdata;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import mpicbg.spim.data.SpimDataException;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.StreamingXmlIoSpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.XmlIoSpimData2;
+
+/**
+ * Compares parse time and peak heap of loading an XML through JDOM ({@link XmlIoSpimData2}) and
+ * through the StAX stream reader ({@link StreamingXmlIoSpimData2}).
+ *
+ * Usage: BenchmarkXmlLoading dataset.xml [repetitions], run with a fixed heap (-Xms = -Xmx) for comparable results
+ */
+public class BenchmarkXmlLoading
+{
+	public interface Loader
+	{
+		public SpimData2 load( final String xmlFilename ) throws SpimDataException;
+	}
+
+	public static void main( String[] args ) throws SpimDataException
+	{
+		final String file = args.length > 0 ? args[ 0 ] : "/Users/spreibi/Documents/Microscopy/SPIM/HisYFP-SPIM/dataset.xml";
+		final int repetitions = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 5;
+
+		System.out.println( "xml: " + file );
+
+		for ( int r = 0; r < repetitions; ++r )
+		{
+			benchmark( "jdom", file, xml -> new XmlIoSpimData2( "" ).load( xml ) );
+			benchmark( "stax", file, xml -> new StreamingXmlIoSpimData2().load( xml ) );
+		}
+	}
+
+	public static SpimData2 benchmark( final String name, final String file, final Loader loader ) throws SpimDataException
+	{
+		System.gc();
+
+		for ( final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+			if ( pool.getType() == MemoryType.HEAP )
+				pool.resetPeakUsage();
+
+		final long before = usedHeap();
+		final long time = System.nanoTime();
+
+		final SpimData2 data = loader.load( file );
+
+		final double ms = ( System.nanoTime() - time ) / 1000000.0;
+
+		// the peaks of the individual pools do not necessarily occur at the same time, so this is an upper bound
+		long peak = 0;
+
+		for ( final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+			if ( pool.getType() == MemoryType.HEAP )
+				peak += pool.getPeakUsage().getUsed();
+
+		System.gc();
+
+		final long retained = usedHeap() - before;
+
+		System.out.println(
+				name + ": " + String.format( "%.1f", ms ) + " ms, peak heap <= " + ( peak / ( 1024 * 1024 ) ) + " MB, retained " + ( retained / ( 1024 * 1024 ) ) + " MB, " +
+				data.getSequenceDescription().getViewDescriptions().size() + " views, " +
+				data.getViewRegistrations().getViewRegistrations().size() + " registrations" );
+
+		return data;
+	}
+
+	public static long usedHeap()
+	{
+		final Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
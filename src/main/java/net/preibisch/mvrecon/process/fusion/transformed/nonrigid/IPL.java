@@ -22,21 +22,58 @@
  */
 package net.preibisch.mvrecon.process.fusion.transformed.nonrigid;
 
+import java.util.HashMap;
 import java.util.Map;
 
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointsView;
 
 public class IPL
 {
 	final String label;
 	final Map< Integer, InterestPoint > map;
+	final InterestPointsView view;
 
 	public IPL( final String label, final Map< Integer, InterestPoint > map )
 	{
 		this.label = label;
 		this.map = map;
+		this.view = null;
+	}
+
+	/**
+	 * @param label - the label
+	 * @param view - all interest points, only those requested through {@link #get(int)} are instantiated
+	 */
+	public IPL( final String label, final InterestPointsView view )
+	{
+		this.label = label;
+		this.map = new HashMap<>();
+		this.view = view;
 	}
 
 	public String getLabel() { return label; }
 	public Map< Integer, InterestPoint > getInterestPointMap() { return map; }
+
+	/**
+	 * @param id - id of the interest point
+	 * @return the interest point (always the same instance for the same id), null if it does not exist
+	 */
+	public InterestPoint get( final int id )
+	{
+		InterestPoint ip = map.get( id );
+
+		if ( ip == null && view != null )
+		{
+			final int index = view.indexOf( id );
+
+			if ( index >= 0 )
+			{
+				ip = view.getInterestPoint( index );
+				map.put( id, ip );
+			}
+		}
+
+		return ip;
+	}
 }
@@ -828,11 +828,8 @@ public class NonRigidTools
 		// sort all ViewIds into a set
 		final HashSet< ViewId > views = new HashSet<>( viewsToUse );
 
-		// sort all interest points into a HashMap
-		final HashMap< Integer, InterestPoint > ips = new HashMap<>();
-
-		for ( final InterestPoint ip : ipList.getInterestPointsCopy() )
-			ips.put( ip.getId(), ip );
+		// only interest points that have correspondences are instantiated
+		final IPL ips = new IPL( null, ipList.getInterestPointsView() );
 
 		// sort all corresponding interest points into a HashMap
 		final HashMap< ViewId, List< IPL > > loadedIps = new HashMap<>();
@@ -891,19 +888,13 @@ public class NonRigidTools
 					return null;
 				}
 
-				final HashMap< Integer, InterestPoint > corrIps = new HashMap<>();
-
-				// sort all corresponding interest points into a HashMap
-				for ( final InterestPoint corrIp : corrIpList.getInterestPointsCopy() )
-					corrIps.put( corrIp.getId(), corrIp );
-
-				ipl = new IPL( corrLabel, corrIps );
+				ipl = new IPL( corrLabel, corrIpList.getInterestPointsView() );
 
 				ipls.add( ipl );
 			}
 
 			final int corrId = cip.getCorrespondingDetectionId();
-			final InterestPoint corrIp = ipl.map.get( corrId );
+			final InterestPoint corrIp = ipl.get( corrId );
 
 			if ( corrIp == null )
 			{
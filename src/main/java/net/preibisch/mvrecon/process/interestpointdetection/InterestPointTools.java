@@ -36,6 +36,7 @@ import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.CorrespondingInterestPoints;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList.StorageFormat;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointValue;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPointLists;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPoints;
@@ -182,6 +183,21 @@ public class InterestPointTools
 	 * @return the true if successful, false if interest points cannot be saved
 	 */
 	public static boolean addInterestPoints( final SpimData2 data, final String label, final HashMap< ViewId, List< InterestPoint > > points, final String parameters )
+	{
+		return addInterestPoints( data, label, points, parameters, InterestPointList.defaultStorageFormat );
+	}
+
+	/**
+	 * Add interest points.
+	 *
+	 * @param data the data
+	 * @param label the label
+	 * @param points the points
+	 * @param parameters the parameters
+	 * @param storageFormat the format the interest points and correspondences are saved in
+	 * @return the true if successful, false if interest points cannot be saved
+	 */
+	public static boolean addInterestPoints( final SpimData2 data, final String label, final HashMap< ViewId, List< InterestPoint > > points, final String parameters, final StorageFormat storageFormat )
 	{
 		for ( final ViewId viewId : points.keySet() )
 		{
@@ -192,6 +208,8 @@ public class InterestPointTools
 									"interestpoints", "tpId_" + viewId.getTimePointId() +
 									"_viewSetupId_" + viewId.getViewSetupId() + "." + label ) );
 
+			list.setStorageFormat( storageFormat );
+
 			if ( parameters != null )
 				list.setParameters( parameters );
 			else
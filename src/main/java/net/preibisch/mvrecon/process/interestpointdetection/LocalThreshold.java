@@ -0,0 +1,301 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointdetection;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import net.imglib2.Localizable;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.process.interestpointdetection.methods.dog.DoGImgLib2;
+
+/**
+ * Adaptive (local) threshold for DoG/DoM detections in unevenly illuminated images.
+ *
+ * The response image is divided into a coarse grid of blocks, for each block the noise level
+ * is estimated robustly as 1.4826 * MAD (median absolute deviation from the median) of a regular
+ * subsample of the block. The scale of a block is its noise level relative to the median noise
+ * level of all blocks, the threshold for a peak is the global threshold times the scale of its
+ * block. Dim, attenuated regions therefore get a lower threshold, bright and noisy regions a
+ * higher one, while the global threshold keeps its meaning for a typical block.
+ *
+ * @author Stephan Preibisch
+ */
+public class LocalThreshold
+{
+	public static int[] defaultBlockSize = new int[] { 128, 128, 64 };
+	public static int defaultSamplesPerBlock = 8192;
+
+	// limits for the threshold relative to the global threshold
+	public static float minScale = 0.1f;
+	public static float maxScale = 10.0f;
+
+	final CellGrid grid;
+	final long[] min;
+	final int[] blockSize;
+	final long[] gridDim;
+	final float[] scale;
+
+	/**
+	 * @param response - the DoG/DoM image
+	 * @param service - the ExecutorService to use
+	 */
+	public LocalThreshold( final RandomAccessibleInterval< FloatType > response, final ExecutorService service )
+	{
+		this( response, defaultBlockSize, defaultSamplesPerBlock, service );
+	}
+
+	/**
+	 * @param response - the DoG/DoM image
+	 * @param blockSize - size of the blocks for which the noise is estimated
+	 * @param samplesPerBlock - approximate number of pixels sampled per block
+	 * @param service - the ExecutorService to use
+	 */
+	public LocalThreshold(
+			final RandomAccessibleInterval< FloatType > response,
+			final int[] blockSize,
+			final int samplesPerBlock,
+			final ExecutorService service )
+	{
+		final int n = response.numDimensions();
+
+		this.min = new long[ n ];
+		response.min( this.min );
+		this.blockSize = new int[ n ];
+
+		for ( int d = 0; d < n; ++d )
+			this.blockSize[ d ] = d < blockSize.length ? blockSize[ d ] : blockSize[ blockSize.length - 1 ];
+
+		this.grid = new CellGrid( Intervals.dimensionsAsLongArray( response ), this.blockSize );
+		this.gridDim = grid.getGridDimensions();
+
+		final int numBlocks = (int)Intervals.numElements( gridDim );
+		final float[] noise = new float[ numBlocks ];
+
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+
+		for ( int i = 0; i < numBlocks; ++i )
+		{
+			final int block = i;
+
+			tasks.add( new Callable< Void >()
+			{
+				@Override
+				public Void call() throws Exception
+				{
+					final long[] blockMin = new long[ n ];
+					final int[] blockDim = new int[ n ];
+					grid.getCellDimensions( block, blockMin, blockDim );
+
+					noise[ block ] = (float)estimateNoise( response, min, blockMin, blockDim, samplesPerBlock );
+
+					return null;
+				}
+			});
+		}
+
+		try
+		{
+			for ( final Future< Void > future : service.invokeAll( tasks ) )
+				future.get();
+		}
+		catch ( final Exception e )
+		{
+			IOFunctions.println( "Failed to estimate local noise: " + e );
+			e.printStackTrace();
+		}
+
+		// the reference is the median noise of all blocks that are not empty
+		final ArrayList< Double > nonZero = new ArrayList<>();
+
+		for ( final float v : noise )
+			if ( v > 0 )
+				nonZero.add( (double)v );
+
+		final double reference;
+
+		if ( nonZero.size() == 0 )
+		{
+			reference = 0;
+		}
+		else
+		{
+			final double[] values = new double[ nonZero.size() ];
+			for ( int i = 0; i < values.length; ++i )
+				values[ i ] = nonZero.get( i );
+
+			reference = Util.median( values );
+		}
+
+		this.scale = new float[ numBlocks ];
+
+		for ( int i = 0; i < numBlocks; ++i )
+		{
+			if ( reference <= 0 )
+				scale[ i ] = 1.0f;
+			else
+				scale[ i ] = (float)Math.max( minScale, Math.min( maxScale, noise[ i ] / reference ) );
+		}
+
+		if ( !DoGImgLib2.silent )
+			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Adaptive threshold, " + numBlocks +
+					" blocks, reference noise=" + reference + ", scale=[" + min( scale ) + " ... " + max( scale ) + "]" );
+	}
+
+	/**
+	 * @param position - location in the response image
+	 * @return the factor by which the global threshold is multiplied at this location
+	 */
+	public float scale( final Localizable position )
+	{
+		return scale[ blockIndex( position ) ];
+	}
+
+	public float scale( final long[] position )
+	{
+		int index = 0;
+
+		for ( int d = position.length - 1; d >= 0; --d )
+			index = index * (int)gridDim[ d ] + (int)Math.min( gridDim[ d ] - 1, Math.max( 0, ( position[ d ] - min[ d ] ) / blockSize[ d ] ) );
+
+		return scale[ index ];
+	}
+
+	public float scale( final double[] position )
+	{
+		int index = 0;
+
+		for ( int d = position.length - 1; d >= 0; --d )
+			index = index * (int)gridDim[ d ] + (int)Math.min( gridDim[ d ] - 1, Math.max( 0, ( Math.round( position[ d ] ) - min[ d ] ) / blockSize[ d ] ) );
+
+		return scale[ index ];
+	}
+
+	/**
+	 * Removes all detections whose intensity is below the local threshold
+	 *
+	 * @param points - the detections, must be InterestPointValue, positions relative to the response image
+	 * @param threshold - the global threshold
+	 * @return the remaining detections
+	 */
+	public ArrayList< InterestPoint > filter( final List< InterestPoint > points, final float threshold )
+	{
+		final ArrayList< InterestPoint > filtered = new ArrayList<>();
+
+		for ( final InterestPoint p : points )
+			if ( Math.abs( ((InterestPointValue)p).getIntensity() ) >= threshold * scale( p.getL() ) )
+				filtered.add( p );
+
+		return filtered;
+	}
+
+	protected int blockIndex( final Localizable position )
+	{
+		int index = 0;
+
+		for ( int d = position.numDimensions() - 1; d >= 0; --d )
+			index = index * (int)gridDim[ d ] + (int)Math.min( gridDim[ d ] - 1, Math.max( 0, ( position.getLongPosition( d ) - min[ d ] ) / blockSize[ d ] ) );
+
+		return index;
+	}
+
+	protected static double estimateNoise(
+			final RandomAccessibleInterval< FloatType > response,
+			final long[] min,
+			final long[] blockMin,
+			final int[] blockDim,
+			final int samplesPerBlock )
+	{
+		final int n = blockDim.length;
+
+		// regular subsampling with the same step in all dimensions
+		long numPixels = 1;
+		for ( int d = 0; d < n; ++d )
+			numPixels *= blockDim[ d ];
+
+		final int step = Math.max( 1, (int)Math.ceil( Math.pow( (double)numPixels / samplesPerBlock, 1.0 / n ) ) );
+
+		final int[] numSamples = new int[ n ];
+		int total = 1;
+
+		for ( int d = 0; d < n; ++d )
+		{
+			numSamples[ d ] = ( blockDim[ d ] + step - 1 ) / step;
+			total *= numSamples[ d ];
+		}
+
+		final double[] values = new double[ total ];
+		final int[] pos = new int[ n ];
+		final RandomAccess< FloatType > ra = response.randomAccess();
+
+		for ( int i = 0; i < total; ++i )
+		{
+			for ( int d = 0; d < n; ++d )
+				ra.setPosition( min[ d ] + blockMin[ d ] + (long)pos[ d ] * step, d );
+
+			values[ i ] = ra.get().get();
+
+			// next sample position
+			for ( int d = 0; d < n; ++d )
+			{
+				if ( ++pos[ d ] < numSamples[ d ] )
+					break;
+
+				pos[ d ] = 0;
+			}
+		}
+
+		final double median = Util.median( values );
+
+		for ( int i = 0; i < total; ++i )
+			values[ i ] = Math.abs( values[ i ] - median );
+
+		return 1.4826 * Util.median( values );
+	}
+
+	private static float min( final float[] values )
+	{
+		float min = Float.MAX_VALUE;
+		for ( final float v : values )
+			min = Math.min( min, v );
+		return min;
+	}
+
+	private static float max( final float[] values )
+	{
+		float max = -Float.MAX_VALUE;
+		for ( final float v : values )
+			max = Math.max( max, v );
+		return max;
+	}
+}
@@ -24,6 +24,7 @@ package net.preibisch.mvrecon.process.interestpointdetection;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.legacy.segmentation.SimplePeak;
@@ -40,26 +41,29 @@ import mpicbg.imglib.type.numeric.real.FloatType;
 public class Localization
 {
 	public static ArrayList< InterestPoint > noLocalization( final ArrayList< SimplePeak > peaks, final boolean findMin, final boolean findMax, final boolean keepIntensity )
+	{
+		return noLocalization( PeakBuffer.fromSimplePeaks( peaks ), findMin, findMax, keepIntensity );
+	}
+
+	public static ArrayList< InterestPoint > noLocalization( final PeakBuffer peaks, final boolean findMin, final boolean findMax, final boolean keepIntensity )
 	{
 		if ( !DoGImgLib2.silent )
 			IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): NO subpixel localization" );
 
-		final int n = peaks.get( 0 ).location.length;
+		final int n = peaks.numDimensions();
 		final ArrayList< InterestPoint > peaks2 = new ArrayList< InterestPoint >();
 		
 		int id = 0;
 		
-		for ( final SimplePeak peak : peaks )
+		for ( int i = 0; i < peaks.size(); ++i )
 		{
-			if ( ( peak.isMax && findMax ) || ( peak.isMin && findMin ) )
+			if ( ( peaks.isMax( i ) && findMax ) || ( peaks.isMin( i ) && findMin ) )
 			{
 				final double[] pos = new double[ n ];
-				
-				for ( int d = 0; d < n; ++d )
-					pos[ d ] = peak.location[ d ];
-				
+				peaks.localize( i, pos );
+
 				if ( keepIntensity )
-					peaks2.add( new InterestPointValue( id++, pos, peak.intensity ) );
+					peaks2.add( new InterestPointValue( id++, pos, peaks.getIntensity( i ) ) );
 				else
 					peaks2.add( new InterestPoint( id++, pos ) );
 			}
@@ -69,15 +73,26 @@ public class Localization
 	}
 
 	public static ArrayList< InterestPoint > computeQuadraticLocalization( final ArrayList< SimplePeak > peaks, final Image< FloatType > domImg, final boolean findMin, final boolean findMax, final float threshold, final boolean keepIntensity, final int numThreads )
+	{
+		return computeQuadraticLocalization( PeakBuffer.fromSimplePeaks( peaks ), domImg, findMin, findMax, threshold, keepIntensity, numThreads );
+	}
+
+	public static ArrayList< InterestPoint > computeQuadraticLocalization( final PeakBuffer peaks, final Image< FloatType > domImg, final boolean findMin, final boolean findMax, final float threshold, final boolean keepIntensity, final int numThreads )
 	{
 		if ( !DoGImgLib2.silent )
 			IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): Subpixel localization using quadratic n-dimensional fit");
 
-		final ArrayList< DifferenceOfGaussianPeak<FloatType> > peakList = new ArrayList<DifferenceOfGaussianPeak<FloatType>>();
+		final ArrayList< DifferenceOfGaussianPeak<FloatType> > peakList = new ArrayList<DifferenceOfGaussianPeak<FloatType>>( peaks.size() );
 
-		for ( final SimplePeak peak : peaks )
-			if ( ( peak.isMax && findMax ) || ( peak.isMin && findMin ) )
-				peakList.add( new DifferenceOfGaussianPeak<FloatType>( peak.location, new FloatType( peak.intensity ), SpecialPoint.MAX ) );
+		for ( int i = 0; i < peaks.size(); ++i )
+		{
+			if ( ( peaks.isMax( i ) && findMax ) || ( peaks.isMin( i ) && findMin ) )
+			{
+				final int[] location = new int[ peaks.numDimensions() ];
+				peaks.localize( i, location );
+				peakList.add( new DifferenceOfGaussianPeak<FloatType>( location, new FloatType( peaks.getIntensity( i ) ), SpecialPoint.MAX ) );
+			}
+		}
 
 		final SubpixelLocalization<FloatType> spl = new SubpixelLocalization<FloatType>( domImg, peakList );
 		spl.setAllowMaximaTolerance( true );
@@ -112,10 +127,29 @@ public class Localization
 	}
 	
 	public static ArrayList< InterestPoint > computeGaussLocalization( final ArrayList< SimplePeak > peaks, final Image< FloatType > domImg, final double sigma, final boolean findMin, final boolean findMax, final float threshold, final boolean keepIntensity )
+	{
+		return computeGaussLocalization( PeakBuffer.fromSimplePeaks( peaks ), domImg, sigma, findMin, findMax, threshold, keepIntensity );
+	}
+
+	public static ArrayList< InterestPoint > computeGaussLocalization( final PeakBuffer peaks, final Image< FloatType > domImg, final double sigma, final boolean findMin, final boolean findMax, final float threshold, final boolean keepIntensity )
 	{
 		IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): Subpixel localization using Gaussian Mask Localization");					
 
 		// TODO: implement gauss fit
 		throw new RuntimeException( "Gauss fit not implemented yet" );
-	}	
+	}
+
+	/**
+	 * @param points - detections, possibly with intensities (InterestPointValue)
+	 * @return the same detections (ids and positions) as plain InterestPoints
+	 */
+	public static ArrayList< InterestPoint > removeIntensity( final List< InterestPoint > points )
+	{
+		final ArrayList< InterestPoint > plain = new ArrayList< InterestPoint >( points.size() );
+
+		for ( final InterestPoint p : points )
+			plain.add( new InterestPoint( p.getId(), p.getL().clone() ) );
+
+		return plain;
+	}
 }
@@ -0,0 +1,283 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointdetection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+import mpicbg.spim.data.generic.sequence.BasicViewSetup;
+import mpicbg.spim.data.registration.ViewRegistration;
+import mpicbg.spim.data.sequence.ViewDescription;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.FinalInterval;
+import net.imglib2.FinalRealInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointValue;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.SimpleBoundingBoxOverlap;
+
+/**
+ * Restricts interest point detection to the regions where a view overlaps with other views,
+ * since only those can contribute to the registration.
+ *
+ * @author Stephan Preibisch
+ */
+public class OverlapRegions
+{
+	/**
+	 * For every view, computes the overlap with all other views of the same timepoint (using the
+	 * current registrations), expressed in the local (full-resolution) pixel coordinates of the view.
+	 * Views that share tile and angle (e.g. other channels or illuminations of the same stack) are
+	 * not considered as neighbors as they overlap completely.
+	 *
+	 * @param data - the SpimData2
+	 * @param viewIds - the views to process
+	 * @return for every view a list of overlapping intervals (possibly empty)
+	 */
+	public static HashMap< ViewId, List< RealInterval > > computeOverlapRegions(
+			final SpimData2 data,
+			final Collection< ? extends ViewId > viewIds )
+	{
+		final SimpleBoundingBoxOverlap< ViewId > overlap = new SimpleBoundingBoxOverlap<>( data );
+		final HashMap< ViewId, List< RealInterval > > regions = new HashMap<>();
+
+		for ( final ViewId viewA : viewIds )
+		{
+			final ViewDescription vdA = data.getSequenceDescription().getViewDescription( viewA );
+			final BasicViewSetup vsA = vdA.getViewSetup();
+			final ArrayList< RealInterval > list = new ArrayList<>();
+
+			final ViewRegistration vr = data.getViewRegistrations().getViewRegistration( viewA );
+			vr.updateModel();
+			final AffineTransform3D inverse = vr.getModel().inverse();
+
+			final long[] maxA = new long[ vsA.getSize().numDimensions() ];
+			for ( int d = 0; d < maxA.length; ++d )
+				maxA[ d ] = vsA.getSize().dimension( d ) - 1;
+
+			for ( final ViewId viewB : viewIds )
+			{
+				if ( viewA.equals( viewB ) || viewA.getTimePointId() != viewB.getTimePointId() )
+					continue;
+
+				final ViewDescription vdB = data.getSequenceDescription().getViewDescription( viewB );
+
+				if ( vdA.getViewSetup().getTile().getId() == vdB.getViewSetup().getTile().getId() &&
+					 vdA.getViewSetup().getAngle().getId() == vdB.getViewSetup().getAngle().getId() )
+					continue;
+
+				final RealInterval global = overlap.getOverlapInterval( viewA, viewB );
+
+				if ( global == null )
+					continue;
+
+				// back into the local coordinates of view A
+				final RealInterval local = inverse.estimateBounds( global );
+
+				final double[] min = new double[ maxA.length ];
+				final double[] max = new double[ maxA.length ];
+				boolean empty = false;
+
+				for ( int d = 0; d < maxA.length; ++d )
+				{
+					min[ d ] = Math.max( 0, local.realMin( d ) );
+					max[ d ] = Math.min( maxA[ d ], local.realMax( d ) );
+
+					if ( max[ d ] < min[ d ] )
+						empty = true;
+				}
+
+				if ( !empty )
+					list.add( new FinalRealInterval( min, max ) );
+			}
+
+			regions.put( viewA, list );
+
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): View " + Group.pvid( viewA ) + " overlaps with " + list.size() + " other view(s)." );
+		}
+
+		return regions;
+	}
+
+	/**
+	 * Maps overlap regions given in full-resolution pixel coordinates into the (downsampled) image
+	 *
+	 * @param regions - the overlap regions in full-resolution pixel coordinates
+	 * @param mipmapTransform - the transform from the downsampled image to full-resolution (as returned by DownsampleTools.openAndDownsample)
+	 * @param image - the (downsampled) image
+	 * @return the non-empty intervals inside the image
+	 */
+	public static ArrayList< Interval > toImageIntervals(
+			final List< RealInterval > regions,
+			final AffineTransform3D mipmapTransform,
+			final Interval image )
+	{
+		final AffineTransform3D inverse = mipmapTransform.inverse();
+		final ArrayList< Interval > intervals = new ArrayList<>();
+
+		for ( final RealInterval region : regions )
+		{
+			final RealInterval ds = inverse.estimateBounds( region );
+
+			final long[] min = new long[ image.numDimensions() ];
+			final long[] max = new long[ image.numDimensions() ];
+
+			for ( int d = 0; d < min.length; ++d )
+			{
+				min[ d ] = (long)Math.floor( ds.realMin( d ) );
+				max[ d ] = (long)Math.ceil( ds.realMax( d ) );
+			}
+
+			final Interval interval = Intervals.intersect( new FinalInterval( min, max ), image );
+
+			if ( !Intervals.isEmpty( interval ) )
+				intervals.add( interval );
+		}
+
+		return intervals;
+	}
+
+	/**
+	 * Runs a detection on every interval (expanded by a margin so the filters see the same
+	 * neighborhood as for the whole image) and keeps each detection only for the first interval
+	 * containing it, i.e. the result covers the union of all intervals exactly once.
+	 *
+	 * @param input - the image
+	 * @param intervals - the intervals to process
+	 * @param margin - the support of the detection filter in pixels
+	 * @param detector - detects points in a RandomAccessibleInterval, coordinates relative to the image
+	 * @param <T> - pixel type
+	 * @return the detections with new, unique ids
+	 */
+	public static < T > ArrayList< InterestPoint > detect(
+			final RandomAccessibleInterval< T > input,
+			final List< ? extends Interval > intervals,
+			final int margin,
+			final Function< RandomAccessibleInterval< T >, List< InterestPoint > > detector )
+	{
+		final ArrayList< InterestPoint > points = new ArrayList<>();
+
+		long numPixels = 0;
+
+		for ( int i = 0; i < intervals.size(); ++i )
+		{
+			final Interval interval = intervals.get( i );
+			final Interval expanded = Intervals.intersect( Intervals.expand( interval, margin ), input );
+
+			numPixels += Intervals.numElements( expanded );
+
+			for ( final InterestPoint p : detector.apply( Views.interval( input, expanded ) ) )
+			{
+				final double[] l = p.getL();
+
+				if ( !contains( interval, l ) )
+					continue;
+
+				boolean processedBefore = false;
+
+				for ( int j = 0; j < i && !processedBefore; ++j )
+					processedBefore = contains( intervals.get( j ), l );
+
+				if ( processedBefore )
+					continue;
+
+				if ( InterestPointValue.class.isInstance( p ) )
+					points.add( new InterestPointValue( points.size(), l, ((InterestPointValue)p).getIntensity() ) );
+				else
+					points.add( new InterestPoint( points.size(), l ) );
+			}
+		}
+
+		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Processed " + intervals.size() + " overlap region(s), " +
+				Math.round( 100.0 * numPixels / Intervals.numElements( input ) ) + "% of the image, found " + points.size() + " peaks." );
+
+		return points;
+	}
+
+	/**
+	 * @param input - the image
+	 * @param minIntensity - if not NaN/Infinite together with maxIntensity, will be used
+	 * @param maxIntensity - if not NaN/Infinite together with minIntensity, will be used
+	 * @param service - the ExecutorService to use
+	 * @param <T> - pixel type
+	 * @return min and max intensity of the entire image, so all regions are normalized identically
+	 */
+	public static < T extends RealType< T > > double[] minMax(
+			final RandomAccessibleInterval< T > input,
+			final double minIntensity,
+			final double maxIntensity,
+			final ExecutorService service )
+	{
+		if ( Double.isNaN( minIntensity ) || Double.isNaN( maxIntensity ) || Double.isInfinite( minIntensity ) || Double.isInfinite( maxIntensity ) || minIntensity == maxIntensity )
+		{
+			final float[] minmax = FusionTools.minMax( input, service );
+			return new double[] { minmax[ 0 ], minmax[ 1 ] };
+		}
+		else
+		{
+			return new double[] { minIntensity, maxIntensity };
+		}
+	}
+
+	protected static boolean contains( final Interval interval, final double[] l )
+	{
+		for ( int d = 0; d < l.length; ++d )
+		{
+			final long p = Math.round( l[ d ] );
+
+			if ( p < interval.min( d ) || p > interval.max( d ) )
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * @param regions - all overlap regions
+	 * @param viewId - the view
+	 * @return the regions of the view, null if regions is null or the view is unknown (i.e. process everything)
+	 */
+	public static List< RealInterval > getRegions( final Map< ViewId, List< RealInterval > > regions, final ViewId viewId )
+	{
+		if ( regions == null )
+			return null;
+
+		return regions.get( new ViewId( viewId.getTimePointId(), viewId.getViewSetupId() ) );
+	}
+}
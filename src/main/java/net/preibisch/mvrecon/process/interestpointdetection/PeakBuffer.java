@@ -0,0 +1,259 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointdetection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.preibisch.legacy.segmentation.SimplePeak;
+
+/**
+ * Stores peaks (integer location, intensity, min/max flag) in primitive arrays instead of
+ * one {@link SimplePeak} object per peak.
+ *
+ * If created with a maximal size, only the brightest peaks (by absolute intensity) are kept
+ * while peaks are added (streaming top-k selection using a min-heap), so the buffer never
+ * grows beyond the number of peaks that will be kept in the end.
+ *
+ * @author Stephan Preibisch
+ */
+public class PeakBuffer
+{
+	final public static byte MIN = 1;
+	final public static byte MAX = 2;
+
+	final int n, maxSize;
+
+	int size;
+	int[] location;
+	float[] intensity;
+	byte[] flags;
+
+	// min-heap of the slots sorted by absolute intensity, only used if maxSize > 0
+	int[] heap;
+
+	/**
+	 * @param numDimensions - dimensionality of the peaks
+	 */
+	public PeakBuffer( final int numDimensions )
+	{
+		this( numDimensions, -1 );
+	}
+
+	/**
+	 * @param numDimensions - dimensionality of the peaks
+	 * @param maxSize - keep only the maxSize brightest peaks, &lt;= 0 means keep all
+	 */
+	public PeakBuffer( final int numDimensions, final int maxSize )
+	{
+		this.n = numDimensions;
+		this.maxSize = maxSize;
+		this.size = 0;
+
+		final int capacity = maxSize > 0 ? Math.min( maxSize, 1024 ) : 1024;
+
+		this.location = new int[ capacity * n ];
+		this.intensity = new float[ capacity ];
+		this.flags = new byte[ capacity ];
+		this.heap = maxSize > 0 ? new int[ capacity ] : null;
+	}
+
+	public int numDimensions() { return n; }
+	public int size() { return size; }
+	public boolean isEmpty() { return size == 0; }
+	public int maxSize() { return maxSize; }
+
+	public int getLocation( final int i, final int d ) { return location[ i * n + d ]; }
+	public float getIntensity( final int i ) { return intensity[ i ]; }
+	public boolean isMin( final int i ) { return ( flags[ i ] & MIN ) != 0; }
+	public boolean isMax( final int i ) { return ( flags[ i ] & MAX ) != 0; }
+
+	public void localize( final int i, final int[] position )
+	{
+		System.arraycopy( location, i * n, position, 0, n );
+	}
+
+	public void localize( final int i, final double[] position )
+	{
+		for ( int d = 0; d < n; ++d )
+			position[ d ] = location[ i * n + d ];
+	}
+
+	public void add( final int[] position, final float value, final boolean isMin, final boolean isMax )
+	{
+		final byte flag = (byte)( ( isMin ? MIN : 0 ) | ( isMax ? MAX : 0 ) );
+
+		if ( maxSize <= 0 || size < maxSize )
+		{
+			ensureCapacity( size + 1 );
+			set( size, position, value, flag );
+
+			if ( maxSize > 0 )
+			{
+				heap[ size ] = size;
+				siftUp( size );
+			}
+
+			++size;
+		}
+		else if ( Math.abs( value ) > Math.abs( intensity[ heap[ 0 ] ] ) )
+		{
+			// replace the weakest peak that is currently kept
+			set( heap[ 0 ], position, value, flag );
+			siftDown( 0 );
+		}
+	}
+
+	public void addAll( final PeakBuffer peaks )
+	{
+		final int[] position = new int[ n ];
+
+		if ( maxSize <= 0 )
+		{
+			ensureCapacity( size + peaks.size );
+
+			System.arraycopy( peaks.location, 0, location, size * n, peaks.size * n );
+			System.arraycopy( peaks.intensity, 0, intensity, size, peaks.size );
+			System.arraycopy( peaks.flags, 0, flags, size, peaks.size );
+
+			size += peaks.size;
+		}
+		else
+		{
+			for ( int i = 0; i < peaks.size; ++i )
+			{
+				peaks.localize( i, position );
+				add( position, peaks.intensity[ i ], peaks.isMin( i ), peaks.isMax( i ) );
+			}
+		}
+	}
+
+	/**
+	 * Subtracts an offset from all locations (e.g. the min of an interval)
+	 *
+	 * @param offset - the offset per dimension
+	 */
+	public void subtract( final long[] offset )
+	{
+		for ( int i = 0; i < size; ++i )
+			for ( int d = 0; d < n; ++d )
+				location[ i * n + d ] -= offset[ d ];
+	}
+
+	public ArrayList< SimplePeak > toSimplePeaks()
+	{
+		final ArrayList< SimplePeak > peaks = new ArrayList<>( size );
+		final int[] position = new int[ n ];
+
+		for ( int i = 0; i < size; ++i )
+		{
+			localize( i, position );
+			peaks.add( new SimplePeak( position, intensity[ i ], isMin( i ), isMax( i ) ) );
+		}
+
+		return peaks;
+	}
+
+	public static PeakBuffer fromSimplePeaks( final List< SimplePeak > peaks )
+	{
+		final PeakBuffer buffer = new PeakBuffer( peaks.size() == 0 ? 0 : peaks.get( 0 ).location.length );
+
+		for ( final SimplePeak peak : peaks )
+			buffer.add( peak.location, peak.intensity, peak.isMin, peak.isMax );
+
+		return buffer;
+	}
+
+	protected void set( final int i, final int[] position, final float value, final byte flag )
+	{
+		System.arraycopy( position, 0, location, i * n, n );
+		intensity[ i ] = value;
+		flags[ i ] = flag;
+	}
+
+	protected void ensureCapacity( final int capacity )
+	{
+		if ( capacity <= intensity.length )
+			return;
+
+		int newCapacity = Math.max( capacity, intensity.length + ( intensity.length >> 1 ) );
+
+		if ( maxSize > 0 )
+			newCapacity = Math.min( newCapacity, maxSize );
+
+		location = Arrays.copyOf( location, newCapacity * n );
+		intensity = Arrays.copyOf( intensity, newCapacity );
+		flags = Arrays.copyOf( flags, newCapacity );
+
+		if ( heap != null )
+			heap = Arrays.copyOf( heap, newCapacity );
+	}
+
+	protected boolean weaker( final int slotA, final int slotB )
+	{
+		return Math.abs( intensity[ slotA ] ) < Math.abs( intensity[ slotB ] );
+	}
+
+	protected void siftUp( int i )
+	{
+		final int slot = heap[ i ];
+
+		while ( i > 0 )
+		{
+			final int parent = ( i - 1 ) / 2;
+
+			if ( !weaker( slot, heap[ parent ] ) )
+				break;
+
+			heap[ i ] = heap[ parent ];
+			i = parent;
+		}
+
+		heap[ i ] = slot;
+	}
+
+	protected void siftDown( int i )
+	{
+		final int slot = heap[ i ];
+
+		while ( true )
+		{
+			int child = 2 * i + 1;
+
+			if ( child >= size )
+				break;
+
+			if ( child + 1 < size && weaker( heap[ child + 1 ], heap[ child ] ) )
+				++child;
+
+			if ( !weaker( heap[ child ], slot ) )
+				break;
+
+			heap[ i ] = heap[ child ];
+			i = child;
+		}
+
+		heap[ i ] = slot;
+	}
+}
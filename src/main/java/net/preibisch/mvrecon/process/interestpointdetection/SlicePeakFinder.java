@@ -0,0 +1,370 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointdetection;
+
+import java.util.ArrayList;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.fusion.ImagePortion;
+
+/**
+ * Finds local minima and maxima in the 3x3x3 neighborhood of a 3d image without a RandomAccess
+ * per neighbor. The image is read plane by plane into float[] buffers (three consecutive z-planes
+ * are kept), for every plane the 3x3 maximum and minimum are computed with a 3-wide sliding window
+ * (first along x, then along y), and a candidate is a maximum if it equals the maximum of the three
+ * planes at its location (i.e. all 26 neighbors are smaller or equal), analogous for minima.
+ *
+ * To bound the memory, every task processes a band of rows of a range of z-planes.
+ *
+ * @author Stephan Preibisch
+ */
+public class SlicePeakFinder
+{
+	// the maximal number of pixels of a band of a plane held in one buffer
+	public static int maxBandSize = 1024 * 1024;
+
+	/**
+	 * Reads numRows full rows of a z-plane, starting at row y (zero-min coordinates), into target (x-fastest)
+	 */
+	public interface PlaneReader
+	{
+		public void read( final int z, final int y, final int numRows, final float[] target );
+	}
+
+	/**
+	 * @param img - a 3d image
+	 * @return whether the image can be processed (at least three rows fit into a band, dimensions fit into int)
+	 */
+	public static boolean isSupported( final RandomAccessibleInterval< ? > img )
+	{
+		if ( img.numDimensions() != 3 )
+			return false;
+
+		for ( int d = 0; d < 3; ++d )
+			if ( img.dimension( d ) >= Integer.MAX_VALUE )
+				return false;
+
+		return img.dimension( 0 ) * 3 <= maxBandSize;
+	}
+
+	/**
+	 * @param img - a 3d image
+	 * @return a PlaneReader for the image, coordinates are relative to its min
+	 */
+	public static PlaneReader reader( final RandomAccessibleInterval< FloatType > img )
+	{
+		final long[] min = new long[ 3 ];
+		final long[] max = new long[ 3 ];
+
+		img.min( min );
+		img.max( max );
+
+		return ( z, y, numRows, target ) ->
+		{
+			final Cursor< FloatType > cursor = Views.flatIterable( Views.interval( img, new FinalInterval(
+					new long[] { min[ 0 ], min[ 1 ] + y, min[ 2 ] + z },
+					new long[] { max[ 0 ], min[ 1 ] + y + numRows - 1, min[ 2 ] + z } ) ) ).cursor();
+
+			for ( int i = 0; cursor.hasNext(); ++i )
+				target[ i ] = cursor.next().get();
+		};
+	}
+
+	/**
+	 * Finds all local minima and maxima (3x3x3 neighborhood, the outermost pixels are never peaks)
+	 * with an absolute value of at least minValue.
+	 *
+	 * @param width - size in x
+	 * @param height - size in y
+	 * @param depth - size in z
+	 * @param image - reads the image
+	 * @param mask - reads the mask (pixels &lt;= 0 are excluded), can be null
+	 * @param offset - added to the locations of the peaks (and used for the localThreshold lookup)
+	 * @param minValue - minimal absolute value of a peak
+	 * @param localThreshold - if not null, minValue is scaled by the local noise level
+	 * @param findMin - keep minima (in image space)
+	 * @param findMax - keep maxima (in image space)
+	 * @param maxPeaks - only keep the maxPeaks brightest peaks, &lt;= 0 keeps all
+	 * @param service - the ExecutorService to use
+	 * @return the peaks
+	 */
+	public static PeakBuffer findPeaks(
+			final int width,
+			final int height,
+			final int depth,
+			final PlaneReader image,
+			final PlaneReader mask,
+			final long[] offset,
+			final float minValue,
+			final LocalThreshold localThreshold,
+			final boolean findMin,
+			final boolean findMax,
+			final int maxPeaks,
+			final ExecutorService service )
+	{
+		final PeakBuffer peaks = new PeakBuffer( 3, maxPeaks );
+
+		if ( width < 3 || height < 3 || depth < 3 )
+			return peaks;
+
+		// number of rows that can be tested per band (two more rows are read)
+		final int bandRows = Math.max( 1, Math.min( height - 2, maxBandSize / width - 2 ) );
+
+		final Vector< ImagePortion > portions = FusionTools.divideIntoPortions( depth - 2 );
+		final ArrayList< Callable< PeakBuffer > > tasks = new ArrayList<>();
+
+		for ( final ImagePortion portion : portions )
+		{
+			final int z0 = 1 + (int)portion.getStartPosition();
+			final int z1 = z0 + (int)portion.getLoopSize();
+
+			for ( int y = 1; y < height - 1; y += bandRows )
+			{
+				final int y0 = y;
+				final int y1 = Math.min( height - 1, y0 + bandRows );
+
+				tasks.add( new Callable< PeakBuffer >()
+				{
+					@Override
+					public PeakBuffer call() throws Exception
+					{
+						return findPeaks( width, y0, y1, z0, z1, image, mask, offset, minValue, localThreshold, findMin, findMax, maxPeaks );
+					}
+				});
+			}
+		}
+
+		try
+		{
+			// put together the peaks from the various threads, in order
+			for ( final Future< PeakBuffer > future : service.invokeAll( tasks ) )
+				peaks.addAll( future.get() );
+		}
+		catch ( InterruptedException | ExecutionException e )
+		{
+			e.printStackTrace();
+		}
+
+		return peaks;
+	}
+
+	/*
+	 * tests rows y0 (inclusive) to y1 (exclusive) of the planes z0 (inclusive) to z1 (exclusive)
+	 */
+	protected static PeakBuffer findPeaks(
+			final int width,
+			final int y0,
+			final int y1,
+			final int z0,
+			final int z1,
+			final PlaneReader image,
+			final PlaneReader mask,
+			final long[] offset,
+			final float minValue,
+			final LocalThreshold localThreshold,
+			final boolean findMin,
+			final boolean findMax,
+			final int maxPeaks )
+	{
+		final PeakBuffer peaks = new PeakBuffer( 3, maxPeaks );
+
+		// rows y0-1 ... y1 are read
+		final int rows = y1 - y0 + 2;
+		final int size = rows * width;
+
+		// three consecutive planes (ring buffer), and their 3x3 max/min
+		final float[][] data = new float[ 3 ][ size ];
+		final float[][] max = new float[ 3 ][ size ];
+		final float[][] min = new float[ 3 ][ size ];
+		final float[][] maskMin = mask == null ? null : new float[ 3 ][ size ];
+
+		final float[] tmpMax = new float[ size ];
+		final float[] tmpMin = new float[ size ];
+		final float[] tmpMask = mask == null ? null : new float[ size ];
+
+		final int[] position = new int[ 3 ];
+		final long[] lPosition = new long[ 3 ];
+
+		// cheap test before looking up the local threshold
+		final float minValueLocal = minValue * LocalThreshold.minScale;
+
+		// the planes z0-1 and z0
+		for ( int z = z0 - 1; z <= z0; ++z )
+			readPlane( z, ( z - z0 + 1 ) % 3, y0, rows, width, image, mask, data, max, min, maskMin, tmpMax, tmpMin, tmpMask );
+
+		for ( int z = z0; z < z1; ++z )
+		{
+			readPlane( z + 1, ( z - z0 + 2 ) % 3, y0, rows, width, image, mask, data, max, min, maskMin, tmpMax, tmpMin, tmpMask );
+
+			final int p = ( z - z0 ) % 3;
+			final int c = ( z - z0 + 1 ) % 3;
+			final int n = ( z - z0 + 2 ) % 3;
+
+			final float[] center = data[ c ];
+			final float[] maxP = max[ p ], maxC = max[ c ], maxN = max[ n ];
+			final float[] minP = min[ p ], minC = min[ c ], minN = min[ n ];
+
+			for ( int r = 1; r < rows - 1; ++r )
+			{
+				final int y = y0 - 1 + r;
+
+				for ( int x = 1, i = r * width + 1; x < width - 1; ++x, ++i )
+				{
+					final float v = center[ i ];
+					final float absV = Math.abs( v );
+
+					// it can never be a desired peak as it is too low (the local threshold can be lower than the global one)
+					if ( localThreshold == null )
+					{
+						if ( absV < minValue )
+							continue;
+					}
+					else
+					{
+						if ( absV < minValueLocal )
+							continue;
+
+						lPosition[ 0 ] = offset[ 0 ] + x;
+						lPosition[ 1 ] = offset[ 1 ] + y;
+						lPosition[ 2 ] = offset[ 2 ] + z;
+
+						if ( absV < minValue * localThreshold.scale( lPosition ) )
+							continue;
+					}
+
+					// it can never be a desired peak if any pixel of the 3x3x3 neighborhood is outside the mask
+					if ( maskMin != null && min3( maskMin[ p ][ i ], maskMin[ c ][ i ], maskMin[ n ][ i ] ) <= 0 )
+						continue;
+
+					// this mixup is intended, a minimum in the 2nd derivation is a maxima in image space and vice versa
+					final boolean isMaxInImage = min3( minP[ i ], minC[ i ], minN[ i ] ) == v;
+					final boolean isMinInImage = !isMaxInImage && max3( maxP[ i ], maxC[ i ], maxN[ i ] ) == v;
+
+					if ( ( isMinInImage && findMin ) || ( isMaxInImage && findMax ) )
+					{
+						position[ 0 ] = (int)offset[ 0 ] + x;
+						position[ 1 ] = (int)offset[ 1 ] + y;
+						position[ 2 ] = (int)offset[ 2 ] + z;
+
+						peaks.add( position, absV, isMinInImage, isMaxInImage );
+					}
+				}
+			}
+		}
+
+		return peaks;
+	}
+
+	protected static void readPlane(
+			final int z,
+			final int slot,
+			final int y0,
+			final int rows,
+			final int width,
+			final PlaneReader image,
+			final PlaneReader mask,
+			final float[][] data,
+			final float[][] max,
+			final float[][] min,
+			final float[][] maskMin,
+			final float[] tmpMax,
+			final float[] tmpMin,
+			final float[] tmpMask )
+	{
+		image.read( z, y0 - 1, rows, data[ slot ] );
+		extrema3x3( data[ slot ], width, rows, max[ slot ], min[ slot ], tmpMax, tmpMin );
+
+		if ( mask != null )
+		{
+			mask.read( z, y0 - 1, rows, tmpMask );
+			extrema3x3( tmpMask, width, rows, null, maskMin[ slot ], null, tmpMin );
+		}
+	}
+
+	/**
+	 * Computes the maximum and minimum of the 3x3 neighborhood (including the center) for all
+	 * pixels except the outermost ones, using a 3-wide sliding window along x and then along y.
+	 *
+	 * @param in - the plane (x-fastest)
+	 * @param width - width of the plane
+	 * @param rows - number of rows of the plane
+	 * @param max - the 3x3 maximum, can be null
+	 * @param min - the 3x3 minimum, can be null
+	 * @param tmpMax - temporary storage, only used if max != null
+	 * @param tmpMin - temporary storage, only used if min != null
+	 */
+	public static void extrema3x3( final float[] in, final int width, final int rows, final float[] max, final float[] min, final float[] tmpMax, final float[] tmpMin )
+	{
+		// along x
+		for ( int r = 0; r < rows; ++r )
+		{
+			for ( int x = 1, i = r * width + 1; x < width - 1; ++x, ++i )
+			{
+				final float a = in[ i - 1 ];
+				final float b = in[ i ];
+				final float c = in[ i + 1 ];
+
+				if ( max != null )
+					tmpMax[ i ] = max3( a, b, c );
+
+				if ( min != null )
+					tmpMin[ i ] = min3( a, b, c );
+			}
+		}
+
+		// along y
+		for ( int r = 1; r < rows - 1; ++r )
+		{
+			for ( int x = 1, i = r * width + 1; x < width - 1; ++x, ++i )
+			{
+				if ( max != null )
+					max[ i ] = max3( tmpMax[ i - width ], tmpMax[ i ], tmpMax[ i + width ] );
+
+				if ( min != null )
+					min[ i ] = min3( tmpMin[ i - width ], tmpMin[ i ], tmpMin[ i + width ] );
+			}
+		}
+	}
+
+	final private static float max3( final float a, final float b, final float c )
+	{
+		final float ab = a > b ? a : b;
+		return ab > c ? ab : c;
+	}
+
+	final private static float min3( final float a, final float b, final float c )
+	{
+		final float ab = a < b ? a : b;
+		return ab < c ? ab : c;
+	}
+}
@@ -23,9 +23,13 @@
 package net.preibisch.mvrecon.process.interestpointdetection.methods;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 import mpicbg.spim.data.sequence.ImgLoader;
 import mpicbg.spim.data.sequence.ViewDescription;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.RealInterval;
 
 public class InterestPointParameters
 {
@@ -43,6 +47,12 @@ public class InterestPointParameters
 	public int maxDetections;
 	public int maxDetectionsTypeIndex; // { "Brightest", "Around median (of those above threshold)", "Weakest (above threshold)" };
 
+	// scale the threshold with the local noise level, for uneven illumination (see LocalThreshold)
+	public boolean adaptiveThreshold = false;
+
+	// if not null, only detect inside these regions (full-resolution pixel coordinates of each view, see OverlapRegions)
+	public Map< ViewId, List< RealInterval > > overlapRegions = null;
+
 	// downsampleXY == 0 : a bit less then z-resolution
 	// downsampleXY == -1 : a bit more then z-resolution
 	public int downsampleXY = 1, downsampleZ = 1;
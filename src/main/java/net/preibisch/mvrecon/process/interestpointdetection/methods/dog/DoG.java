@@ -30,6 +30,7 @@ import ij.IJ;
 import mpicbg.spim.data.sequence.ViewDescription;
 import mpicbg.spim.data.sequence.ViewId;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealInterval;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
@@ -40,6 +41,7 @@ import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.process.deconvolution.DeconViews;
 import net.preibisch.mvrecon.process.downsampling.DownsampleTools;
 import net.preibisch.mvrecon.process.interestpointdetection.InterestPointTools;
+import net.preibisch.mvrecon.process.interestpointdetection.OverlapRegions;
 import util.ImgLib1Convert;
 
 public class DoG
@@ -160,12 +162,34 @@ public class DoG
 
 				if ( dog.cuda == null )
 				{
-					ips = DoGImgLib2.computeDoG(input, null, dog.sigma, dog.threshold, dog.localization, dog.findMin, dog.findMax, dog.minIntensity,
-						dog.maxIntensity, service, Threads.numThreads() );
+					// for "Brightest" only the top candidates need to be kept while detecting
+					final int maxPeaks = ( dog.limitDetections && dog.maxDetectionsTypeIndex == 0 ) ? DoGImgLib2.maxCandidates( dog.maxDetections ) : -1;
+
+					final List< RealInterval > overlaps = OverlapRegions.getRegions( dog.overlapRegions, vd );
+
+					if ( overlaps == null )
+					{
+						ips = DoGImgLib2.computeDoG(input, null, dog.sigma, dog.threshold, dog.localization, dog.findMin, dog.findMax, dog.minIntensity,
+							dog.maxIntensity, maxPeaks, dog.adaptiveThreshold, service, Threads.numThreads() );
+					}
+					else
+					{
+						// normalize all regions identically
+						final double[] minmax = OverlapRegions.minMax( input, dog.minIntensity, dog.maxIntensity, service );
+
+						ips = OverlapRegions.detect(
+								input,
+								OverlapRegions.toImageIntervals( overlaps, correctCoordinates, input ),
+								DoGImgLib2.radiusDoG( dog.sigma ) + 2,
+								region -> DoGImgLib2.computeDoG( region, null, dog.sigma, dog.threshold, dog.localization, dog.findMin, dog.findMax, minmax[ 0 ],
+										minmax[ 1 ], maxPeaks, dog.adaptiveThreshold, service, Threads.numThreads() ) );
+					}
 				}
 				else
 				{
-					
+					if ( dog.adaptiveThreshold )
+						IOFunctions.println( "Adaptive threshold is not supported for CUDA, using global threshold." );
+
 					final ImgLib1Convert convert = new ImgLib1Convert( input, service );
 	
 					//
@@ -70,7 +70,10 @@ import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.process.deconvolution.DeconViews;
 import net.preibisch.mvrecon.process.fusion.FusionTools;
 import net.preibisch.mvrecon.process.fusion.ImagePortion;
+import net.preibisch.mvrecon.process.interestpointdetection.LocalThreshold;
 import net.preibisch.mvrecon.process.interestpointdetection.Localization;
+import net.preibisch.mvrecon.process.interestpointdetection.PeakBuffer;
+import net.preibisch.mvrecon.process.interestpointdetection.SlicePeakFinder;
 import net.preibisch.mvrecon.process.interestpointdetection.methods.weightedgauss.Lazy;
 import net.preibisch.mvrecon.process.interestpointdetection.methods.weightedgauss.WeightedGaussRA;
 import util.ImgLib2Tools;
@@ -136,7 +139,25 @@ public class DoGImgLib2
 			final ExecutorService service,
 			final int numThreads ) // for old imglib1-code
 	{
-		return computeDoG(input, mask, sigma, threshold, localization, findMin, findMax, minIntensity, maxIntensity, blockSize, service, numThreads);
+		return computeDoG(input, mask, sigma, threshold, localization, findMin, findMax, minIntensity, maxIntensity, -1, false, blockSize, service, numThreads);
+	}
+
+	public static < T extends RealType< T > > ArrayList< InterestPoint > computeDoG(
+			final RandomAccessibleInterval< T > input,
+			final RandomAccessibleInterval< T > mask,
+			final double sigma,
+			final double threshold,
+			final int localization,
+			final boolean findMin,
+			final boolean findMax,
+			final double minIntensity,
+			final double maxIntensity,
+			final int maxPeaks,
+			final boolean adaptiveThreshold,
+			final ExecutorService service,
+			final int numThreads ) // for old imglib1-code
+	{
+		return computeDoG(input, mask, sigma, threshold, localization, findMin, findMax, minIntensity, maxIntensity, maxPeaks, adaptiveThreshold, blockSize, service, numThreads);
 	}
 
 	public static < T extends RealType< T > > ArrayList< InterestPoint > computeDoG(
@@ -152,6 +173,25 @@ public class DoGImgLib2
 			final int[] blockSize,
 			final ExecutorService service,
 			final int numThreads ) // for old imglib1-code
+	{
+		return computeDoG(input, mask, sigma, threshold, localization, findMin, findMax, minIntensity, maxIntensity, -1, false, blockSize, service, numThreads);
+	}
+
+	public static < T extends RealType< T > > ArrayList< InterestPoint > computeDoG(
+			final RandomAccessibleInterval< T > input,
+			final RandomAccessibleInterval< T > mask,
+			final double sigma,
+			final double threshold,
+			final int localization,
+			final boolean findMin,
+			final boolean findMax,
+			final double minIntensity,
+			final double maxIntensity,
+			final int maxPeaks, // only keep the brightest maxPeaks candidates (before localization), <= 0 keeps all
+			final boolean adaptiveThreshold, // scale the threshold with the local noise level (see LocalThreshold)
+			final int[] blockSize,
+			final ExecutorService service,
+			final int numThreads ) // for old imglib1-code
 	{
 		float initialSigma = (float)sigma;
 		
@@ -251,9 +291,14 @@ public class DoGImgLib2
 		if ( !silent )
 			IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): Detecting peaks." );
 
-		final ArrayList< SimplePeak > peaks = findPeaks( dogCached, maskFloat, minInitialPeakValue, service );
+		final LocalThreshold localThreshold = adaptiveThreshold ? new LocalThreshold( dogCached, service ) : null;
+
+		final PeakBuffer peaks = findPeaksBuffered( dogCached, maskFloat, minInitialPeakValue, localThreshold, findMin, findMax, maxPeaks, service );
+
+		// with an adaptive threshold the localized peaks are filtered by the local threshold afterwards
+		final float minLocalizedPeakValue = adaptiveThreshold ? minPeakValue * LocalThreshold.minScale : minPeakValue;
 
-		final ArrayList< InterestPoint > finalPeaks;
+		ArrayList< InterestPoint > finalPeaks;
 
 		if ( localization == 0 )
 		{
@@ -270,14 +315,12 @@ public class DoGImgLib2
 			FusionTools.copyImg( Views.zeroMin( dogCached ), dogCopy, service );
 			final Image<mpicbg.imglib.type.numeric.real.FloatType> imglib1 = ImgLib2.wrapArrayFloatToImgLib1( dogCopy );
 
-			for ( final SimplePeak peak : peaks )
-				for ( int d = 0; d < peak.location.length; ++d )
-					peak.location[ d ] -= minInterval[ d ];
+			peaks.subtract( minInterval );
 
 			if ( !silent )
 				IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): Quadratic localization." );
 
-			finalPeaks = Localization.computeQuadraticLocalization( peaks, imglib1, findMin, findMax, minPeakValue, true, numThreads );
+			finalPeaks = Localization.computeQuadraticLocalization( peaks, imglib1, findMin, findMax, minLocalizedPeakValue, true, numThreads );
 
 			// adjust detections for min coordinates of the RandomAccessibleInterval
 			for ( final InterestPoint ip : finalPeaks )
@@ -288,6 +331,9 @@ public class DoGImgLib2
 					ip.getW()[ d ] += minInterval[ d ];
 				}
 			}
+
+			if ( localThreshold != null )
+				finalPeaks = localThreshold.filter( finalPeaks, minPeakValue );
 		}
 		else
 		{
@@ -333,6 +379,62 @@ public class DoGImgLib2
 
 	public static ArrayList<SimplePeak> findPeaks( final RandomAccessibleInterval< FloatType > laPlace, final RandomAccessibleInterval< FloatType > laPlaceMask, final float minValue, final ExecutorService service )
 	{
+		return findPeaksBuffered( laPlace, laPlaceMask, minValue, null, true, true, -1, service ).toSimplePeaks();
+	}
+
+	/**
+	 * The number of candidates to keep while detecting if only the maxDetections brightest
+	 * interest points are requested. The final selection happens after localization and
+	 * thresholding (which can move or reject candidates), so more than maxDetections are kept.
+	 *
+	 * @param maxDetections - the number of brightest detections requested, &lt;= 0 keeps all
+	 * @return the number of candidates to keep, -1 keeps all
+	 */
+	public static int maxCandidates( final int maxDetections )
+	{
+		if ( maxDetections <= 0 )
+			return -1;
+
+		return (int)Math.min( Integer.MAX_VALUE, Math.max( 2L * maxDetections, maxDetections + 1000L ) );
+	}
+
+	/**
+	 * Finds all local minima and maxima (3x3...x3 neighborhood) with an absolute value of at least minValue.
+	 *
+	 * @param laPlace - the DoG/DoM image
+	 * @param laPlaceMask - optional mask (pixels &lt;= 0 are excluded), can be null
+	 * @param minValue - minimal absolute value of a peak
+	 * @param localThreshold - if not null, minValue is scaled by the local noise level
+	 * @param findMin - keep minima (in image space)
+	 * @param findMax - keep maxima (in image space)
+	 * @param maxPeaks - only keep the maxPeaks brightest peaks, &lt;= 0 keeps all
+	 * @param service - the ExecutorService to use
+	 * @return the peaks, stored in primitive arrays
+	 */
+	public static PeakBuffer findPeaksBuffered(
+			final RandomAccessibleInterval< FloatType > laPlace,
+			final RandomAccessibleInterval< FloatType > laPlaceMask,
+			final float minValue,
+			final LocalThreshold localThreshold,
+			final boolean findMin,
+			final boolean findMax,
+			final int maxPeaks,
+			final ExecutorService service )
+	{
+		// 3d images are processed plane by plane from float[] buffers
+		if ( SlicePeakFinder.isSupported( laPlace ) )
+		{
+			final long[] min = new long[ laPlace.numDimensions() ];
+			laPlace.min( min );
+
+			return SlicePeakFinder.findPeaks(
+					(int)laPlace.dimension( 0 ), (int)laPlace.dimension( 1 ), (int)laPlace.dimension( 2 ),
+					SlicePeakFinder.reader( laPlace ),
+					laPlaceMask == null ? null : SlicePeakFinder.reader( laPlaceMask ),
+					min,
+					minValue, localThreshold, findMin, findMax, maxPeaks, service );
+		}
+
 		final Interval interval = Intervals.expand( laPlace, -1 );
 
 		// create a view on the source with this interval
@@ -351,16 +453,16 @@ public class DoGImgLib2
 
 		final int numDimensions = source.numDimensions();
 		final Vector< ImagePortion > portions = FusionTools.divideIntoPortions( numPixels );
-		final ArrayList< Callable< ArrayList< SimplePeak > > > tasks = new ArrayList<>();
+		final ArrayList< Callable< PeakBuffer > > tasks = new ArrayList<>();
 
 		for ( final ImagePortion portion : portions )
 		{
-			tasks.add( new Callable< ArrayList< SimplePeak > >()
+			tasks.add( new Callable< PeakBuffer >()
 			{
 				@Override
-				public ArrayList< SimplePeak > call() throws Exception
+				public PeakBuffer call() throws Exception
 				{
-	            	final ArrayList<SimplePeak> myPeaks = new ArrayList<>();
+	            	final PeakBuffer myPeaks = new PeakBuffer( numDimensions, maxPeaks );
 
 					final Cursor< FloatType > center = Views.flatIterable( source ).localizingCursor();
 					final Cursor< FloatType > centerMask;
@@ -420,18 +522,25 @@ public class DoGImgLib2
                 		}
 
 			        	// it can never be a desired peak as it is too low
-                		if ( Math.abs( centerValue.get() ) < minValue )
-            				continue;
+                		if ( localThreshold == null )
+                		{
+                			if ( Math.abs( centerValue.get() ) < minValue )
+                				continue;
+                		}
+                		else if ( Math.abs( centerValue.get() ) < minValue * localThreshold.scale( center ) )
+                		{
+                			continue;
+                		}
 
             			// we have to compare for example 26 neighbors in the 3d case (3^3 - 1) relative to the current position
             			final SpecialPoint specialPoint = isSpecialPoint( neighborhood.cursor(), centerValue.get() ); 
 
 			        	center.localize( position );
 
-            			if ( specialPoint == SpecialPoint.MIN )
-            				myPeaks.add( new SimplePeak( position, Math.abs( centerValue.get() ), true, false ) ); //( position, currentValue, specialPoint ) );
-            			else if ( specialPoint == SpecialPoint.MAX )
-            				myPeaks.add( new SimplePeak( position, Math.abs( centerValue.get() ), false, true ) ); //( position, currentValue, specialPoint ) );
+            			if ( specialPoint == SpecialPoint.MIN && findMin )
+            				myPeaks.add( position, Math.abs( centerValue.get() ), true, false );
+            			else if ( specialPoint == SpecialPoint.MAX && findMax )
+            				myPeaks.add( position, Math.abs( centerValue.get() ), false, true );
 	                }
 
             		return myPeaks;
@@ -440,13 +549,13 @@ public class DoGImgLib2
 		}
 
 		// put together the list from the various threads	
-		final ArrayList<SimplePeak> dogPeaks = new ArrayList<SimplePeak>();
+		final PeakBuffer dogPeaks = new PeakBuffer( numDimensions, maxPeaks );
 
 		//final ExecutorService taskExecutor = DeconViews.createExecutorService();
 
 		try
 		{
-			for ( final Future< ArrayList< SimplePeak > > future : service.invokeAll( tasks ) )
+			for ( final Future< PeakBuffer > future : service.invokeAll( tasks ) )
 				dogPeaks.addAll( future.get() );
 		}
 		catch ( InterruptedException | ExecutionException e )
@@ -0,0 +1,224 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointdetection.methods.dom;
+
+import java.util.function.Consumer;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Computes the Difference-of-Mean for any block of the output image from an integral image
+ * (see {@link IntegralImg}), can be used as a cell loader for cached images or applied
+ * block-wise in parallel.
+ *
+ * As in the legacy implementation, the border of the image where the larger box does not
+ * fit completely is set to zero, the result is normalized by (max - min) of the input.
+ *
+ * @author Stephan Preibisch
+ * @param <S> type of the integral image
+ */
+public class DifferenceOfMeanRA< S extends RealType< S > > implements Consumer< RandomAccessibleInterval< FloatType > >
+{
+	final RandomAccessibleInterval< S > integral;
+	final int n, numCorners;
+	final int[] size1, size2, half1, half2;
+	final long[] validMin, validMax;
+	final double norm1, norm2;
+	final boolean exact;
+
+	/**
+	 * @param integral - the zero-min integral image, one pixel larger than the image in every dimension
+	 * @param size1 - the (odd) size of the smaller box in every dimension
+	 * @param size2 - the (odd) size of the larger box in every dimension
+	 * @param min - min intensity of the input used for normalization
+	 * @param max - max intensity of the input used for normalization
+	 */
+	public DifferenceOfMeanRA(
+			final RandomAccessibleInterval< S > integral,
+			final int[] size1,
+			final int[] size2,
+			final double min,
+			final double max )
+	{
+		this.integral = integral;
+		this.n = integral.numDimensions();
+		this.numCorners = 1 << n;
+		this.size1 = size1;
+		this.size2 = size2;
+		this.half1 = new int[ n ];
+		this.half2 = new int[ n ];
+		this.validMin = new long[ n ];
+		this.validMax = new long[ n ];
+
+		double sumPixels1 = 1, sumPixels2 = 1;
+
+		for ( int d = 0; d < n; ++d )
+		{
+			half1[ d ] = size1[ d ] / 2;
+			half2[ d ] = size2[ d ] / 2;
+
+			final int halfMax = Math.max( half1[ d ], half2[ d ] );
+
+			validMin[ d ] = halfMax;
+			validMax[ d ] = integral.dimension( d ) - 2 - halfMax;
+
+			sumPixels1 *= size1[ d ];
+			sumPixels2 *= size2[ d ];
+		}
+
+		this.norm1 = sumPixels1 * ( max - min );
+		this.norm2 = sumPixels2 * ( max - min );
+
+		// long integral images are summed up exactly
+		this.exact = IntegerType.class.isInstance( Util.getTypeFromInterval( integral ) );
+	}
+
+	@Override
+	public void accept( final RandomAccessibleInterval< FloatType > output )
+	{
+		final RandomAccess< S >[] r1 = createCorners();
+		final RandomAccess< S >[] r2 = createCorners();
+		final boolean[] positive = new boolean[ numCorners ];
+
+		for ( int m = 0; m < numCorners; ++m )
+			positive[ m ] = ( n - Integer.bitCount( m ) ) % 2 == 0;
+
+		final long startX = Math.max( output.min( 0 ), validMin[ 0 ] );
+		final long[] p = new long[ n ];
+
+		final Cursor< FloatType > cursor = Views.flatIterable( output ).localizingCursor();
+
+		boolean lineValid = false;
+
+		while ( cursor.hasNext() )
+		{
+			final FloatType t = cursor.next();
+			final long x = cursor.getLongPosition( 0 );
+
+			// a new line along x starts
+			if ( x == output.min( 0 ) )
+			{
+				cursor.localize( p );
+
+				lineValid = startX <= validMax[ 0 ];
+
+				for ( int d = 1; d < n && lineValid; ++d )
+					lineValid = p[ d ] >= validMin[ d ] && p[ d ] <= validMax[ d ];
+
+				if ( lineValid )
+				{
+					p[ 0 ] = startX;
+					setCorners( r1, p, half1, size1 );
+					setCorners( r2, p, half2, size2 );
+				}
+			}
+
+			if ( lineValid && x >= startX && x <= validMax[ 0 ] )
+			{
+				final double s1, s2;
+
+				if ( exact )
+				{
+					s1 = boxSumLong( r1, positive );
+					s2 = boxSumLong( r2, positive );
+				}
+				else
+				{
+					s1 = boxSumDouble( r1, positive );
+					s2 = boxSumDouble( r2, positive );
+				}
+
+				t.set( (float)( s2 / norm2 - s1 / norm1 ) );
+
+				for ( int m = 0; m < numCorners; ++m )
+				{
+					r1[ m ].fwd( 0 );
+					r2[ m ].fwd( 0 );
+				}
+			}
+			else
+			{
+				t.setZero();
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	protected RandomAccess< S >[] createCorners()
+	{
+		final RandomAccess< S >[] corners = new RandomAccess[ numCorners ];
+
+		for ( int m = 0; m < numCorners; ++m )
+			corners[ m ] = integral.randomAccess();
+
+		return corners;
+	}
+
+	/*
+	 * the box covers [p - half, p - half + size - 1], which in the integral image
+	 * is spanned by the corners (p - half) and (p - half + size)
+	 */
+	protected void setCorners( final RandomAccess< S >[] corners, final long[] p, final int[] half, final int[] size )
+	{
+		for ( int m = 0; m < numCorners; ++m )
+			for ( int d = 0; d < n; ++d )
+				corners[ m ].setPosition( p[ d ] - half[ d ] + ( ( m & ( 1 << d ) ) == 0 ? 0 : size[ d ] ), d );
+	}
+
+	protected static < S extends RealType< S > > long boxSumLong( final RandomAccess< S >[] corners, final boolean[] positive )
+	{
+		long sum = 0;
+
+		for ( int m = 0; m < corners.length; ++m )
+		{
+			if ( positive[ m ] )
+				sum += ((IntegerType< ? >)corners[ m ].get()).getIntegerLong();
+			else
+				sum -= ((IntegerType< ? >)corners[ m ].get()).getIntegerLong();
+		}
+
+		return sum;
+	}
+
+	protected static < S extends RealType< S > > double boxSumDouble( final RandomAccess< S >[] corners, final boolean[] positive )
+	{
+		double sum = 0;
+
+		for ( int m = 0; m < corners.length; ++m )
+		{
+			if ( positive[ m ] )
+				sum += corners[ m ].get().getRealDouble();
+			else
+				sum -= corners[ m ].get().getRealDouble();
+		}
+
+		return sum;
+	}
+}
@@ -26,18 +26,17 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 
-import mpicbg.imglib.image.Image;
-import mpicbg.imglib.type.numeric.real.FloatType;
-import mpicbg.imglib.wrapper.ImgLib2;
 import mpicbg.spim.data.sequence.ViewDescription;
 import mpicbg.spim.data.sequence.ViewId;
 import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.img.Img;
+import net.imglib2.RealInterval;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.process.interestpointdetection.InterestPointTools;
+import net.preibisch.mvrecon.process.interestpointdetection.OverlapRegions;
+import net.preibisch.mvrecon.process.interestpointdetection.methods.dog.DoGImgLib2;
 import net.preibisch.mvrecon.process.downsampling.DownsampleTools;
 
 /**
@@ -88,33 +87,54 @@ public class DoM
 						correctCoordinates,
 						new long[] { dom.downsampleXY, dom.downsampleXY, dom.downsampleZ },
 						false,  //transformOnly
-						true,   //openAsFloat
-						true, //openCompletely
+						false,   //openAsFloat
+						false, //openCompletely
 						service );
 
-				service.shutdown();
+				final int maxPeaks = ( dom.limitDetections && dom.maxDetectionsTypeIndex == 0 ) ? DoGImgLib2.maxCandidates( dom.maxDetections ) : -1;
+				final List< RealInterval > overlaps = OverlapRegions.getRegions( dom.overlapRegions, vd );
+
+				List< InterestPoint > ips;
+
+				if ( overlaps == null )
+				{
+					// Compute DifferenceOfMean
+					ips = ProcessDOM.compute(
+							input,
+							dom.radius1,
+							dom.radius2,
+							dom.threshold,
+							dom.localization,
+							dom.imageSigmaX,
+							dom.imageSigmaY,
+							dom.imageSigmaZ,
+							dom.findMin,
+							dom.findMax,
+							dom.minIntensity,
+							dom.maxIntensity,
+							dom.limitDetections,
+							maxPeaks,
+							dom.adaptiveThreshold,
+							service );
+				}
+				else
+				{
+					// normalize all regions identically
+					final double[] minmax = OverlapRegions.minMax( input, dom.minIntensity, dom.maxIntensity, service );
+
+					// half of the largest box plus the peak neighborhood
+					final double minImageSigma = Math.min( dom.imageSigmaX, Math.min( dom.imageSigmaY, dom.imageSigmaZ ) );
+					final int margin = Math.max( 5, (int)Math.round( dom.radius2 * ( 0.5 / minImageSigma ) ) * 2 + 1 ) / 2 + 2;
+
+					ips = OverlapRegions.detect(
+							input,
+							OverlapRegions.toImageIntervals( overlaps, correctCoordinates, input ),
+							margin,
+							region -> ProcessDOM.compute( region, dom.radius1, dom.radius2, dom.threshold, dom.localization, dom.imageSigmaX, dom.imageSigmaY,
+									dom.imageSigmaZ, dom.findMin, dom.findMax, minmax[ 0 ], minmax[ 1 ], dom.limitDetections, maxPeaks, dom.adaptiveThreshold, service ) );
+				}
 
-				final Image< FloatType > img = ImgLib2.wrapFloatToImgLib1(
-						(Img< net.imglib2.type.numeric.real.FloatType >) input );
-
-				// Compute DifferenceOfMean
-				List< InterestPoint > ips = ProcessDOM.compute(
-						img,
-						(Img< net.imglib2.type.numeric.real.FloatType >) input,
-						dom.radius1,
-						dom.radius2,
-						dom.threshold,
-						dom.localization,
-						dom.imageSigmaX,
-						dom.imageSigmaY,
-						dom.imageSigmaZ,
-						dom.findMin,
-						dom.findMax,
-						dom.minIntensity,
-						dom.maxIntensity,
-						dom.limitDetections );
-
-				img.close();
+				service.shutdown();
 
 				if ( dom.limitDetections )
 					ips = InterestPointTools.limitList( dom.maxDetections, dom.maxDetectionsTypeIndex, ips );
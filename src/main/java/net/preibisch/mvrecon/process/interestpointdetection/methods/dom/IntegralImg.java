@@ -0,0 +1,208 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointdetection.methods.dom;
+
+import java.util.ArrayList;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converter;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.NumericType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.fusion.ImagePortion;
+
+/**
+ * Multithreaded n-dimensional integral image (summed-area table) on ImgLib2.
+ *
+ * The integral image is one pixel larger than the input in every dimension, the first
+ * row/column/plane is zero, i.e. integral[ x + 1, y + 1, z + 1 ] is the sum of all input
+ * values at positions &lt;= (x, y, z). Images that do not fit into a single array
+ * (&gt; 2^31 pixels) are stored in a CellImg.
+ *
+ * @author Stephan Preibisch
+ */
+public class IntegralImg
+{
+	public static int[] cellSize = new int[] { 256, 256, 64 };
+
+	/**
+	 * Computes a integral image with long precision, the input is truncated to integer values
+	 * (as the legacy ImgLib1 implementation did).
+	 *
+	 * @param input - the input image (any min)
+	 * @param service - the ExecutorService to use
+	 * @param <T> - input type
+	 * @return the zero-min integral image
+	 */
+	public static < T extends RealType< T > > Img< LongType > computeLong(
+			final RandomAccessibleInterval< T > input,
+			final ExecutorService service )
+	{
+		final Converter< T, LongType > converter = (i,o) -> o.set( (long)i.getRealDouble() );
+		return compute( input, new LongType(), converter, service );
+	}
+
+	/**
+	 * Computes a integral image with double precision.
+	 *
+	 * @param input - the input image (any min)
+	 * @param service - the ExecutorService to use
+	 * @param <T> - input type
+	 * @return the zero-min integral image
+	 */
+	public static < T extends RealType< T > > Img< DoubleType > computeDouble(
+			final RandomAccessibleInterval< T > input,
+			final ExecutorService service )
+	{
+		final Converter< T, DoubleType > converter = (i,o) -> o.set( i.getRealDouble() );
+		return compute( input, new DoubleType(), converter, service );
+	}
+
+	public static < T, S extends NumericType< S > & NativeType< S > > Img< S > compute(
+			final RandomAccessibleInterval< T > input,
+			final S type,
+			final Converter< T, S > converter,
+			final ExecutorService service )
+	{
+		final int n = input.numDimensions();
+		final long[] dim = new long[ n ];
+
+		for ( int d = 0; d < n; ++d )
+			dim[ d ] = input.dimension( d ) + 1;
+
+		final Img< S > integral;
+
+		if ( Intervals.numElements( dim ) <= Integer.MAX_VALUE )
+			integral = new ArrayImgFactory<>( type ).create( dim );
+		else
+			integral = new CellImgFactory<>( type, cellSize ).create( dim );
+
+		final RandomAccessibleInterval< T > in = Views.isZeroMin( input ) ? input : Views.zeroMin( input );
+
+		// the first pass fills the integral image from the input, all others sum up in-place
+		for ( int d = 0; d < n; ++d )
+			sumAlongDimension( in, integral, type, converter, d, service );
+
+		return integral;
+	}
+
+	protected static < T, S extends NumericType< S > & NativeType< S > > void sumAlongDimension(
+			final RandomAccessibleInterval< T > input,
+			final RandomAccessibleInterval< S > integral,
+			final S type,
+			final Converter< T, S > converter,
+			final int dim,
+			final ExecutorService service )
+	{
+		final int n = integral.numDimensions();
+
+		// all lines along dim start at 1 (the zero row stays zero)
+		final long[] min = new long[ n ];
+		final long[] max = new long[ n ];
+
+		for ( int d = 0; d < n; ++d )
+		{
+			min[ d ] = 1;
+			max[ d ] = d == dim ? 1 : integral.dimension( d ) - 1;
+		}
+
+		final FinalInterval lineStarts = new FinalInterval( min, max );
+		final long length = integral.dimension( dim ) - 1;
+		final boolean firstPass = dim == 0;
+
+		final Vector< ImagePortion > portions = FusionTools.divideIntoPortions( Intervals.numElements( lineStarts ) );
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+
+		for ( final ImagePortion portion : portions )
+		{
+			tasks.add( new Callable< Void >()
+			{
+				@Override
+				public Void call() throws Exception
+				{
+					final Cursor< S > cursor = Views.flatIterable( Views.interval( integral, lineStarts ) ).localizingCursor();
+					final RandomAccess< S > ra = integral.randomAccess();
+					final RandomAccess< T > raIn = firstPass ? input.randomAccess() : null;
+
+					final S sum = type.createVariable();
+					final S tmp = sum.createVariable();
+
+					cursor.jumpFwd( portion.getStartPosition() );
+
+					for ( long j = 0; j < portion.getLoopSize(); ++j )
+					{
+						cursor.fwd();
+						ra.setPosition( cursor );
+
+						if ( firstPass )
+						{
+							for ( int d = 0; d < n; ++d )
+								raIn.setPosition( cursor.getLongPosition( d ) - 1, d );
+
+							sum.setZero();
+
+							for ( long i = 0; i < length; ++i )
+							{
+								converter.convert( raIn.get(), tmp );
+								sum.add( tmp );
+								ra.get().set( sum );
+
+								raIn.fwd( dim );
+								ra.fwd( dim );
+							}
+						}
+						else
+						{
+							sum.set( ra.get() );
+
+							for ( long i = 1; i < length; ++i )
+							{
+								ra.fwd( dim );
+								sum.add( ra.get() );
+								ra.get().set( sum );
+							}
+						}
+					}
+
+					return null;
+				}
+			});
+		}
+
+		FusionTools.execTasks( tasks, service, "compute integral image" );
+	}
+}
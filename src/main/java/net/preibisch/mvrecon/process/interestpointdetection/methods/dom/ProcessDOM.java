@@ -24,26 +24,38 @@ package net.preibisch.mvrecon.process.interestpointdetection.methods.dom;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import mpicbg.imglib.image.Image;
-import mpicbg.imglib.type.numeric.integer.LongType;
-import mpicbg.imglib.type.numeric.real.FloatType;
+import mpicbg.imglib.wrapper.ImgLib2;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
 import net.preibisch.legacy.io.IOFunctions;
-import net.preibisch.legacy.segmentation.DOM;
-import net.preibisch.legacy.segmentation.IntegralImage3d;
-import net.preibisch.legacy.segmentation.InteractiveIntegral;
-import net.preibisch.legacy.segmentation.SimplePeak;
 import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.interestpointdetection.LocalThreshold;
 import net.preibisch.mvrecon.process.interestpointdetection.Localization;
+import net.preibisch.mvrecon.process.interestpointdetection.PeakBuffer;
+import net.preibisch.mvrecon.process.interestpointdetection.methods.dog.DoGImgLib2;
+import net.preibisch.mvrecon.process.interestpointdetection.methods.weightedgauss.Lazy;
 
 public class ProcessDOM 
 {
+	public static int[] blockSize = new int[] { 96, 96, 64 };
+
 	/*
-	 * @param img - ImgLib1 image
-	 * @param imglib2img - ImgLib2 image (based on same image data as the ImgLib1 image, must be a wrap)
+	 * @param input - ImgLib2 image (any type, any min)
 	 * @param radius1
 	 * @param radius2
 	 * @param threshold
@@ -55,11 +67,14 @@ public class ProcessDOM
 	 * @param findMax
 	 * @param minIntensity
 	 * @param maxIntensity
+	 * @param keepIntensity
+	 * @param maxPeaks - only keep the brightest maxPeaks candidates, <= 0 keeps all
+	 * @param adaptiveThreshold - scale the threshold with the local noise level (see LocalThreshold)
+	 * @param service
 	 * @return
 	 */
-	public static ArrayList< InterestPoint > compute( 
-			final Image< FloatType > img,
-			final Img< net.imglib2.type.numeric.real.FloatType > imglib2img,
+	public static < T extends RealType< T > > ArrayList< InterestPoint > compute( 
+			final RandomAccessibleInterval< T > input,
 			final int radius1, 
 			final int radius2, 
 			final float threshold, 
@@ -71,15 +86,16 @@ public class ProcessDOM
 			final boolean findMax,
 			final double minIntensity,
 			final double maxIntensity,
-			final boolean keepIntensity )
+			final boolean keepIntensity,
+			final int maxPeaks,
+			final boolean adaptiveThreshold,
+			final ExecutorService service )
 	{
-		final Image< LongType > integralImg = IntegralImage3d.compute( img );
-
 		final float min, max;
 
 		if ( Double.isNaN( minIntensity ) || Double.isNaN( maxIntensity ) || Double.isInfinite( minIntensity ) || Double.isInfinite( maxIntensity ) || minIntensity == maxIntensity )
 		{
-			final float[] minmax = FusionTools.minMax( imglib2img );
+			final float[] minmax = FusionTools.minMax( input, service );
 			min = minmax[ 0 ];
 			max = minmax[ 1 ];
 		}
@@ -90,8 +106,7 @@ public class ProcessDOM
 		}
 
 		IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): min intensity = " + min + ", max intensity = " + max );
-		
-		// in-place
+
 		final int sX1 = Math.max( 3, (int)Math.round( radius1 * (0.5/imageSigmaX ) ) * 2 + 1 );
 		final int sX2 = Math.max( 5, (int)Math.round( radius2 * (0.5/imageSigmaX ) ) * 2 + 1 );
 
@@ -103,40 +118,119 @@ public class ProcessDOM
 
 		IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): Computing Difference-of-Mean, diameters = (" + sX1 + ", "  + sX2 + ", "  + sY1 + ", "  + sY2 + ", "  + sZ1 + ", "  + sZ2 + ")" );
 
-		// in-place overwriting img if no adjacent Gauss fit is required
-		final Image< FloatType > domImg;
-		
-		if ( localization == 2 )
-		{
-			domImg = img.createNewImage();
-		}
+		final long[] minInterval = new long[ input.numDimensions() ];
+		input.min( minInterval );
+
+		final Img< LongType > integralImg = IntegralImg.computeLong( input, service );
+
+		final DifferenceOfMeanRA< LongType > domOp = new DifferenceOfMeanRA<>(
+				integralImg,
+				new int[] { sX1, sY1, sZ1 },
+				new int[] { sX2, sY2, sZ2 },
+				min, max );
+
+		final FinalInterval domInterval = new FinalInterval( Intervals.dimensionsAsLongArray( input ) );
+		final boolean fitsArray = Intervals.numElements( domInterval ) <= Integer.MAX_VALUE;
+
+		// the quadratic fit needs the complete image (ImgLib1), otherwise the DoM is computed lazily block by block
+		final RandomAccessibleInterval< FloatType > domImg;
+
+		if ( localization == 1 && fitsArray )
+			domImg = computeBlockwise( domOp, domInterval, service );
 		else
-		{
-			domImg = img;
-			for ( final FloatType tt : img )
-				tt.setZero();
-		}
-		
-		DOM.computeDifferencOfMean3d( integralImg, domImg, sX1, sY1, sZ1, sX2, sY2, sZ2, min, max );
+			domImg = Lazy.process( domInterval, blockSize, new FloatType(), AccessFlags.setOf(), domOp );
 
-		// close integral img
-		integralImg.close();
-		
 		IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): Extracting peaks (radius=" + radius1 + ", threshold=" + threshold + ")");					
 
 		// compute the maxima/minima
-		final ArrayList< SimplePeak > peaks = InteractiveIntegral.findPeaks( domImg, threshold );
-		final ArrayList< InterestPoint > finalPeaks;
-		
-		if ( localization == 0 )
+		final LocalThreshold localThreshold = adaptiveThreshold ? new LocalThreshold( domImg, service ) : null;
+
+		final PeakBuffer peaks = DoGImgLib2.findPeaksBuffered( domImg, null, threshold, localThreshold, findMin, findMax, maxPeaks, service );
+		ArrayList< InterestPoint > finalPeaks;
+
+		if ( localization == 0 || ( localization == 1 && !fitsArray ) )
+		{
+			if ( localization == 1 )
+				IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): Warning! Image too large for quadratic fit, skipping subpixel localization." );
+
 			finalPeaks = Localization.noLocalization( peaks, findMin, findMax, keepIntensity );
+		}
 		else if ( localization == 1 )
-			finalPeaks = Localization.computeQuadraticLocalization( peaks, domImg, findMin, findMax, threshold, keepIntensity, Threads.numThreads() );
+		{
+			// TODO: remove last Imglib1 crap
+			final Image< mpicbg.imglib.type.numeric.real.FloatType > imglib1 = ImgLib2.wrapArrayFloatToImgLib1( (Img< FloatType >)domImg );
+
+			if ( localThreshold == null )
+			{
+				finalPeaks = Localization.computeQuadraticLocalization( peaks, imglib1, findMin, findMax, threshold, keepIntensity, Threads.numThreads() );
+			}
+			else
+			{
+				// filter the localized peaks by the local threshold, which needs their intensities
+				finalPeaks = Localization.computeQuadraticLocalization( peaks, imglib1, findMin, findMax, threshold * LocalThreshold.minScale, true, Threads.numThreads() );
+				finalPeaks = localThreshold.filter( finalPeaks, threshold );
+
+				if ( !keepIntensity )
+					finalPeaks = Localization.removeIntensity( finalPeaks );
+			}
+		}
 		else
-			finalPeaks = Localization.computeGaussLocalization( peaks, domImg, ( radius2 + radius1 )/2.0, findMin, findMax, threshold, keepIntensity );
+		{
+			finalPeaks = Localization.computeGaussLocalization( peaks, null, ( radius2 + radius1 )/2.0, findMin, findMax, threshold, keepIntensity );
+		}
+
+		// adjust detections for min coordinates of the RandomAccessibleInterval
+		for ( final InterestPoint ip : finalPeaks )
+		{
+			for ( int d = 0; d < input.numDimensions(); ++d )
+			{
+				ip.getL()[ d ] += minInterval[ d ];
+				ip.getW()[ d ] += minInterval[ d ];
+			}
+		}
 
 		IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): Found " + finalPeaks.size() + " peaks." );
 		
 		return finalPeaks;
 	}
+
+	/*
+	 * computes the DoM into an ArrayImg, every block is one task
+	 */
+	protected static Img< FloatType > computeBlockwise(
+			final DifferenceOfMeanRA< ? > domOp,
+			final FinalInterval interval,
+			final ExecutorService service )
+	{
+		final Img< FloatType > domImg = new ArrayImgFactory<>( new FloatType() ).create( interval );
+		final CellGrid grid = new CellGrid( Intervals.dimensionsAsLongArray( interval ), blockSize );
+		final long numBlocks = Intervals.numElements( grid.getGridDimensions() );
+
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+
+		for ( long i = 0; i < numBlocks; ++i )
+		{
+			final long[] blockMin = new long[ interval.numDimensions() ];
+			final int[] blockDim = new int[ interval.numDimensions() ];
+			grid.getCellDimensions( i, blockMin, blockDim );
+
+			final long[] blockMax = new long[ interval.numDimensions() ];
+			for ( int d = 0; d < blockMax.length; ++d )
+				blockMax[ d ] = blockMin[ d ] + blockDim[ d ] - 1;
+
+			tasks.add( new Callable< Void >()
+			{
+				@Override
+				public Void call() throws Exception
+				{
+					domOp.accept( Views.interval( domImg, blockMin, blockMax ) );
+					return null;
+				}
+			});
+		}
+
+		FusionTools.execTasks( tasks, service, "compute Difference-of-Mean" );
+
+		return domImg;
+	}
 }
@@ -65,6 +65,7 @@ import net.preibisch.mvrecon.fiji.spimdata.boundingbox.BoundingBox;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.CorrespondingInterestPoints;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointPreloader;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPointLists;
 import net.preibisch.mvrecon.process.boundingbox.BoundingBoxMaximal;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
@@ -622,6 +623,9 @@ public class TransformationTools
 		final HashMap< V, List< InterestPoint > > transformedInterestpoints =
 				new HashMap< V, List< InterestPoint > >();
 
+		// load all lists concurrently, getInterestPoints() then only copies them
+		InterestPointPreloader.preload( interestpoints, viewIds, labelMap, false );
+
 		for ( final V viewId : viewIds )
 			transformedInterestpoints.put( viewId, getInterestPoints( viewId, registrations, interestpoints, labelMap, transform ) );
 
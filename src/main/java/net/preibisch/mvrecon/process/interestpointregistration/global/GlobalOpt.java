@@ -29,6 +29,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 import mpicbg.models.Affine3D;
 import mpicbg.models.AffineModel3D;
@@ -44,7 +45,10 @@ import net.imglib2.util.ValuePair;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.process.interestpointregistration.TransformationTools;
 import net.preibisch.mvrecon.process.interestpointregistration.global.convergence.ConvergenceStrategy;
+import net.preibisch.mvrecon.process.interestpointregistration.global.convergence.ConvergenceStrategy.Solver;
 import net.preibisch.mvrecon.process.interestpointregistration.global.pointmatchcreating.PointMatchCreator;
+import net.preibisch.mvrecon.process.interestpointregistration.global.solver.ParallelTileRelaxation;
+import net.preibisch.mvrecon.process.interestpointregistration.global.solver.SparseLeastSquaresSolver;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
 
 /**
@@ -95,7 +99,7 @@ public class GlobalOpt
 			else
 				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): prealigned all tiles" );
 
-			tc.optimize( cs.getMaxError(), cs.getMaxIterations(), cs.getMaxPlateauWidth() );
+			optimize( tc, cs );
 
 			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Global optimization of " + 
 				tc.getTiles().size() +  " view-tiles (Model=" + model.getClass().getSimpleName()  + "):" );
@@ -114,6 +118,207 @@ public class GlobalOpt
 			e.printStackTrace();
 		}
 		
+		printModels( views, map );
+
+		return map;
+	}
+
+	/**
+	 * Incremental global optimization, e.g. for growing time series where each new timepoint is registered
+	 * against reference timepoints. Only the tiles of new views and the tiles up to neighborhood links away
+	 * from them are optimized; their neighbors are fixed and all other tiles keep their solution. The cost
+	 * of adding a timepoint thus does not grow with the length of the series.
+	 *
+	 * Like {@link #compute(Model, PointMatchCreator, ConvergenceStrategy, Collection, Collection)} the models
+	 * are relative to the current registrations the point matches were created with. The current registrations
+	 * of the registered views must already contain their previous solution (as it is the case after storing the
+	 * result of a previous run), so these tiles start from (and, unless optimized, return) the identity transform.
+	 *
+	 * @param model - the transformation model to run the global optimizations on
+	 * @param pmc - the pointmatch creator
+	 * @param cs - the convergence strategy
+	 * @param fixedViews - which views are fixed
+	 * @param groupsIn - which views are grouped
+	 * @param registeredViews - the views whose current registration already contains a solution, all others are new, can be null
+	 * @param neighborhood - how many links away from new tiles tiles are still optimized (0 means only the new tiles)
+	 * @return map from view id to tile (relative to the current registration) for all views of this optimization
+	 * @param <M> mpicbg model type
+	 */
+	public static < M extends Model< M > > HashMap< ViewId, Tile< M > > computeIncremental(
+			final M model,
+			final PointMatchCreator pmc,
+			final ConvergenceStrategy cs,
+			final Collection< ViewId > fixedViews,
+			final Collection< Group< ViewId > > groupsIn,
+			final Collection< ? extends ViewId > registeredViews,
+			final int neighborhood )
+	{
+		return computeIncremental( model, pmc, cs, fixedViews, groupsIn, registeredViews, neighborhood, null );
+	}
+
+	/**
+	 * Same as {@link #computeIncremental(Model, PointMatchCreator, ConvergenceStrategy, Collection, Collection, Collection, int)},
+	 * additionally reports which views were optimized. Only their transformations need to be stored, all other views
+	 * keep their previous solution (identity).
+	 *
+	 * @param model - the transformation model to run the global optimizations on
+	 * @param pmc - the pointmatch creator
+	 * @param cs - the convergence strategy
+	 * @param fixedViews - which views are fixed
+	 * @param groupsIn - which views are grouped
+	 * @param registeredViews - the views whose current registration already contains a solution, all others are new, can be null
+	 * @param neighborhood - how many links away from new tiles tiles are still optimized (0 means only the new tiles)
+	 * @param optimizedViews - the views that were optimized (not fixed) are added to this collection, can be null
+	 * @return map from view id to tile (relative to the current registration) for all views of this optimization
+	 * @param <M> mpicbg model type
+	 */
+	public static < M extends Model< M > > HashMap< ViewId, Tile< M > > computeIncremental(
+			final M model,
+			final PointMatchCreator pmc,
+			final ConvergenceStrategy cs,
+			final Collection< ViewId > fixedViews,
+			final Collection< Group< ViewId > > groupsIn,
+			final Collection< ? extends ViewId > registeredViews,
+			final int neighborhood,
+			final Collection< ViewId > optimizedViews )
+	{
+		if ( registeredViews == null || registeredViews.isEmpty() )
+		{
+			final HashMap< ViewId, Tile< M > > map = compute( model, pmc, cs, fixedViews, groupsIn );
+
+			if ( map != null && optimizedViews != null )
+				optimizedViews.addAll( map.keySet() );
+
+			return map;
+		}
+
+		final HashMap< ViewId, Tile< M > > map = initGlobalOpt( model, pmc, fixedViews, groupsIn ).getA();
+
+		final ArrayList< ViewId > views = new ArrayList<>( map.keySet() );
+		Collections.sort( views );
+
+		final HashSet< ViewId > registered = new HashSet<>();
+
+		for ( final ViewId viewId : registeredViews )
+			registered.add( new ViewId( viewId.getTimePointId(), viewId.getViewSetupId() ) );
+
+		// tiles containing a view that is not registered yet are new, all other tiles keep their (identity) model
+		final HashSet< Tile< ? > > newTiles = new HashSet<>();
+
+		for ( final ViewId viewId : views )
+			if ( !registered.contains( new ViewId( viewId.getTimePointId(), viewId.getViewSetupId() ) ) )
+				newTiles.add( map.get( viewId ) );
+
+		// the tiles that are optimized: the new ones and their neighborhood
+		final HashSet< Tile< ? > > free = new HashSet<>( newTiles );
+		HashSet< Tile< ? > > frontier = new HashSet<>( newTiles );
+
+		for ( int d = 0; d < neighborhood && frontier.size() > 0; ++d )
+		{
+			final HashSet< Tile< ? > > next = new HashSet<>();
+
+			for ( final Tile< ? > tile : frontier )
+				for ( final Tile< ? > connected : tile.getConnectedTiles() )
+					if ( free.add( connected ) )
+						next.add( connected );
+
+			frontier = next;
+		}
+
+		// the tiles connected to the optimized ones keep their solution
+		final HashSet< Tile< ? > > fixed = new HashSet<>();
+
+		for ( final ViewId viewId : fixedViews )
+			if ( map.containsKey( viewId ) )
+				fixed.add( map.get( viewId ) );
+
+		final HashSet< Tile< ? > > boundary = new HashSet<>();
+
+		for ( final Tile< ? > tile : free )
+			for ( final Tile< ? > connected : tile.getConnectedTiles() )
+				if ( !free.contains( connected ) )
+					boundary.add( connected );
+
+		fixed.addAll( boundary );
+
+		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Incremental global optimization: " + newTiles.size() + " new tile(s), " +
+				free.size() + " tile(s) optimized (neighborhood=" + neighborhood + "), " + boundary.size() + " fixed boundary tile(s), " +
+				( new HashSet<>( map.values() ).size() - free.size() - boundary.size() ) + " unchanged tile(s)." );
+
+		if ( newTiles.size() == 0 )
+		{
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): No new views, keeping the previous solution." );
+		}
+		else
+		{
+			try
+			{
+				// pre-align only the new tiles relative to the previous solution
+				final TileConfiguration tcPreAlign = new TileConfiguration();
+
+				for ( final Tile< ? > tile : free )
+				{
+					tcPreAlign.addTile( tile );
+
+					if ( !newTiles.contains( tile ) || fixed.contains( tile ) )
+						tcPreAlign.fixTile( tile );
+				}
+
+				for ( final Tile< ? > tile : boundary )
+				{
+					tcPreAlign.addTile( tile );
+					tcPreAlign.fixTile( tile );
+				}
+
+				tcPreAlign.preAlign();
+
+				// optimize new tiles and their neighborhood
+				final TileConfiguration tc = new TileConfiguration();
+
+				for ( final Tile< ? > tile : free )
+				{
+					if ( tile.getConnectedTiles().size() == 0 && !fixed.contains( tile ) )
+						continue;
+
+					tc.addTile( tile );
+
+					if ( fixed.contains( tile ) )
+						tc.fixTile( tile );
+				}
+
+				for ( final Tile< ? > tile : boundary )
+				{
+					tc.addTile( tile );
+					tc.fixTile( tile );
+				}
+
+				optimize( tc, cs );
+
+				if ( optimizedViews != null )
+					for ( final ViewId viewId : views )
+						if ( free.contains( map.get( viewId ) ) && !fixed.contains( map.get( viewId ) ) )
+							optimizedViews.add( viewId );
+
+				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Incremental global optimization of " +
+						tc.getTiles().size() +  " view-tiles (Model=" + model.getClass().getSimpleName()  + "):" );
+				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "):    Avg Error: " + tc.getError() + "px" );
+				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "):    Min Error: " + tc.getMinError() + "px" );
+				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "):    Max Error: " + tc.getMaxError() + "px" );
+			}
+			catch ( NotEnoughDataPointsException | IllDefinedDataPointsException e )
+			{
+				IOFunctions.println( "Incremental global optimization failed: " + e );
+				e.printStackTrace();
+			}
+		}
+
+		printModels( views, map );
+
+		return map;
+	}
+
+	protected static < M extends Model< M > > void printModels( final List< ViewId > views, final Map< ViewId, Tile< M > > map )
+	{
 		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Transformation Models:" );
 
 		// TODO: We assume it is Affine3D here
@@ -128,8 +333,25 @@ public class GlobalOpt
 			else
 				IOFunctions.println( output + ", " + TransformationTools.getScaling( (Affine3D<?>)tile.getModel() ) );
 		}
-		
-		return map;
+	}
+
+	/*
+	 * runs the solver selected by the ConvergenceStrategy, the sparse solver falls back to the iterative relaxation if the models are not supported
+	 */
+	public static void optimize( final TileConfiguration tc, final ConvergenceStrategy cs ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		if ( cs.getSolver() == Solver.SPARSE_LINEAR )
+		{
+			if ( SparseLeastSquaresSolver.optimize( tc ) )
+				return;
+
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Model not supported by the sparse solver, using iterative relaxation." );
+		}
+
+		if ( cs.getSolver() == Solver.PARALLEL_RELAXATION )
+			ParallelTileRelaxation.optimize( tc, cs.getMaxError(), cs.getMaxIterations(), cs.getMaxPlateauWidth() );
+		else
+			tc.optimize( cs.getMaxError(), cs.getMaxIterations(), cs.getMaxPlateauWidth() );
 	}
 
 	public static < M extends Model< M > > Pair< HashMap< ViewId, Tile< M > >, ArrayList< Group< ViewId > > > initGlobalOpt(
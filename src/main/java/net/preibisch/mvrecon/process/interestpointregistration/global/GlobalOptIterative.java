@@ -41,9 +41,12 @@ import mpicbg.spim.data.sequence.ViewId;
 import net.imglib2.util.Pair;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.process.interestpointregistration.TransformationTools;
+import net.preibisch.mvrecon.process.interestpointregistration.global.convergence.ConvergenceStrategy.Solver;
 import net.preibisch.mvrecon.process.interestpointregistration.global.convergence.IterativeConvergenceStrategy;
 import net.preibisch.mvrecon.process.interestpointregistration.global.linkremoval.LinkRemovalStrategy;
 import net.preibisch.mvrecon.process.interestpointregistration.global.pointmatchcreating.PointMatchCreator;
+import net.preibisch.mvrecon.process.interestpointregistration.global.solver.ParallelTileRelaxation;
+import net.preibisch.mvrecon.process.interestpointregistration.global.solver.SparseLeastSquaresSolver;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
 
 public class GlobalOptIterative
@@ -97,9 +100,12 @@ public class GlobalOptIterative
 				else
 					IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): prealigned all tiles" );
 
-				TileUtil.optimizeConcurrently(
-						new ErrorStatistic( ics.getMaxPlateauWidth() + 1 ),  ics.getMaxError(), ics.getMaxIterations(), ics.getMaxPlateauWidth(), 1.0f,
-						tc, tc.getTiles(), tc.getFixedTiles(), Runtime.getRuntime().availableProcessors());
+				if ( ics.getSolver() == Solver.PARALLEL_RELAXATION )
+					ParallelTileRelaxation.optimize( tc, ics.getMaxError(), ics.getMaxIterations(), ics.getMaxPlateauWidth() );
+				else if ( ics.getSolver() != Solver.SPARSE_LINEAR || !SparseLeastSquaresSolver.optimize( tc ) )
+					TileUtil.optimizeConcurrently(
+							new ErrorStatistic( ics.getMaxPlateauWidth() + 1 ),  ics.getMaxError(), ics.getMaxIterations(), ics.getMaxPlateauWidth(), 1.0f,
+							tc, tc.getTiles(), tc.getFixedTiles(), Runtime.getRuntime().availableProcessors());
 
 				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Global optimization of " + tc.getTiles().size());
 				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "):    Avg Error: " + tc.getError() + "px" );
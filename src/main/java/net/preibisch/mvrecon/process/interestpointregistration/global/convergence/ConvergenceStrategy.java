@@ -24,9 +24,27 @@ package net.preibisch.mvrecon.process.interestpointregistration.global.convergen
 
 public class ConvergenceStrategy
 {
+	/**
+	 * RELAXATION: iterative optimization of mpicbg's TileConfiguration (any model),
+	 * SPARSE_LINEAR: solves the least-squares problem directly (translation, rigid and affine models only, falls back to RELAXATION otherwise),
+	 * PARALLEL_RELAXATION: multi-threaded iterative optimization (any model)
+	 */
+	public enum Solver { RELAXATION, SPARSE_LINEAR, PARALLEL_RELAXATION }
+
+	public static String[] solverChoice = new String[]{
+			"Iterative relaxation (all models)",
+			"Sparse least-squares solver (translation, rigid, affine; 1000+ tiles)",
+			"Multi-threaded iterative relaxation (all models; 1000+ tiles)" };
+
+	/**
+	 * the solver of every new instance, choose a different one per instance using {@link #setSolver(Solver)}
+	 */
+	public static final Solver defaultSolver = Solver.RELAXATION;
+
 	double maxAllowedError;
 	int maxIterations;
 	int maxPlateauwidth;
+	Solver solver = defaultSolver;
 
 	public ConvergenceStrategy( final double maxAllowedError )
 	{
@@ -46,4 +64,6 @@ public class ConvergenceStrategy
 	public double getMaxError() { return maxAllowedError; }
 	public int getMaxIterations() { return maxIterations; }
 	public int getMaxPlateauWidth() { return maxPlateauwidth; }
+	public Solver getSolver() { return solver; }
+	public void setSolver( final Solver solver ) { this.solver = solver; }
 }
@@ -0,0 +1,302 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.global.solver;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import mpicbg.models.ErrorStatistic;
+import mpicbg.models.IllDefinedDataPointsException;
+import mpicbg.models.NotEnoughDataPointsException;
+import mpicbg.models.Tile;
+import mpicbg.models.TileConfiguration;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods.ransac.MultiThreadedRANSAC;
+
+/**
+ * Multi-threaded version of the iterative relaxation of mpicbg's TileConfiguration.
+ *
+ * The tiles are colored such that no two connected tiles (tiles sharing point matches) have the same color.
+ * In every iteration the tiles of one color are updated in parallel, which is safe since they neither read
+ * nor write each other's points, then the next color uses the updated models (a colored Gauss-Seidel scheme
+ * that converges like the sequential relaxation). Unlike mpicbg's TileUtil.optimizeConcurrently, which schedules the
+ * tiles dynamically, the update order is fixed by the coloring, so the result does not depend on thread timing; it also
+ * runs on a shared executor instead of creating threads per call.
+ *
+ * @author Stephan Preibisch (stephan.preibisch@gmx.de)
+ */
+public class ParallelTileRelaxation
+{
+	// print the error and timing every n iterations
+	public static int reportEvery = 100;
+
+	// minimal number of tiles of one color that are processed by one task
+	public static int minTilesPerTask = 16;
+
+	/**
+	 * @param tc - the tile configuration
+	 * @param maxAllowedError - stop if the average error is below and the error does not change anymore
+	 * @param maxIterations - maximal number of iterations
+	 * @param maxPlateauwidth - number of iterations to look at to decide if the error still changes
+	 * @throws NotEnoughDataPointsException if a tile cannot be fitted
+	 * @throws IllDefinedDataPointsException if a tile cannot be fitted
+	 */
+	public static void optimize(
+			final TileConfiguration tc,
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		optimize( tc, maxAllowedError, maxIterations, maxPlateauwidth, MultiThreadedRANSAC.sharedService() );
+	}
+
+	/**
+	 * @param tc - the tile configuration
+	 * @param maxAllowedError - stop if the average error is below and the error does not change anymore
+	 * @param maxIterations - maximal number of iterations
+	 * @param maxPlateauwidth - number of iterations to look at to decide if the error still changes
+	 * @param service - the ExecutorService to run on
+	 * @throws NotEnoughDataPointsException if a tile cannot be fitted
+	 * @throws IllDefinedDataPointsException if a tile cannot be fitted
+	 */
+	public static void optimize(
+			final TileConfiguration tc,
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final ExecutorService service ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		final ArrayList< Tile< ? > > tiles = new ArrayList<>( tc.getTiles() );
+		final Set< Tile< ? > > fixed = new HashSet<>( tc.getFixedTiles() );
+
+		final List< List< Tile< ? > > > colors = color( tiles, fixed );
+
+		// one list of tasks per color
+		final int numThreads = Threads.numThreads();
+		final ArrayList< ArrayList< Callable< Void > > > fitTasks = new ArrayList<>();
+
+		for ( final List< Tile< ? > > color : colors )
+			fitTasks.add( createTasks( color, numThreads, true ) );
+
+		final ArrayList< Callable< Void > > costTasks = createTasks( tiles, numThreads, false );
+
+		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Parallel relaxation of " + tiles.size() + " tiles (" +
+				fixed.size() + " fixed) using " + colors.size() + " colors." );
+
+		final ErrorStatistic observer = new ErrorStatistic( maxPlateauwidth + 1 );
+
+		final long start = System.currentTimeMillis();
+		long last = start;
+
+		// initialize the points with the current models
+		for ( final Tile< ? > tile : tiles )
+			tile.apply();
+
+		int i = 0;
+		boolean proceed = i < maxIterations;
+
+		while ( proceed )
+		{
+			for ( final ArrayList< Callable< Void > > tasks : fitTasks )
+				run( tasks, service );
+
+			run( costTasks, service );
+
+			final double error = averageError( tiles );
+			observer.add( error );
+
+			if ( i > maxPlateauwidth )
+			{
+				proceed = error > maxAllowedError;
+
+				int d = maxPlateauwidth;
+				while ( !proceed && d >= 1 )
+				{
+					proceed |= Math.abs( observer.getWideSlope( d ) ) > 0.0001;
+					d /= 2;
+				}
+			}
+
+			proceed &= ++i < maxIterations;
+
+			if ( i % reportEvery == 0 || !proceed )
+			{
+				final long now = System.currentTimeMillis();
+
+				IOFunctions.println( "(" + new Date( now ) + "): iteration " + i + ", avg error=" + error + "px, " +
+						( now - last ) / (double)( ( i - 1 ) % reportEvery + 1 ) + " ms/iteration." );
+
+				last = now;
+			}
+		}
+
+		tc.updateErrors();
+
+		final long time = System.currentTimeMillis() - start;
+
+		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Parallel relaxation finished after " + i + " iterations, " +
+				time + " ms (" + ( i == 0 ? 0 : time / (double)i ) + " ms/iteration)." );
+	}
+
+	/**
+	 * Greedy coloring of the tiles, connected tiles never have the same color. Tiles with many connections are colored first.
+	 *
+	 * @param tiles - all tiles
+	 * @param fixed - tiles that are not updated (not colored)
+	 * @return the tiles that are not fixed, grouped by color
+	 */
+	public static List< List< Tile< ? > > > color( final List< Tile< ? > > tiles, final Set< Tile< ? > > fixed )
+	{
+		final ArrayList< Tile< ? > > sorted = new ArrayList<>();
+
+		for ( final Tile< ? > tile : tiles )
+			if ( !fixed.contains( tile ) )
+				sorted.add( tile );
+
+		sorted.sort( ( a, b ) -> Integer.compare( b.getConnectedTiles().size(), a.getConnectedTiles().size() ) );
+
+		final HashMap< Tile< ? >, Integer > colorMap = new HashMap<>();
+		final ArrayList< List< Tile< ? > > > colors = new ArrayList<>();
+
+		for ( final Tile< ? > tile : sorted )
+		{
+			final HashSet< Integer > used = new HashSet<>();
+
+			for ( final Tile< ? > connected : tile.getConnectedTiles() )
+			{
+				final Integer c = colorMap.get( connected );
+
+				if ( c != null )
+					used.add( c );
+			}
+
+			int c = 0;
+			while ( used.contains( c ) )
+				++c;
+
+			colorMap.put( tile, c );
+
+			if ( c == colors.size() )
+				colors.add( new ArrayList<>() );
+
+			colors.get( c ).add( tile );
+		}
+
+		return colors;
+	}
+
+	protected static ArrayList< Callable< Void > > createTasks( final List< Tile< ? > > tiles, final int numThreads, final boolean fit )
+	{
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+		final int numTasks = Math.max( 1, Math.min( numThreads, tiles.size() / minTilesPerTask ) );
+		final int portion = tiles.size() / numTasks;
+
+		for ( int t = 0; t < numTasks; ++t )
+		{
+			final int from = t * portion;
+			final int to = ( t == numTasks - 1 ) ? tiles.size() : from + portion;
+
+			tasks.add( () ->
+			{
+				for ( int i = from; i < to; ++i )
+				{
+					final Tile< ? > tile = tiles.get( i );
+
+					if ( fit )
+					{
+						tile.fitModel();
+						tile.apply();
+					}
+					else
+					{
+						tile.updateCost();
+					}
+				}
+
+				return null;
+			});
+		}
+
+		return tasks;
+	}
+
+	protected static void run( final List< Callable< Void > > tasks, final ExecutorService service ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		// no need to go through the executor for a single task
+		if ( tasks.size() == 1 )
+		{
+			try
+			{
+				tasks.get( 0 ).call();
+				return;
+			}
+			catch ( NotEnoughDataPointsException | IllDefinedDataPointsException e )
+			{
+				throw e;
+			}
+			catch ( Exception e )
+			{
+				throw new RuntimeException( e );
+			}
+		}
+
+		try
+		{
+			for ( final Future< Void > future : service.invokeAll( tasks ) )
+				future.get();
+		}
+		catch ( ExecutionException e )
+		{
+			if ( e.getCause() instanceof NotEnoughDataPointsException )
+				throw (NotEnoughDataPointsException)e.getCause();
+			else if ( e.getCause() instanceof IllDefinedDataPointsException )
+				throw (IllDefinedDataPointsException)e.getCause();
+			else
+				throw new RuntimeException( e.getCause() );
+		}
+		catch ( InterruptedException e )
+		{
+			throw new RuntimeException( e );
+		}
+	}
+
+	protected static double averageError( final List< Tile< ? > > tiles )
+	{
+		double sum = 0;
+
+		for ( final Tile< ? > tile : tiles )
+			sum += tile.getDistance();
+
+		return tiles.size() == 0 ? 0 : sum / tiles.size();
+	}
+}
@@ -0,0 +1,767 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.global.solver;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import mpicbg.models.Affine3D;
+import mpicbg.models.AffineModel3D;
+import mpicbg.models.Model;
+import mpicbg.models.Point;
+import mpicbg.models.PointMatch;
+import mpicbg.models.RigidModel3D;
+import mpicbg.models.Tile;
+import mpicbg.models.TileConfiguration;
+import mpicbg.models.TranslationModel3D;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+import net.preibisch.legacy.io.IOFunctions;
+
+/**
+ * Global optimization of translation, rigid and affine tile configurations by directly solving the
+ * (weighted) linear least-squares problem defined by all point matches, instead of the iterative
+ * relaxation of mpicbg's TileConfiguration which needs many iterations to converge for 1000+ tiles.
+ *
+ * The normal equations are block-sparse (one block per pair of connected tiles) and are solved with a
+ * block-Jacobi preconditioned conjugate gradient, warm-started from the current models. For translation
+ * and affine models the problem separates into three independent systems (one per dimension), rigid
+ * models are solved by Gauss-Newton iterations on a linearized rotation.
+ *
+ * Connected components without a fixed tile get one tile fixed (which is what the relaxation converges to
+ * as well, up to a global transformation), otherwise the affine problem would have a trivial solution.
+ *
+ * @author Stephan Preibisch (stephan.preibisch@gmx.de)
+ */
+public class SparseLeastSquaresSolver
+{
+	public static double relativeTolerance = 1e-12;
+	public static int maxGaussNewtonIterations = 25;
+
+	// regularization of every diagonal block relative to its trace, keeps degenerate tiles (e.g. coplanar points) at their current model
+	public static double regularization = 1e-9;
+
+	protected enum Type
+	{
+		TRANSLATION( 1, 3 ), RIGID( 6, 1 ), AFFINE( 4, 3 );
+
+		// unknowns per tile and number of independent right-hand sides
+		final int blockSize, numRhs;
+
+		Type( final int blockSize, final int numRhs )
+		{
+			this.blockSize = blockSize;
+			this.numRhs = numRhs;
+		}
+	}
+
+	/**
+	 * @param model - a model
+	 * @return if this model can be optimized with the sparse solver
+	 */
+	public static boolean isSupported( final Model< ? > model )
+	{
+		return getType( model ) != null;
+	}
+
+	protected static Type getType( final Model< ? > model )
+	{
+		// exact classes only, e.g. interpolated (regularized) models are not linear
+		if ( model.getClass() == TranslationModel3D.class )
+			return Type.TRANSLATION;
+		else if ( model.getClass() == RigidModel3D.class )
+			return Type.RIGID;
+		else if ( model.getClass() == AffineModel3D.class )
+			return Type.AFFINE;
+		else
+			return null;
+	}
+
+	/**
+	 * Optimizes the models of all tiles of the TileConfiguration and updates its errors.
+	 *
+	 * @param tc - the tile configuration (tiles, fixed tiles and point matches)
+	 * @return false if the models are not supported (nothing was changed), true otherwise
+	 */
+	public static boolean optimize( final TileConfiguration tc )
+	{
+		final ArrayList< Tile< ? > > tiles = new ArrayList<>( tc.getTiles() );
+
+		if ( tiles.size() == 0 )
+			return true;
+
+		final Type type = getType( tiles.get( 0 ).getModel() );
+
+		if ( type == null )
+			return false;
+
+		for ( final Tile< ? > tile : tiles )
+			if ( getType( tile.getModel() ) != type )
+				return false;
+
+		final long time = System.currentTimeMillis();
+
+		final Set< Tile< ? > > fixed = new HashSet<>( tc.getFixedTiles() );
+
+		// every connected component needs at least one fixed tile
+		for ( final Set< Tile< ? > > component : Tile.identifyConnectedGraphs( tiles ) )
+		{
+			boolean containsFixed = false;
+
+			for ( final Tile< ? > tile : component )
+				if ( fixed.contains( tile ) )
+					containsFixed = true;
+
+			if ( !containsFixed )
+				for ( final Tile< ? > tile : tiles )
+					if ( component.contains( tile ) )
+					{
+						fixed.add( tile );
+						break;
+					}
+		}
+
+		// index of the unknowns of each tile that is not fixed
+		final HashMap< Tile< ? >, Integer > index = new HashMap<>();
+		final ArrayList< Tile< ? > > free = new ArrayList<>();
+
+		for ( final Tile< ? > tile : tiles )
+			if ( !fixed.contains( tile ) )
+			{
+				index.put( tile, free.size() );
+				free.add( tile );
+			}
+
+		// which tile a point belongs to (the second point of a match belongs to the connected tile)
+		final IdentityHashMap< Point, Tile< ? > > owner = new IdentityHashMap<>();
+
+		for ( final Tile< ? > tile : tiles )
+			for ( final PointMatch pm : tile.getMatches() )
+				owner.put( pm.getP1(), tile );
+
+		int iterations = 0;
+
+		if ( free.size() > 0 )
+		{
+			if ( type == Type.RIGID )
+			{
+				for ( int i = 0; i < maxGaussNewtonIterations; ++i )
+				{
+					final Pair< double[][], Integer > update = solve( type, tiles, free, index, owner );
+					iterations += update.getB();
+
+					if ( applyRigidUpdate( free, update.getA() ) )
+						break;
+				}
+			}
+			else
+			{
+				final Pair< double[][], Integer > result = solve( type, tiles, free, index, owner );
+				iterations = result.getB();
+
+				applyLinear( type, free, result.getA() );
+			}
+		}
+
+		for ( final Tile< ? > tile : tiles )
+			tile.apply();
+
+		tc.updateErrors();
+
+		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Sparse least-squares optimization of " + tiles.size() + " tiles (" +
+				free.size() + " not fixed, " + type + "): " + iterations + " CG iterations, " + ( System.currentTimeMillis() - time ) + " ms." );
+
+		return true;
+	}
+
+	/*
+	 * assembles the normal equations for the current models and solves them,
+	 * returns the solution (per right-hand side) and the number of CG iterations
+	 */
+	protected static Pair< double[][], Integer > solve(
+			final Type type,
+			final List< Tile< ? > > tiles,
+			final List< Tile< ? > > free,
+			final Map< Tile< ? >, Integer > index,
+			final IdentityHashMap< Point, Tile< ? > > owner )
+	{
+		final int B = type.blockSize;
+		final int R = type.numRhs;
+		final int n = free.size();
+
+		final BlockMatrix H = new BlockMatrix( n, B );
+		final double[][] g = new double[ R ][ n * B ];
+
+		// current parameters of all tiles
+		final HashMap< Tile< ? >, double[][] > params = new HashMap<>();
+
+		for ( final Tile< ? > tile : tiles )
+		{
+			final double[][] m = new double[ 3 ][ 4 ];
+			( (Affine3D< ? >)tile.getModel() ).toMatrix( m );
+			params.put( tile, m );
+		}
+
+		final double[] ai = new double[ B ];
+		final double[] aj = new double[ B ];
+		final double[] c = new double[ R ];
+		final double[][] xi = new double[ R ][ B ];
+		final double[][] xj = new double[ R ][ B ];
+
+		for ( final Tile< ? > tileA : tiles )
+		{
+			final Integer i = index.get( tileA );
+			final double[][] mA = params.get( tileA );
+
+			for ( final PointMatch pm : tileA.getMatches() )
+			{
+				final Tile< ? > tileB = owner.get( pm.getP2() );
+
+				// only use the matches to tiles that are part of the optimization
+				if ( tileB == null )
+					continue;
+
+				final Integer j = index.get( tileB );
+
+				// both fixed, nothing to optimize
+				if ( i == null && j == null )
+					continue;
+
+				final double[][] mB = params.get( tileB );
+				final double[] p1 = pm.getP1().getL();
+				final double[] p2 = pm.getP2().getL();
+				final double w = pm.getWeight();
+
+				if ( type == Type.RIGID )
+				{
+					final double[] q1 = rotate( mA, p1 );
+					final double[] q2 = rotate( mB, p2 );
+
+					for ( int d = 0; d < 3; ++d )
+					{
+						linearizedRigidRow( q1, d, ai );
+						linearizedRigidRow( q2, d, aj );
+
+						// residual of the current models (the update of fixed tiles is zero)
+						c[ 0 ] = -( ( q1[ d ] + mA[ d ][ 3 ] ) - ( q2[ d ] + mB[ d ][ 3 ] ) );
+
+						H.addRow( ai, aj, c, xi, xj, w, i, j, g );
+					}
+				}
+				else
+				{
+					if ( type == Type.TRANSLATION )
+					{
+						ai[ 0 ] = aj[ 0 ] = 1;
+
+						for ( int d = 0; d < 3; ++d )
+						{
+							c[ d ] = p2[ d ] - p1[ d ];
+							xi[ d ][ 0 ] = mA[ d ][ 3 ];
+							xj[ d ][ 0 ] = mB[ d ][ 3 ];
+						}
+					}
+					else
+					{
+						for ( int k = 0; k < 3; ++k )
+						{
+							ai[ k ] = p1[ k ];
+							aj[ k ] = p2[ k ];
+						}
+
+						ai[ 3 ] = aj[ 3 ] = 1;
+
+						for ( int d = 0; d < 3; ++d )
+						{
+							c[ d ] = 0;
+
+							for ( int k = 0; k < 4; ++k )
+							{
+								xi[ d ][ k ] = mA[ d ][ k ];
+								xj[ d ][ k ] = mB[ d ][ k ];
+							}
+						}
+					}
+
+					H.addRow( ai, aj, c, xi, xj, w, i, j, g );
+				}
+			}
+		}
+
+		// initial values and prior of the regularization
+		final double[][] x = new double[ R ][ n * B ];
+
+		if ( type != Type.RIGID )
+			for ( int t = 0; t < n; ++t )
+			{
+				final double[][] m = params.get( free.get( t ) );
+
+				for ( int r = 0; r < R; ++r )
+					if ( type == Type.TRANSLATION )
+						x[ r ][ t ] = m[ r ][ 3 ];
+					else
+						for ( int k = 0; k < 4; ++k )
+							x[ r ][ t * B + k ] = m[ r ][ k ];
+			}
+
+		H.regularize( regularization, x, g );
+		H.finish();
+
+		int iterations = 0;
+
+		for ( int r = 0; r < R; ++r )
+			iterations += H.conjugateGradient( g[ r ], x[ r ], relativeTolerance, Math.max( 100, 10 * n * B ) );
+
+		return new ValuePair<>( x, iterations );
+	}
+
+	protected static void applyLinear( final Type type, final List< Tile< ? > > free, final double[][] x )
+	{
+		for ( int t = 0; t < free.size(); ++t )
+		{
+			final Model< ? > model = free.get( t ).getModel();
+
+			if ( type == Type.TRANSLATION )
+			{
+				( (TranslationModel3D)model ).set( x[ 0 ][ t ], x[ 1 ][ t ], x[ 2 ][ t ] );
+			}
+			else
+			{
+				final int o = t * 4;
+
+				( (AffineModel3D)model ).set(
+						x[ 0 ][ o ], x[ 0 ][ o + 1 ], x[ 0 ][ o + 2 ], x[ 0 ][ o + 3 ],
+						x[ 1 ][ o ], x[ 1 ][ o + 1 ], x[ 1 ][ o + 2 ], x[ 1 ][ o + 3 ],
+						x[ 2 ][ o ], x[ 2 ][ o + 1 ], x[ 2 ][ o + 2 ], x[ 2 ][ o + 3 ] );
+			}
+		}
+	}
+
+	/*
+	 * R = exp( [w] ) * R, t = t + d for every tile, returns true if the update is negligible
+	 */
+	protected static boolean applyRigidUpdate( final List< Tile< ? > > free, final double[][] x )
+	{
+		double maxRotation = 0, maxTranslation = 0;
+
+		for ( int t = 0; t < free.size(); ++t )
+		{
+			final RigidModel3D model = (RigidModel3D)free.get( t ).getModel();
+			final double[][] m = new double[ 3 ][ 4 ];
+			model.toMatrix( m );
+
+			final int o = t * 6;
+			final double[] w = new double[] { x[ 0 ][ o ], x[ 0 ][ o + 1 ], x[ 0 ][ o + 2 ] };
+			final double[][] rot = rodrigues( w );
+
+			final double[][] n = new double[ 3 ][ 4 ];
+
+			for ( int r = 0; r < 3; ++r )
+			{
+				for ( int k = 0; k < 3; ++k )
+					n[ r ][ k ] = rot[ r ][ 0 ] * m[ 0 ][ k ] + rot[ r ][ 1 ] * m[ 1 ][ k ] + rot[ r ][ 2 ] * m[ 2 ][ k ];
+
+				n[ r ][ 3 ] = m[ r ][ 3 ] + x[ 0 ][ o + 3 + r ];
+			}
+
+			model.set(
+					n[ 0 ][ 0 ], n[ 0 ][ 1 ], n[ 0 ][ 2 ], n[ 0 ][ 3 ],
+					n[ 1 ][ 0 ], n[ 1 ][ 1 ], n[ 1 ][ 2 ], n[ 1 ][ 3 ],
+					n[ 2 ][ 0 ], n[ 2 ][ 1 ], n[ 2 ][ 2 ], n[ 2 ][ 3 ] );
+
+			maxRotation = Math.max( maxRotation, Math.sqrt( w[ 0 ] * w[ 0 ] + w[ 1 ] * w[ 1 ] + w[ 2 ] * w[ 2 ] ) );
+
+			for ( int d = 0; d < 3; ++d )
+				maxTranslation = Math.max( maxTranslation, Math.abs( x[ 0 ][ o + 3 + d ] ) );
+		}
+
+		return maxRotation < 1e-10 && maxTranslation < 1e-6;
+	}
+
+	protected static double[] rotate( final double[][] m, final double[] p )
+	{
+		final double[] q = new double[ 3 ];
+
+		for ( int d = 0; d < 3; ++d )
+			q[ d ] = m[ d ][ 0 ] * p[ 0 ] + m[ d ][ 1 ] * p[ 1 ] + m[ d ][ 2 ] * p[ 2 ];
+
+		return q;
+	}
+
+	/*
+	 * coefficients of row d of ( w x q + t ) with respect to ( w, t )
+	 */
+	protected static void linearizedRigidRow( final double[] q, final int d, final double[] a )
+	{
+		if ( d == 0 )
+		{
+			a[ 0 ] = 0; a[ 1 ] = q[ 2 ]; a[ 2 ] = -q[ 1 ];
+		}
+		else if ( d == 1 )
+		{
+			a[ 0 ] = -q[ 2 ]; a[ 1 ] = 0; a[ 2 ] = q[ 0 ];
+		}
+		else
+		{
+			a[ 0 ] = q[ 1 ]; a[ 1 ] = -q[ 0 ]; a[ 2 ] = 0;
+		}
+
+		for ( int k = 0; k < 3; ++k )
+			a[ 3 + k ] = ( k == d ) ? 1 : 0;
+	}
+
+	protected static double[][] rodrigues( final double[] w )
+	{
+		final double theta = Math.sqrt( w[ 0 ] * w[ 0 ] + w[ 1 ] * w[ 1 ] + w[ 2 ] * w[ 2 ] );
+		final double[][] r = new double[][] { { 1, 0, 0 }, { 0, 1, 0 }, { 0, 0, 1 } };
+
+		if ( theta == 0 )
+			return r;
+
+		final double kx = w[ 0 ] / theta, ky = w[ 1 ] / theta, kz = w[ 2 ] / theta;
+		final double[][] k = new double[][] { { 0, -kz, ky }, { kz, 0, -kx }, { -ky, kx, 0 } };
+		final double s = Math.sin( theta ), c = 1 - Math.cos( theta );
+
+		for ( int a = 0; a < 3; ++a )
+			for ( int b = 0; b < 3; ++b )
+			{
+				double k2 = 0;
+
+				for ( int l = 0; l < 3; ++l )
+					k2 += k[ a ][ l ] * k[ l ][ b ];
+
+				r[ a ][ b ] += s * k[ a ][ b ] + c * k2;
+			}
+
+		return r;
+	}
+
+	/**
+	 * Symmetric block-sparse matrix with dense BxB blocks, one block row per tile.
+	 */
+	protected static class BlockMatrix
+	{
+		final int n, B;
+		final double[][] diag;
+		final ArrayList< HashMap< Integer, double[] > > offDiagMap;
+
+		int[][] neighbors;
+		double[][][] offDiag;
+		double[][] invDiag;
+
+		public BlockMatrix( final int n, final int B )
+		{
+			this.n = n;
+			this.B = B;
+			this.diag = new double[ n ][ B * B ];
+			this.offDiagMap = new ArrayList<>( n );
+
+			for ( int i = 0; i < n; ++i )
+				offDiagMap.add( new HashMap<>() );
+		}
+
+		/*
+		 * adds w * ( ai * xi - aj * xj - c )^2 to the energy, i or j are null if the tile is fixed
+		 * (then xi or xj are the fixed values per right-hand side)
+		 */
+		public void addRow(
+				final double[] ai, final double[] aj, final double[] c,
+				final double[][] xi, final double[][] xj,
+				final double w, final Integer i, final Integer j, final double[][] g )
+		{
+			final int R = g.length;
+
+			if ( i != null )
+			{
+				addOuter( diag[ i ], ai, ai, w );
+
+				for ( int r = 0; r < R; ++r )
+				{
+					final double v = ( j == null ) ? c[ r ] + dot( aj, xj[ r ] ) : c[ r ];
+
+					for ( int k = 0; k < B; ++k )
+						g[ r ][ i * B + k ] += w * ai[ k ] * v;
+				}
+			}
+
+			if ( j != null )
+			{
+				addOuter( diag[ j ], aj, aj, w );
+
+				for ( int r = 0; r < R; ++r )
+				{
+					final double v = ( i == null ) ? dot( ai, xi[ r ] ) - c[ r ] : -c[ r ];
+
+					for ( int k = 0; k < B; ++k )
+						g[ r ][ j * B + k ] += w * aj[ k ] * v;
+				}
+			}
+
+			if ( i != null && j != null && !i.equals( j ) )
+			{
+				addOuter( offDiagMap.get( i ).computeIfAbsent( j, k -> new double[ B * B ] ), ai, aj, -w );
+				addOuter( offDiagMap.get( j ).computeIfAbsent( i, k -> new double[ B * B ] ), aj, ai, -w );
+			}
+		}
+
+		/*
+		 * adds lambda * trace/B * ( x - prior )^2 per tile
+		 */
+		public void regularize( final double lambda, final double[][] prior, final double[][] g )
+		{
+			for ( int i = 0; i < n; ++i )
+			{
+				double trace = 0;
+
+				for ( int k = 0; k < B; ++k )
+					trace += diag[ i ][ k * B + k ];
+
+				final double mu = Math.max( lambda * trace / B, 1e-12 );
+
+				for ( int k = 0; k < B; ++k )
+				{
+					diag[ i ][ k * B + k ] += mu;
+
+					for ( int r = 0; r < g.length; ++r )
+						g[ r ][ i * B + k ] += mu * prior[ r ][ i * B + k ];
+				}
+			}
+		}
+
+		public void finish()
+		{
+			neighbors = new int[ n ][];
+			offDiag = new double[ n ][][];
+			invDiag = new double[ n ][];
+
+			for ( int i = 0; i < n; ++i )
+			{
+				final HashMap< Integer, double[] > row = offDiagMap.get( i );
+
+				neighbors[ i ] = new int[ row.size() ];
+				offDiag[ i ] = new double[ row.size() ][];
+
+				int k = 0;
+
+				for ( final Map.Entry< Integer, double[] > e : row.entrySet() )
+				{
+					neighbors[ i ][ k ] = e.getKey();
+					offDiag[ i ][ k++ ] = e.getValue();
+				}
+
+				invDiag[ i ] = invert( diag[ i ], B );
+			}
+		}
+
+		public void multiply( final double[] x, final double[] y )
+		{
+			for ( int i = 0; i < n; ++i )
+			{
+				final int oi = i * B;
+
+				for ( int a = 0; a < B; ++a )
+				{
+					double sum = 0;
+
+					for ( int b = 0; b < B; ++b )
+						sum += diag[ i ][ a * B + b ] * x[ oi + b ];
+
+					for ( int k = 0; k < neighbors[ i ].length; ++k )
+					{
+						final double[] block = offDiag[ i ][ k ];
+						final int oj = neighbors[ i ][ k ] * B;
+
+						for ( int b = 0; b < B; ++b )
+							sum += block[ a * B + b ] * x[ oj + b ];
+					}
+
+					y[ oi + a ] = sum;
+				}
+			}
+		}
+
+		public void precondition( final double[] r, final double[] z )
+		{
+			for ( int i = 0; i < n; ++i )
+			{
+				final int o = i * B;
+
+				for ( int a = 0; a < B; ++a )
+				{
+					double sum = 0;
+
+					for ( int b = 0; b < B; ++b )
+						sum += invDiag[ i ][ a * B + b ] * r[ o + b ];
+
+					z[ o + a ] = sum;
+				}
+			}
+		}
+
+		/*
+		 * block-Jacobi preconditioned conjugate gradient, x is the initial guess and the result
+		 */
+		public int conjugateGradient( final double[] b, final double[] x, final double relTol, final int maxIterations )
+		{
+			final int size = n * B;
+			final double[] r = new double[ size ];
+			final double[] z = new double[ size ];
+			final double[] p = new double[ size ];
+			final double[] q = new double[ size ];
+
+			multiply( x, q );
+
+			for ( int k = 0; k < size; ++k )
+				r[ k ] = b[ k ] - q[ k ];
+
+			final double normB = Math.max( Math.sqrt( dot( b, b ) ), 1e-300 );
+
+			precondition( r, z );
+			System.arraycopy( z, 0, p, 0, size );
+
+			double rz = dot( r, z );
+			int it = 0;
+
+			while ( it < maxIterations && Math.sqrt( dot( r, r ) ) > relTol * normB )
+			{
+				multiply( p, q );
+
+				final double pq = dot( p, q );
+
+				if ( pq <= 0 )
+					break;
+
+				final double alpha = rz / pq;
+
+				for ( int k = 0; k < size; ++k )
+				{
+					x[ k ] += alpha * p[ k ];
+					r[ k ] -= alpha * q[ k ];
+				}
+
+				precondition( r, z );
+
+				final double rzNew = dot( r, z );
+				final double beta = rzNew / rz;
+				rz = rzNew;
+
+				for ( int k = 0; k < size; ++k )
+					p[ k ] = z[ k ] + beta * p[ k ];
+
+				++it;
+			}
+
+			return it;
+		}
+
+		protected static void addOuter( final double[] block, final double[] a, final double[] b, final double w )
+		{
+			final int B = a.length;
+
+			for ( int k = 0; k < B; ++k )
+				for ( int l = 0; l < B; ++l )
+					block[ k * B + l ] += w * a[ k ] * b[ l ];
+		}
+
+		/*
+		 * Gauss-Jordan elimination with partial pivoting, falls back to the inverse diagonal if singular
+		 */
+		protected static double[] invert( final double[] m, final int B )
+		{
+			final double[] a = m.clone();
+			final double[] inv = new double[ B * B ];
+
+			for ( int k = 0; k < B; ++k )
+				inv[ k * B + k ] = 1;
+
+			for ( int col = 0; col < B; ++col )
+			{
+				int pivot = col;
+
+				for ( int row = col + 1; row < B; ++row )
+					if ( Math.abs( a[ row * B + col ] ) > Math.abs( a[ pivot * B + col ] ) )
+						pivot = row;
+
+				if ( Math.abs( a[ pivot * B + col ] ) < 1e-300 )
+				{
+					final double[] jacobi = new double[ B * B ];
+
+					for ( int k = 0; k < B; ++k )
+						jacobi[ k * B + k ] = m[ k * B + k ] == 0 ? 1 : 1.0 / m[ k * B + k ];
+
+					return jacobi;
+				}
+
+				if ( pivot != col )
+					for ( int k = 0; k < B; ++k )
+					{
+						double tmp = a[ col * B + k ]; a[ col * B + k ] = a[ pivot * B + k ]; a[ pivot * B + k ] = tmp;
+						tmp = inv[ col * B + k ]; inv[ col * B + k ] = inv[ pivot * B + k ]; inv[ pivot * B + k ] = tmp;
+					}
+
+				final double f = 1.0 / a[ col * B + col ];
+
+				for ( int k = 0; k < B; ++k )
+				{
+					a[ col * B + k ] *= f;
+					inv[ col * B + k ] *= f;
+				}
+
+				for ( int row = 0; row < B; ++row )
+				{
+					if ( row == col )
+						continue;
+
+					final double s = a[ row * B + col ];
+
+					if ( s == 0 )
+						continue;
+
+					for ( int k = 0; k < B; ++k )
+					{
+						a[ row * B + k ] -= s * a[ col * B + k ];
+						inv[ row * B + k ] -= s * inv[ col * B + k ];
+					}
+				}
+			}
+
+			return inv;
+		}
+	}
+
+	protected static double dot( final double[] a, final double[] b )
+	{
+		double sum = 0;
+
+		for ( int k = 0; k < a.length; ++k )
+			sum += a[ k ] * b[ k ];
+
+		return sum;
+	}
+}
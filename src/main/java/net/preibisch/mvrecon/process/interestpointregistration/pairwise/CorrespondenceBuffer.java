@@ -0,0 +1,251 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.pairwise;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import mpicbg.spim.data.sequence.ViewId;
+import net.preibisch.legacy.mpicbg.PointMatchGeneric;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.CorrespondingInterestPoints;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
+
+/**
+ * Collects the correspondences of a registration run in primitive buffers (per view and corresponding
+ * view/label the pairs of detection ids packed into longs) instead of {@link CorrespondingInterestPoints}
+ * objects that are appended to the {@link InterestPointList}s pair by pair.
+ *
+ * {@link #flush(Map)} sorts and de-duplicates the buffers and sets the correspondences of every view once,
+ * so each correspondence file is written a single time (in the storage format of its list) when the XML is
+ * saved. Can be filled concurrently.
+ *
+ * @param <V> - view id type
+ *
+ * @author Stephan Preibisch (stephan.preibisch@gmx.de)
+ */
+public class CorrespondenceBuffer< V extends ViewId >
+{
+	// all corresponding (view, label) combinations, the buffers store the index into these lists
+	private final ArrayList< ViewId > targetViews = new ArrayList<>();
+	private final ArrayList< String > targetLabels = new ArrayList<>();
+	private final HashMap< ViewId, HashMap< String, Integer > > targetIndices = new HashMap<>();
+
+	private final ConcurrentHashMap< V, ViewBuffer > buffers = new ConcurrentHashMap<>();
+
+	/**
+	 * Removes all correspondences buffered for these views so far (like clearing their lists) and makes sure
+	 * their correspondences are replaced when flushing, even if none are added.
+	 *
+	 * @param views - the views
+	 */
+	public void clear( final Collection< ? extends V > views )
+	{
+		for ( final V view : views )
+			buffers.put( view, new ViewBuffer() );
+	}
+
+	/**
+	 * Adds the correspondences of a pair of views in both directions.
+	 *
+	 * @param correspondences - the inliers of the pairwise matching
+	 * @param viewIdA - the view of the first points
+	 * @param viewIdB - the view of the second points
+	 * @param labelA - the label of the first points
+	 * @param labelB - the label of the second points
+	 * @param <I> - interest point type
+	 */
+	public < I extends InterestPoint > void add(
+			final List< PointMatchGeneric< I > > correspondences,
+			final V viewIdA,
+			final V viewIdB,
+			final String labelA,
+			final String labelB )
+	{
+		final long[] idsA = new long[ correspondences.size() ];
+		final long[] idsB = new long[ correspondences.size() ];
+
+		for ( int i = 0; i < idsA.length; ++i )
+		{
+			final PointMatchGeneric< I > pm = correspondences.get( i );
+
+			idsA[ i ] = pack( pm.getPoint1().getId(), pm.getPoint2().getId() );
+			idsB[ i ] = pack( pm.getPoint2().getId(), pm.getPoint1().getId() );
+		}
+
+		buffer( viewIdA ).add( targetIndex( viewIdB, labelB ), idsA, idsA.length );
+		buffer( viewIdB ).add( targetIndex( viewIdA, labelA ), idsB, idsB.length );
+	}
+
+	/**
+	 * Adds a single correspondence (one direction only).
+	 *
+	 * @param viewId - the view of the detection
+	 * @param detectionId - the id of the detection
+	 * @param correspondingViewId - the view of the corresponding detection
+	 * @param correspondingLabel - the label of the corresponding detection
+	 * @param correspondingDetectionId - the id of the corresponding detection
+	 */
+	public void add(
+			final V viewId,
+			final int detectionId,
+			final ViewId correspondingViewId,
+			final String correspondingLabel,
+			final int correspondingDetectionId )
+	{
+		buffer( viewId ).add( targetIndex( correspondingViewId, correspondingLabel ), new long[] { pack( detectionId, correspondingDetectionId ) }, 1 );
+	}
+
+	/**
+	 * @return the number of buffered correspondences (including duplicates)
+	 */
+	public long size()
+	{
+		long size = 0;
+
+		for ( final ViewBuffer buffer : buffers.values() )
+			size += buffer.size();
+
+		return size;
+	}
+
+	/**
+	 * Sets the sorted and de-duplicated correspondences of all buffered views, replacing the existing ones,
+	 * and empties the buffer.
+	 *
+	 * @param lists - the interest point list of each view
+	 * @return the number of correspondences after removing duplicates
+	 */
+	public long flush( final Map< V, ? extends InterestPointList > lists )
+	{
+		long count = 0;
+
+		for ( final V viewId : buffers.keySet() )
+		{
+			final InterestPointList list = lists.get( viewId );
+
+			if ( list == null )
+				continue;
+
+			final List< CorrespondingInterestPoints > corr = buffers.get( viewId ).toList();
+
+			list.setCorrespondingInterestPoints( corr );
+			count += corr.size();
+		}
+
+		buffers.clear();
+
+		return count;
+	}
+
+	protected ViewBuffer buffer( final V viewId )
+	{
+		return buffers.computeIfAbsent( viewId, v -> new ViewBuffer() );
+	}
+
+	protected synchronized int targetIndex( final ViewId viewId, final String label )
+	{
+		// store a plain ViewId so the correspondences do not keep ViewDescriptions alive
+		final HashMap< String, Integer > labels = targetIndices.computeIfAbsent( new ViewId( viewId.getTimePointId(), viewId.getViewSetupId() ), v -> new HashMap<>() );
+		final Integer index = labels.get( label );
+
+		if ( index != null )
+			return index;
+
+		labels.put( label, targetViews.size() );
+		targetViews.add( new ViewId( viewId.getTimePointId(), viewId.getViewSetupId() ) );
+		targetLabels.add( label );
+
+		return targetViews.size() - 1;
+	}
+
+	protected synchronized ViewId targetView( final int index ) { return targetViews.get( index ); }
+	protected synchronized String targetLabel( final int index ) { return targetLabels.get( index ); }
+
+	protected static long pack( final int detectionId, final int correspondingDetectionId )
+	{
+		return ( (long)detectionId << 32 ) | ( correspondingDetectionId & 0xffffffffL );
+	}
+
+	/*
+	 * the correspondences of one view, for each target (view, label) the packed pairs of detection ids
+	 */
+	protected class ViewBuffer
+	{
+		final HashMap< Integer, long[] > data = new HashMap<>();
+		final HashMap< Integer, Integer > sizes = new HashMap<>();
+
+		synchronized void add( final int target, final long[] ids, final int n )
+		{
+			final int size = sizes.getOrDefault( target, 0 );
+			long[] d = data.get( target );
+
+			if ( d == null || d.length < size + n )
+			{
+				d = Arrays.copyOf( d == null ? new long[ 0 ] : d, Math.max( size + n, d == null ? 16 : d.length * 2 ) );
+				data.put( target, d );
+			}
+
+			System.arraycopy( ids, 0, d, size, n );
+			sizes.put( target, size + n );
+		}
+
+		synchronized long size()
+		{
+			long size = 0;
+
+			for ( final int s : sizes.values() )
+				size += s;
+
+			return size;
+		}
+
+		synchronized List< CorrespondingInterestPoints > toList()
+		{
+			final ArrayList< CorrespondingInterestPoints > list = new ArrayList<>();
+
+			for ( final int target : data.keySet() )
+			{
+				final int size = sizes.get( target );
+				final long[] d = data.get( target );
+
+				// sorting moves duplicates next to each other
+				Arrays.sort( d, 0, size );
+
+				final ViewId view = targetView( target );
+				final String label = targetLabel( target );
+
+				for ( int i = 0; i < size; ++i )
+					if ( i == 0 || d[ i ] != d[ i - 1 ] )
+						list.add( new CorrespondingInterestPoints( (int)( d[ i ] >> 32 ), view, label, (int)d[ i ] ) );
+			}
+
+			return list;
+		}
+	}
+}
@@ -0,0 +1,382 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.pairwise;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import net.preibisch.legacy.mpicbg.PointMatchGeneric;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+
+/**
+ * Caches the point descriptors (and the lookup structures built on them) of the interest points of a view,
+ * so that in all-to-all matching they are computed once per view and parameter set instead of once per pair,
+ * and can be reused by repeated registration runs on the same points.
+ *
+ * The key is the descriptor type (including its parameters) and the interest points (ids and coordinates),
+ * since the pairwise matchers only see (duplicated) lists of points; a fingerprint is used for hashing, the
+ * points themselves are compared on a match. The cache is bounded by the total number of points and descriptors
+ * it holds, the least recently used entries are evicted first.
+ *
+ * The cached descriptors reference the points of the list they were built from, use
+ * {@link #remap(List, Descriptors, List, Descriptors, List)} to express correspondences using the points
+ * of the current lists.
+ *
+ * @author Stephan Preibisch (stephan.preibisch@gmx.de)
+ */
+public class DescriptorCache
+{
+	public static boolean enabled = true;
+
+	// maximal number of points plus descriptors kept in memory
+	public static long maxWeight = 4000000;
+
+	private static final LinkedHashMap< Key, FutureTask< Descriptors< ?, ? > > > cache = new LinkedHashMap<>( 16, 0.75f, true );
+	private static long weight = 0;
+
+	/**
+	 * @param type - the descriptor type and all parameters that influence the descriptors
+	 * @param points - the interest points of one view (or group)
+	 * @param factory - computes the descriptors for a list of points
+	 * @param <I> - interest point type
+	 * @param <D> - descriptor type
+	 * @return the (possibly cached) descriptors
+	 */
+	@SuppressWarnings("unchecked")
+	public static < I extends InterestPoint, D > Descriptors< I, D > get(
+			final String type,
+			final List< I > points,
+			final Function< ArrayList< I >, ArrayList< D > > factory )
+	{
+		final ArrayList< I > list = new ArrayList<>( points );
+
+		if ( !enabled )
+			return new Descriptors<>( list, factory.apply( list ) );
+
+		final Key key = new Key( type, list );
+
+		final FutureTask< Descriptors< ?, ? > > task;
+		boolean created = false;
+
+		synchronized ( cache )
+		{
+			final FutureTask< Descriptors< ?, ? > > existing = cache.get( key );
+
+			if ( existing == null )
+			{
+				task = new FutureTask<>( () -> new Descriptors<>( list, factory.apply( list ) ) );
+				cache.put( key, task );
+				created = true;
+			}
+			else
+			{
+				task = existing;
+			}
+		}
+
+		// compute outside of the lock, other threads asking for the same descriptors wait for the result
+		if ( created )
+			task.run();
+
+		final Descriptors< I, D > descriptors;
+
+		try
+		{
+			descriptors = (Descriptors< I, D >)task.get();
+		}
+		catch ( InterruptedException | ExecutionException e )
+		{
+			synchronized ( cache )
+			{
+				cache.remove( key );
+			}
+
+			throw new RuntimeException( "Failed to compute descriptors: " + e, e );
+		}
+
+		if ( created )
+		{
+			synchronized ( cache )
+			{
+				weight += descriptors.weight();
+				evict( key );
+			}
+		}
+
+		return descriptors;
+	}
+
+	/**
+	 * Same as {@link #get(String, List, Function)} for descriptors built from the k nearest neighbors of each point,
+	 * the neighborhoods are loaded from/stored next to the interest points if possible (see {@link DescriptorStore}).
+	 *
+	 * @param type - the descriptor type and all parameters that influence the descriptors
+	 * @param points - the interest points of one view (or group)
+	 * @param numNeighbors - number of nearest neighbors required per point (excluding the point itself)
+	 * @param factory - computes the descriptors for a list of points and the indices of their nearest neighbors
+	 * @param <I> - interest point type
+	 * @param <D> - descriptor type
+	 * @return the (possibly cached) descriptors
+	 */
+	public static < I extends InterestPoint, D > Descriptors< I, D > get(
+			final String type,
+			final List< I > points,
+			final int numNeighbors,
+			final BiFunction< ArrayList< I >, int[][], ArrayList< D > > factory )
+	{
+		return get( type, points, list -> factory.apply( list, DescriptorStore.nearestNeighbors( type, list, numNeighbors ) ) );
+	}
+
+	/**
+	 * removes all cached descriptors
+	 */
+	public static void clear()
+	{
+		synchronized ( cache )
+		{
+			cache.clear();
+			weight = 0;
+		}
+	}
+
+	/**
+	 * @return the number of points plus descriptors currently cached
+	 */
+	public static long cachedWeight()
+	{
+		synchronized ( cache )
+		{
+			return weight;
+		}
+	}
+
+	/*
+	 * removes the least recently used (and finished) entries until the cache fits, never the one just added
+	 */
+	private static void evict( final Key current )
+	{
+		final Iterator< Map.Entry< Key, FutureTask< Descriptors< ?, ? > > > > it = cache.entrySet().iterator();
+
+		while ( weight > maxWeight && it.hasNext() )
+		{
+			final Map.Entry< Key, FutureTask< Descriptors< ?, ? > > > entry = it.next();
+
+			if ( entry.getKey().equals( current ) || !entry.getValue().isDone() )
+				continue;
+
+			try
+			{
+				weight -= entry.getValue().get().weight();
+			}
+			catch ( InterruptedException | ExecutionException e ) {}
+
+			it.remove();
+		}
+	}
+
+	/**
+	 * Expresses correspondences between cached descriptors using the points of the current lists.
+	 *
+	 * @param candidates - correspondences referencing the points of the cached descriptors
+	 * @param descriptorsA - descriptors of A
+	 * @param listA - the current list of A
+	 * @param descriptorsB - descriptors of B
+	 * @param listB - the current list of B
+	 * @param <I> - interest point type
+	 * @return correspondences referencing the points of listA and listB
+	 */
+	public static < I extends InterestPoint > ArrayList< PointMatchGeneric< I > > remap(
+			final List< PointMatchGeneric< I > > candidates,
+			final Descriptors< I, ? > descriptorsA,
+			final List< I > listA,
+			final Descriptors< I, ? > descriptorsB,
+			final List< I > listB )
+	{
+		final ArrayList< PointMatchGeneric< I > > remapped = new ArrayList<>( candidates.size() );
+
+		for ( final PointMatchGeneric< I > pm : candidates )
+			remapped.add( new PointMatchGeneric< I >(
+					descriptorsA.map( pm.getPoint1(), listA ),
+					descriptorsB.map( pm.getPoint2(), listB ),
+					pm.getWeight() ) );
+
+		return remapped;
+	}
+
+	/**
+	 * The descriptors of one list of points and an optional lookup structure built on them
+	 */
+	public static class Descriptors< I extends InterestPoint, D >
+	{
+		final ArrayList< I > points;
+		final ArrayList< D > descriptors;
+		final IdentityHashMap< I, Integer > index;
+
+		Object lookUp = null;
+
+		public Descriptors( final ArrayList< I > points, final ArrayList< D > descriptors )
+		{
+			this.points = points;
+			this.descriptors = descriptors;
+			this.index = new IdentityHashMap<>( points.size() );
+
+			for ( int i = 0; i < points.size(); ++i )
+				index.put( points.get( i ), i );
+		}
+
+		public ArrayList< I > getPoints() { return points; }
+		public ArrayList< D > getDescriptors() { return descriptors; }
+		public int size() { return descriptors.size(); }
+
+		/**
+		 * @return the number of points plus descriptors, which bounds the memory of the cache
+		 */
+		public long weight() { return (long)points.size() + descriptors.size(); }
+
+		/**
+		 * @param factory - creates the lookup structure (e.g. a KDTree) if it does not exist yet
+		 * @param <L> - type of the lookup structure
+		 * @return the lookup structure for these descriptors
+		 */
+		@SuppressWarnings("unchecked")
+		public synchronized < L > L getLookUp( final Supplier< L > factory )
+		{
+			if ( lookUp == null )
+				lookUp = factory.get();
+
+			return (L)lookUp;
+		}
+
+		/**
+		 * @param point - a point of this descriptor set
+		 * @param target - a list with the same points (same order), e.g. a duplicate
+		 * @return the corresponding point of target
+		 */
+		public I map( final I point, final List< I > target )
+		{
+			if ( target == points )
+				return point;
+
+			return target.get( index.get( point ) );
+		}
+	}
+
+	protected static class Key
+	{
+		final String type;
+		final List< ? extends InterestPoint > points;
+		final long fingerprint;
+
+		public Key( final String type, final List< ? extends InterestPoint > points )
+		{
+			this.type = type;
+			this.points = points;
+			this.fingerprint = fingerprint( points );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * ( 31 * type.hashCode() + points.size() ) + Long.hashCode( fingerprint );
+		}
+
+		@Override
+		public boolean equals( final Object obj )
+		{
+			if ( this == obj )
+				return true;
+
+			if ( !( obj instanceof Key ) )
+				return false;
+
+			final Key other = (Key)obj;
+
+			// the same fingerprint does not guarantee the same points
+			return fingerprint == other.fingerprint && type.equals( other.type ) && samePoints( points, other.points );
+		}
+	}
+
+	/**
+	 * @param a - interest points
+	 * @param b - interest points
+	 * @return true if both lists contain points with the same ids, local and world coordinates (and which ones are used) in the same order
+	 */
+	public static boolean samePoints( final List< ? extends InterestPoint > a, final List< ? extends InterestPoint > b )
+	{
+		if ( a == b )
+			return true;
+
+		if ( a.size() != b.size() )
+			return false;
+
+		for ( int i = 0; i < a.size(); ++i )
+		{
+			final InterestPoint p = a.get( i );
+			final InterestPoint q = b.get( i );
+
+			if ( p.getId() != q.getId() || p.getUseW() != q.getUseW() || !Arrays.equals( p.getL(), q.getL() ) || !Arrays.equals( p.getW(), q.getW() ) )
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * @param points - interest points
+	 * @return a 64 bit hash of ids, local and world coordinates (and which ones are used) of the points (in order)
+	 */
+	public static long fingerprint( final List< ? extends InterestPoint > points )
+	{
+		long h = 1125899906842597L;
+
+		for ( final InterestPoint p : points )
+		{
+			h = mix( h, p.getId() );
+			h = mix( h, p.getUseW() ? 1 : 0 );
+
+			for ( final double v : p.getL() )
+				h = mix( h, Double.doubleToLongBits( v ) );
+
+			for ( final double v : p.getW() )
+				h = mix( h, Double.doubleToLongBits( v ) );
+		}
+
+		return h;
+	}
+
+	private static long mix( final long h, final long v )
+	{
+		long x = ( h ^ v ) * 0x9E3779B97F4A7C15L;
+		return x ^ ( x >>> 29 );
+	}
+}
@@ -0,0 +1,512 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.pairwise;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import mpicbg.spim.data.registration.ViewRegistration;
+import net.imglib2.KDTree;
+import net.imglib2.RealPoint;
+import net.imglib2.neighborsearch.KNearestNeighborSearchOnKDTree;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPointLists;
+import net.preibisch.mvrecon.process.interestpointregistration.TransformationTools;
+
+/**
+ * Stores candidate neighborhoods for the point descriptors (the indices of the nearest neighbors of every interest
+ * point in its local coordinates, scaled per axis to roughly match the registration) in a binary file next to the
+ * interest points, e.g. interestpoints/tpId_0_viewSetupId_0.beads.RGLDM_numNeighbors_3_redundancy_1.desc
+ *
+ * The nearest neighbor search is the expensive part of building descriptors, so a repeated registration loads the
+ * candidates instead of recomputing them. The file name contains the label and the descriptor parameters, the file
+ * itself a fingerprint of the ids and local coordinates, so it is independent of the registration and only invalidated
+ * if the detections change. The transform dependent part is recomputed on every run: for each point the k nearest
+ * neighbors in world coordinates are selected from its candidates, which is exact as long as the k-th world distance is
+ * below the smallest world distance any non-candidate can have (bounded by the smallest singular value of the transform);
+ * only points failing this test are searched again in world coordinates.
+ *
+ * Only lists registered via {@link #register(Map, Map, Map, Map)} are stored (option "Store_descriptor_neighborhoods" of the
+ * registration), all others are computed as before.
+ *
+ * @author Stephan Preibisch (stephan.preibisch@gmx.de)
+ */
+public class DescriptorStore
+{
+	public static String ext = ".desc";
+
+	/**
+	 * how many nearest neighbors are stored in addition to the k required ones
+	 */
+	public static int extraCandidates = 8;
+
+	/**
+	 * maximal number of point lists that are remembered for storing
+	 */
+	public static int maxRegistered = 10000;
+
+	private static final int MAGIC = 0x4d564432; // MVD2
+
+	// fingerprint of a list of (transformed) points >> where to store it and how it was transformed, least recently used are dropped
+	private static final Map< Long, Registered > registered = Collections.synchronizedMap( new LinkedHashMap< Long, Registered >( 16, 0.75f, true )
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry( final Map.Entry< Long, Registered > eldest ) { return size() > maxRegistered; }
+	} );
+
+	/**
+	 * Registers where the neighborhoods of the (transformed) interest points of each view are stored.
+	 *
+	 * @param interestpoints - the (transformed) interest points as passed to the pairwise matching
+	 * @param interestpointLists - the interest point lists of all views
+	 * @param labelMap - which label is used for which view
+	 * @param registrations - the registrations the interest points were transformed with
+	 * @param <V> - view id type
+	 */
+	public static < V > void register(
+			final Map< V, ? extends List< ? extends InterestPoint > > interestpoints,
+			final Map< V, ViewInterestPointLists > interestpointLists,
+			final Map< V, String > labelMap,
+			final Map< V, ViewRegistration > registrations )
+	{
+		for ( final V viewId : interestpoints.keySet() )
+		{
+			final ViewInterestPointLists lists = interestpointLists.get( viewId );
+
+			if ( lists == null || labelMap.get( viewId ) == null || registrations.get( viewId ) == null )
+				continue;
+
+			final InterestPointList list = lists.getInterestPointList( labelMap.get( viewId ) );
+
+			if ( list == null || list.getBaseDir() == null || list.getFile() == null )
+				continue;
+
+			register(
+					interestpoints.get( viewId ),
+					new File( list.getBaseDir(), list.getFile().toString() ),
+					TransformationTools.getTransform( viewId, registrations ) );
+		}
+	}
+
+	/**
+	 * @param points - a list of interest points
+	 * @param prefix - the prefix of the files the neighborhoods of these points are stored in
+	 * @param transform - the transform from local to world coordinates of the points
+	 */
+	public static void register( final List< ? extends InterestPoint > points, final File prefix, final AffineTransform3D transform )
+	{
+		registered.put( DescriptorCache.fingerprint( points ), new Registered( prefix, transform.copy() ) );
+	}
+
+	/**
+	 * Removes the registrations of {@link #register(Map, Map, Map, Map)}, the neighborhoods of these points are computed as before.
+	 *
+	 * @param interestpoints - the (transformed) interest points as passed to the pairwise matching
+	 * @param <V> - view id type
+	 */
+	public static < V > void unregister( final Map< V, ? extends List< ? extends InterestPoint > > interestpoints )
+	{
+		for ( final List< ? extends InterestPoint > points : interestpoints.values() )
+			registered.remove( DescriptorCache.fingerprint( points ) );
+	}
+
+	/**
+	 * Loads the candidate neighbors of all points if they were stored before, otherwise computes and stores them;
+	 * then selects the k nearest neighbors in world coordinates.
+	 *
+	 * @param type - the descriptor type and all parameters that influence the descriptors
+	 * @param points - the interest points
+	 * @param k - number of nearest neighbors (excluding the point itself)
+	 * @return for each point the indices of itself (index 0) and its k nearest neighbors
+	 */
+	public static int[][] nearestNeighbors( final String type, final List< ? extends InterestPoint > points, final int k )
+	{
+		final Registered r = registered.get( DescriptorCache.fingerprint( points ) );
+
+		if ( r == null || points.size() == 0 )
+			return computeNearestNeighbors( points, k );
+
+		// if the points report local coordinates, the world coordinates are the local ones
+		final AffineTransform3D transform = points.get( 0 ).getUseW() ? r.transform : new AffineTransform3D();
+
+		final long fingerprint = localFingerprint( points );
+		final File file = new File( r.prefix.getAbsolutePath() + "." + type.replaceAll( "[^A-Za-z0-9]+", "_" ) + ext );
+
+		Candidates candidates = null;
+
+		if ( file.exists() )
+		{
+			try
+			{
+				candidates = load( file, type, points.size(), fingerprint, k );
+
+				if ( candidates != null )
+					IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Loaded descriptor neighborhoods from '" + file + "'" );
+			}
+			catch ( IOException e )
+			{
+				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Could not load '" + file + "', recomputing: " + e );
+			}
+		}
+
+		if ( candidates == null )
+		{
+			candidates = computeCandidates( points, Math.min( points.size(), k + 1 + extraCandidates ), axisScale( transform ) );
+
+			try
+			{
+				save( file, type, fingerprint, candidates );
+			}
+			catch ( IOException e )
+			{
+				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Could not save '" + file + "': " + e );
+			}
+		}
+
+		return selectNearestNeighbors( points, k, candidates, transform );
+	}
+
+	/**
+	 * @param points - the interest points
+	 * @param k - number of nearest neighbors (excluding the point itself)
+	 * @return for each point the indices of itself (index 0) and its k nearest neighbors
+	 */
+	public static int[][] computeNearestNeighbors( final List< ? extends InterestPoint > points, final int k )
+	{
+		final ArrayList< Integer > indices = new ArrayList<>( points.size() );
+
+		for ( int i = 0; i < points.size(); ++i )
+			indices.add( i );
+
+		final KDTree< Integer > tree = new KDTree<>( indices, new ArrayList<>( points ) );
+		final KNearestNeighborSearchOnKDTree< Integer > nnsearch = new KNearestNeighborSearchOnKDTree<>( tree, k + 1 );
+
+		final int[][] neighbors = new int[ points.size() ][ k + 1 ];
+
+		for ( int i = 0; i < points.size(); ++i )
+		{
+			nnsearch.search( points.get( i ) );
+
+			for ( int n = 0; n <= k; ++n )
+				neighbors[ i ][ n ] = nnsearch.getSampler( n ).get();
+		}
+
+		return neighbors;
+	}
+
+	/*
+	 * picks the k nearest neighbors in world coordinates from the candidates, points where this is not provably exact are searched again
+	 */
+	protected static int[][] selectNearestNeighbors( final List< ? extends InterestPoint > points, final int k, final Candidates candidates, final AffineTransform3D transform )
+	{
+		final int n = points.size();
+		final int m = candidates.neighbors.length == 0 ? 0 : candidates.neighbors[ 0 ].length;
+		final double minScale = minSingularValue( transform, candidates.scale );
+
+		final int[][] neighbors = new int[ n ][];
+		final ArrayList< Integer > failed = new ArrayList<>();
+
+		final double[] p = new double[ 3 ];
+		final double[] q = new double[ 3 ];
+
+		for ( int i = 0; i < n; ++i )
+		{
+			final int[] c = candidates.neighbors[ i ];
+			final int[] best = new int[ k + 1 ];
+			final double[] dist = new double[ k + 1 ];
+			int count = 1;
+
+			best[ 0 ] = i;
+			points.get( i ).localize( p );
+
+			for ( int j = 0; j < m; ++j )
+			{
+				if ( c[ j ] == i )
+					continue;
+
+				points.get( c[ j ] ).localize( q );
+				final double d = squareDistance( p, q );
+
+				if ( count == k + 1 && d >= dist[ k ] )
+					continue;
+
+				int pos = count < k + 1 ? count++ : k;
+
+				while ( pos > 1 && dist[ pos - 1 ] > d )
+				{
+					dist[ pos ] = dist[ pos - 1 ];
+					best[ pos ] = best[ pos - 1 ];
+					--pos;
+				}
+
+				dist[ pos ] = d;
+				best[ pos ] = c[ j ];
+			}
+
+			// if all points are candidates the result is exact, otherwise any other point is at least minScale * (distance of the last candidate) away
+			final boolean exact;
+
+			if ( m >= n )
+				exact = count == k + 1;
+			else
+				exact = count == k + 1 && Math.sqrt( dist[ k ] ) < minScale * Math.sqrt( scaledSquareDistance( points.get( i ).getL(), points.get( c[ m - 1 ] ).getL(), candidates.scale ) );
+
+			if ( exact )
+				neighbors[ i ] = best;
+			else
+				failed.add( i );
+		}
+
+		if ( failed.size() > 0 )
+		{
+			final int[][] all = computeNearestNeighbors( points, k );
+
+			for ( final int i : failed )
+				neighbors[ i ] = all[ i ];
+
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Recomputed the neighborhoods of " + failed.size() + " of " + n + " points for the current registration." );
+		}
+
+		return neighbors;
+	}
+
+	/*
+	 * the m nearest neighbors (including the point itself) of each point in its local coordinates scaled per axis
+	 */
+	protected static Candidates computeCandidates( final List< ? extends InterestPoint > points, final int m, final double[] scale )
+	{
+		final ArrayList< Integer > indices = new ArrayList<>( points.size() );
+		final ArrayList< RealPoint > positions = new ArrayList<>( points.size() );
+
+		for ( int i = 0; i < points.size(); ++i )
+		{
+			final double[] l = points.get( i ).getL();
+			indices.add( i );
+			positions.add( new RealPoint( l[ 0 ] * scale[ 0 ], l[ 1 ] * scale[ 1 ], l[ 2 ] * scale[ 2 ] ) );
+		}
+
+		final KDTree< Integer > tree = new KDTree<>( indices, positions );
+		final KNearestNeighborSearchOnKDTree< Integer > nnsearch = new KNearestNeighborSearchOnKDTree<>( tree, m );
+
+		final int[][] neighbors = new int[ points.size() ][ m ];
+
+		for ( int i = 0; i < points.size(); ++i )
+		{
+			nnsearch.search( positions.get( i ) );
+
+			for ( int j = 0; j < m; ++j )
+				neighbors[ i ][ j ] = nnsearch.getSampler( j ).get();
+		}
+
+		return new Candidates( scale, neighbors );
+	}
+
+	/*
+	 * the length of the columns of the linear part, i.e. how much each local axis is scaled (mostly the calibration)
+	 */
+	protected static double[] axisScale( final AffineTransform3D t )
+	{
+		final double[] scale = new double[ 3 ];
+
+		for ( int d = 0; d < 3; ++d )
+		{
+			scale[ d ] = Math.sqrt( t.get( 0, d ) * t.get( 0, d ) + t.get( 1, d ) * t.get( 1, d ) + t.get( 2, d ) * t.get( 2, d ) );
+
+			if ( scale[ d ] == 0 )
+				scale[ d ] = 1;
+		}
+
+		return scale;
+	}
+
+	/*
+	 * lower bound of the smallest singular value of the transform from the scaled local coordinates to world coordinates,
+	 * i.e. of A * diag( 1/scale ), using 1 / || diag( scale ) * A^-1 ||_F
+	 */
+	protected static double minSingularValue( final AffineTransform3D t, final double[] scale )
+	{
+		final AffineTransform3D inverse = t.inverse();
+		double norm = 0;
+
+		for ( int r = 0; r < 3; ++r )
+			for ( int c = 0; c < 3; ++c )
+				norm += Math.pow( scale[ r ] * inverse.get( r, c ), 2 );
+
+		return norm > 0 && !Double.isNaN( norm ) ? 1.0 / Math.sqrt( norm ) : 0;
+	}
+
+	/**
+	 * @param points - interest points
+	 * @return a 64 bit hash of ids and local coordinates of the points (in order), independent of any registration
+	 */
+	public static long localFingerprint( final List< ? extends InterestPoint > points )
+	{
+		long h = 1125899906842597L;
+
+		for ( final InterestPoint p : points )
+		{
+			h = mix( h, p.getId() );
+
+			for ( final double v : p.getL() )
+				h = mix( h, Double.doubleToLongBits( v ) );
+		}
+
+		return h;
+	}
+
+	private static long mix( final long h, final long v )
+	{
+		long x = ( h ^ v ) * 0x9E3779B97F4A7C15L;
+		return x ^ ( x >>> 29 );
+	}
+
+	private static double squareDistance( final double[] a, final double[] b )
+	{
+		double sum = 0;
+
+		for ( int d = 0; d < a.length; ++d )
+			sum += ( a[ d ] - b[ d ] ) * ( a[ d ] - b[ d ] );
+
+		return sum;
+	}
+
+	private static double scaledSquareDistance( final double[] a, final double[] b, final double[] scale )
+	{
+		double sum = 0;
+
+		for ( int d = 0; d < a.length; ++d )
+			sum += Math.pow( ( a[ d ] - b[ d ] ) * scale[ d ], 2 );
+
+		return sum;
+	}
+
+	protected static void save( final File file, final String type, final long fingerprint, final Candidates candidates ) throws IOException
+	{
+		final File dir = file.getParentFile();
+
+		if ( dir != null && !dir.exists() && !dir.mkdirs() )
+			throw new IOException( "Cannot create directory " + dir );
+
+		// write to a temporary file first so an interrupted run never leaves a truncated store behind
+		final File tmp = new File( file.getAbsolutePath() + ".tmp" );
+
+		try ( final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ) ) )
+		{
+			out.writeInt( MAGIC );
+			out.writeUTF( type );
+			out.writeLong( fingerprint );
+			out.writeInt( candidates.neighbors.length );
+			out.writeInt( candidates.neighbors.length == 0 ? 0 : candidates.neighbors[ 0 ].length );
+
+			for ( final double s : candidates.scale )
+				out.writeDouble( s );
+
+			for ( final int[] n : candidates.neighbors )
+				for ( final int i : n )
+					out.writeInt( i );
+		}
+
+		if ( file.exists() && !file.delete() || !tmp.renameTo( file ) )
+			throw new IOException( "Cannot rename " + tmp + " to " + file );
+	}
+
+	/*
+	 * returns null if the file was written for different detections, different parameters or not enough neighbors
+	 */
+	protected static Candidates load( final File file, final String type, final int size, final long fingerprint, final int k ) throws IOException
+	{
+		try ( final DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) )
+		{
+			if ( in.readInt() != MAGIC || !type.equals( in.readUTF() ) || in.readLong() != fingerprint )
+				return null;
+
+			final int n = in.readInt();
+			final int m = in.readInt();
+
+			if ( n != size || ( n > 0 && m < Math.min( n, k + 1 ) ) )
+				return null;
+
+			final double[] scale = new double[ 3 ];
+
+			for ( int d = 0; d < 3; ++d )
+				scale[ d ] = in.readDouble();
+
+			final int[][] neighbors = new int[ n ][ m ];
+
+			for ( final int[] row : neighbors )
+				for ( int j = 0; j < m; ++j )
+				{
+					row[ j ] = in.readInt();
+
+					if ( row[ j ] < 0 || row[ j ] >= n )
+						return null;
+				}
+
+			return new Candidates( scale, neighbors );
+		}
+	}
+
+	protected static class Candidates
+	{
+		// scaling of the local coordinates the candidates were computed in
+		final double[] scale;
+
+		// for each point the indices of its nearest neighbors (including itself) sorted by distance
+		final int[][] neighbors;
+
+		Candidates( final double[] scale, final int[][] neighbors )
+		{
+			this.scale = scale;
+			this.neighbors = neighbors;
+		}
+	}
+
+	protected static class Registered
+	{
+		final File prefix;
+		final AffineTransform3D transform;
+
+		Registered( final File prefix, final AffineTransform3D transform )
+		{
+			this.prefix = prefix;
+			this.transform = transform;
+		}
+	}
+}
@@ -92,6 +92,38 @@ public class MatcherPairwiseTools
 			final Map< V, String > labelMap,
 			final Map< V, ? extends List< CorrespondingInterestPoints > > cMap
 			)
+	{
+		final List< Pair< Pair< V, V >, PairwiseResult< GroupedInterestPoint< V > > > > transformedList =
+				transformGroupedResults( resultGroup, labelMap, cMap, null );
+
+		for ( final V viewId : cMap.keySet() )
+			interestpoints.get( viewId ).getInterestPointList( labelMap.get( viewId ) ).setCorrespondingInterestPoints( cMap.get( viewId ) );
+
+		return transformedList;
+	}
+
+	/*
+	 * Same as above, but collects the correspondences in a buffer that is flushed once at the end of the registration
+	 */
+	public static < V extends ViewId, P extends PairwiseResult< GroupedInterestPoint< V > > >
+		List< Pair< Pair< V, V >, PairwiseResult< GroupedInterestPoint< V > > > >
+			addCorrespondencesFromGroups(
+			final Collection< ? extends Pair< ?, P > > resultGroup,
+			final Map< V, String > labelMap,
+			final CorrespondenceBuffer< V > buffer
+			)
+	{
+		return transformGroupedResults( resultGroup, labelMap, null, buffer );
+	}
+
+	protected static < V extends ViewId, P extends PairwiseResult< GroupedInterestPoint< V > > >
+		List< Pair< Pair< V, V >, PairwiseResult< GroupedInterestPoint< V > > > >
+			transformGroupedResults(
+			final Collection< ? extends Pair< ?, P > > resultGroup,
+			final Map< V, String > labelMap,
+			final Map< V, ? extends List< CorrespondingInterestPoints > > cMap,
+			final CorrespondenceBuffer< V > buffer
+			)
 	{
 		// we transform HashMap< Pair< Group < V >, Group< V > >, PairwiseResult > to HashMap< Pair< V, V >, PairwiseResult >
 		final HashMap< Pair< V, V >, PairwiseResult< GroupedInterestPoint< V > > > transformedMap = new HashMap<>();
@@ -113,11 +145,19 @@ public class MatcherPairwiseTools
 					final String labelA = labelMap.get( viewIdA );
 					final String labelB = labelMap.get( viewIdB );
 	
-					final CorrespondingInterestPoints correspondingToA = new CorrespondingInterestPoints( gpA.getId(), viewIdB, labelB, gpB.getId() );
-					final CorrespondingInterestPoints correspondingToB = new CorrespondingInterestPoints( gpB.getId(), viewIdA, labelA, gpA.getId() );
+					if ( buffer != null )
+					{
+						buffer.add( viewIdA, gpA.getId(), viewIdB, labelB, gpB.getId() );
+						buffer.add( viewIdB, gpB.getId(), viewIdA, labelA, gpA.getId() );
+					}
+					else
+					{
+						final CorrespondingInterestPoints correspondingToA = new CorrespondingInterestPoints( gpA.getId(), viewIdB, labelB, gpB.getId() );
+						final CorrespondingInterestPoints correspondingToB = new CorrespondingInterestPoints( gpB.getId(), viewIdA, labelA, gpA.getId() );
 	
-					cMap.get( viewIdA ).add( correspondingToA );
-					cMap.get( viewIdB ).add( correspondingToB );
+						cMap.get( viewIdA ).add( correspondingToA );
+						cMap.get( viewIdB ).add( correspondingToB );
+					}
 				}
 
 				// update transformedMap
@@ -167,9 +207,6 @@ public class MatcherPairwiseTools
 
 		}
 
-		for ( final V viewId : cMap.keySet() )
-			interestpoints.get( viewId ).getInterestPointList( labelMap.get( viewId ) ).setCorrespondingInterestPoints( cMap.get( viewId ) );
-
 		final ArrayList< Pair< Pair< V, V >, PairwiseResult< GroupedInterestPoint< V > > > > transformedList = new ArrayList<>();
 
 		for ( final Pair< V, V > pair : transformedMap.keySet() )
@@ -179,7 +216,7 @@ public class MatcherPairwiseTools
 	}
 
 	/*
-	 * Add correspondences to the interestpointlists
+	 * Add correspondences to the interestpointlists, can be called concurrently for pairs that share views
 	 */
 	public static < I extends InterestPoint > void addCorrespondences(
 			final List< PointMatchGeneric< I > > correspondences,
@@ -190,8 +227,8 @@ public class MatcherPairwiseTools
 			final InterestPointList listA,
 			final InterestPointList listB )
 	{
-		final List< CorrespondingInterestPoints > corrListA = listA.getCorrespondingInterestPointsCopy();
-		final List< CorrespondingInterestPoints > corrListB = listB.getCorrespondingInterestPointsCopy();
+		final List< CorrespondingInterestPoints > corrListA = new ArrayList<>( correspondences.size() );
+		final List< CorrespondingInterestPoints > corrListB = new ArrayList<>( correspondences.size() );
 
 		for ( final PointMatchGeneric< I > pm : correspondences )
 		{
@@ -205,8 +242,8 @@ public class MatcherPairwiseTools
 			corrListB.add( correspondingToB );
 		}
 
-		listA.setCorrespondingInterestPoints( corrListA );
-		listB.setCorrespondingInterestPoints( corrListB );
+		listA.addCorrespondingInterestPoints( corrListA );
+		listB.addCorrespondingInterestPoints( corrListB );
 	}
 
 	public static void assignLoggingDescriptions(
@@ -273,19 +273,27 @@ public abstract class PairwiseSetup< V extends Comparable< V > >
 			final List< Pair< V, V > > pairs,
 			final OverlapDetection< V > ovlp )
 	{
+		// e.g. test all pairs at once instead of each pair separately
+		ovlp.prepare( pairs );
+
+		final ArrayList< Pair< V, V > > kept = new ArrayList<>( pairs.size() );
 		final ArrayList< Pair< V, V > > removed = new ArrayList<>();
 
+		// removing single elements from the list is linear each, so rebuild it instead
 		for ( int i = pairs.size() - 1; i >= 0; --i )
 		{
 			final Pair< V, V > pair = pairs.get( i );
 
-			if ( !ovlp.overlaps( pair.getA(), pair.getB() ) )
-			{
-				pairs.remove( i );
+			if ( ovlp.overlaps( pair.getA(), pair.getB() ) )
+				kept.add( pair );
+			else
 				removed.add( pair );
-			}
 		}
 
+		Collections.reverse( kept );
+		pairs.clear();
+		pairs.addAll( kept );
+
 		return removed;
 	}
 
@@ -23,18 +23,22 @@
 package net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import mpicbg.spim.data.sequence.ViewId;
-import net.imglib2.KDTree;
-import net.imglib2.neighborsearch.RadiusNeighborSearch;
-import net.imglib2.neighborsearch.RadiusNeighborSearchOnKDTree;
-import net.imglib2.util.Pair;
-import net.imglib2.util.ValuePair;
+import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.fusion.ImagePortion;
 
 /**
  * The simplest way to group interest points, just add them all (this will create problems in overlaps)
@@ -45,6 +49,9 @@ public class InterestPointGroupingMinDistance< V extends ViewId > extends Intere
 {
 	public static double DEFAULT_RADIUS = 2.5;
 
+	// below that number of points everything is done single-threaded
+	public static int minPointsMultiThreaded = 50000;
+
 	final double radius;
 
 	public InterestPointGroupingMinDistance( final double radius, final Map< V, List< InterestPoint > > interestpoints )
@@ -73,49 +80,254 @@ public class InterestPointGroupingMinDistance< V extends ViewId > extends Intere
 		// pseudo-random shuffling to not give an advantage due to the order the views are in
 		Collections.shuffle( grouped, new Random( 234 ) );
 
+		final int n = grouped.size();
+		final int numDimensions = grouped.get( 0 ).numDimensions();
+
+		// positions and views as primitive arrays
+		final double[] positions = new double[ n * numDimensions ];
+		final int[] views = new int[ n ];
+		final HashMap< V, Integer > viewIndex = new HashMap<>();
+
+		for ( int i = 0; i < n; ++i )
+		{
+			final GroupedInterestPoint< V > p = grouped.get( i );
+
+			for ( int d = 0; d < numDimensions; ++d )
+				positions[ i * numDimensions + d ] = p.getDoublePosition( d );
+
+			views[ i ] = viewIndex.computeIfAbsent( p.getV(), v -> viewIndex.size() );
+		}
+
+		// all points of other views within the radius of each point (computed in parallel)
+		final SpatialHash hash = new SpatialHash( positions, numDimensions, radius );
+		final int[][] conflicts = findConflicts( hash, views, radius );
+
 		//
-		// make a list and a tree at the same time, use the tree to mark points in close proximity as false
+		// go over all points in the (shuffled) order, every point that is still valid invalidates the
+		// points of other views within the radius (same result as a sequential radius search on a KDTree)
 		//
+		final boolean[] valid = new boolean[ n ];
+		Arrays.fill( valid, true );
 
-		// if a certain interestpoint is still valid
-		// (grouped and markedPoints MUST be in the same order for this to work)
-		final ArrayList< Pair< GroupedInterestPoint< V >, Bool > > markedPoints = new ArrayList<>();
+		for ( int i = 0; i < n; ++i )
+			if ( valid[ i ] )
+				for ( final int j : conflicts[ i ] )
+					valid[ j ] = false;
 
-		// all points are true initially, and will be set false if they were within the radius of a selected point
-		for ( final GroupedInterestPoint< V > p : grouped )
-			markedPoints.add( new ValuePair<>( p, new Bool( true ) ) );
+		final ArrayList< GroupedInterestPoint< V > > result = new ArrayList<>();
 
-		final KDTree< Pair< GroupedInterestPoint< V >, Bool > > tree = new KDTree<>( markedPoints, grouped );
-		final RadiusNeighborSearch< Pair< GroupedInterestPoint< V >, Bool > > search =
-				new RadiusNeighborSearchOnKDTree<>( tree );
+		for ( int i = 0; i < n; ++i )
+			if ( valid[ i ] )
+				result.add( grouped.get( i ) );
 
-		// go over all points
-		for ( final Pair< GroupedInterestPoint< V >, Bool > p : markedPoints )
+		return result;
+	}
+
+	/*
+	 * for every point the indices of all points of other views within the radius, multi-threaded over portions of points
+	 */
+	protected static int[][] findConflicts( final SpatialHash hash, final int[] views, final double radius )
+	{
+		final int n = views.length;
+		final int[][] conflicts = new int[ n ][];
+
+		if ( n < minPointsMultiThreaded )
 		{
-			if ( p.getB().state )
+			hash.findConflicts( views, radius, 0, n, conflicts );
+			return conflicts;
+		}
+
+		final ExecutorService service = Threads.createFixedExecutorService();
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( final ImagePortion portion : FusionTools.divideIntoPortions( n ) )
+			tasks.add( () ->
 			{
-				// radius neighbor search
-				search.search( p.getA(), radius, false );
+				hash.findConflicts( views, radius, (int)portion.getStartPosition(), (int)( portion.getStartPosition() + portion.getLoopSize() ), conflicts );
+				return null;
+			});
 
-				// make sure by comparing ViewId and Id that it is not the one we currently look at
-				for ( int i = 0; i < search.numNeighbors(); ++i )
-				{
-					final Pair< GroupedInterestPoint< V >, Bool > neighbor = search.getSampler( i ).get();
-					final GroupedInterestPoint< V > neighborpoint = neighbor.getA();
+		try
+		{
+			for ( final Future< Void > future : service.invokeAll( tasks ) )
+				future.get();
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			throw new RuntimeException( "Failed to group interest points: " + e, e );
+		}
+		finally
+		{
+			service.shutdown();
+		}
+
+		return conflicts;
+	}
+
+	/**
+	 * A uniform grid with a cell size of at least the radius, the points are sorted by cell (CSR layout),
+	 * so all points within the radius are in the 3^n neighboring cells.
+	 */
+	protected static class SpatialHash
+	{
+		final double[] positions;
+		final int numDimensions;
+		final double cellSize;
+		final long[] minCell;
+		final int bits;
 
-					if ( !neighborpoint.getV().equals( p.getA().getV() )) // do not set false if it is from the same view
-						if ( !neighborpoint.equals( p.getA() ) ) // do not set false if it is the point we searched for
-							neighbor.getB().state = false;
+		final long[] cellKeys; // sorted keys of all non-empty cells
+		final int[] cellStart; // index into points for each cell (length = numCells + 1)
+		final int[] points; // point indices sorted by cell
+		final long[] pointCells; // cell coordinates of each point
+
+		public SpatialHash( final double[] positions, final int numDimensions, final double radius )
+		{
+			this.positions = positions;
+			this.numDimensions = numDimensions;
+
+			final int n = positions.length / numDimensions;
+
+			// make sure that the cell coordinates fit into one long key
+			this.bits = 62 / numDimensions;
+
+			double maxExtent = 0;
+			final double[] min = new double[ numDimensions ];
+			final double[] max = new double[ numDimensions ];
+			Arrays.fill( min, Double.MAX_VALUE );
+			Arrays.fill( max, -Double.MAX_VALUE );
+
+			for ( int i = 0; i < n; ++i )
+				for ( int d = 0; d < numDimensions; ++d )
+				{
+					min[ d ] = Math.min( min[ d ], positions[ i * numDimensions + d ] );
+					max[ d ] = Math.max( max[ d ], positions[ i * numDimensions + d ] );
 				}
+
+			for ( int d = 0; d < numDimensions; ++d )
+				maxExtent = Math.max( maxExtent, max[ d ] - min[ d ] );
+
+			this.cellSize = Math.max( Math.max( radius, 1e-6 ), maxExtent / ( ( 1L << bits ) - 4 ) );
+
+			this.minCell = new long[ numDimensions ];
+
+			for ( int d = 0; d < numDimensions; ++d )
+				minCell[ d ] = (long)Math.floor( min[ d ] / cellSize ) - 1;
+
+			// cell of every point
+			this.pointCells = new long[ n * numDimensions ];
+			final long[] keys = new long[ n ];
+
+			for ( int i = 0; i < n; ++i )
+			{
+				for ( int d = 0; d < numDimensions; ++d )
+					pointCells[ i * numDimensions + d ] = (long)Math.floor( positions[ i * numDimensions + d ] / cellSize );
+
+				keys[ i ] = key( pointCells, i * numDimensions );
 			}
+
+			// unique sorted keys
+			final long[] sorted = keys.clone();
+			Arrays.sort( sorted );
+
+			int numCells = 0;
+
+			for ( int i = 0; i < n; ++i )
+				if ( i == 0 || sorted[ i ] != sorted[ i - 1 ] )
+					sorted[ numCells++ ] = sorted[ i ];
+
+			this.cellKeys = Arrays.copyOf( sorted, numCells );
+
+			// counting sort of the points by cell
+			final int[] cellOfPoint = new int[ n ];
+			this.cellStart = new int[ numCells + 1 ];
+
+			for ( int i = 0; i < n; ++i )
+			{
+				cellOfPoint[ i ] = Arrays.binarySearch( cellKeys, keys[ i ] );
+				++cellStart[ cellOfPoint[ i ] + 1 ];
+			}
+
+			for ( int c = 0; c < numCells; ++c )
+				cellStart[ c + 1 ] += cellStart[ c ];
+
+			this.points = new int[ n ];
+			final int[] fill = Arrays.copyOf( cellStart, numCells );
+
+			for ( int i = 0; i < n; ++i )
+				points[ fill[ cellOfPoint[ i ] ]++ ] = i;
+		}
+
+		protected long key( final long[] cell, final int offset )
+		{
+			long key = 0;
+
+			for ( int d = 0; d < numDimensions; ++d )
+				key = ( key << bits ) | ( cell[ offset + d ] - minCell[ d ] );
+
+			return key;
 		}
 
-		grouped.clear();
+		/*
+		 * fills conflicts[ i ] for all points from <= i < to
+		 */
+		public void findConflicts( final int[] views, final double radius, final int from, final int to, final int[][] conflicts )
+		{
+			final double r2 = radius * radius;
+
+			final int numNeighborCells = (int)Math.round( Math.pow( 3, numDimensions ) );
+			final long[] cell = new long[ numDimensions ];
+
+			int[] tmp = new int[ 16 ];
+
+			for ( int i = from; i < to; ++i )
+			{
+				int count = 0;
+
+				for ( int c = 0; c < numNeighborCells; ++c )
+				{
+					// offset of the neighboring cell in {-1,0,1}^n
+					int code = c;
+
+					for ( int d = 0; d < numDimensions; ++d )
+					{
+						cell[ d ] = pointCells[ i * numDimensions + d ] + ( code % 3 ) - 1;
+						code /= 3;
+					}
+
+					final int cellIndex = Arrays.binarySearch( cellKeys, key( cell, 0 ) );
 
-		for ( final Pair< GroupedInterestPoint< V >, Bool > p : markedPoints )
-			if ( p.getB().state )
-				grouped.add( p.getA() );
+					if ( cellIndex < 0 )
+						continue;
 
-		return grouped;
+					for ( int k = cellStart[ cellIndex ]; k < cellStart[ cellIndex + 1 ]; ++k )
+					{
+						final int j = points[ k ];
+
+						// do not set false if it is from the same view (or the point itself)
+						if ( views[ j ] == views[ i ] )
+							continue;
+
+						double dist = 0;
+
+						for ( int d = 0; d < numDimensions; ++d )
+						{
+							final double diff = positions[ i * numDimensions + d ] - positions[ j * numDimensions + d ];
+							dist += diff * diff;
+						}
+
+						if ( dist <= r2 )
+						{
+							if ( count == tmp.length )
+								tmp = Arrays.copyOf( tmp, count * 2 );
+
+							tmp[ count++ ] = j;
+						}
+					}
+				}
+
+				conflicts[ i ] = Arrays.copyOf( tmp, count );
+			}
+		}
 	}
 }
@@ -22,10 +22,20 @@
  */
 package net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap;
 
+import java.util.Collection;
+
 import net.imglib2.RealInterval;
+import net.imglib2.util.Pair;
 
 public interface OverlapDetection< V >
 {
 	public boolean overlaps( final V view1, final V view2 );
 	public RealInterval getOverlapInterval( final V view1, final V view2 );
+
+	/**
+	 * Called before many pairs of views are tested, implementations can e.g. test all pairs at once.
+	 *
+	 * @param pairs - all pairs that will be tested
+	 */
+	public default void prepare( final Collection< ? extends Pair< V, V > > pairs ) {}
 }
@@ -54,11 +54,27 @@ public class SimpleBoundingBoxOverlap< V extends ViewId > implements OverlapDete
 		this.vrs = vrs;
 	}
 
+	/*
+	 * the (rounded, enlarged by one pixel) bounding box of a view in global coordinates, null if the view has no size
+	 */
+	protected BoundingBox getBoundingBox( final V view )
+	{
+		return getBoundingBox( view, vss, vrs );
+	}
+
+	/*
+	 * the bounding box of a view in global coordinates, null if the view has no size
+	 */
+	protected RealInterval getBoundingBoxReal( final V view )
+	{
+		return getBoundingBoxReal( view, vss, vrs );
+	}
+
 	@Override
 	public boolean overlaps( final V view1, final V view2 )
 	{
-		final BoundingBox bb1 = getBoundingBox( view1, vss, vrs );
-		final BoundingBox bb2 = getBoundingBox( view2, vss, vrs );
+		final BoundingBox bb1 = getBoundingBox( view1 );
+		final BoundingBox bb2 = getBoundingBox( view2 );
 
 		if ( bb1 == null )
 			throw new RuntimeException( "view1 has no image size" );
@@ -72,8 +88,8 @@ public class SimpleBoundingBoxOverlap< V extends ViewId > implements OverlapDete
 	@Override
 	public RealInterval getOverlapInterval( final V view1, final V view2 )
 	{
-		final RealInterval bb1 = getBoundingBoxReal( view1, vss, vrs );
-		final RealInterval bb2 = getBoundingBoxReal( view2, vss, vrs );
+		final RealInterval bb1 = getBoundingBoxReal( view1 );
+		final RealInterval bb2 = getBoundingBoxReal( view2 );
 
 		if ( bb1 == null )
 			throw new RuntimeException( "view1 has no image size" );
@@ -84,7 +100,7 @@ public class SimpleBoundingBoxOverlap< V extends ViewId > implements OverlapDete
 		double[] min = new double[ bb1.numDimensions() ];
 		double[] max = new double[ bb1.numDimensions() ];
 
-		if ( overlaps( getBoundingBox( view1, vss, vrs ), getBoundingBox( view2, vss, vrs ) ) )
+		if ( overlaps( getBoundingBox( view1 ), getBoundingBox( view2 ) ) )
 		{
 			for ( int d = 0; d < bb1.numDimensions(); ++d )
 			{
@@ -0,0 +1,294 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import mpicbg.spim.data.generic.AbstractSpimData;
+import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
+import mpicbg.spim.data.generic.sequence.BasicViewSetup;
+import mpicbg.spim.data.registration.ViewRegistrations;
+import mpicbg.spim.data.sequence.SequenceDescription;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.RealInterval;
+import net.imglib2.util.Pair;
+import net.preibisch.mvrecon.fiji.spimdata.boundingbox.BoundingBox;
+
+/**
+ * Same overlap test as {@link SimpleBoundingBoxOverlap}, but the transformed bounding box of each view is only
+ * computed once, and {@link #prepare(Collection)} tests all requested pairs at once. The pairs are split into
+ * the connected components of the pair graph (e.g. the timepoints for individual timepoint registration).
+ * Components in which most pairs of views are requested (e.g. all-to-all within a timepoint) are tested with
+ * a sweep-and-prune along the axis that separates the views best: sorting the boxes by their start is
+ * O(N log N), afterwards each box is only tested against the boxes whose extent along that axis is still
+ * open, which is O(N + K) for K overlapping pairs in typical tile layouts instead of testing all N^2 pairs.
+ * In sparse components the requested pairs are tested directly. Only results of requested pairs are stored.
+ *
+ * @author Stephan Preibisch (stephan.preibisch@gmx.de)
+ */
+public class SweepAndPruneOverlap< V extends ViewId > extends SimpleBoundingBoxOverlap< V >
+{
+	final ConcurrentHashMap< V, BoundingBox > boundingBoxes = new ConcurrentHashMap<>();
+	final ConcurrentHashMap< V, RealInterval > boundingBoxesReal = new ConcurrentHashMap<>();
+
+	// the requested partners of each view and the ones that overlap, null if not prepared
+	Map< V, HashSet< V > > requested = null;
+	Map< V, HashSet< V > > overlapping = null;
+
+	public SweepAndPruneOverlap( final AbstractSpimData< ? extends AbstractSequenceDescription< ? extends BasicViewSetup, ?, ? > > spimData )
+	{
+		super( spimData );
+	}
+
+	public SweepAndPruneOverlap( final SequenceDescription sd, final ViewRegistrations vrs )
+	{
+		super( sd, vrs );
+	}
+
+	@Override
+	protected BoundingBox getBoundingBox( final V view )
+	{
+		// views without size are not cached (null), they fail in overlaps() anyways
+		return boundingBoxes.computeIfAbsent( view, v -> super.getBoundingBox( v ) );
+	}
+
+	@Override
+	protected RealInterval getBoundingBoxReal( final V view )
+	{
+		return boundingBoxesReal.computeIfAbsent( view, v -> super.getBoundingBoxReal( v ) );
+	}
+
+	@Override
+	public void prepare( final Collection< ? extends Pair< V, V > > pairs )
+	{
+		final HashMap< V, HashSet< V > > requested = new HashMap<>();
+
+		for ( final Pair< V, V > pair : pairs )
+		{
+			// views without size are not prepared, so overlaps() reports them as before
+			if ( getBoundingBox( pair.getA() ) == null || getBoundingBox( pair.getB() ) == null )
+				continue;
+
+			requested.computeIfAbsent( pair.getA(), v -> new HashSet<>() ).add( pair.getB() );
+			requested.computeIfAbsent( pair.getB(), v -> new HashSet<>() ).add( pair.getA() );
+		}
+
+		final HashMap< V, HashSet< V > > overlapping = new HashMap<>();
+
+		for ( final ArrayList< V > component : components( requested ) )
+		{
+			long numPairs = 0;
+
+			for ( final V view : component )
+				numPairs += requested.get( view ).size();
+
+			numPairs /= 2;
+
+			final long n = component.size();
+
+			if ( numPairs * 2 >= n * ( n - 1 ) / 2 )
+			{
+				// dense, the sweep tests at most about twice as many pairs as requested
+				sweep( component, requested, overlapping );
+			}
+			else
+			{
+				for ( final V view : component )
+					for ( final V other : requested.get( view ) )
+						if ( overlaps( getBoundingBox( view ), getBoundingBox( other ) ) )
+							overlapping.computeIfAbsent( view, v -> new HashSet<>() ).add( other );
+			}
+		}
+
+		this.requested = requested;
+		this.overlapping = overlapping;
+	}
+
+	@Override
+	public boolean overlaps( final V view1, final V view2 )
+	{
+		final Map< V, HashSet< V > > requested = this.requested;
+		final Map< V, HashSet< V > > overlapping = this.overlapping;
+
+		if ( requested != null )
+		{
+			final HashSet< V > r1 = requested.get( view1 );
+
+			if ( r1 != null && r1.contains( view2 ) )
+			{
+				final HashSet< V > o1 = overlapping.get( view1 );
+				return o1 != null && o1.contains( view2 );
+			}
+		}
+
+		return super.overlaps( view1, view2 );
+	}
+
+	/**
+	 * @param views - the views to test
+	 * @return for every view (that has a size) the set of views it overlaps with
+	 */
+	public Map< V, HashSet< V > > overlappingPairs( final Collection< ? extends V > views )
+	{
+		final ArrayList< V > list = new ArrayList<>( views.size() );
+		final HashMap< V, HashSet< V > > overlapping = new HashMap<>();
+
+		for ( final V view : views )
+		{
+			if ( getBoundingBox( view ) == null || overlapping.containsKey( view ) )
+				continue;
+
+			list.add( view );
+			overlapping.put( view, new HashSet<>() );
+		}
+
+		sweep( list, null, overlapping );
+
+		return overlapping;
+	}
+
+	/*
+	 * sweep-and-prune over the views, stores the overlapping pairs (only requested ones if requested != null)
+	 */
+	protected void sweep( final List< V > views, final Map< V, HashSet< V > > requested, final Map< V, HashSet< V > > overlapping )
+	{
+		if ( views.size() == 0 )
+			return;
+
+		final ArrayList< V > sorted = new ArrayList<>( views );
+		final int d = sweepDimension( sorted );
+
+		Collections.sort( sorted, ( v1, v2 ) -> Long.compare( getBoundingBox( v1 ).getMin()[ d ], getBoundingBox( v2 ).getMin()[ d ] ) );
+
+		final ArrayList< V > active = new ArrayList<>();
+
+		for ( final V view : sorted )
+		{
+			final BoundingBox bb = getBoundingBox( view );
+			final long min = bb.getMin()[ d ];
+			final HashSet< V > partners = requested == null ? null : requested.get( view );
+
+			// prune all boxes that end before this one starts, they cannot overlap any later box either
+			int j = 0;
+
+			for ( int i = 0; i < active.size(); ++i )
+			{
+				final V other = active.get( i );
+
+				if ( getBoundingBox( other ).getMax()[ d ] < min )
+					continue;
+
+				active.set( j++, other );
+
+				if ( ( partners == null || partners.contains( other ) ) && overlaps( getBoundingBox( other ), bb ) )
+				{
+					overlapping.computeIfAbsent( view, v -> new HashSet<>() ).add( other );
+					overlapping.computeIfAbsent( other, v -> new HashSet<>() ).add( view );
+				}
+			}
+
+			while ( active.size() > j )
+				active.remove( active.size() - 1 );
+
+			active.add( view );
+		}
+	}
+
+	/*
+	 * the connected components of the graph of requested pairs
+	 */
+	protected static < V > ArrayList< ArrayList< V > > components( final Map< V, HashSet< V > > graph )
+	{
+		final ArrayList< ArrayList< V > > components = new ArrayList<>();
+		final HashSet< V > visited = new HashSet<>();
+
+		for ( final V start : graph.keySet() )
+		{
+			if ( !visited.add( start ) )
+				continue;
+
+			final ArrayList< V > component = new ArrayList<>();
+			final ArrayDeque< V > queue = new ArrayDeque<>();
+			queue.add( start );
+
+			while ( !queue.isEmpty() )
+			{
+				final V view = queue.poll();
+				component.add( view );
+
+				for ( final V other : graph.get( view ) )
+					if ( visited.add( other ) )
+						queue.add( other );
+			}
+
+			components.add( component );
+		}
+
+		return components;
+	}
+
+	/*
+	 * the dimension along which the boxes are spread out most relative to their size, i.e. the
+	 * fewest boxes are open at the same time during the sweep
+	 */
+	protected int sweepDimension( final Collection< ? extends V > views )
+	{
+		final int n = getBoundingBox( views.iterator().next() ).numDimensions();
+
+		int bestD = 0;
+		double bestRatio = -1;
+
+		for ( int d = 0; d < n; ++d )
+		{
+			long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+			double sumSize = 0;
+
+			for ( final V view : views )
+			{
+				final BoundingBox bb = getBoundingBox( view );
+
+				min = Math.min( min, bb.getMin()[ d ] );
+				max = Math.max( max, bb.getMax()[ d ] );
+				sumSize += bb.getMax()[ d ] - bb.getMin()[ d ] + 1;
+			}
+
+			final double ratio = ( max - min + 1 ) / ( sumSize / views.size() );
+
+			if ( ratio > bestRatio )
+			{
+				bestRatio = ratio;
+				bestD = d;
+			}
+		}
+
+		return bestD;
+	}
+}
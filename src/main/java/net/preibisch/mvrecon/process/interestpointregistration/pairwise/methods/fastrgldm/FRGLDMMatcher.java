@@ -32,6 +32,8 @@ import net.imglib2.util.Util;
 import net.imglib2.util.ValuePair;
 import net.preibisch.legacy.mpicbg.PointMatchGeneric;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.DescriptorCache;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.DescriptorCache.Descriptors;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.TranslationInvariantLocalCoordinateSystemPointDescriptor;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.exception.NoSuitablePointsException;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.matcher.SubsetMatcher;
@@ -44,26 +46,27 @@ public class FRGLDMMatcher< I extends InterestPoint >
 			final int redundancy,
 			final double ratioOfDistance )
 	{
-		final KDTree< I > tree1 = new KDTree<>( nodeListA, nodeListA );
-		final KDTree< I > tree2 = new KDTree<>( nodeListB, nodeListB );
+		// the descriptors of a view are only computed once for all pairs (see DescriptorCache)
+		final String type = "FRGLDM redundancy=" + redundancy;
+
+		final Descriptors< I, TranslationInvariantLocalCoordinateSystemPointDescriptor< I > > descriptors1 = DescriptorCache.get( type, nodeListA, 3 + redundancy,
+				( list, nn ) -> createLocalCoordinateSystemPointDescriptors( list, nn, redundancy ) );
+
+		final Descriptors< I, TranslationInvariantLocalCoordinateSystemPointDescriptor< I > > descriptors2 = DescriptorCache.get( type, nodeListB, 3 + redundancy,
+				( list, nn ) -> createLocalCoordinateSystemPointDescriptors( list, nn, redundancy ) );
 
-		final ArrayList< TranslationInvariantLocalCoordinateSystemPointDescriptor< I > > descriptors1 =
-			createLocalCoordinateSystemPointDescriptors( tree1, nodeListA, redundancy );
-		
-		final ArrayList< TranslationInvariantLocalCoordinateSystemPointDescriptor< I > > descriptors2 =
-			createLocalCoordinateSystemPointDescriptors( tree2, nodeListB, redundancy );
-		
 		// create lookup tree for descriptors2
-		final KDTree< TranslationInvariantLocalCoordinateSystemPointDescriptor< I > > lookUpTree2 = new KDTree<>( descriptors2, descriptors2 );
+		final KDTree< TranslationInvariantLocalCoordinateSystemPointDescriptor< I > > lookUpTree2 = descriptors2.getLookUp(
+				() -> new KDTree<>( descriptors2.getDescriptors(), descriptors2.getDescriptors() ) );
 		final KNearestNeighborSearchOnKDTree< TranslationInvariantLocalCoordinateSystemPointDescriptor< I > > nnsearch = new KNearestNeighborSearchOnKDTree<>( lookUpTree2, 2 );
 
 		// store the candidates for corresponding beads
 		final ArrayList< PointMatchGeneric< I > > correspondences = new ArrayList<>();
 		
 		/* compute matching */
-		computeMatching( descriptors1, nnsearch, correspondences, ratioOfDistance );
+		computeMatching( descriptors1.getDescriptors(), nnsearch, correspondences, ratioOfDistance );
 		
-		return correspondences;
+		return DescriptorCache.remap( correspondences, descriptors1, nodeListA, descriptors2, nodeListB );
 	}
 	
 	protected void computeMatching(
@@ -134,6 +137,46 @@ public class FRGLDMMatcher< I extends InterestPoint >
 		return descriptors;
 	}
 
+	/**
+	 * @param basisPoints - the points
+	 * @param nearestNeighbors - for each point the indices of itself and its (at least) 3 + redundancy nearest neighbors (see DescriptorStore)
+	 * @param redundancy - redundancy
+	 * @param <I> - interest point type
+	 * @return the descriptors
+	 */
+	public static < I extends InterestPoint > ArrayList< TranslationInvariantLocalCoordinateSystemPointDescriptor< I > > createLocalCoordinateSystemPointDescriptors( 
+			final ArrayList< I > basisPoints,
+			final int[][] nearestNeighbors,
+			final int redundancy )
+	{
+		final int[][] neighborIndicies = SubsetMatcher.computePD( 3 + redundancy, 3, 1 );
+
+		final ArrayList< TranslationInvariantLocalCoordinateSystemPointDescriptor< I > > descriptors = new ArrayList<> ( );
+
+		for ( int i = 0; i < basisPoints.size(); ++i )
+		{
+			final I p = basisPoints.get( i );
+
+			for ( final int[] neighbors : neighborIndicies )
+			{
+				final I point1 = basisPoints.get( nearestNeighbors[ i ][ neighbors[ 0 ] ] );
+				final I point2 = basisPoints.get( nearestNeighbors[ i ][ neighbors[ 1 ] ] );
+				final I point3 = basisPoints.get( nearestNeighbors[ i ][ neighbors[ 2 ] ] );
+
+				try
+				{
+					descriptors.add( new TranslationInvariantLocalCoordinateSystemPointDescriptor< I >( p, point1, point2, point3 ) );
+				}
+				catch ( NoSuitablePointsException e )
+				{
+					e.printStackTrace();
+				}
+			}
+		}
+
+		return descriptors;
+	}
+
 	public static void main( String[] args )
 	{
 		final int numNeighbors = 2;
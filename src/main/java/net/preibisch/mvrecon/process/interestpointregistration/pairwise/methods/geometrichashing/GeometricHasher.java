@@ -31,6 +31,8 @@ import net.imglib2.util.Pair;
 import net.imglib2.util.ValuePair;
 import net.preibisch.legacy.mpicbg.PointMatchGeneric;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.DescriptorCache;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.DescriptorCache.Descriptors;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.LocalCoordinateSystemPointDescriptor;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.exception.NoSuitablePointsException;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.matcher.SubsetMatcher;
@@ -50,26 +52,27 @@ public class GeometricHasher< I extends InterestPoint >
 			final int redundancy,
 			final double ratioOfDistance )
 	{
-		final KDTree< I > tree1 = new KDTree<>( nodeListA, nodeListA );
-		final KDTree< I > tree2 = new KDTree<>( nodeListB, nodeListB );
+		// the descriptors of a view are only computed once for all pairs (see DescriptorCache)
+		final String type = "GeometricHashing redundancy=" + redundancy;
+
+		final Descriptors< I, LocalCoordinateSystemPointDescriptor< I > > descriptors1 = DescriptorCache.get( type, nodeListA, 3 + redundancy,
+				( list, nn ) -> createLocalCoordinateSystemPointDescriptors( list, nn, redundancy, false ) );
+
+		final Descriptors< I, LocalCoordinateSystemPointDescriptor< I > > descriptors2 = DescriptorCache.get( type, nodeListB, 3 + redundancy,
+				( list, nn ) -> createLocalCoordinateSystemPointDescriptors( list, nn, redundancy, false ) );
 
-		final ArrayList< LocalCoordinateSystemPointDescriptor< I > > descriptors1 =
-			createLocalCoordinateSystemPointDescriptors( tree1, nodeListA, redundancy, false );
-		
-		final ArrayList< LocalCoordinateSystemPointDescriptor< I > > descriptors2 =
-			createLocalCoordinateSystemPointDescriptors( tree2, nodeListB, redundancy, false );
-		
 		// create lookup tree for descriptors2
-		final KDTree< LocalCoordinateSystemPointDescriptor< I > > lookUpTree2 = new KDTree<>( descriptors2, descriptors2 );
+		final KDTree< LocalCoordinateSystemPointDescriptor< I > > lookUpTree2 = descriptors2.getLookUp(
+				() -> new KDTree<>( descriptors2.getDescriptors(), descriptors2.getDescriptors() ) );
 		final KNearestNeighborSearchOnKDTree< LocalCoordinateSystemPointDescriptor< I > > nnsearch = new KNearestNeighborSearchOnKDTree<>( lookUpTree2, 2 );
 
 		// store the candidates for corresponding beads
 		final ArrayList< PointMatchGeneric< I > > correspondences = new ArrayList<>();
 		
 		/* compute matching */
-		computeMatching( descriptors1, nnsearch, correspondences, differenceThreshold, ratioOfDistance );
+		computeMatching( descriptors1.getDescriptors(), nnsearch, correspondences, differenceThreshold, ratioOfDistance );
 		
-		return correspondences;
+		return DescriptorCache.remap( correspondences, descriptors1, nodeListA, descriptors2, nodeListB );
 	}
 	
 	protected void computeMatching( 
@@ -151,4 +154,50 @@ public class GeometricHasher< I extends InterestPoint >
 
 		return descriptors;
 	}
+
+	/**
+	 * @param basisPoints - the points
+	 * @param nearestNeighbors - for each point the indices of itself and its (at least) 3 + redundancy nearest neighbors (see DescriptorStore)
+	 * @param redundancy - redundancy
+	 * @param normalize - normalize the local coordinate system
+	 * @param <I> - interest point type
+	 * @return the descriptors
+	 */
+	public static < I extends InterestPoint > ArrayList< LocalCoordinateSystemPointDescriptor< I > > createLocalCoordinateSystemPointDescriptors( 
+			final ArrayList< I > basisPoints,
+			final int[][] nearestNeighbors,
+			final int redundancy,
+			final boolean normalize )
+	{
+		final int numNeighbors = 3;
+
+		final ArrayList< LocalCoordinateSystemPointDescriptor< I > > descriptors = new ArrayList<> ( );
+
+		final int[][] neighborIndicies = SubsetMatcher.computePD( numNeighbors + redundancy, numNeighbors, 1 );
+
+		for ( int i = 0; i < basisPoints.size(); ++i )
+		{
+			final I p = basisPoints.get( i );
+
+			for ( final int[] neighbors : neighborIndicies )
+			{
+				final ArrayList< I > neighborPoints = new ArrayList<>();
+
+				// the first entry is always the point itself
+				for ( int n = 0; n < numNeighbors; ++n )
+					neighborPoints.add( basisPoints.get( nearestNeighbors[ i ][ neighbors[ n ] ] ) );
+
+				try
+				{
+					descriptors.add( new LocalCoordinateSystemPointDescriptor< I >( p, neighborPoints, normalize ) );
+				}
+				catch ( NoSuitablePointsException e )
+				{
+					// exceptions are thrown here when two identical points exist and no local coordinate system can be built
+				}
+			}
+		}
+
+		return descriptors;
+	}
 }
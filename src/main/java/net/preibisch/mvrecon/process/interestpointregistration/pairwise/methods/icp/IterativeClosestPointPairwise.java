@@ -111,10 +111,14 @@ public class IterativeClosestPointPairwise< I extends InterestPoint > implements
 			if ( lastNumCorresponding == icp.getNumPointMatches() && lastAvgError == icp.getAverageError() )
 				converged = true;
 
+			// the same correspondences would result in the same model
+			if ( icp.getNumChangedPointMatches() == 0 )
+				converged = true;
+
 			lastNumCorresponding = icp.getNumPointMatches();
 			lastAvgError = icp.getAverageError();
 			
-			System.out.println( i + ": " + icp.getNumPointMatches() + " matches, avg error [px] " + icp.getAverageError() + ", max error [px] " + icp.getMaximalError() );
+			System.out.println( i + ": " + icp.getNumPointMatches() + " matches (" + icp.getNumChangedPointMatches() + " changed), avg error [px] " + icp.getAverageError() + ", max error [px] " + icp.getMaximalError() );
 		}
 		while ( !converged && ++i < ip.getMaxNumIterations() );
 
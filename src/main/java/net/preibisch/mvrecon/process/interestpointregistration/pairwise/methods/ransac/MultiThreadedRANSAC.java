@@ -0,0 +1,411 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods.ransac;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import mpicbg.models.IllDefinedDataPointsException;
+import mpicbg.models.Model;
+import mpicbg.models.NotEnoughDataPointsException;
+import mpicbg.models.PointMatch;
+import net.preibisch.mvrecon.Threads;
+
+/**
+ * Multi-threaded version of mpicbg's Model.filterRansac(). The hypotheses are evaluated in batches
+ * in parallel, after every batch the best hypothesis is merged and the number of iterations is
+ * adapted to the inlier ratio found so far (i.e. RANSAC terminates early if the inlier ratio is high).
+ * The batches run on one executor that is shared by all calls, so pairs that are registered in parallel
+ * do not each start their own threads.
+ *
+ * The candidates are never modified while testing hypotheses, only the final filter() step
+ * (single-threaded) applies the model to them as mpicbg does.
+ *
+ * @author Stephan Preibisch (stephan.preibisch@gmx.de)
+ *
+ */
+public class MultiThreadedRANSAC
+{
+	// probability that at least one outlier-free minimal set was drawn, used for the adaptive number of iterations
+	public static double confidence = 0.999;
+
+	// number of hypotheses evaluated per task before results are merged
+	public static int batchSize = 250;
+
+	public static long seed = 69997;
+
+	// shared by all calls, created on first use
+	private static ExecutorService sharedService = null;
+
+	/**
+	 * @return the executor all RANSAC batches (and the parallel tile relaxation) run on unless one is provided, its threads do not keep the JVM alive
+	 */
+	public static synchronized ExecutorService sharedService()
+	{
+		if ( sharedService == null )
+		{
+			sharedService = Executors.newFixedThreadPool( Threads.numThreads(), r ->
+			{
+				final Thread t = new Thread( r, "MultiThreadedRANSAC" );
+				t.setDaemon( true );
+				return t;
+			});
+		}
+
+		return sharedService;
+	}
+
+	public static < P extends PointMatch > boolean filterRansac(
+			final Model< ? > model,
+			final List< P > candidates,
+			final Collection< P > inliers,
+			final int iterations,
+			final double epsilon,
+			final double minInlierRatio,
+			final int numThreads ) throws NotEnoughDataPointsException
+	{
+		return filterRansac( model, candidates, inliers, iterations, epsilon, minInlierRatio, model.getMinNumMatches(), 4.0, numThreads );
+	}
+
+	public static < P extends PointMatch > boolean filterRansac(
+			final Model< ? > model,
+			final List< P > candidates,
+			final Collection< P > inliers,
+			final int iterations,
+			final double epsilon,
+			final double minInlierRatio,
+			final int minNumInliers,
+			final double maxTrust,
+			final int numThreads ) throws NotEnoughDataPointsException
+	{
+		final ArrayList< P > temp = new ArrayList<>();
+
+		if ( ransac( model, candidates, temp, iterations, epsilon, minInlierRatio, minNumInliers, numThreads ) )
+		{
+			if ( model.filter( temp, inliers, maxTrust, minNumInliers ) )
+				return true;
+
+			inliers.clear();
+		}
+
+		return false;
+	}
+
+	public static < P extends PointMatch > boolean ransac(
+			final Model< ? > model,
+			final List< P > candidates,
+			final Collection< P > inliers,
+			final int iterations,
+			final double epsilon,
+			final double minInlierRatio,
+			final int minNumInliers,
+			final int numThreads ) throws NotEnoughDataPointsException
+	{
+		return ransac( model, candidates, inliers, iterations, epsilon, minInlierRatio, minNumInliers, numThreads, numThreads > 1 ? sharedService() : null );
+	}
+
+	/**
+	 * @param numThreads - number of batches evaluated in parallel per round
+	 * @param service - the executor to run the batches on, if null they run in the calling thread
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static < P extends PointMatch > boolean ransac(
+			final Model< ? > model,
+			final List< P > candidates,
+			final Collection< P > inliers,
+			final int iterations,
+			final double epsilon,
+			final double minInlierRatio,
+			final int minNumInliers,
+			final int numThreads,
+			final ExecutorService service ) throws NotEnoughDataPointsException
+	{
+		final int minNumMatches = model.getMinNumMatches();
+		final int n = candidates.size();
+
+		if ( n < minNumMatches )
+			throw new NotEnoughDataPointsException( n + " data points are not enough to solve the Model, at least " + minNumMatches + " data points required." );
+
+		inliers.clear();
+
+		final int numDimensions = candidates.get( 0 ).getP1().getL().length;
+		final double[] local = new double[ n * numDimensions ];
+		final double[] target = new double[ n * numDimensions ];
+
+		for ( int i = 0; i < n; ++i )
+		{
+			final double[] l = candidates.get( i ).getP1().getL();
+			final double[] w = candidates.get( i ).getP2().getW();
+
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				local[ i * numDimensions + d ] = l[ d ];
+				target[ i * numDimensions + d ] = w[ d ];
+			}
+		}
+
+		Hypothesis best = null;
+		long done = 0;
+		long required = iterations;
+		int round = 0;
+
+		try
+		{
+			while ( done < required )
+			{
+				final int hypothesesPerTask = (int)Math.max( 1, Math.min( batchSize, ( required - done + numThreads - 1 ) / numThreads ) );
+				final ArrayList< Callable< Hypothesis > > tasks = new ArrayList<>();
+
+				for ( int t = 0; t < numThreads; ++t )
+				{
+					final long taskSeed = seed + (long)round * numThreads + t;
+
+					tasks.add( new Callable< Hypothesis >()
+					{
+						@Override
+						public Hypothesis call() throws Exception
+						{
+							return evaluate(
+									model, candidates, local, target, numDimensions, hypothesesPerTask,
+									epsilon, minInlierRatio, minNumInliers, new Random( taskSeed ) );
+						}
+					});
+				}
+
+				final ArrayList< Hypothesis > results = new ArrayList<>();
+
+				if ( service == null )
+				{
+					for ( final Callable< Hypothesis > task : tasks )
+						results.add( task.call() );
+				}
+				else
+				{
+					for ( final Future< Hypothesis > future : service.invokeAll( tasks ) )
+						results.add( future.get() );
+				}
+
+				for ( final Hypothesis h : results )
+					if ( h != null && ( best == null || h.inliers.length > best.inliers.length ) )
+						best = h;
+
+				done += (long)hypothesesPerTask * numThreads;
+				++round;
+
+				if ( best != null )
+					required = Math.min( iterations, requiredIterations( (double)best.inliers.length / (double)n, minNumMatches ) );
+			}
+		}
+		catch ( Exception e )
+		{
+			throw new RuntimeException( "Failed to run multi-threaded RANSAC: " + e, e );
+		}
+
+		if ( best == null )
+			return false;
+
+		( (Model)model ).set( best.model );
+		model.setCost( best.cost );
+
+		for ( final int i : best.inliers )
+			inliers.add( candidates.get( i ) );
+
+		return true;
+	}
+
+	/*
+	 * evaluates a batch of hypotheses, returns the one with most inliers (or null)
+	 */
+	protected static < P extends PointMatch > Hypothesis evaluate(
+			final Model< ? > model,
+			final List< P > candidates,
+			final double[] local,
+			final double[] target,
+			final int numDimensions,
+			final int numHypotheses,
+			final double epsilon,
+			final double minInlierRatio,
+			final int minNumInliers,
+			final Random rnd )
+	{
+		final int n = candidates.size();
+		final int minNumMatches = model.getMinNumMatches();
+
+		final Model< ? > m = model.copy();
+		final int[] sample = new int[ minNumMatches ];
+		final int[] tmpInliers = new int[ n ];
+		final double[] tmp = new double[ numDimensions ];
+		final ArrayList< P > matches = new ArrayList<>();
+
+		Hypothesis best = null;
+
+A:		for ( int h = 0; h < numHypotheses; ++h )
+		{
+			// choose minNumMatches disjunctive matches randomly
+			matches.clear();
+
+			for ( int j = 0; j < minNumMatches; ++j )
+			{
+				int index;
+
+				do
+				{
+					index = rnd.nextInt( n );
+				}
+				while ( contains( sample, j, index ) );
+
+				sample[ j ] = index;
+				matches.add( candidates.get( index ) );
+			}
+
+			try
+			{
+				m.fit( matches );
+			}
+			catch ( NotEnoughDataPointsException | IllDefinedDataPointsException e )
+			{
+				continue;
+			}
+
+			int numInliers = 0;
+			int count = test( m, local, target, numDimensions, epsilon, tmpInliers, tmp );
+			boolean isGood = count >= minNumMatches && (double)count / (double)n > minInlierRatio;
+
+			// refit to the inliers as long as their number grows
+			while ( isGood && numInliers < count )
+			{
+				numInliers = count;
+
+				matches.clear();
+				for ( int i = 0; i < count; ++i )
+					matches.add( candidates.get( tmpInliers[ i ] ) );
+
+				try
+				{
+					m.fit( matches );
+				}
+				catch ( NotEnoughDataPointsException | IllDefinedDataPointsException e )
+				{
+					continue A;
+				}
+
+				count = test( m, local, target, numDimensions, epsilon, tmpInliers, tmp );
+				isGood = count >= minNumInliers && (double)count / (double)n > minInlierRatio;
+			}
+
+			if ( isGood && count >= minNumInliers && ( best == null || count > best.inliers.length ) )
+				best = new Hypothesis( m.copy(), Arrays.copyOf( tmpInliers, count ), Math.max( 0.0, Math.min( 1.0, 1.0 - (double)count / (double)n ) ) );
+		}
+
+		return best;
+	}
+
+	/*
+	 * stores the indices of all candidates with a residual below epsilon in inliers, returns their number
+	 */
+	protected static int test(
+			final Model< ? > m,
+			final double[] local,
+			final double[] target,
+			final int numDimensions,
+			final double epsilon,
+			final int[] inliers,
+			final double[] tmp )
+	{
+		final double epsilonSq = epsilon * epsilon;
+		final int n = local.length / numDimensions;
+
+		int count = 0;
+
+		for ( int i = 0; i < n; ++i )
+		{
+			final int offset = i * numDimensions;
+
+			for ( int d = 0; d < numDimensions; ++d )
+				tmp[ d ] = local[ offset + d ];
+
+			m.applyInPlace( tmp );
+
+			double distSq = 0;
+
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				final double diff = tmp[ d ] - target[ offset + d ];
+				distSq += diff * diff;
+			}
+
+			if ( distSq < epsilonSq )
+				inliers[ count++ ] = i;
+		}
+
+		return count;
+	}
+
+	/**
+	 * @param inlierRatio - the inlier ratio of the best hypothesis so far
+	 * @param minNumMatches - size of the minimal set
+	 * @return the number of iterations required to draw an outlier-free minimal set with the given confidence
+	 */
+	public static long requiredIterations( final double inlierRatio, final int minNumMatches )
+	{
+		final double p = Math.pow( inlierRatio, minNumMatches );
+
+		if ( p >= 1.0 )
+			return 1;
+
+		if ( p <= 0.0 )
+			return Long.MAX_VALUE;
+
+		return (long)Math.ceil( Math.log( 1.0 - confidence ) / Math.log1p( -p ) );
+	}
+
+	private static boolean contains( final int[] sample, final int length, final int index )
+	{
+		for ( int i = 0; i < length; ++i )
+			if ( sample[ i ] == index )
+				return true;
+
+		return false;
+	}
+
+	protected static class Hypothesis
+	{
+		final Model< ? > model;
+		final int[] inliers;
+		final double cost;
+
+		public Hypothesis( final Model< ? > model, final int[] inliers, final double cost )
+		{
+			this.model = model;
+			this.inliers = inliers;
+			this.cost = cost;
+		}
+	}
+}
@@ -26,6 +26,7 @@ import java.text.NumberFormat;
 import java.util.ArrayList;
 
 import net.preibisch.legacy.mpicbg.PointMatchGeneric;
+import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.ImgLib2Temp.Pair;
 import net.preibisch.mvrecon.fiji.ImgLib2Temp.ValuePair;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
@@ -49,6 +50,19 @@ public class RANSAC
 			final double minInlierRatio, 
 			final double minNumberInlierFactor, 
 			final int numIterations )
+	{
+		return computeRANSAC( correspondenceCandidates, inlierList, model, maxEpsilon, minInlierRatio, minNumberInlierFactor, numIterations, false );
+	}
+
+	public static < I extends InterestPoint > Pair< String, Double > computeRANSAC( 
+			final ArrayList< PointMatchGeneric < I > > correspondenceCandidates, 
+			final ArrayList< PointMatchGeneric < I > > inlierList, 
+			final Model<?> model, 
+			final double maxEpsilon, 
+			final double minInlierRatio, 
+			final double minNumberInlierFactor, 
+			final int numIterations,
+			final boolean multiThreaded )
 	{
 		final int numCorrespondences = correspondenceCandidates.size();
 		final int minNumCorrespondences = Math.max( model.getMinNumMatches(), (int)Math.round( model.getMinNumMatches() * minNumberInlierFactor ) );
@@ -95,11 +109,20 @@ public class RANSAC
 					numIterations,
 					maxEpsilon, minInlierRatio );*/
 		
-			modelFound = model.filterRansac(
-					candidates,
-					inliers,
-					numIterations,
-					maxEpsilon, minInlierRatio ); 
+			if ( multiThreaded )
+				modelFound = MultiThreadedRANSAC.filterRansac(
+						model,
+						candidates,
+						inliers,
+						numIterations,
+						maxEpsilon, minInlierRatio,
+						Threads.numThreads() );
+			else
+				modelFound = model.filterRansac(
+						candidates,
+						inliers,
+						numIterations,
+						maxEpsilon, minInlierRatio ); 
 		}
 		catch ( NotEnoughDataPointsException e )
 		{
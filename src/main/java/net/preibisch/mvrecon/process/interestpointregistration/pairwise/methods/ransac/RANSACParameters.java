@@ -36,10 +36,14 @@ public class RANSACParameters
 	public static float min_inlier_ratio = 0.1f;
 	public static int num_iterations = 10000;
 	public static float min_inlier_factor = 3f;
+	public static boolean multi_threaded = false;
 	
 	protected float maxEpsilon, minInlierRatio, minInlierFactor;
 	protected int numIterations;
 
+	// evaluate the RANSAC hypotheses multi-threaded (see MultiThreadedRANSAC), useful if there are few pairs with many candidates
+	protected boolean multiThreaded = false;
+
 	public RANSACParameters( final float maxEpsilon, final float minInlierRatio, final float minInlierFactor, final int numIterations )
 	{
 		this.maxEpsilon = maxEpsilon;
@@ -60,9 +64,11 @@ public class RANSACParameters
 	public float getMinInlierRatio() { return minInlierRatio; }
 	public float getMinInlierFactor() { return minInlierFactor; }
 	public int getNumIterations() { return numIterations; }
+	public boolean isMultiThreaded() { return multiThreaded; }
 
 	public RANSACParameters setMaxEpsilon( final float maxEpsilon ) { this.maxEpsilon = maxEpsilon; return this; }
 	public RANSACParameters setMinInlierRatio( final float minInlierRatio ) { this.minInlierRatio = minInlierRatio; return this;  }
 	public RANSACParameters setMinInlierFactor( final float minInlierFactor ) { this.minInlierFactor = minInlierFactor; return this;  }
 	public RANSACParameters setNumIterations( final int numIterations ) { this.numIterations = numIterations; return this;  }
+	public RANSACParameters setMultiThreaded( final boolean multiThreaded ) { this.multiThreaded = multiThreaded; return this;  }
 }
@@ -25,9 +25,12 @@ package net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods
 import java.util.ArrayList;
 
 import net.imglib2.KDTree;
+import net.imglib2.RealPoint;
 import net.imglib2.neighborsearch.KNearestNeighborSearchOnKDTree;
 import net.preibisch.legacy.mpicbg.PointMatchGeneric;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.DescriptorCache;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.DescriptorCache.Descriptors;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.AbstractPointDescriptor;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.SimplePointDescriptor;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.exception.NoSuitablePointsException;
@@ -46,20 +49,157 @@ public class RGLDMMatcher< I extends InterestPoint >
 			final double ratioOfDistance,
 			final double differenceThreshold ) 
 	{
-		/* create KDTrees */	
-		final KDTree< I > treeA = new KDTree< I >( nodeListA, nodeListA );
-		final KDTree< I > treeB = new KDTree< I >( nodeListB, nodeListB );
-		
 		/* extract point descriptors */
-		final Matcher matcher = new SubsetMatcher( numNeighbors, numNeighbors + redundancy );
+		final SubsetMatcher matcher = new SubsetMatcher( numNeighbors, numNeighbors + redundancy );
 		final int numRequiredNeighbors = matcher.getRequiredNumNeighbors();
 		
 		final SimilarityMeasure similarityMeasure = new SquareDistance();
-		
-		final ArrayList< SimplePointDescriptor< I > > descriptorsA = createSimplePointDescriptors( treeA, nodeListA, numRequiredNeighbors, matcher, similarityMeasure );
-		final ArrayList< SimplePointDescriptor< I > > descriptorsB = createSimplePointDescriptors( treeB, nodeListB, numRequiredNeighbors, matcher, similarityMeasure );
 
-		return findCorrespondingDescriptors( descriptorsA, descriptorsB, ratioOfDistance, differenceThreshold );
+		// the descriptors of a view are only computed once for all pairs (see DescriptorCache)
+		final String type = "RGLDM numNeighbors=" + numNeighbors + " redundancy=" + redundancy;
+
+		final Descriptors< I, SimplePointDescriptor< I > > descriptorsA = DescriptorCache.get( type, nodeListA, numRequiredNeighbors,
+				( list, nn ) -> createSimplePointDescriptors( list, nn, numRequiredNeighbors, matcher, similarityMeasure ) );
+
+		final Descriptors< I, SimplePointDescriptor< I > > descriptorsB = DescriptorCache.get( type, nodeListB, numRequiredNeighbors,
+				( list, nn ) -> createSimplePointDescriptors( list, nn, numRequiredNeighbors, matcher, similarityMeasure ) );
+
+		final KDTree< SimplePointDescriptor< I > > treeB = descriptorsB.getLookUp(
+				() -> createSubsetTree( descriptorsB.getDescriptors(), matcher.getNeighbors() ) );
+
+		final ArrayList< PointMatchGeneric< I > > candidates =
+				findCorrespondingDescriptorsKDTree( descriptorsA.getDescriptors(), treeB, matcher, ratioOfDistance, differenceThreshold );
+
+		return DescriptorCache.remap( candidates, descriptorsA, nodeListA, descriptorsB, nodeListB );
+	}
+
+	/**
+	 * Same result as findCorrespondingDescriptors() for SimplePointDescriptors using a SubsetMatcher and SquareDistance,
+	 * but using a KDTree instead of comparing all pairs of descriptors.
+	 *
+	 * The distance of two descriptors is the minimal (normalized) square distance over all combinations of neighbor subsets,
+	 * so every descriptor of B is represented by one vector per subset (the concatenated relative coordinates of the subset)
+	 * and every subset of each descriptor of A is looked up. The (numSubsets+1) nearest vectors always contain the two
+	 * nearest distinct descriptors of B for this subset of A, which is sufficient to find the best and second best descriptor.
+	 */
+	protected static final < I extends InterestPoint > ArrayList< PointMatchGeneric< I > > findCorrespondingDescriptorsKDTree(
+			final ArrayList< SimplePointDescriptor< I > > descriptorsA,
+			final ArrayList< SimplePointDescriptor< I > > descriptorsB,
+			final SubsetMatcher matcher,
+			final double nTimesBetter,
+			final double differenceThreshold )
+	{
+		return findCorrespondingDescriptorsKDTree( descriptorsA, createSubsetTree( descriptorsB, matcher.getNeighbors() ), matcher, nTimesBetter, differenceThreshold );
+	}
+
+	/**
+	 * @param descriptorsB - the descriptors
+	 * @param subsets - the subsets of neighbors (see SubsetMatcher)
+	 * @return a KDTree containing one vector per descriptor and subset, null if there are no descriptors
+	 */
+	public static < I extends InterestPoint > KDTree< SimplePointDescriptor< I > > createSubsetTree(
+			final ArrayList< SimplePointDescriptor< I > > descriptorsB,
+			final int[][] subsets )
+	{
+		if ( descriptorsB.size() == 0 )
+			return null;
+
+		final int numDimensions = descriptorsB.get( 0 ).getBasisPoint().getL().length;
+
+		final ArrayList< SimplePointDescriptor< I > > values = new ArrayList<>( descriptorsB.size() * subsets.length );
+		final ArrayList< RealPoint > positions = new ArrayList<>( descriptorsB.size() * subsets.length );
+
+		for ( final SimplePointDescriptor< I > descriptorB : descriptorsB )
+			for ( final int[] subset : subsets )
+			{
+				values.add( descriptorB );
+				positions.add( descriptorVector( descriptorB, subset, numDimensions ) );
+			}
+
+		return new KDTree<>( values, positions );
+	}
+
+	protected static final < I extends InterestPoint > ArrayList< PointMatchGeneric< I > > findCorrespondingDescriptorsKDTree(
+			final ArrayList< SimplePointDescriptor< I > > descriptorsA,
+			final KDTree< SimplePointDescriptor< I > > tree,
+			final SubsetMatcher matcher,
+			final double nTimesBetter,
+			final double differenceThreshold )
+	{
+		final ArrayList< PointMatchGeneric< I > > correspondenceCandidates = new ArrayList<>();
+
+		if ( descriptorsA.size() == 0 || tree == null )
+			return correspondenceCandidates;
+
+		final int[][] subsets = matcher.getNeighbors();
+		final int numDimensions = descriptorsA.get( 0 ).getBasisPoint().getL().length;
+
+		final int k = (int)Math.min( subsets.length + 1, tree.size() );
+		final KNearestNeighborSearchOnKDTree< SimplePointDescriptor< I > > nnsearch = new KNearestNeighborSearchOnKDTree<>( tree, k );
+
+		for ( final SimplePointDescriptor< I > descriptorA : descriptorsA )
+		{
+			double bestDifference = Double.MAX_VALUE;
+			double secondBestDifference = Double.MAX_VALUE;
+
+			SimplePointDescriptor< I > bestMatch = null;
+
+			for ( final int[] subset : subsets )
+			{
+				nnsearch.search( descriptorVector( descriptorA, subset, numDimensions ) );
+
+				for ( int i = 0; i < k; ++i )
+				{
+					final SimplePointDescriptor< I > descriptorB = nnsearch.getSampler( i ).get();
+					final double difference = nnsearch.getSquareDistance( i ) / (double)numDimensions;
+
+					if ( descriptorB == bestMatch )
+					{
+						bestDifference = Math.min( bestDifference, difference );
+					}
+					else if ( difference < bestDifference )
+					{
+						secondBestDifference = bestDifference;
+						bestDifference = difference;
+						bestMatch = descriptorB;
+					}
+					else if ( difference < secondBestDifference )
+					{
+						secondBestDifference = difference;
+					}
+				}
+			}
+
+			if ( bestDifference < differenceThreshold && bestDifference * nTimesBetter < secondBestDifference )
+			{
+				// add correspondence for the two basis points of the descriptor
+				I detectionA = descriptorA.getBasisPoint();
+				I detectionB = bestMatch.getBasisPoint();
+
+				// for RANSAC
+				correspondenceCandidates.add( new PointMatchGeneric< I >( detectionA, detectionB ) );
+			}
+		}
+
+		return correspondenceCandidates;
+	}
+
+	/*
+	 * the relative coordinates of a subset of the neighbors of a descriptor as one vector
+	 */
+	protected static RealPoint descriptorVector( final AbstractPointDescriptor< ?, ? > descriptor, final int[] subset, final int numDimensions )
+	{
+		final double[] vector = new double[ subset.length * numDimensions ];
+
+		for ( int i = 0; i < subset.length; ++i )
+		{
+			final double[] w = descriptor.getDescriptorPoint( subset[ i ] ).getW();
+
+			for ( int d = 0; d < numDimensions; ++d )
+				vector[ i * numDimensions + d ] = w[ d ];
+		}
+
+		return new RealPoint( vector );
 	}
 	
 	protected static final < I extends InterestPoint, D extends AbstractPointDescriptor< I , D > > ArrayList< PointMatchGeneric< I > > findCorrespondingDescriptors(
@@ -147,4 +287,42 @@ public class RGLDMMatcher< I extends InterestPoint >
 		return descriptors;
 	}
 
+	/**
+	 * @param basisPoints - the points
+	 * @param nearestNeighbors - for each point the indices of itself and its (at least) numNeighbors nearest neighbors (see DescriptorStore)
+	 * @param numNeighbors - number of neighbors per descriptor
+	 * @param matcher - the matcher
+	 * @param similarityMeasure - the similarity measure
+	 * @param <I> - interest point type
+	 * @return the descriptors
+	 */
+	protected static < I extends InterestPoint > ArrayList< SimplePointDescriptor< I > > createSimplePointDescriptors(
+			final ArrayList< I > basisPoints,
+			final int[][] nearestNeighbors,
+			final int numNeighbors,
+			final Matcher matcher,
+			final SimilarityMeasure similarityMeasure )
+	{
+		final ArrayList< SimplePointDescriptor< I > > descriptors = new ArrayList<> ( );
+
+		for ( int i = 0; i < basisPoints.size(); ++i )
+		{
+			final ArrayList< I > neighbors = new ArrayList<>();
+
+			// the first entry is always the point itself
+			for ( int n = 1; n < numNeighbors + 1; ++n )
+				neighbors.add( basisPoints.get( nearestNeighbors[ i ][ n ] ) );
+
+			try
+			{
+				descriptors.add( new SimplePointDescriptor< I >( basisPoints.get( i ), neighbors, similarityMeasure, matcher ) );
+			}
+			catch ( NoSuitablePointsException e )
+			{
+				e.printStackTrace();
+			}
+		}
+
+		return descriptors;
+	}
 }
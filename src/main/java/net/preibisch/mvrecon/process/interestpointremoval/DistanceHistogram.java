@@ -26,18 +26,14 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Random;
 
 import mpicbg.spim.data.sequence.ViewDescription;
 import mpicbg.spim.data.sequence.ViewId;
 import mpicbg.spim.data.sequence.VoxelDimensions;
-import net.imglib2.KDTree;
-import net.imglib2.RealPoint;
-import net.imglib2.neighborsearch.KNearestNeighborSearchOnKDTree;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
-import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointIndex;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPointLists;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPoints;
@@ -90,35 +86,28 @@ public class DistanceHistogram
 			if ( unit == null )
 				unit = vd.getViewSetup().getVoxelSize().unit();
 
-			// assemble the list of points
-			final List< RealPoint > list = new ArrayList< RealPoint >();
+			// the cached spatial index of the points, distances are calibrated with the voxel size
+			final InterestPointIndex points = ipl.getSpatialIndex();
+			final double[] scale = new double[] { voxelSize.dimension( 0 ), voxelSize.dimension( 1 ), voxelSize.dimension( 2 ) };
 
-			for ( final InterestPoint ip : ipl.getInterestPointsCopy() )
-			{
-				list.add ( new RealPoint(
-						ip.getL()[ 0 ] * voxelSize.dimension( 0 ),
-						ip.getL()[ 1 ] * voxelSize.dimension( 1 ),
-						ip.getL()[ 2 ] * voxelSize.dimension( 2 ) ) );
-			}
-
-			if ( list.size() < 2 )
+			if ( points.size() < 2 )
 				continue;
 
-			// make the KDTree
-			final KDTree< RealPoint > tree = new KDTree< RealPoint >( list, list );
-
 			// Nearest neighbor for each point
-			final KNearestNeighborSearchOnKDTree< RealPoint > nn = new KNearestNeighborSearchOnKDTree< RealPoint >( tree, 2 );
+			final double[] l = new double[ points.numDimensions() ];
+			final int[] nnIndices = new int[ 2 ];
+			final double[] nnDistances = new double[ 2 ];
 
-			for ( final RealPoint p : list )
+			for ( int i = 0; i < points.size(); ++i )
 			{
 				// every n'th point only
 				if ( subsampling == 1 || rnd.nextDouble() < 1.0 / subsampling )
 				{
-					nn.search( p );
-					
+					points.localize( i, l );
+					points.kNearestNeighbors( l, 2, scale, nnIndices, nnDistances );
+
 					// first nearest neighbor is the point itself, we need the second nearest
-					distances.add( nn.getDistance( 1 ) );
+					distances.add( nnDistances[ 1 ] );
 				}
 			}
 		}
@@ -26,19 +26,16 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Random;
 
 import mpicbg.spim.data.sequence.ViewDescription;
 import mpicbg.spim.data.sequence.ViewId;
 import mpicbg.spim.data.sequence.VoxelDimensions;
-import net.imglib2.KDTree;
-import net.imglib2.RealPoint;
-import net.imglib2.neighborsearch.NearestNeighborSearchOnKDTree;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
-import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointIndex;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointsView;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPointLists;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPoints;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
@@ -110,29 +107,14 @@ public class RelativeDistanceHistogram
 			if ( unit == null )
 				unit = vd.getViewSetup().getVoxelSize().unit();
 
-			// assemble the list of points
-			final List< RealPoint > list = new ArrayList< RealPoint >();
+			// the points (local coordinates), distances are calibrated with the voxel size
+			final InterestPointsView points = ipl.getInterestPointsView();
+			final double[] scale = new double[] { voxelSize.dimension( 0 ), voxelSize.dimension( 1 ), voxelSize.dimension( 2 ) };
 
-			for ( final InterestPoint ip : ipl.getInterestPointsCopy() )
-			{
-				list.add ( new RealPoint(
-						ip.getL()[ 0 ] * voxelSize.dimension( 0 ),
-						ip.getL()[ 1 ] * voxelSize.dimension( 1 ),
-						ip.getL()[ 2 ] * voxelSize.dimension( 2 ) ) );
-			}
-
-			// assemble the list of relative
-			final List< RealPoint > listRelative = new ArrayList< RealPoint >();
-
-			for ( final InterestPoint ip : iplRelative.getInterestPointsCopy() )
-			{
-				listRelative.add ( new RealPoint(
-						ip.getL()[ 0 ] * voxelSize.dimension( 0 ),
-						ip.getL()[ 1 ] * voxelSize.dimension( 1 ),
-						ip.getL()[ 2 ] * voxelSize.dimension( 2 ) ) );
-			}
+			// the cached spatial index of the relative interest point list, we need to iterate over all other points
+			final InterestPointIndex pointsRelative = iplRelative.getSpatialIndex();
 
-			if ( list.size() < 1 || listRelative.size() < 1 )
+			if ( points.size() < 1 || pointsRelative.size() < 1 )
 			{
 				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): "
 						+ "Not enough interestpoints for " + Group.pvid( viewId ) );
@@ -140,20 +122,16 @@ public class RelativeDistanceHistogram
 				continue;
 			}
 
-			// make the KDTree of the relative interest point list, we need to iterate over all other points
-			final KDTree< RealPoint > tree = new KDTree< RealPoint >( listRelative, listRelative );
-
 			// Nearest neighbor for each point
-			final NearestNeighborSearchOnKDTree< RealPoint > nn = new NearestNeighborSearchOnKDTree< RealPoint >( tree );
+			final double[] l = new double[ points.numDimensions() ];
 
-			for ( final RealPoint p : list )
+			for ( int i = 0; i < points.size(); ++i )
 			{
 				// every n'th point only
 				if ( subsampling == 1 || rnd.nextDouble() < 1.0 / subsampling )
 				{
-					nn.search( p );
-
-					distances.add( nn.getDistance() );
+					points.localize( i, l );
+					distances.add( pointsRelative.nearestNeighborDistance( l, scale ) );
 				}
 			}
 		}
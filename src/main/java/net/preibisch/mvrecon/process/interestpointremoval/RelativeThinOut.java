@@ -26,18 +26,16 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
-import java.util.List;
 
 import mpicbg.spim.data.sequence.ViewDescription;
 import mpicbg.spim.data.sequence.ViewId;
 import mpicbg.spim.data.sequence.VoxelDimensions;
-import net.imglib2.KDTree;
-import net.imglib2.RealPoint;
-import net.imglib2.neighborsearch.NearestNeighborSearchOnKDTree;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointIndex;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointsView;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPointLists;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPoints;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
@@ -77,31 +75,14 @@ public class RelativeThinOut
 
 			final VoxelDimensions voxelSize = vd.getViewSetup().getVoxelSize();
 
-			final List< RealPoint > list = new ArrayList< RealPoint >();
-			final List< double[] > points = new ArrayList< double[] >();
+			// the points (local coordinates), distances are calibrated with the voxel size
+			final InterestPointsView points = oldIpl.getInterestPointsView();
+			final double[] scale = new double[] { voxelSize.dimension( 0 ), voxelSize.dimension( 1 ), voxelSize.dimension( 2 ) };
 
-			for ( final InterestPoint ip : oldIpl.getInterestPointsCopy() )
-			{
-				list.add ( new RealPoint(
-						ip.getL()[ 0 ] * voxelSize.dimension( 0 ),
-						ip.getL()[ 1 ] * voxelSize.dimension( 1 ),
-						ip.getL()[ 2 ] * voxelSize.dimension( 2 ) ) );
-
-				points.add( ip.getL() );
-			}
-
-			// assemble the list of relative
-			final List< RealPoint > listRelative = new ArrayList< RealPoint >();
-
-			for ( final InterestPoint ip : iplRelative.getInterestPointsCopy() )
-			{
-				listRelative.add ( new RealPoint(
-						ip.getL()[ 0 ] * voxelSize.dimension( 0 ),
-						ip.getL()[ 1 ] * voxelSize.dimension( 1 ),
-						ip.getL()[ 2 ] * voxelSize.dimension( 2 ) ) );
-			}
+			// the cached spatial index of the relative interest point list
+			final InterestPointIndex pointsRelative = iplRelative.getSpatialIndex();
 
-			if ( list.size() < 1 || listRelative.size() < 1 )
+			if ( points.size() < 1 || pointsRelative.size() < 1 )
 			{
 				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): "
 						+ "Not enough interestpoints for " + Group.pvid( viewId ) );
@@ -109,11 +90,7 @@ public class RelativeThinOut
 				continue;
 			}
 
-			// make the KDTree
-			final KDTree< RealPoint > tree = new KDTree< RealPoint >( listRelative, listRelative );
-
 			// Nearest neighbor for each point, populate the new list
-			final NearestNeighborSearchOnKDTree< RealPoint > nn = new NearestNeighborSearchOnKDTree< RealPoint >( tree );
 			final InterestPointList newIpl = new InterestPointList(
 					oldIpl.getBaseDir(),
 					new File(
@@ -123,16 +100,15 @@ public class RelativeThinOut
 			final ArrayList< InterestPoint > newIPs = new ArrayList<>();
 
 			int id = 0;
-			for ( int j = 0; j < list.size(); ++j )
+			for ( int j = 0; j < points.size(); ++j )
 			{
-				final RealPoint p = list.get( j );
-				nn.search( p );
-				
-				// first nearest neighbor is the point itself, we need the second nearest
-				final double d = nn.getDistance();
-				
+				final double[] l = new double[ points.numDimensions() ];
+				points.localize( j, l );
+
+				final double d = pointsRelative.nearestNeighborDistance( l, scale );
+
 				if ( ( keepRange && d >= minDistance && d <= maxDistance ) || ( !keepRange && ( d < minDistance || d > maxDistance ) ) )
-					newIPs.add( new InterestPoint( id++, points.get( j ).clone() ) );
+					newIPs.add( new InterestPoint( id++, l ) );
 			}
 
 			newIpl.setInterestPoints( newIPs );
@@ -146,7 +122,7 @@ public class RelativeThinOut
 			vipl.addInterestPointList( rtop.getNewLabel(), newIpl );
 
 			IOFunctions.println( new Date( System.currentTimeMillis() ) + ": TP=" + vd.getTimePointId() + " ViewSetup=" + vd.getViewSetupId() + 
-					", Detections: " + oldIpl.getInterestPointsCopy().size() + " >>> " + newIpl.getInterestPointsCopy().size() );
+					", Detections: " + points.size() + " >>> " + newIPs.size() );
 		}
 
 			return true;
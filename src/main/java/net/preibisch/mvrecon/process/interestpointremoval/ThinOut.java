@@ -30,12 +30,10 @@ import java.util.List;
 import mpicbg.spim.data.sequence.ViewDescription;
 import mpicbg.spim.data.sequence.ViewId;
 import mpicbg.spim.data.sequence.VoxelDimensions;
-import net.imglib2.KDTree;
-import net.imglib2.RealPoint;
-import net.imglib2.neighborsearch.KNearestNeighborSearchOnKDTree;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointIndex;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPointLists;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPoints;
@@ -62,32 +60,13 @@ public class ThinOut
 
 			final VoxelDimensions voxelSize = vd.getViewSetup().getVoxelSize();
 
-			// assemble the list of points (we need two lists as the KDTree sorts the list)
-			// we assume that the order of list2 and points is preserved!
-			final List< RealPoint > list1 = new ArrayList< RealPoint >();
-			final List< RealPoint > list2 = new ArrayList< RealPoint >();
-			final List< double[] > points = new ArrayList< double[] >();
-
-			for ( final InterestPoint ip : oldIpl.getInterestPointsCopy() )
-			{
-				list1.add ( new RealPoint(
-						ip.getL()[ 0 ] * voxelSize.dimension( 0 ),
-						ip.getL()[ 1 ] * voxelSize.dimension( 1 ),
-						ip.getL()[ 2 ] * voxelSize.dimension( 2 ) ) );
-
-				list2.add ( new RealPoint(
-						ip.getL()[ 0 ] * voxelSize.dimension( 0 ),
-						ip.getL()[ 1 ] * voxelSize.dimension( 1 ),
-						ip.getL()[ 2 ] * voxelSize.dimension( 2 ) ) );
-
-				points.add( ip.getL() );
-			}
-
-			// make the KDTree
-			final KDTree< RealPoint > tree = new KDTree< RealPoint >( list1, list1 );
+			// the cached spatial index of the points, distances are calibrated with the voxel size
+			final InterestPointIndex points = oldIpl.getSpatialIndex();
+			final double[] scale = new double[] { voxelSize.dimension( 0 ), voxelSize.dimension( 1 ), voxelSize.dimension( 2 ) };
 
 			// Nearest neighbor for each point, populate the new list
-			final KNearestNeighborSearchOnKDTree< RealPoint > nn = new KNearestNeighborSearchOnKDTree< RealPoint >( tree, 2 );
+			final int[] nnIndices = new int[ 2 ];
+			final double[] nnDistances = new double[ 2 ];
 			final InterestPointList newIpl = new InterestPointList(
 					oldIpl.getBaseDir(),
 					new File(
@@ -97,16 +76,16 @@ public class ThinOut
 			final ArrayList< InterestPoint > newIPs = new ArrayList<>();
 
 			int id = 0;
-			for ( int j = 0; j < list2.size(); ++j )
+			for ( int j = 0; j < points.size(); ++j )
 			{
-				final RealPoint p = list2.get( j );
-				nn.search( p );
-				
-				// first nearest neighbor is the point itself, we need the second nearest
-				final double d = nn.getDistance( 1 );
-				
+				final double[] l = new double[ points.numDimensions() ];
+				points.localize( j, l );
+
+				// first nearest neighbor is the point itself, we need the second nearest (a single point has none, it is infinitely far away)
+				final double d = points.kNearestNeighbors( l, 2, scale, nnIndices, nnDistances ) < 2 ? Double.POSITIVE_INFINITY : nnDistances[ 1 ];
+
 				if ( ( keepRange && d >= minDistance && d <= maxDistance ) || ( !keepRange && ( d < minDistance || d > maxDistance ) ) )
-					newIPs.add( new InterestPoint( id++, points.get( j ).clone() ) );
+					newIPs.add( new InterestPoint( id++, l ) );
 			}
 
 			newIpl.setInterestPoints( newIPs );
@@ -120,7 +99,7 @@ public class ThinOut
 			vipl.addInterestPointList( top.getNewLabel(), newIpl );
 
 			IOFunctions.println( new Date( System.currentTimeMillis() ) + ": TP=" + vd.getTimePointId() + " ViewSetup=" + vd.getViewSetupId() + 
-					", Detections: " + oldIpl.getInterestPointsCopy().size() + " >>> " + newIpl.getInterestPointsCopy().size() );
+					", Detections: " + points.size() + " >>> " + newIPs.size() );
 		}
 
 			return true;
@@ -24,11 +24,9 @@ package net.preibisch.mvrecon.process.pointcloud.icp;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 
-import fiji.util.KDTree;
-import fiji.util.node.Leaf;
 import mpicbg.models.IllDefinedDataPointsException;
 import mpicbg.models.Model;
 import mpicbg.models.NotEnoughDataPointsException;
@@ -55,12 +53,15 @@ public class ICP < P extends RealLocalizable >
 	PointMatchIdentification< P > pointMatchIdentifier;
 	
 	double avgError, maxError;
-	int numMatches;
+	int numMatches, numChangedMatches;
+
+	// target >> reference of the last iteration
+	IdentityHashMap< LinkedInterestPoint< P >, LinkedInterestPoint< P > > lastCorrespondences;
 	
 	/**
 	 * Instantiates a new {@link ICP} object with the {@link List} of target and reference points as well as the {@link PointMatchIdentification} interface that defines
 	 * how corresponding points are identified. <br>
-	 * Note that the elements of the {@link List}s have to implement {@link Point}(for compatibility with {@link Model}) and {@link Leaf}(for compatibility with {@link KDTree}). 
+	 * Note that the elements of the {@link List}s have to implement {@link RealLocalizable} (for compatibility with imglib2's KDTree). 
 	 * 
 	 * @param target - the {@link List} of target points
 	 * @param reference - the {@link List} of reference points
@@ -95,6 +96,8 @@ public class ICP < P extends RealLocalizable >
 		this.avgError = -1;
 		this.maxError = -1;
 		this.numMatches = -1;
+		this.numChangedMatches = -1;
+		this.lastCorrespondences = null;
 	}
 
 	/**
@@ -155,6 +158,35 @@ public class ICP < P extends RealLocalizable >
 		maxError = maxDistance( matches );
 		numMatches = matches.size();
 		pointMatches = matches;
+
+		/* how many correspondences changed, if none changed the next iteration would fit the same model */
+		updateChangedMatches( matches );
+	}
+
+	protected void updateChangedMatches( final List< PointMatchGeneric< LinkedInterestPoint< P > > > matches )
+	{
+		final IdentityHashMap< LinkedInterestPoint< P >, LinkedInterestPoint< P > > correspondences = new IdentityHashMap<>( matches.size() );
+
+		for ( final PointMatchGeneric< LinkedInterestPoint< P > > pm : matches )
+			correspondences.put( pm.getPoint1(), pm.getPoint2() );
+
+		if ( lastCorrespondences == null )
+		{
+			numChangedMatches = matches.size();
+		}
+		else
+		{
+			int changed = 0;
+
+			for ( final PointMatchGeneric< LinkedInterestPoint< P > > pm : matches )
+				if ( lastCorrespondences.get( pm.getPoint1() ) != pm.getPoint2() )
+					++changed;
+
+			// correspondences that disappeared
+			numChangedMatches = changed + Math.max( 0, lastCorrespondences.size() - ( matches.size() - changed ) );
+		}
+
+		lastCorrespondences = correspondences;
 	}
 		
 	/**
@@ -242,6 +274,13 @@ public class ICP < P extends RealLocalizable >
 	 * @return int - number of {@link PointMatch}es
 	 */
 	public int getNumPointMatches() { return numMatches; }
+
+	/**
+	 * Returns the number of {@link PointMatch}es of the last ICP iteration that were not present in the iteration before (or disappeared),
+	 * 0 means the correspondences are stable and the ICP converged, -1 if no iteration has been computed yet.
+	 * @return int - number of changed {@link PointMatch}es
+	 */
+	public int getNumChangedPointMatches() { return numChangedMatches; }
 	
 	/**
 	 * Returns the number of ambigous {@link PointMatch}es indentified in the last ICP iteration, or -1 if no iteration has been computed yet.
@@ -272,35 +311,70 @@ public class ICP < P extends RealLocalizable >
 	 */
 	public static < P extends Point & RealLocalizable > ArrayList<PointMatch> removeAmbigousMatches( final List<PointMatchGeneric< P > > matches )
 	{
-		final ArrayList<Integer> inconsistentCorrespondences = new ArrayList<Integer>();
 		final ArrayList<PointMatch> ambigousMatches = new ArrayList<PointMatch>();
-		
+
+		// indices of the matches per target and per reference point (same result as getOccurences() for all matches, but linear time)
+		final IdentityHashMap< Point, ArrayList< Integer > > byTarget = new IdentityHashMap<>();
+		final IdentityHashMap< Point, ArrayList< Integer > > byReference = new IdentityHashMap<>();
+
+		for ( int i = 0; i < matches.size(); i++ )
+		{
+			byTarget.computeIfAbsent( matches.get( i ).getP1(), k -> new ArrayList<>( 1 ) ).add( i );
+			byReference.computeIfAbsent( matches.get( i ).getP2(), k -> new ArrayList<>( 1 ) ).add( i );
+		}
+
+		final boolean[] inconsistent = new boolean[ matches.size() ];
+		boolean any = false;
+
 		for ( int i = 0; i < matches.size(); i++ )
 		{
 			final Point pointTarget = matches.get( i ).getP1();
 			final Point pointReference = matches.get( i ).getP2();
 
-			final ArrayList<Integer> inconsistent = getOccurences( pointTarget, pointReference, matches );
-			
-			if ( inconsistent.size() > 0 )
-				for ( int index : inconsistent )
-					if ( !inconsistentCorrespondences.contains( index ) )
-						inconsistentCorrespondences.add( index );
-		}
-	
-		if ( inconsistentCorrespondences.size() > 0 )
-		{
-			Collections.sort( inconsistentCorrespondences );
+			final ArrayList< Integer > sameReference = byReference.get( pointReference );
+			final ArrayList< Integer > sameTarget = byTarget.get( pointTarget );
+
+			boolean differentOccurence = false;
 
-			for ( int i = inconsistentCorrespondences.size() - 1; i >= 0; i-- )
+			for ( final int j : sameReference )
+				if ( matches.get( j ).getP1() != pointTarget )
+					differentOccurence = true;
+
+			for ( final int j : sameTarget )
+				if ( matches.get( j ).getP2() != pointReference )
+					differentOccurence = true;
+
+			if ( differentOccurence )
 			{
-				// save the ambigous match
-				final PointMatch pm = matches.get( (int)inconsistentCorrespondences.get(i) );
-				ambigousMatches.add( pm );
+				/* remove all occurences/matches with pointReference or pointTarget as it is ambigous */
+				for ( final int j : sameReference )
+					inconsistent[ j ] = any = true;
 
-				// the cast to (int) is essential as otherwise he is looking to remove the Integer object that does not exist in the list 
-				matches.remove( (int)inconsistentCorrespondences.get(i) );
+				for ( final int j : sameTarget )
+					inconsistent[ j ] = any = true;
 			}
+			else
+			{
+				/* remove all but the first occurence/match */
+				for ( int k = 1; k < sameReference.size(); ++k )
+					inconsistent[ sameReference.get( k ) ] = any = true;
+			}
+		}
+
+		if ( any )
+		{
+			final ArrayList< PointMatchGeneric< P > > consistent = new ArrayList<>( matches.size() );
+
+			for ( int i = matches.size() - 1; i >= 0; i-- )
+				if ( inconsistent[ i ] )
+					ambigousMatches.add( matches.get( i ) );
+
+			for ( int i = 0; i < matches.size(); i++ )
+				if ( !inconsistent[ i ] )
+					consistent.add( matches.get( i ) );
+
+			matches.clear();
+			matches.addAll( consistent );
 		}
 
 		return ambigousMatches;
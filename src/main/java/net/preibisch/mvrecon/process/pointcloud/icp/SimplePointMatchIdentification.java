@@ -24,17 +24,39 @@ package net.preibisch.mvrecon.process.pointcloud.icp;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import mpicbg.models.Point;
 import net.imglib2.KDTree;
 import net.imglib2.RealLocalizable;
 import net.imglib2.neighborsearch.NearestNeighborSearchOnKDTree;
 import net.preibisch.legacy.mpicbg.PointMatchGeneric;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.fusion.ImagePortion;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.LinkedInterestPoint;
 
+/**
+ * Assigns to every target point the nearest reference point (if it is closer than the distance threshold).
+ *
+ * The reference points do not move during the ICP, so the KDTree on them is built only once and reused in
+ * all iterations (as long as the same reference list is passed), the queries for the target points are
+ * multi-threaded for large point clouds.
+ */
 public class SimplePointMatchIdentification < P extends RealLocalizable > implements PointMatchIdentification< P >
 {
+	// below that number of target points the queries are done single-threaded
+	public static int minPointsMultiThreaded = 10000;
+
 	double distanceThresold;
+	int numThreads = Threads.numThreads();
+
+	// the KDTree on the reference points, built on first use
+	List< LinkedInterestPoint< P > > treeReference = null;
+	KDTree< LinkedInterestPoint< P > > kdTreeReference = null;
 
 	public SimplePointMatchIdentification( final double distanceThreshold )
 	{
@@ -48,23 +70,73 @@ public class SimplePointMatchIdentification < P extends RealLocalizable > implem
 
 	public void setDistanceThreshold( final double distanceThreshold ) { this.distanceThresold = distanceThreshold; }
 	public double getDistanceThreshold() { return this.distanceThresold; }
+	public void setNumThreads( final int numThreads ) { this.numThreads = numThreads; }
+	public int getNumThreads() { return numThreads; }
 
 	@Override
 	public ArrayList< PointMatchGeneric< LinkedInterestPoint< P > > > assignPointMatches( final List< LinkedInterestPoint< P > > target, final List< LinkedInterestPoint< P > > reference )
 	{
+		final KDTree< LinkedInterestPoint< P > > kdTree = getReferenceTree( reference );
+
+		if ( numThreads <= 1 || target.size() < minPointsMultiThreaded )
+			return assignPointMatches( target, 0, target.size(), kdTree );
+
+		final ExecutorService service = Threads.createFixedExecutorService( numThreads );
+		final ArrayList< Callable< ArrayList< PointMatchGeneric< LinkedInterestPoint< P > > > > > tasks = new ArrayList<>();
+
+		for ( final ImagePortion portion : FusionTools.divideIntoPortions( target.size() ) )
+			tasks.add( () -> assignPointMatches( target, (int)portion.getStartPosition(), (int)( portion.getStartPosition() + portion.getLoopSize() ), kdTree ) );
+
 		final ArrayList< PointMatchGeneric< LinkedInterestPoint< P > > > pointMatches = new ArrayList<>();
 
-		final KDTree< LinkedInterestPoint< P > > kdTreeTarget = new KDTree<>( target, target );
-		final NearestNeighborSearchOnKDTree< LinkedInterestPoint< P > > nnSearchTarget = new NearestNeighborSearchOnKDTree<>( kdTreeTarget );
+		try
+		{
+			// keep the order of the target points
+			for ( final Future< ArrayList< PointMatchGeneric< LinkedInterestPoint< P > > > > future : service.invokeAll( tasks ) )
+				pointMatches.addAll( future.get() );
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			throw new RuntimeException( "Failed to assign ICP point matches: " + e, e );
+		}
+		finally
+		{
+			service.shutdown();
+		}
+
+		return pointMatches;
+	}
 
-		for ( final LinkedInterestPoint< P > point : reference )
+	protected synchronized KDTree< LinkedInterestPoint< P > > getReferenceTree( final List< LinkedInterestPoint< P > > reference )
+	{
+		if ( kdTreeReference == null || treeReference != reference )
 		{
-			nnSearchTarget.search( point );
-			final LinkedInterestPoint< P > correspondingPoint = nnSearchTarget.getSampler().get();
+			kdTreeReference = new KDTree<>( reference, reference );
+			treeReference = reference;
+		}
+
+		return kdTreeReference;
+	}
+
+	protected ArrayList< PointMatchGeneric< LinkedInterestPoint< P > > > assignPointMatches(
+			final List< LinkedInterestPoint< P > > target,
+			final int from,
+			final int to,
+			final KDTree< LinkedInterestPoint< P > > kdTreeReference )
+	{
+		final ArrayList< PointMatchGeneric< LinkedInterestPoint< P > > > pointMatches = new ArrayList<>();
+		final NearestNeighborSearchOnKDTree< LinkedInterestPoint< P > > nnSearchReference = new NearestNeighborSearchOnKDTree<>( kdTreeReference );
+
+		for ( int i = from; i < to; ++i )
+		{
+			final LinkedInterestPoint< P > point = target.get( i );
+
+			nnSearchReference.search( point );
+			final LinkedInterestPoint< P > correspondingPoint = nnSearchReference.getSampler().get();
 
 			// world coordinates of point
-			if ( Point.distance( correspondingPoint, point ) <= distanceThresold )
-				pointMatches.add( new PointMatchGeneric< LinkedInterestPoint< P > >( correspondingPoint, point ) );
+			if ( Point.distance( point, correspondingPoint ) <= distanceThresold )
+				pointMatches.add( new PointMatchGeneric< LinkedInterestPoint< P > >( point, correspondingPoint ) );
 		}
 
 		return pointMatches;
@@ -0,0 +1,301 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import mpicbg.spim.data.SpimDataException;
+import mpicbg.spim.data.registration.ViewRegistration;
+import mpicbg.spim.data.registration.ViewRegistrations;
+import mpicbg.spim.data.registration.ViewTransform;
+import mpicbg.spim.data.registration.ViewTransformAffine;
+import mpicbg.spim.data.registration.XmlIoViewRegistrations;
+import mpicbg.spim.data.sequence.Angle;
+import mpicbg.spim.data.sequence.Channel;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import mpicbg.spim.data.sequence.Illumination;
+import mpicbg.spim.data.sequence.SequenceDescription;
+import mpicbg.spim.data.sequence.Tile;
+import mpicbg.spim.data.sequence.TimePoint;
+import mpicbg.spim.data.sequence.TimePoints;
+import mpicbg.spim.data.sequence.ViewDescription;
+import mpicbg.spim.data.sequence.ViewId;
+import mpicbg.spim.data.sequence.ViewSetup;
+import net.imglib2.FinalDimensions;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.preibisch.mvrecon.fiji.spimdata.boundingbox.BoundingBox;
+import net.preibisch.mvrecon.fiji.spimdata.boundingbox.BoundingBoxes;
+import net.preibisch.mvrecon.fiji.spimdata.intensityadjust.IntensityAdjustments;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPointLists;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPoints;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.XmlIoViewInterestPoints;
+import net.preibisch.mvrecon.fiji.spimdata.pointspreadfunctions.PointSpreadFunctions;
+import net.preibisch.mvrecon.fiji.spimdata.stitchingresults.StitchingResults;
+
+public class StreamingXmlIoSpimData2Test
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testSameAsJDOM() throws SpimDataException
+	{
+		final File xml = new File( folder.getRoot(), "dataset.xml" );
+		final SpimData2 spimData = createSpimData( folder.getRoot(), 3, 4 );
+
+		new XmlIoSpimData2( "" ).save( spimData, xml.getAbsolutePath() );
+
+		final SpimData2 jdom = new XmlIoSpimData2( "" ).load( xml.getAbsolutePath() );
+		final SpimData2 streaming = new StreamingXmlIoSpimData2().load( xml.getAbsolutePath() );
+
+		assertSpimDataEqual( jdom, streaming );
+		assertRegistrationsEqual( spimData.getViewRegistrations(), streaming.getViewRegistrations(), 1e-10 );
+	}
+
+	@Test
+	public void testSameAsJDOMPartitioned() throws SpimDataException
+	{
+		final File xml = new File( folder.getRoot(), "dataset.xml" );
+		final SpimData2 spimData = createSpimData( folder.getRoot(), 3, 2 );
+
+		final XmlIoSpimData2 io = new XmlIoSpimData2( "" );
+		io.setPartitionedRegistrations( true );
+		io.save( spimData, xml.getAbsolutePath() );
+
+		final SpimData2 jdom = new XmlIoSpimData2( "" ).load( xml.getAbsolutePath() );
+		final SpimData2 streaming = new StreamingXmlIoSpimData2().load( xml.getAbsolutePath() );
+
+		assertSpimDataEqual( jdom, streaming );
+		assertRegistrationsEqual( spimData.getViewRegistrations(), streaming.getViewRegistrations(), 1e-10 );
+	}
+
+	@Test
+	public void testDelegatedViewTransform() throws SpimDataException
+	{
+		final AffineTransform3D t = new AffineTransform3D();
+		t.set( 1, 0.1, 0, 5, 0, 2, 0, -3, 0, 0, 3.5, 7 );
+
+		// the element spim_data writes for this transformation, parsed by spim_data
+		final ViewRegistration vr = new ViewRegistration( 0, 0, new ArrayList< ViewTransform >( Collections.singletonList( new ViewTransformAffine( "calibration", t ) ) ) );
+		final Element transform = new XmlIoViewRegistrations().toXml( new ViewRegistrations( Collections.singletonList( vr ) ) )
+				.getChild( "ViewRegistration" ).getChild( "ViewTransform" ).clone();
+
+		final ViewTransform parsed = StreamingXmlIoSpimData2.readViewTransform( transform );
+
+		assertEquals( "calibration", parsed.getName() );
+		assertArrayEquals( t.getRowPackedCopy(), parsed.asAffine3D().getRowPackedCopy(), 1e-10 );
+	}
+
+	@Test
+	public void testMissingViewRegistrations() throws Exception
+	{
+		final File xml = new File( folder.getRoot(), "dataset.xml" );
+
+		new XmlIoSpimData2( "" ).save( createSpimData( folder.getRoot(), 1, 2 ), xml.getAbsolutePath() );
+
+		// remove the registrations from the XML
+		final Document doc = new SAXBuilder().build( xml );
+		doc.getRootElement().removeChild( "ViewRegistrations" );
+
+		try ( final OutputStream out = new FileOutputStream( xml ) )
+		{
+			new XMLOutputter( Format.getPrettyFormat() ).output( doc, out );
+		}
+
+		try
+		{
+			new XmlIoSpimData2( "" ).load( xml.getAbsolutePath() );
+			fail( "JDOM reader accepted an XML without ViewRegistrations" );
+		}
+		catch ( final SpimDataException e ) {}
+
+		try
+		{
+			new StreamingXmlIoSpimData2().load( xml.getAbsolutePath() );
+			fail( "Streaming reader accepted an XML without ViewRegistrations" );
+		}
+		catch ( final SpimDataException e ) {}
+	}
+
+	/**
+	 * @param basePath - the base path of the dataset
+	 * @param numTimepoints - number of timepoints
+	 * @param numSetups - number of view setups (angles)
+	 * @return a dataset without image loader, with two transformations per view, one interest point list per view and a bounding box
+	 */
+	public static SpimData2 createSpimData( final File basePath, final int numTimepoints, final int numSetups )
+	{
+		final ArrayList< TimePoint > timepoints = new ArrayList<>();
+
+		for ( int t = 0; t < numTimepoints; ++t )
+			timepoints.add( new TimePoint( t ) );
+
+		final ArrayList< ViewSetup > setups = new ArrayList<>();
+
+		for ( int s = 0; s < numSetups; ++s )
+			setups.add( new ViewSetup( s, "setup " + s, new FinalDimensions( 512, 256, 100 ), new FinalVoxelDimensions( "um", 0.5, 0.5, 2.0 ),
+					new Tile( 0 ), new Channel( 0 ), new Angle( s, Integer.toString( s * 45 ) ), new Illumination( 0 ) ) );
+
+		final SequenceDescription seq = new SequenceDescription( new TimePoints( timepoints ), setups, null, null );
+		final ArrayList< ViewRegistration > registrations = new ArrayList<>();
+
+		for ( final ViewDescription vd : seq.getViewDescriptions().values() )
+		{
+			final ViewRegistration vr = new ViewRegistration( vd.getTimePointId(), vd.getViewSetupId() );
+
+			final AffineTransform3D calibration = new AffineTransform3D();
+			calibration.set( 1.0, 0, 0, 0, 0, 1.0, 0, 0, 0, 0, 4.0, 0 );
+			vr.preconcatenateTransform( new ViewTransformAffine( "calibration", calibration ) );
+
+			final AffineTransform3D translation = new AffineTransform3D();
+			translation.set( 1.0, 0, 0, vd.getViewSetupId() * 100.1 / 3.0, 0, 1.0, 0, -vd.getTimePointId() / 7.0, 0, 0, 1.0, 1e-7 );
+			vr.preconcatenateTransform( new ViewTransformAffine( "Translation to Regular Grid", translation ) );
+
+			registrations.add( vr );
+		}
+
+		final ViewInterestPoints viewInterestPoints = new ViewInterestPoints();
+		viewInterestPoints.createViewInterestPoints( seq.getViewDescriptions() );
+
+		for ( final ViewId viewId : seq.getViewDescriptions().keySet() )
+			XmlIoViewInterestPoints.addInterestPointList(
+					viewInterestPoints, basePath, viewId.getTimePointId(), viewId.getViewSetupId(), "beads", "DOG (Spark) s=1.8 t=0.008",
+					( viewId.getViewSetupId() % 2 == 0 ) ? "binary" : null,
+					"interestpoints/tpId_" + viewId.getTimePointId() + "_viewSetupId_" + viewId.getViewSetupId() + ".beads" );
+
+		final BoundingBoxes boundingBoxes = new BoundingBoxes();
+		boundingBoxes.addBoundingBox( new BoundingBox( "My Bounding Box", new int[] { -10, 0, 5 }, new int[] { 500, 260, 95 } ) );
+
+		return new SpimData2( basePath, seq, new ViewRegistrations( registrations ), viewInterestPoints, boundingBoxes,
+				new PointSpreadFunctions(), new StitchingResults(), new IntensityAdjustments() );
+	}
+
+	public static void assertSpimDataEqual( final SpimData2 expected, final SpimData2 actual )
+	{
+		assertEquals( normalize( expected.getBasePath() ), normalize( actual.getBasePath() ) );
+
+		final SequenceDescription seqE = expected.getSequenceDescription();
+		final SequenceDescription seqA = actual.getSequenceDescription();
+
+		assertEquals( seqE.getTimePoints().getTimePoints().keySet(), seqA.getTimePoints().getTimePoints().keySet() );
+		assertEquals( seqE.getViewSetups().keySet(), seqA.getViewSetups().keySet() );
+
+		for ( final int id : seqE.getViewSetups().keySet() )
+		{
+			final ViewSetup e = seqE.getViewSetups().get( id );
+			final ViewSetup a = seqA.getViewSetups().get( id );
+
+			assertEquals( e.getName(), a.getName() );
+			assertEquals( e.getAngle().getId(), a.getAngle().getId() );
+			assertEquals( e.getAngle().getName(), a.getAngle().getName() );
+			assertArrayEquals( e.getSize().dimensionsAsLongArray(), a.getSize().dimensionsAsLongArray() );
+			assertEquals( e.getVoxelSize().unit(), a.getVoxelSize().unit() );
+		}
+
+		assertRegistrationsEqual( expected.getViewRegistrations(), actual.getViewRegistrations(), 0.0 );
+
+		final Map< ViewId, ViewInterestPointLists > ipE = expected.getViewInterestPoints().getViewInterestPoints();
+		final Map< ViewId, ViewInterestPointLists > ipA = actual.getViewInterestPoints().getViewInterestPoints();
+
+		assertEquals( ipE.keySet(), ipA.keySet() );
+
+		for ( final ViewId viewId : ipE.keySet() )
+		{
+			assertEquals( ipE.get( viewId ).getHashMap().keySet(), ipA.get( viewId ).getHashMap().keySet() );
+
+			for ( final String label : ipE.get( viewId ).getHashMap().keySet() )
+			{
+				final InterestPointList e = ipE.get( viewId ).getInterestPointList( label );
+				final InterestPointList a = ipA.get( viewId ).getInterestPointList( label );
+
+				assertEquals( normalize( e.getBaseDir() ), normalize( a.getBaseDir() ) );
+				assertEquals( e.getFile(), a.getFile() );
+				assertEquals( e.getParameters(), a.getParameters() );
+				assertEquals( e.getStorageFormat(), a.getStorageFormat() );
+			}
+		}
+
+		final List< BoundingBox > bbE = expected.getBoundingBoxes().getBoundingBoxes();
+		final List< BoundingBox > bbA = actual.getBoundingBoxes().getBoundingBoxes();
+
+		assertEquals( bbE.size(), bbA.size() );
+
+		for ( int i = 0; i < bbE.size(); ++i )
+		{
+			assertEquals( bbE.get( i ).getTitle(), bbA.get( i ).getTitle() );
+			assertArrayEquals( bbE.get( i ).getMin(), bbA.get( i ).getMin() );
+			assertArrayEquals( bbE.get( i ).getMax(), bbA.get( i ).getMax() );
+		}
+	}
+
+	protected static Path normalize( final File file )
+	{
+		return file.getAbsoluteFile().toPath().normalize();
+	}
+
+	public static void assertRegistrationsEqual( final ViewRegistrations expected, final ViewRegistrations actual, final double delta )
+	{
+		final Map< ViewId, ViewRegistration > e = expected.getViewRegistrations();
+		final Map< ViewId, ViewRegistration > a = actual.getViewRegistrations();
+
+		assertEquals( e.keySet(), a.keySet() );
+
+		final ArrayList< ViewId > viewIds = new ArrayList<>( e.keySet() );
+		Collections.sort( viewIds );
+
+		for ( final ViewId viewId : viewIds )
+		{
+			final List< ViewTransform > tE = e.get( viewId ).getTransformList();
+			final List< ViewTransform > tA = a.get( viewId ).getTransformList();
+
+			assertEquals( tE.size(), tA.size() );
+
+			for ( int i = 0; i < tE.size(); ++i )
+			{
+				assertEquals( tE.get( i ).getName(), tA.get( i ).getName() );
+				assertArrayEquals( tE.get( i ).asAffine3D().getRowPackedCopy(), tA.get( i ).asAffine3D().getRowPackedCopy(), delta );
+			}
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata;
+
+import static net.preibisch.mvrecon.fiji.spimdata.StreamingXmlIoSpimData2Test.assertRegistrationsEqual;
+import static net.preibisch.mvrecon.fiji.spimdata.StreamingXmlIoSpimData2Test.createSpimData;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.jdom2.Document;
+import org.jdom2.input.SAXBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import mpicbg.spim.data.registration.ViewRegistration;
+import mpicbg.spim.data.registration.ViewRegistrations;
+import mpicbg.spim.data.registration.ViewTransformAffine;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.realtransform.AffineTransform3D;
+
+public class XmlIoPartitionedViewRegistrationsTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRoundTrip() throws Exception
+	{
+		final File xml = new File( folder.getRoot(), "dataset.xml" );
+		final SpimData2 spimData = createSpimData( folder.getRoot(), 3, 2 );
+
+		final XmlIoSpimData2 io = new XmlIoSpimData2( "" );
+		io.setPartitionedRegistrations( true );
+		io.save( spimData, xml.getAbsolutePath() );
+
+		// one side file per timepoint, only references in the XML
+		assertEquals( 3, sideFiles( "tp_" ).size() );
+
+		final Document doc = new SAXBuilder().build( xml );
+		assertEquals( 3, doc.getRootElement().getChild( "ViewRegistrations" ).getChildren( XmlIoPartitionedViewRegistrations.VIEWREGISTRATIONSFILE_TAG ).size() );
+		assertEquals( 0, doc.getRootElement().getChild( "ViewRegistrations" ).getChildren( "ViewRegistration" ).size() );
+
+		final SpimData2 loaded = new XmlIoSpimData2( "" ).load( xml.getAbsolutePath() );
+		assertRegistrationsEqual( spimData.getViewRegistrations(), loaded.getViewRegistrations(), 1e-10 );
+
+		// datasets with side files are saved partitioned again
+		new XmlIoSpimData2( "" ).save( loaded, xml.getAbsolutePath() );
+		assertEquals( 3, sideFiles( "tp_" ).size() );
+		assertRegistrationsEqual( spimData.getViewRegistrations(), new XmlIoSpimData2( "" ).load( xml.getAbsolutePath() ).getViewRegistrations(), 1e-10 );
+	}
+
+	@Test
+	public void testBackupsKeepTheirRegistrations() throws Exception
+	{
+		final int numBackups = XmlIoSpimData2.numBackups;
+
+		try
+		{
+			XmlIoSpimData2.numBackups = 1;
+
+			final File xml = new File( folder.getRoot(), "dataset.xml" );
+			final SpimData2 spimData = createSpimData( folder.getRoot(), 2, 2 );
+			final XmlIoSpimData2 io = new XmlIoSpimData2( "" );
+			io.setPartitionedRegistrations( true );
+
+			io.save( spimData, xml.getAbsolutePath() );
+
+			final List< String > tp0 = sideFiles( "tp_0_" );
+			final List< String > version1 = sideFiles( "tp_1_" );
+			final ViewRegistrations registrations1 = copy( spimData.getViewRegistrations() );
+
+			assertEquals( 1, tp0.size() );
+			assertEquals( 1, version1.size() );
+
+			// only timepoint 1 changes
+			register( spimData, new ViewId( 1, 0 ), 5.0 );
+			io.save( spimData, xml.getAbsolutePath() );
+
+			assertEquals( tp0, sideFiles( "tp_0_" ) );
+			assertEquals( 2, sideFiles( "tp_1_" ).size() );
+			assertTrue( sideFiles( "tp_1_" ).containsAll( version1 ) );
+
+			// the backup still references the registrations it was saved with
+			assertRegistrationsEqual( registrations1, new XmlIoSpimData2( "" ).load( xml.getAbsolutePath() + "~1" ).getViewRegistrations(), 1e-10 );
+			assertRegistrationsEqual( spimData.getViewRegistrations(), new XmlIoSpimData2( "" ).load( xml.getAbsolutePath() ).getViewRegistrations(), 1e-10 );
+
+			// the first version is not referenced by the XML or its backup anymore and is deleted
+			register( spimData, new ViewId( 1, 1 ), -3.0 );
+			io.save( spimData, xml.getAbsolutePath() );
+
+			assertEquals( tp0, sideFiles( "tp_0_" ) );
+			assertEquals( 2, sideFiles( "tp_1_" ).size() );
+			assertFalse( sideFiles( "tp_1_" ).containsAll( version1 ) );
+			assertRegistrationsEqual( spimData.getViewRegistrations(), new XmlIoSpimData2( "" ).load( xml.getAbsolutePath() ).getViewRegistrations(), 1e-10 );
+		}
+		finally
+		{
+			XmlIoSpimData2.numBackups = numBackups;
+		}
+	}
+
+	@Test
+	public void testFingerprintCollisionIsNotReused() throws Exception
+	{
+		final File xml = new File( folder.getRoot(), "dataset.xml" );
+		final SpimData2 spimData = createSpimData( folder.getRoot(), 2, 2 );
+		final XmlIoSpimData2 io = new XmlIoSpimData2( "" );
+		io.setPartitionedRegistrations( true );
+
+		io.save( spimData, xml.getAbsolutePath() );
+
+		final File version1 = new File( new File( folder.getRoot(), "dataset.registrations" ), sideFiles( "tp_1_" ).get( 0 ) );
+
+		register( spimData, new ViewId( 1, 0 ), 5.0 );
+
+		// a file with the fingerprint of the new registrations, but other content
+		final HashMap< ViewId, ViewRegistration > tp1 = new HashMap<>();
+
+		for ( final ViewRegistration vr : spimData.getViewRegistrations().getViewRegistrations().values() )
+			if ( vr.getTimePointId() == 1 )
+				tp1.put( vr, vr );
+
+		final String name = String.format( "tp_1_%016x", XmlIoPartitionedViewRegistrations.fingerprint( tp1 ) );
+		Files.copy( version1.toPath(), new File( version1.getParentFile(), name + ".xml" ).toPath() );
+
+		io.save( spimData, xml.getAbsolutePath() );
+
+		assertTrue( sideFiles( "tp_1_" ).contains( name + "_1.xml" ) );
+		assertRegistrationsEqual( spimData.getViewRegistrations(), new XmlIoSpimData2( "" ).load( xml.getAbsolutePath() ).getViewRegistrations(), 1e-10 );
+	}
+
+	protected List< String > sideFiles( final String prefix )
+	{
+		final File dir = new File( folder.getRoot(), "dataset.registrations" );
+		final String[] files = dir.list( ( d, name ) -> name.startsWith( prefix ) && name.endsWith( ".xml" ) );
+
+		if ( files == null )
+			return new ArrayList<>();
+
+		Arrays.sort( files );
+
+		return Arrays.asList( files );
+	}
+
+	protected static void register( final SpimData2 spimData, final ViewId viewId, final double shift )
+	{
+		final AffineTransform3D t = new AffineTransform3D();
+		t.set( shift, 0, 3 );
+
+		spimData.getViewRegistrations().getViewRegistration( viewId ).preconcatenateTransform( new ViewTransformAffine( "registration", t ) );
+	}
+
+	protected static ViewRegistrations copy( final ViewRegistrations registrations )
+	{
+		final ArrayList< ViewRegistration > list = new ArrayList<>();
+
+		for ( final ViewRegistration vr : registrations.getViewRegistrations().values() )
+			list.add( new ViewRegistration( vr.getTimePointId(), vr.getViewSetupId(), new ArrayList<>( vr.getTransformList() ) ) );
+
+		return new ViewRegistrations( list );
+	}
+}
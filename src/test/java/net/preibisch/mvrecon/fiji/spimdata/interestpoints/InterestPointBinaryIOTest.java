@@ -0,0 +1,213 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata.interestpoints;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import mpicbg.spim.data.sequence.ViewId;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList.StorageFormat;
+
+public class InterestPointBinaryIOTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testInterestPointsRoundTrip() throws IOException
+	{
+		final List< InterestPoint > points = randomPoints( 1000, 3, 1 );
+		final File file = new File( folder.getRoot(), "points.ip.bin" );
+
+		InterestPointBinaryIO.saveInterestPoints( file, points );
+
+		assertPointsEqual( points, InterestPointBinaryIO.loadInterestPoints( file ) );
+	}
+
+	@Test
+	public void testEmptyListsRoundTrip() throws IOException
+	{
+		final File points = new File( folder.getRoot(), "empty.ip.bin" );
+		final File corr = new File( folder.getRoot(), "empty.corr.bin" );
+
+		InterestPointBinaryIO.saveInterestPoints( points, new ArrayList<>() );
+		InterestPointBinaryIO.saveCorrespondences( corr, new ArrayList<>() );
+
+		assertEquals( 0, InterestPointBinaryIO.loadInterestPoints( points ).size() );
+		assertEquals( 0, InterestPointBinaryIO.loadCorrespondences( corr ).size() );
+	}
+
+	@Test
+	public void testCorrespondencesRoundTrip() throws IOException
+	{
+		final List< CorrespondingInterestPoints > corr = randomCorrespondences( 1000, 2 );
+		final File file = new File( folder.getRoot(), "points.corr.bin" );
+
+		InterestPointBinaryIO.saveCorrespondences( file, corr );
+
+		assertCorrespondencesEqual( corr, InterestPointBinaryIO.loadCorrespondences( file ) );
+	}
+
+	@Test
+	public void testMappedViewSurvivesRewrite() throws IOException
+	{
+		final List< InterestPoint > points = randomPoints( 500, 3, 3 );
+		final List< InterestPoint > newPoints = randomPoints( 100, 3, 4 );
+		final File file = new File( folder.getRoot(), "points.ip.bin" );
+
+		InterestPointBinaryIO.saveInterestPoints( file, points );
+
+		final InterestPointsView view = InterestPointsView.map( file );
+
+		InterestPointBinaryIO.saveInterestPoints( file, newPoints );
+
+		// the mapped view still sees the previous version
+		assertEquals( points.size(), view.size() );
+
+		for ( int i = 0; i < points.size(); ++i )
+		{
+			assertEquals( points.get( i ).getId(), view.getId( i ) );
+
+			for ( int d = 0; d < 3; ++d )
+				assertEquals( points.get( i ).getL()[ d ], view.getDoublePosition( i, d ), 0.0 );
+		}
+
+		assertPointsEqual( newPoints, InterestPointBinaryIO.loadInterestPoints( file ) );
+
+		// no temporary files are left behind
+		assertArrayEquals( new String[] { "points.ip.bin" }, folder.getRoot().list() );
+	}
+
+	@Test
+	public void testDefaultPermissions() throws IOException
+	{
+		final File file = new File( folder.getRoot(), "points.ip.bin" );
+		final File reference = folder.newFile( "reference" );
+
+		Assume.assumeTrue( Files.getFileStore( reference.toPath() ).supportsFileAttributeView( PosixFileAttributeView.class ) );
+
+		InterestPointBinaryIO.saveInterestPoints( file, randomPoints( 10, 3, 5 ) );
+
+		// same permissions as any other new file, not the owner-only ones of a temp file
+		assertEquals( Files.getPosixFilePermissions( reference.toPath() ), Files.getPosixFilePermissions( file.toPath() ) );
+	}
+
+	@Test
+	public void testInterestPointListBinaryFormat()
+	{
+		final File baseDir = folder.getRoot();
+		final File file = new File( "interestpoints", "tpId_0_viewSetupId_0.beads" );
+		final List< InterestPoint > points = randomPoints( 200, 3, 5 );
+		final List< CorrespondingInterestPoints > corr = randomCorrespondences( 300, 6 );
+
+		final InterestPointList list = new InterestPointList( baseDir, file );
+		list.setStorageFormat( StorageFormat.BINARY );
+		list.setInterestPoints( points );
+		list.setCorrespondingInterestPoints( corr );
+
+		assertEquals( true, list.saveInterestPoints( false ) );
+		assertEquals( true, list.saveCorrespondingInterestPoints( false ) );
+		assertEquals( true, new File( baseDir, file + ".ip.bin" ).exists() );
+		assertEquals( true, new File( baseDir, file + ".corr.bin" ).exists() );
+
+		final InterestPointList loaded = new InterestPointList( baseDir, file );
+		loaded.setStorageFormat( StorageFormat.BINARY );
+
+		assertPointsEqual( points, loaded.getInterestPointsCopy() );
+		assertCorrespondencesEqual( corr, loaded.getCorrespondingInterestPointsCopy() );
+	}
+
+	protected static List< InterestPoint > randomPoints( final int n, final int numDimensions, final long seed )
+	{
+		final Random rnd = new Random( seed );
+		final ArrayList< InterestPoint > points = new ArrayList<>();
+
+		for ( int i = 0; i < n; ++i )
+		{
+			final double[] l = new double[ numDimensions ];
+
+			for ( int d = 0; d < numDimensions; ++d )
+				l[ d ] = rnd.nextDouble() * 1000 - 500;
+
+			points.add( new InterestPoint( i * 3 + 1, l ) );
+		}
+
+		return points;
+	}
+
+	protected static List< CorrespondingInterestPoints > randomCorrespondences( final int n, final long seed )
+	{
+		final Random rnd = new Random( seed );
+		final String[] labels = new String[] { "beads", "nuclei", "beads (µm)" };
+		final ArrayList< CorrespondingInterestPoints > corr = new ArrayList<>();
+
+		for ( int i = 0; i < n; ++i )
+			corr.add( new CorrespondingInterestPoints(
+					rnd.nextInt( 10000 ),
+					new ViewId( rnd.nextInt( 3 ), rnd.nextInt( 5 ) ),
+					labels[ rnd.nextInt( labels.length ) ],
+					rnd.nextInt( 10000 ) ) );
+
+		return corr;
+	}
+
+	protected static void assertPointsEqual( final List< InterestPoint > expected, final List< InterestPoint > actual )
+	{
+		assertEquals( expected.size(), actual.size() );
+
+		for ( int i = 0; i < expected.size(); ++i )
+		{
+			assertEquals( expected.get( i ).getId(), actual.get( i ).getId() );
+			assertArrayEquals( expected.get( i ).getL(), actual.get( i ).getL(), 0.0 );
+		}
+	}
+
+	protected static void assertCorrespondencesEqual( final List< CorrespondingInterestPoints > expected, final List< CorrespondingInterestPoints > actual )
+	{
+		assertEquals( expected.size(), actual.size() );
+
+		for ( int i = 0; i < expected.size(); ++i )
+		{
+			final CorrespondingInterestPoints e = expected.get( i );
+			final CorrespondingInterestPoints a = actual.get( i );
+
+			assertEquals( e.getDetectionId(), a.getDetectionId() );
+			assertEquals( e.getCorrespondingViewId(), a.getCorrespondingViewId() );
+			assertEquals( e.getCorrespodingLabel(), a.getCorrespodingLabel() );
+			assertEquals( e.getCorrespondingDetectionId(), a.getCorrespondingDetectionId() );
+		}
+	}
+}
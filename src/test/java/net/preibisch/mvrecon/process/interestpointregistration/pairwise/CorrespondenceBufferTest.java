@@ -0,0 +1,132 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.pairwise;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+import mpicbg.spim.data.sequence.ViewId;
+import net.preibisch.legacy.mpicbg.PointMatchGeneric;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.CorrespondingInterestPoints;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
+
+public class CorrespondenceBufferTest
+{
+	final ViewId viewA = new ViewId( 0, 0 );
+	final ViewId viewB = new ViewId( 0, 1 );
+
+	@Test
+	public void testFlushRemovesDuplicatesInBothDirections()
+	{
+		final CorrespondenceBuffer< ViewId > buffer = new CorrespondenceBuffer<>();
+		final List< PointMatchGeneric< InterestPoint > > pairs = pairs( new int[] { 2, 1 }, new int[] { 20, 10 } );
+
+		// the same pair registered twice (e.g. in two rounds)
+		buffer.add( pairs, viewA, viewB, "beads", "nuclei" );
+		buffer.add( pairs, viewA, viewB, "beads", "nuclei" );
+
+		assertEquals( 8, buffer.size() );
+
+		final HashMap< ViewId, InterestPointList > lists = lists();
+
+		assertEquals( 4, buffer.flush( lists ) );
+		assertEquals( 0, buffer.size() );
+
+		final List< CorrespondingInterestPoints > corrA = lists.get( viewA ).getCorrespondingInterestPointsCopy();
+		final List< CorrespondingInterestPoints > corrB = lists.get( viewB ).getCorrespondingInterestPointsCopy();
+
+		assertEquals( 2, corrA.size() );
+		assertEquals( 2, corrB.size() );
+
+		// sorted by detection id
+		assertCorrespondence( corrA.get( 0 ), 1, viewB, "nuclei", 10 );
+		assertCorrespondence( corrA.get( 1 ), 2, viewB, "nuclei", 20 );
+		assertCorrespondence( corrB.get( 0 ), 10, viewA, "beads", 1 );
+		assertCorrespondence( corrB.get( 1 ), 20, viewA, "beads", 2 );
+	}
+
+	@Test
+	public void testClearReplacesExistingCorrespondences()
+	{
+		final HashMap< ViewId, InterestPointList > lists = lists();
+		final ArrayList< CorrespondingInterestPoints > existing = new ArrayList<>();
+		existing.add( new CorrespondingInterestPoints( 5, viewB, "beads", 50 ) );
+
+		lists.get( viewA ).setCorrespondingInterestPoints( existing );
+		lists.get( viewB ).setCorrespondingInterestPoints( new ArrayList<>( existing ) );
+
+		final CorrespondenceBuffer< ViewId > buffer = new CorrespondenceBuffer<>();
+		buffer.add( viewB, 7, viewB, "beads", 70 );
+
+		// correspondences buffered before clearing are dropped
+		buffer.clear( Arrays.asList( viewA, viewB ) );
+		buffer.add( viewB, 3, viewA, "beads", 30 );
+
+		assertEquals( 1, buffer.flush( lists ) );
+
+		// cleared views are replaced even without new correspondences
+		assertEquals( 0, lists.get( viewA ).getCorrespondingInterestPointsCopy().size() );
+		assertEquals( 1, lists.get( viewB ).getCorrespondingInterestPointsCopy().size() );
+		assertCorrespondence( lists.get( viewB ).getCorrespondingInterestPointsCopy().get( 0 ), 3, viewA, "beads", 30 );
+	}
+
+	protected HashMap< ViewId, InterestPointList > lists()
+	{
+		final HashMap< ViewId, InterestPointList > lists = new HashMap<>();
+
+		for ( final ViewId viewId : Arrays.asList( viewA, viewB ) )
+		{
+			final InterestPointList list = new InterestPointList( new File( "." ), new File( "interestpoints", "tpId_0_viewSetupId_" + viewId.getViewSetupId() ) );
+			list.setCorrespondingInterestPoints( new ArrayList<>() );
+			lists.put( viewId, list );
+		}
+
+		return lists;
+	}
+
+	protected static List< PointMatchGeneric< InterestPoint > > pairs( final int[] idsA, final int[] idsB )
+	{
+		final ArrayList< PointMatchGeneric< InterestPoint > > pairs = new ArrayList<>();
+
+		for ( int i = 0; i < idsA.length; ++i )
+			pairs.add( new PointMatchGeneric<>( new InterestPoint( idsA[ i ], new double[ 3 ] ), new InterestPoint( idsB[ i ], new double[ 3 ] ) ) );
+
+		return pairs;
+	}
+
+	protected static void assertCorrespondence( final CorrespondingInterestPoints c, final int detectionId, final ViewId view, final String label, final int correspondingId )
+	{
+		assertEquals( detectionId, c.getDetectionId() );
+		assertEquals( view, c.getCorrespondingViewId() );
+		assertEquals( label, c.getCorrespodingLabel() );
+		assertEquals( correspondingId, c.getCorrespondingDetectionId() );
+	}
+}
@@ -0,0 +1,125 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.pairwise;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.DescriptorCache.Descriptors;
+
+public class DescriptorCacheTest
+{
+	final long maxWeight = DescriptorCache.maxWeight;
+
+	@After
+	public void reset()
+	{
+		DescriptorCache.maxWeight = maxWeight;
+		DescriptorCache.clear();
+	}
+
+	@Test
+	public void testSamePointsAreComputedOnce()
+	{
+		final AtomicInteger computed = new AtomicInteger();
+
+		final Descriptors< InterestPoint, Integer > a = DescriptorCache.get( "test", points( 10, 0 ), list -> descriptors( list, computed ) );
+		final Descriptors< InterestPoint, Integer > b = DescriptorCache.get( "test", points( 10, 0 ), list -> descriptors( list, computed ) );
+
+		assertEquals( 1, computed.get() );
+		assertSame( a, b );
+		assertEquals( 20, DescriptorCache.cachedWeight() );
+
+		// other coordinates or another descriptor type
+		DescriptorCache.get( "test", points( 10, 1 ), list -> descriptors( list, computed ) );
+		DescriptorCache.get( "other", points( 10, 0 ), list -> descriptors( list, computed ) );
+
+		assertEquals( 3, computed.get() );
+	}
+
+	@Test
+	public void testSamePoints()
+	{
+		final List< InterestPoint > a = points( 5, 0 );
+
+		assertTrue( DescriptorCache.samePoints( a, points( 5, 0 ) ) );
+		assertFalse( DescriptorCache.samePoints( a, points( 5, 1 ) ) );
+		assertFalse( DescriptorCache.samePoints( a, points( 4, 0 ) ) );
+
+		// same local, different world coordinates
+		final List< InterestPoint > b = points( 5, 0 );
+		b.get( 2 ).getW()[ 0 ] += 1;
+
+		assertFalse( DescriptorCache.samePoints( a, b ) );
+	}
+
+	@Test
+	public void testBoundedByWeight()
+	{
+		DescriptorCache.maxWeight = 50;
+
+		final AtomicInteger computed = new AtomicInteger();
+
+		for ( int i = 0; i < 5; ++i )
+			DescriptorCache.get( "test", points( 10, i ), list -> descriptors( list, computed ) );
+
+		assertEquals( 5, computed.get() );
+		assertTrue( DescriptorCache.cachedWeight() <= 50 );
+
+		// the most recent one is still cached
+		DescriptorCache.get( "test", points( 10, 4 ), list -> descriptors( list, computed ) );
+		assertEquals( 5, computed.get() );
+	}
+
+	protected static ArrayList< Integer > descriptors( final List< InterestPoint > points, final AtomicInteger computed )
+	{
+		computed.incrementAndGet();
+
+		final ArrayList< Integer > descriptors = new ArrayList<>();
+
+		for ( final InterestPoint p : points )
+			descriptors.add( p.getId() );
+
+		return descriptors;
+	}
+
+	protected static List< InterestPoint > points( final int n, final double offset )
+	{
+		final ArrayList< InterestPoint > points = new ArrayList<>();
+
+		for ( int i = 0; i < n; ++i )
+			points.add( new InterestPoint( i, new double[] { i + offset, 2 * i, 3 * i } ) );
+
+		return points;
+	}
+}
@@ -0,0 +1,130 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.pairwise;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.imglib2.realtransform.AffineTransform3D;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+
+public class DescriptorStoreTest
+{
+	final String type = "RGLDM_numNeighbors_3_redundancy_1";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testStoredNeighborhoodsAreIdentical() throws Exception
+	{
+		final AffineTransform3D t = new AffineTransform3D();
+		t.scale( 1, 1, 3.5 );
+		t.rotate( 0, 0.3 );
+		t.rotate( 2, 1.1 );
+		t.translate( 10, -20, 5 );
+
+		final List< InterestPoint > points = points( 500, t, 42 );
+		final int[][] expected = DescriptorStore.computeNearestNeighbors( points, 4 );
+
+		final File prefix = new File( folder.getRoot(), "tpId_0_viewSetupId_0.beads" );
+		final File file = new File( prefix.getAbsolutePath() + "." + type + DescriptorStore.ext );
+
+		DescriptorStore.register( points, prefix, t );
+
+		// first run computes and stores the candidates, the second one loads them
+		assertNeighbors( expected, DescriptorStore.nearestNeighbors( type, points, 4 ) );
+		assertTrue( file.exists() );
+		assertNeighbors( expected, DescriptorStore.nearestNeighbors( type, points, 4 ) );
+
+		// a different registration of the same detections reuses the stored candidates
+		final AffineTransform3D t2 = t.copy();
+		t2.rotate( 1, 0.7 );
+		t2.scale( 0.5 );
+
+		final List< InterestPoint > points2 = points( 500, t2, 42 );
+		final long modified = file.lastModified();
+
+		DescriptorStore.register( points2, prefix, t2 );
+
+		assertNeighbors( DescriptorStore.computeNearestNeighbors( points2, 4 ), DescriptorStore.nearestNeighbors( type, points2, 4 ) );
+		assertEquals( modified, file.lastModified() );
+	}
+
+	@Test
+	public void testUnregisteredPointsAreNotStored() throws Exception
+	{
+		final AffineTransform3D t = new AffineTransform3D();
+		t.scale( 2 );
+
+		final List< InterestPoint > points = points( 100, t, 7 );
+		final File prefix = new File( folder.getRoot(), "tpId_0_viewSetupId_1.beads" );
+
+		final HashMap< Integer, List< InterestPoint > > map = new HashMap<>();
+		map.put( 0, points );
+
+		DescriptorStore.register( points, prefix, t );
+		DescriptorStore.unregister( map );
+
+		assertNeighbors( DescriptorStore.computeNearestNeighbors( points, 3 ), DescriptorStore.nearestNeighbors( type, points, 3 ) );
+		assertFalse( new File( prefix.getAbsolutePath() + "." + type + DescriptorStore.ext ).exists() );
+	}
+
+	protected static void assertNeighbors( final int[][] expected, final int[][] actual )
+	{
+		assertEquals( expected.length, actual.length );
+
+		for ( int i = 0; i < expected.length; ++i )
+			assertArrayEquals( expected[ i ], actual[ i ] );
+	}
+
+	/*
+	 * random points with the same ids and local coordinates for the same seed, transformed into world coordinates
+	 */
+	protected static List< InterestPoint > points( final int n, final AffineTransform3D t, final long seed )
+	{
+		final Random rnd = new Random( seed );
+		final ArrayList< InterestPoint > points = new ArrayList<>();
+
+		for ( int i = 0; i < n; ++i )
+		{
+			final InterestPoint p = new InterestPoint( i, new double[] { rnd.nextDouble() * 100, rnd.nextDouble() * 100, rnd.nextDouble() * 30 } );
+			t.apply( p.getL(), p.getW() );
+			points.add( p );
+		}
+
+		return points;
+	}
+}
@@ -0,0 +1,132 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2021 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import mpicbg.spim.data.registration.ViewRegistration;
+import mpicbg.spim.data.registration.ViewRegistrations;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.StreamingXmlIoSpimData2Test;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.PairwiseSetup;
+
+public class SweepAndPruneOverlapTest
+{
+	final int numTimepoints = 4;
+	final int numSetups = 30;
+
+	@Test
+	public void testSameAsSimpleBoundingBoxOverlap()
+	{
+		final SpimData2 spimData = randomlyPlacedViews( 17 );
+
+		// dense all-to-all within each timepoint
+		assertSameResult( spimData, pairs( true, false ) );
+
+		// sparse, every view to all views of the reference timepoint
+		assertSameResult( spimData, pairs( false, true ) );
+
+		// both
+		assertSameResult( spimData, pairs( true, true ) );
+	}
+
+	@Test
+	public void testPairsThatWereNotPrepared()
+	{
+		final SpimData2 spimData = randomlyPlacedViews( 23 );
+		final SimpleBoundingBoxOverlap< ViewId > simple = new SimpleBoundingBoxOverlap<>( spimData );
+		final SweepAndPruneOverlap< ViewId > sweep = new SweepAndPruneOverlap<>( spimData );
+
+		// only the pairs within each timepoint are prepared
+		sweep.prepare( pairs( true, false ) );
+
+		for ( final Pair< ViewId, ViewId > pair : pairs( false, true ) )
+			assertEquals( simple.overlaps( pair.getA(), pair.getB() ), sweep.overlaps( pair.getA(), pair.getB() ) );
+	}
+
+	protected void assertSameResult( final SpimData2 spimData, final List< Pair< ViewId, ViewId > > pairs )
+	{
+		final ArrayList< Pair< ViewId, ViewId > > pairsSimple = new ArrayList<>( pairs );
+		final ArrayList< Pair< ViewId, ViewId > > pairsSweep = new ArrayList<>( pairs );
+
+		final ArrayList< Pair< ViewId, ViewId > > removedSimple = PairwiseSetup.removeNonOverlappingPairs( pairsSimple, new SimpleBoundingBoxOverlap<>( spimData ) );
+		final ArrayList< Pair< ViewId, ViewId > > removedSweep = PairwiseSetup.removeNonOverlappingPairs( pairsSweep, new SweepAndPruneOverlap<>( spimData ) );
+
+		// some pairs overlap, some do not
+		assertEquals( true, removedSimple.size() > 0 );
+		assertEquals( true, pairsSimple.size() > 0 );
+
+		assertEquals( pairsSimple, pairsSweep );
+		assertEquals( removedSimple, removedSweep );
+	}
+
+	protected List< Pair< ViewId, ViewId > > pairs( final boolean withinTimepoints, final boolean toReferenceTimepoint )
+	{
+		final ArrayList< Pair< ViewId, ViewId > > pairs = new ArrayList<>();
+
+		for ( int t = 0; t < numTimepoints; ++t )
+			for ( int a = 0; a < numSetups; ++a )
+			{
+				if ( withinTimepoints )
+					for ( int b = a + 1; b < numSetups; ++b )
+						pairs.add( new ValuePair<>( new ViewId( t, a ), new ViewId( t, b ) ) );
+
+				if ( toReferenceTimepoint && t > 0 )
+					for ( int b = 0; b < numSetups; ++b )
+						pairs.add( new ValuePair<>( new ViewId( 0, b ), new ViewId( t, a ) ) );
+			}
+
+		return pairs;
+	}
+
+	/*
+	 * views of size 512x256x100 (z scaled by 4), randomly placed in a region of 4000x2000x800 px that is the same for all timepoints
+	 */
+	protected SpimData2 randomlyPlacedViews( final long seed )
+	{
+		final SpimData2 spimData = StreamingXmlIoSpimData2Test.createSpimData( new File( "." ), numTimepoints, numSetups );
+		final ViewRegistrations vrs = spimData.getViewRegistrations();
+		final Random rnd = new Random( seed );
+
+		for ( final ViewId viewId : new ArrayList<>( vrs.getViewRegistrations().keySet() ) )
+		{
+			final AffineTransform3D t = new AffineTransform3D();
+			t.set( 1.0, 0, 0, rnd.nextDouble() * 4000, 0, 1.0, 0, rnd.nextDouble() * 2000, 0, 0, 4.0, rnd.nextDouble() * 800 );
+
+			vrs.getViewRegistrations().put( viewId, new ViewRegistration( viewId.getTimePointId(), viewId.getViewSetupId(), t ) );
+		}
+
+		return spimData;
+	}
+}